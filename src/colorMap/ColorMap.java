@@ -20,6 +20,7 @@ package colorMap;
 import java.awt.Color;
 import java.awt.Graphics;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 
@@ -33,6 +34,11 @@ import java.util.List;
  * Input values are integers which are mapped to colors by looking up the color
  * in the array at the index of the input value.
  * 
+ * The colors are precomputed into a lookup table, both as Color objects and as
+ * packed ARGB values (see getARGBArray()). The tables are replaced rather than
+ * modified when the color map changes, so a color map may be read from many
+ * threads while it is being edited.
+ * 
  * @author Curran Kelleher
  * 
  */
@@ -45,19 +51,15 @@ public class ColorMap {
 	public List<ColorNode> colorNodes;
 
 	/**
-	 * Temporary variable used when creating colors
-	 */
-	private float[] rgba_current = new float[4];
-
-	/**
-	 * Temporary variable used when creating colors
+	 * The largest number of entries the lookup table of a continuous color map
+	 * may have
 	 */
-	private float[] rgba_next = new float[4];
+	public static final int MAX_RESOLUTION = 4096;
 
 	/**
-	 * Temporary variable used when creating colors
+	 * The number of entries in the lookup table of a continuous color map
 	 */
-	private float[] rgba_result = new float[4];
+	private int resolution = 512;
 
 	/**
 	 * True when this color map is in discrete mode
@@ -68,7 +70,12 @@ public class ColorMap {
 	 * The cached array of colors which will be queried by the getColor()
 	 * method.
 	 */
-	Color[] colors;
+	volatile Color[] colors;
+
+	/**
+	 * The colors of the colors array as packed ARGB values
+	 */
+	private volatile int[] argb;
 
 	/**
 	 * Construct a discrete ColorMap with the specified Colors. When this
@@ -114,22 +121,22 @@ public class ColorMap {
 	 * @param colors
 	 *            the new array of colors for this discrete color map
 	 */
-	public void setDiscreteColors(Color[] colors) {
-		this.colors = colors;
+	public synchronized void setDiscreteColors(Color[] colors) {
 		colorNodes = new ArrayList<ColorNode>(colors.length);
 		for (int i = 0; i < colors.length; i++)
 			colorNodes.add(new ColorNode(colors[i], 0));
 		alignDiscreteNodes();
+		calculateColors();
 	}
 
 	/**
 	 * Resets the values of the color nodes to reflect their discrete positions
 	 * 
 	 */
-	public void alignDiscreteNodes() {
+	public synchronized void alignDiscreteNodes() {
 		Collections.sort(colorNodes);
 		for (int i = 0; i < colorNodes.size(); i++)
-			colorNodes.get(i).value = (double) i / colors.length;
+			colorNodes.get(i).value = (double) i / colorNodes.size();
 	}
 
 	/**
@@ -137,8 +144,7 @@ public class ColorMap {
 	 * 
 	 * @param colorNodes
 	 */
-	private void setContinuousColors(List<ColorNode> colorNodes) {
-		colors = new Color[512];
+	private synchronized void setContinuousColors(List<ColorNode> colorNodes) {
 		// create a copy so the internal list doesn't reflect changes to the
 		// original list that was passed in
 		this.colorNodes = new ArrayList<ColorNode>(colorNodes.size());
@@ -150,59 +156,139 @@ public class ColorMap {
 	 * Populates the color array based on the current color nodes
 	 * 
 	 */
-	public void calculateColors() {
+	public synchronized void calculateColors() {
 		Collections.sort(colorNodes);
-		if (isDiscrete())
-			for (int i = 0; i < colorNodes.size(); i++)
-				colors[i] = colorNodes.get(i).color;
-		else
-			for (int i = 0; i < colors.length; i++)
-				colors[i] = createColorForValue((double) i / colors.length);
+		if (isDiscrete()) {
+			Color[] newColors = new Color[colorNodes.size()];
+			int[] newARGB = new int[newColors.length];
+			for (int i = 0; i < newColors.length; i++) {
+				newColors[i] = colorNodes.get(i).color;
+				newARGB[i] = newColors[i].getRGB();
+			}
+			colors = newColors;
+			argb = newARGB;
+		} else {
+			Color[] newColors = new Color[resolution];
+			int[] newARGB = new int[resolution];
+			calculateColors(newColors, newARGB, 0, resolution);
+			colors = newColors;
+			argb = newARGB;
+		}
 	}
 
 	/**
-	 * Creates a new Color object based on the current color nodes
+	 * Sets the value of the specified color node of this continuous color map,
+	 * and recalculates only the part of the color array which is affected by
+	 * the move. This is used while a node is being dragged in the editor.
 	 * 
+	 * @param node
+	 *            one of the color nodes of this color map
 	 * @param value
-	 *            the value between 0 and 1 for which to generate the
-	 *            corresponding Color.
-	 * @return a new Color object corresponding to the specified value on this
-	 *         color map.
+	 *            the new value of the node, between 0 and 1
 	 */
-	private Color createColorForValue(double value) {
-		if (colorNodes.size() == 1)
-			return colorNodes.get(0).color;
-
-		for (int i = 0; i < colorNodes.size() - 1; i++) {
-			ColorNode current = colorNodes.get(i);
-			double min = current.value;
-			rgba_current = current.color.getComponents(rgba_current);
-
-			ColorNode next = colorNodes.get(i + 1);
-			double max = next.value;
-			rgba_next = next.color.getComponents(rgba_next);
-
-			// if the value is in the current range between color node
-			// values...
-			if (value >= min && value <= max) {
-				// assign the color properly
-				for (int c = 0; c < rgba_current.length; c++) {
-					double percentBtwMinAndMax = (value - min) / (max - min);
-					rgba_result[c] = (float) ((1.0 - percentBtwMinAndMax)
-							* rgba_current[c] + percentBtwMinAndMax
-							* rgba_next[c]);
-				}
-			}// if it is lower than the lowest node value
-			else if (i == 0 && value < min)
-				return current.color;
-			else
-			// if it is greater than the greatest node
-			if (i == colorNodes.size() - 2 && value > max)
-				return next.color;
+	public synchronized void setNodeValue(ColorNode node, double value) {
+		int index = colorNodes.indexOf(node);
+		if (isDiscrete() || index == -1) {
+			node.value = value;
+			calculateColors();
+			return;
+		}
 
+		// the colors between the neighbors of the node before and after the
+		// move are the only ones which change
+		double min = index == 0 ? 0 : colorNodes.get(index - 1).value;
+		double max = index == colorNodes.size() - 1 ? 1 : colorNodes
+				.get(index + 1).value;
+		node.value = value;
+		Collections.sort(colorNodes);
+		index = colorNodes.indexOf(node);
+		min = Math.min(min, index == 0 ? 0 : colorNodes.get(index - 1).value);
+		max = Math.max(max, index == colorNodes.size() - 1 ? 1 : colorNodes
+				.get(index + 1).value);
+
+		Color[] newColors = colors.clone();
+		int[] newARGB = argb.clone();
+		int from = Math.max(0, (int) (min * resolution));
+		int to = Math.min(resolution, (int) Math.ceil(max * resolution) + 1);
+		calculateColors(newColors, newARGB, from, to);
+		colors = newColors;
+		argb = newARGB;
+	}
+
+	/**
+	 * Computes the entries of a continuous color table from the sorted color
+	 * nodes, in a single sweep over the nodes. Entry i is the color for the
+	 * value i / resolution, linearly interpolated between the two nodes whose
+	 * values are closest to it.
+	 * 
+	 * @param colors
+	 *            the table of Color objects to fill in
+	 * @param argb
+	 *            the table of packed colors to fill in
+	 * @param from
+	 *            the first entry to compute
+	 * @param to
+	 *            one past the last entry to compute
+	 */
+	private void calculateColors(Color[] colors, int[] argb, int from, int to) {
+		int numNodes = colorNodes.size();
+		ColorNode[] nodes = colorNodes.toArray(new ColorNode[numNodes]);
+		float[][] components = new float[numNodes][];
+		for (int k = 0; k < numNodes; k++)
+			components[k] = nodes[k].color.getRGBComponents(null);
+
+		// k is the index of the first node whose value is not less than the
+		// value of entry i
+		int k = 0;
+		float[] result = new float[4];
+		for (int i = from; i < to; i++) {
+			double value = (double) i / resolution;
+			while (k < numNodes && nodes[k].value < value)
+				k++;
+
+			Color color;
+			if (k == 0)
+				color = nodes[0].color;
+			else if (k == numNodes)
+				color = nodes[numNodes - 1].color;
+			else {
+				double min = nodes[k - 1].value, max = nodes[k].value;
+				double percentBtwMinAndMax = (value - min) / (max - min);
+				for (int c = 0; c < 4; c++)
+					result[c] = (float) ((1.0 - percentBtwMinAndMax)
+							* components[k - 1][c] + percentBtwMinAndMax
+							* components[k][c]);
+				color = new Color(result[0], result[1], result[2], result[3]);
+			}
+			colors[i] = color;
+			argb[i] = color.getRGB();
 		}
-		return new Color(rgba_result[0], rgba_result[1], rgba_result[2],
-				rgba_result[3]);
+	}
+
+	/**
+	 * Sets the number of entries in the lookup table of this color map, which
+	 * determines how smooth the gradients of a continuous color map are.
+	 * 
+	 * @param resolution
+	 *            the number of entries, between 1 and MAX_RESOLUTION
+	 */
+	public synchronized void setResolution(int resolution) {
+		if (resolution < 1 || resolution > MAX_RESOLUTION)
+			throw new IllegalArgumentException("resolution must be between 1 and "
+					+ MAX_RESOLUTION + ", it is " + resolution);
+		if (this.resolution != resolution) {
+			this.resolution = resolution;
+			if (!isDiscrete())
+				calculateColors();
+		}
+	}
+
+	/**
+	 * Gets the number of entries in the lookup table of this color map when
+	 * it is continuous.
+	 */
+	public int getResolution() {
+		return resolution;
 	}
 
 	/**
@@ -220,6 +306,7 @@ public class ColorMap {
 	 *         is returned. see getColorArray())
 	 */
 	public Color getColor(int discreteValue) {
+		Color[] colors = this.colors;
 		int n = colors.length - 1;
 		return colors[discreteValue < 0 ? 0 : discreteValue > n ? n
 				: discreteValue];
@@ -237,6 +324,7 @@ public class ColorMap {
 	 *         is returned. see getColorArray())
 	 */
 	public Color getColor(double value) {
+		Color[] colors = this.colors;
 		int i = (int) (value * colors.length);
 		int n = colors.length - 1;
 		return colors[i < 0 ? 0 : i > n ? n : i];
@@ -251,6 +339,64 @@ public class ColorMap {
 		return colors;
 	}
 
+	/**
+	 * Gets the packed ARGB color (see Color.getRGB()) corresponding to the
+	 * specified value in this color map, in the same way as getColor(double).
+	 */
+	public int getARGB(double value) {
+		int[] argb = this.argb;
+		int i = (int) (value * argb.length);
+		int n = argb.length - 1;
+		return argb[i < 0 ? 0 : i > n ? n : i];
+	}
+
+	/**
+	 * Returns the precomputed array of packed ARGB colors which represent this
+	 * color map. A new array is computed whenever the color map changes, so
+	 * this array may be compared by identity to detect changes, and must not
+	 * be modified.
+	 */
+	public int[] getARGBArray() {
+		return argb;
+	}
+
+	/**
+	 * Maps each of the specified values to it's packed ARGB color, in the same
+	 * way as getColor(double).
+	 * 
+	 * @param in
+	 *            the values between 0 and 1
+	 * @param out
+	 *            the array the colors are stored in, at the same indices as
+	 *            the values
+	 */
+	public void map(double[] in, int[] out) {
+		map(in, out, 0, in.length);
+	}
+
+	/**
+	 * Maps the specified range of values to their packed ARGB colors, in the
+	 * same way as getColor(double).
+	 * 
+	 * @param in
+	 *            the values between 0 and 1
+	 * @param out
+	 *            the array the colors are stored in, at the same indices as
+	 *            the values
+	 * @param from
+	 *            the index of the first value to map
+	 * @param to
+	 *            one past the index of the last value to map
+	 */
+	public void map(double[] in, int[] out, int from, int to) {
+		int[] argb = this.argb;
+		int n = argb.length - 1;
+		for (int j = from; j < to; j++) {
+			int i = (int) (in[j] * argb.length);
+			out[j] = argb[i < 0 ? 0 : i > n ? n : i];
+		}
+	}
+
 	/**
 	 * Draws this color map horizontally (leftmost = 0, rightmost = 1) in a
 	 * rectangle with the specified x, y, width, and height.
@@ -337,10 +337,9 @@ public class ColorMapEditorPanel extends JPanel implements MouseListener,
 		// if the user is dragging a node editor
 		if (grabbedNodeEditor != null) {
 			double v = (double) e.getX() / getWidth();
-			// move the node editor
-			grabbedNodeEditor.node.value = v < 0 ? 0 : v > 1 ? 1 : v;
-			// recalculate the color map
-			associatedColorMap.calculateColors();
+			// move the node editor and recalculate the affected colors
+			associatedColorMap.setNodeValue(grabbedNodeEditor.node, v < 0 ? 0
+					: v > 1 ? 1 : v);
 
 			if (associatedColorMap.isDiscrete()) {
 				double grabbedNodeValue = grabbedNodeEditor.node.value;
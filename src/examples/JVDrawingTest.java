@@ -41,7 +41,7 @@ public class JVDrawingTest {
 
 			Normalization normalization = new Normalization(data);
 
-			int n = data.records.size();
+			int n = data.getNumberOfRecords();
 
 			for (int i = 0; i < n; i++) {
 				Circle circle = new Circle();
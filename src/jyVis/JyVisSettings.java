@@ -20,6 +20,7 @@ package jyVis;
 import java.awt.Color;
 import java.awt.event.KeyEvent;
 
+import jyVis.data.DataSelection;
 import colorMap.ColorMap;
 
 /**
@@ -84,6 +85,39 @@ public class JyVisSettings {
 	 */
 	public static final int multipleSelectionModifierKey = KeyEvent.SHIFT_DOWN_MASK;
 
+	/**
+	 * The key which will add the records of a new selection to the current
+	 * selection.
+	 */
+	public static final int unionSelectionModifierKey = KeyEvent.CTRL_DOWN_MASK;
+
+	/**
+	 * The keys which will remove the records of a new selection from the
+	 * current selection.
+	 */
+	public static final int subtractSelectionModifierKey = KeyEvent.CTRL_DOWN_MASK
+			| KeyEvent.SHIFT_DOWN_MASK;
+
+	/**
+	 * How a new selection is combined with the current selection when none of
+	 * the selection modifier keys are held down. This is one of the operations
+	 * of DataSelection (REPLACE, UNION, INTERSECTION, DIFFERENCE or
+	 * SYMMETRIC_DIFFERENCE).
+	 */
+	public static int selectionMode = DataSelection.REPLACE;
+
+	/**
+	 * The key which, with the control key, will undo the last change to the
+	 * selections.
+	 */
+	public static final int undoSelectionKey = KeyEvent.VK_Z;
+
+	/**
+	 * The key which, with the control key, will redo the last undone change to
+	 * the selections.
+	 */
+	public static final int redoSelectionKey = KeyEvent.VK_Y;
+
 	/**
 	 * The key which will enable brushing of selections. (meaning that when you
 	 * hold down this key, the mouse will move the whole selection polygon
@@ -96,6 +130,41 @@ public class JyVisSettings {
 	 */
 	public static final char drawQuadTreeModifierKey = 'q';
 
+	/**
+	 * The number of records above which a GlyphCollection shows the density of
+	 * the records instead of creating a glyph for every record, and the number
+	 * of lines above which ParallelCoordinates shows the density of the lines
+	 * instead of creating a Line for every line. It is also the number of
+	 * cells above which a HeatMap draws it's cells as an image instead of
+	 * creating a Rectangle for every cell.
+	 */
+	public static int densityRenderingThreshold = 1000000;
+
+	/**
+	 * When true, drawing panels whose objects take longer than frameBudget to
+	 * draw are updated progressively, in the background.
+	 */
+	public static boolean progressiveRendering = true;
+
+	/**
+	 * The time, in milliseconds, between the partial frames published while a
+	 * panel is drawn progressively
+	 */
+	public static int frameBudget = 50;
+
+	/**
+	 * When true, drawing panels leave out records while the user is
+	 * interacting with them (dragging or brushing) if drawing all of them
+	 * takes longer than interactiveFrameTime.
+	 */
+	public static boolean levelOfDetailRendering = true;
+
+	/**
+	 * The time, in milliseconds, a frame should take to draw while the user is
+	 * interacting with a drawing panel
+	 */
+	public static int interactiveFrameTime = 30;
+
 	public String getDefaultDataDirectory() {
 		return defaultDataDirectory;
 	}
@@ -158,6 +227,30 @@ public class JyVisSettings {
 		return multipleSelectionModifierKey;
 	}
 
+	public int getUnionSelectionModifierKey() {
+		return unionSelectionModifierKey;
+	}
+
+	public int getSubtractSelectionModifierKey() {
+		return subtractSelectionModifierKey;
+	}
+
+	public int getSelectionMode() {
+		return selectionMode;
+	}
+
+	public void setSelectionMode(int selectionMode) {
+		JyVisSettings.selectionMode = selectionMode;
+	}
+
+	public int getUndoSelectionKey() {
+		return undoSelectionKey;
+	}
+
+	public int getRedoSelectionKey() {
+		return redoSelectionKey;
+	}
+
 	public int getBrushingSelectionModifierKey() {
 		return brushingSelectionModifierKey;
 	}
@@ -166,4 +259,44 @@ public class JyVisSettings {
 		return drawQuadTreeModifierKey;
 	}
 
+	public int getDensityRenderingThreshold() {
+		return densityRenderingThreshold;
+	}
+
+	public void setDensityRenderingThreshold(int densityRenderingThreshold) {
+		JyVisSettings.densityRenderingThreshold = densityRenderingThreshold;
+	}
+
+	public boolean getProgressiveRendering() {
+		return progressiveRendering;
+	}
+
+	public void setProgressiveRendering(boolean progressiveRendering) {
+		JyVisSettings.progressiveRendering = progressiveRendering;
+	}
+
+	public int getFrameBudget() {
+		return frameBudget;
+	}
+
+	public void setFrameBudget(int frameBudget) {
+		JyVisSettings.frameBudget = frameBudget;
+	}
+
+	public boolean getLevelOfDetailRendering() {
+		return levelOfDetailRendering;
+	}
+
+	public void setLevelOfDetailRendering(boolean levelOfDetailRendering) {
+		JyVisSettings.levelOfDetailRendering = levelOfDetailRendering;
+	}
+
+	public int getInteractiveFrameTime() {
+		return interactiveFrameTime;
+	}
+
+	public void setInteractiveFrameTime(int interactiveFrameTime) {
+		JyVisSettings.interactiveFrameTime = interactiveFrameTime;
+	}
+
 }
@@ -17,13 +17,11 @@
  *******************************************************************************/
 package jyVis.data;
 
-import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
-import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 
 import javax.swing.ProgressMonitor;
@@ -39,7 +37,22 @@ import javax.swing.UIManager;
 public class CSVFileUtils {
 
 	/**
-	 * Reads the specified CSV file into a DataTable object.
+	 * When true, readFile() loads the snapshot of a CSV file if there is an up
+	 * to date one, and writes a snapshot next to the CSV file after parsing
+	 * it. This is false by default, since it writes files into the directories
+	 * data is read from.
+	 * 
+	 * @see DataTableSnapshot
+	 */
+	public static boolean useSnapshots = false;
+
+	/**
+	 * Reads the specified CSV file into a DataTable object. If snapshots are
+	 * used and there is an up to date snapshot of the file, the table is
+	 * loaded from it. Otherwise the file is memory mapped and parsed in chunks
+	 * concurrently, directly into the columns of the table (see CSVParser),
+	 * and if snapshots are used a snapshot is written for next time. Quoted
+	 * fields may contain commas, line breaks and escaped quotes.
 	 * 
 	 * @param inputFile
 	 *            the CSV file to read
@@ -47,64 +60,50 @@ public class CSVFileUtils {
 	 *         null if there was an error.
 	 */
 	public static DataTable readFile(File inputFile) {
+		String name = inputFile.getName();
+		if (name.contains("."))
+			name = name.substring(0, name.lastIndexOf('.'));
 
-		List<List<String>> stringsTable = new ArrayList<List<String>>();
+		if (useSnapshots) {
+			DataTable table = DataTableSnapshot.read(inputFile, name);
+			if (table != null)
+				return table;
+		}
 
 		// Set the title of the dialog if desired
 		String title = "Loading File...";
 		UIManager.put("ProgressMonitor.progressText", title);
 		int min = 0;
 		int max = 100;
-		String name = inputFile.getName();
-		ProgressMonitor pm = new ProgressMonitor(null, "Loading " + name, "",
-				min, max);
+		ProgressMonitor pm = new ProgressMonitor(null, "Loading "
+				+ inputFile.getName(), "", min, max);
 
 		pm.setMillisToDecideToPopup(0);
 		pm.setMillisToPopup(0);
-		pm.setProgress(50);
 
+		// remember the state of the file the table is read from
+		long length = inputFile.length();
+		long lastModified = inputFile.lastModified();
+		DataTable table;
 		try {
-			BufferedReader in = new BufferedReader(new FileReader(inputFile));
-			String str;
-			
-			int line = 0;
-			while ((str = in.readLine()) != null)
-				if (!str.equals("")) {
-					// pm.setProgress(Math.min(line/200, max-1));
-					pm.setNote("reading line " + line++);
-
-					if (pm.isCanceled())
-						return null;
-					String[] dimensions = str.split(",");
-					List<String> record = new ArrayList<String>();
-//					for (int i = 0; i < dimensions.length; i++)
-//						record.add(dimensions[i]);
-//					
-					for(String entry:dimensions){
-						entry = entry.trim();
-						if(entry.startsWith("\"") && entry.endsWith("\""))
-							entry = entry.substring(1, entry.length()-1);
-			
-						record.add(entry);
-					}
-					
-					
-					
-					stringsTable.add(record);
-				}
-			in.close();
-
+			table = CSVParser.parse(inputFile, name, pm);
 		} catch (IOException e) {
 			e.printStackTrace();
-			pm.setProgress(max);
 			return null;
+		} finally {
+			pm.setProgress(max);
 		}
-		pm.setProgress(max);
-		// this constructor fully creates the dataTable from the table of
-		// strings
-		if (name.contains("."))
-			name = name.substring(0, name.lastIndexOf('.'));
-		return new DataTable(stringsTable, name);
+
+		if (useSnapshots && table != null)
+			try {
+				DataTableSnapshot.write(table, inputFile, length, lastModified);
+			} catch (IOException e) {
+				// the CSV file is parsed again next time
+				System.err.println("Could not write the snapshot of "
+						+ inputFile);
+				e.printStackTrace();
+			}
+		return table;
 	}
 
 	/**
@@ -130,7 +129,8 @@ public class CSVFileUtils {
 	 * @param dimensionNames
 	 *            the list from which dimension names are extracted
 	 */
-	public static void writeFile(File outputFile, List<DataRecord> records,
+	public static void writeFile(File outputFile,
+			Collection<DataRecord> records,
 			List<DataDimensionMetadata> dimensionNames) {
 		try {
 			BufferedWriter out = new BufferedWriter(new FileWriter(outputFile));
@@ -142,7 +142,7 @@ public class CSVFileUtils {
 			out.write('\n');
 			for (DataRecord record : records)
 				for (int i = 0; i < numDims; i++)
-					out.write(record.get(i).toString()
+					out.write(record.getValueAsString(i)
 							+ (i < (numDims - 1) ? "," : "\n"));
 
 			out.close();
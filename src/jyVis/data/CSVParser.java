@@ -0,0 +1,536 @@
+/******************************************************************************
+ * Copyright (C) 2007  Institute for Visualization and Perception Research,
+ *                     University of Massachusetts Lowell
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *******************************************************************************/
+package jyVis.data;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.swing.ProgressMonitor;
+
+/**
+ * A parser for CSV (Comma Separated Value) files which follows RFC 4180:
+ * fields may be enclosed in double quotes, in which case they may contain
+ * commas, line breaks, and escaped quotes (written as two double quotes).
+ * 
+ * The file is memory mapped and split into chunks which begin at the start of
+ * a record. The chunks are parsed concurrently on a fork-join pool, each into
+ * it's own DataTableBuilder, and the resulting column pieces (including their
+ * string dictionaries) are then merged into a single DataTable.
+ * 
+ * The first non-empty record of the file is the names of the dimensions.
+ * Unquoted fields are trimmed of surrounding whitespace, empty lines are
+ * skipped, and LF, CRLF and CR line endings are accepted. Bytes are decoded
+ * using the platform's default charset, as FileReader does.
+ * 
+ * The chunks are found by counting quotes, which only works if every quote is
+ * part of a quoted field. If a quote is found anywhere else (a stray quote in
+ * an unquoted field, or an unterminated quoted field), the file is parsed
+ * again serially as a single chunk. A chunk is mapped in windows, each
+ * beginning at the first record which did not fit in the previous one, so
+ * the parsing always resumes outside of a quoted field and chunks larger
+ * than a single mapping can be parsed.
+ * 
+ * @author Curran Kelleher
+ * @see CSVFileUtils
+ */
+public class CSVParser {
+	/**
+	 * The smallest chunk of the file that is worth parsing as a separate task
+	 */
+	private static final int MIN_CHUNK_SIZE = 1 << 20;
+
+	/**
+	 * The largest chunk of the file which is mapped at once, unless a single
+	 * record is larger
+	 */
+	private static final int MAX_CHUNK_SIZE = 1 << 26;
+
+	/**
+	 * The charset used to decode fields containing non-ASCII bytes
+	 */
+	private static final Charset DEFAULT_CHARSET = Charset.defaultCharset();
+
+	/**
+	 * The charset used to decode fields containing only ASCII bytes, which is
+	 * the fastest to decode
+	 */
+	private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+
+	/**
+	 * Parses the specified CSV file into a DataTable.
+	 * 
+	 * @param file
+	 *            the file to parse
+	 * @param name
+	 *            the name of the dataset, used for displaying
+	 * @param pm
+	 *            the progress monitor to report progress to (by chunk, on a
+	 *            scale from 0 to it's maximum), and which can cancel the
+	 *            parsing. This may be null.
+	 * @return the table, or null if the file is empty or parsing was canceled
+	 * @throws IOException
+	 *             if the file could not be read
+	 */
+	public static DataTable parse(File file, String name, ProgressMonitor pm)
+			throws IOException {
+		RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+		try {
+			return parse(randomAccessFile.getChannel(), name, pm);
+		} finally {
+			randomAccessFile.close();
+		}
+	}
+
+	private static DataTable parse(final FileChannel channel, String name,
+			ProgressMonitor pm) throws IOException {
+		final long size = channel.size();
+
+		// parse the names of the dimensions
+		ByteBuffer headerBuffer = map(channel, 0, Math.min(size,
+				MAX_CHUNK_SIZE));
+		RecordParser headerParser = new RecordParser(headerBuffer);
+		headerParser.skipByteOrderMark();
+		if (!headerParser.nextRecord())
+			return null;
+		String[] dimensionNames = new String[headerParser.numEntries];
+		System.arraycopy(headerParser.entries, 0, dimensionNames, 0,
+				dimensionNames.length);
+		final long dataStart = headerParser.position;
+		final long dataSize = size - dataStart;
+
+		ForkJoinPool pool = ForkJoinPool.commonPool();
+
+		// split the rest of the file into segments of about equal size
+		int numSegments = (int) Math.max(
+				(dataSize + MAX_CHUNK_SIZE - 1) / MAX_CHUNK_SIZE, Math.min(
+						dataSize / MIN_CHUNK_SIZE,
+						pool.getParallelism() * 4));
+		numSegments = Math.max(numSegments, 1);
+		final long[] segmentStarts = new long[numSegments + 1];
+		for (int i = 0; i <= numSegments; i++)
+			segmentStarts[i] = dataStart + dataSize * i / numSegments;
+
+		try {
+			// count the quotes in each segment, so that it is known whether
+			// the start of each segment is inside a quoted field or not
+			List<Callable<Long>> countTasks = new ArrayList<Callable<Long>>();
+			for (int i = 0; i < numSegments; i++) {
+				final int segment = i;
+				countTasks.add(new Callable<Long>() {
+					public Long call() throws IOException {
+						return countQuotes(channel, segmentStarts[segment],
+								segmentStarts[segment + 1]);
+					}
+				});
+			}
+			List<Future<Long>> quoteCounts = pool.invokeAll(countTasks);
+
+			// move the start of each segment forward to the start of a record
+			final long[] chunkStarts = new long[numSegments + 1];
+			chunkStarts[0] = dataStart;
+			chunkStarts[numSegments] = size;
+			long quotes = 0;
+			for (int i = 1; i < numSegments; i++) {
+				quotes += quoteCounts.get(i - 1).get();
+				chunkStarts[i] = Math.max(chunkStarts[i - 1], findRecordStart(
+						channel, segmentStarts[i], quotes % 2 == 1));
+			}
+
+			// parse the chunks. Fork-join tasks are not interrupted by
+			// cancelling their futures, so they check a shared flag instead.
+			final AtomicBoolean canceled = new AtomicBoolean();
+			final AtomicBoolean strayQuotes = new AtomicBoolean();
+			CompletionService<Object> completionService = new ExecutorCompletionService<Object>(
+					pool);
+			DataTableBuilder[] parts = new DataTableBuilder[numSegments];
+			final String[] names = dimensionNames;
+			final DataTableBuilder[] chunkParts = parts;
+			for (int i = 0; i < numSegments; i++) {
+				final int chunk = i;
+				completionService.submit(new Callable<Object>() {
+					public Object call() throws IOException {
+						chunkParts[chunk] = parseChunk(channel, chunkStarts[chunk],
+								chunkStarts[chunk + 1], names, canceled,
+								strayQuotes, null);
+						return null;
+					}
+				});
+			}
+			try {
+				for (int i = 0; i < numSegments; i++) {
+					completionService.take().get();
+					if (pm != null) {
+						if (pm.isCanceled())
+							return null;
+						pm.setProgress(pm.getMaximum() * (i + 1)
+								/ (numSegments + 1));
+					}
+				}
+			} finally {
+				// stop the remaining tasks if this returns early
+				canceled.set(true);
+			}
+
+			// the chunks may not start at records, so parse the file again in
+			// one piece
+			if (strayQuotes.get() && numSegments > 1)
+				parts = new DataTableBuilder[] { parseChunk(channel,
+						dataStart, size, names, new AtomicBoolean(),
+						new AtomicBoolean(), pm) };
+
+			return DataTableBuilder.concatenate(parts, name, pool);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return null;
+		} catch (CanceledException e) {
+			return null;
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof CanceledException)
+				return null;
+			if (e.getCause() instanceof IOException)
+				throw (IOException) e.getCause();
+			throw new RuntimeException(e.getCause());
+		}
+	}
+
+	/**
+	 * Maps the specified region of the file into memory
+	 */
+	private static ByteBuffer map(FileChannel channel, long start, long end)
+			throws IOException {
+		return channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+	}
+
+	/**
+	 * Counts the double quote characters in the specified region of the file
+	 */
+	private static long countQuotes(FileChannel channel, long start, long end)
+			throws IOException {
+		long count = 0;
+		for (long windowStart = start; windowStart < end; windowStart += MAX_CHUNK_SIZE) {
+			ByteBuffer buffer = map(channel, windowStart, Math.min(end,
+					windowStart + MAX_CHUNK_SIZE));
+			int limit = buffer.limit();
+			for (int i = 0; i < limit; i++)
+				if (buffer.get(i) == '"')
+					count++;
+		}
+		return count;
+	}
+
+	/**
+	 * Finds the position of the first record which starts at or after the
+	 * specified position.
+	 * 
+	 * @param position
+	 *            the position to start searching from
+	 * @param inQuotes
+	 *            whether or not the position is inside a quoted field
+	 * @return the position of the start of the record, or the size of the
+	 *         file if there are no more records
+	 */
+	private static long findRecordStart(FileChannel channel, long position,
+			boolean inQuotes) throws IOException {
+		long size = channel.size();
+		// the record starts right here if the previous byte ends a line
+		if (!inQuotes && position > 0 && position < size) {
+			ByteBuffer previous = map(channel, position - 1, position + 1);
+			if (previous.get(0) == '\n' || previous.get(0) == '\r'
+					&& previous.get(1) != '\n')
+				return position;
+		}
+		for (long windowStart = position; windowStart < size; windowStart += MIN_CHUNK_SIZE) {
+			ByteBuffer buffer = map(channel, windowStart, Math.min(size,
+					windowStart + MIN_CHUNK_SIZE));
+			int limit = buffer.limit();
+			for (int i = 0; i < limit; i++) {
+				byte b = buffer.get(i);
+				if (b == '"')
+					inQuotes = !inQuotes;
+				else if (b == '\n' && !inQuotes)
+					return windowStart + i + 1;
+				else if (b == '\r' && !inQuotes) {
+					// the record starts after the LF of a CRLF
+					long next = windowStart + i + 1;
+					if (next < size
+							&& map(channel, next, next + 1).get(0) == '\n')
+						next++;
+					return next;
+				}
+			}
+		}
+		return size;
+	}
+
+	/**
+	 * Parses the records in the specified region of the file, which must begin
+	 * at the start of a record. The region is mapped in windows of at most
+	 * MAX_CHUNK_SIZE bytes, which are enlarged (up to the largest size that
+	 * can be mapped) only when a single record does not fit.
+	 * 
+	 * @param canceled
+	 *            a flag which stops the parsing when it is set
+	 * @param strayQuotes
+	 *            a flag which is set if a quote is found outside of a quoted
+	 *            field
+	 * @param pm
+	 *            the progress monitor to report progress to (by window), and
+	 *            which can cancel the parsing. This may be null.
+	 * @throws CanceledException
+	 *             if the parsing was stopped
+	 */
+	private static DataTableBuilder parseChunk(FileChannel channel,
+			long start, long end, String[] dimensionNames,
+			AtomicBoolean canceled, AtomicBoolean strayQuotes,
+			ProgressMonitor pm) throws IOException {
+		DataTableBuilder builder = new DataTableBuilder(dimensionNames);
+		long windowStart = start;
+		long windowSize = MAX_CHUNK_SIZE;
+		while (windowStart < end) {
+			if (pm != null) {
+				if (pm.isCanceled())
+					throw new CanceledException();
+				pm.setProgress((int) (pm.getMaximum()
+						* (windowStart - start) / (end - start)));
+			}
+			long windowEnd = Math.min(end, windowStart + windowSize);
+			boolean lastWindow = windowEnd == end;
+			RecordParser parser = new RecordParser(map(channel, windowStart,
+					windowEnd));
+			// the position in the window the next window starts at
+			int nextWindowStart;
+			while (true) {
+				nextWindowStart = parser.position;
+				if (!parser.nextRecord()) {
+					nextWindowStart = parser.end;
+					break;
+				}
+				// a record which reaches the end of the window may continue
+				// past it, so it is parsed again by the next window
+				if (!lastWindow && parser.position >= parser.end)
+					break;
+				if (canceled.get())
+					throw new CanceledException();
+				builder.addRecord(parser.entries, parser.numEntries);
+			}
+			if (parser.strayQuotes)
+				strayQuotes.set(true);
+
+			if (nextWindowStart > 0) {
+				windowStart += nextWindowStart;
+				windowSize = MAX_CHUNK_SIZE;
+			} else if (windowSize < Integer.MAX_VALUE)
+				// the window holds only part of one record
+				windowSize = Math.min(windowSize * 2, Integer.MAX_VALUE);
+			else
+				throw new IOException("A record starting at byte "
+						+ windowStart
+						+ " is too long to parse; it may contain an"
+						+ " unterminated quoted field");
+		}
+		return builder;
+	}
+
+	/**
+	 * Thrown by a chunk which stops parsing because the parsing was canceled
+	 */
+	@SuppressWarnings("serial")
+	private static class CanceledException extends IOException {
+	}
+
+	/**
+	 * Parses records one at a time from a buffer.
+	 */
+	private static class RecordParser {
+		/**
+		 * The buffer holding the records
+		 */
+		final ByteBuffer buffer;
+
+		/**
+		 * The end of the records in the buffer
+		 */
+		final int end;
+
+		/**
+		 * The position of the next byte to parse
+		 */
+		int position = 0;
+
+		/**
+		 * The entries of the current record
+		 */
+		String[] entries = new String[16];
+
+		/**
+		 * The number of entries in the current record
+		 */
+		int numEntries;
+
+		/**
+		 * The re-usable buffer holding the bytes of the current field
+		 */
+		private byte[] field = new byte[256];
+
+		/**
+		 * The number of bytes in the current field
+		 */
+		private int fieldLength;
+
+		/**
+		 * True if the current field contains only ASCII characters
+		 */
+		private boolean ascii;
+
+		/**
+		 * True if a quote has been found outside of a quoted field, or a
+		 * quoted field was not terminated
+		 */
+		boolean strayQuotes;
+
+		RecordParser(ByteBuffer buffer) {
+			this.buffer = buffer;
+			end = buffer.limit();
+		}
+
+		/**
+		 * Skips the UTF-8 byte order mark, if there is one.
+		 */
+		void skipByteOrderMark() {
+			if (end >= 3 && buffer.get(0) == (byte) 0xEF
+					&& buffer.get(1) == (byte) 0xBB
+					&& buffer.get(2) == (byte) 0xBF)
+				position = 3;
+		}
+
+		/**
+		 * Parses the next non-empty record into entries and numEntries.
+		 * 
+		 * @return false if there are no more records
+		 */
+		boolean nextRecord() {
+			while (position < end) {
+				numEntries = 0;
+				boolean quoted = false;
+				while (true) {
+					quoted |= parseField();
+					if (numEntries == entries.length) {
+						String[] newEntries = new String[numEntries * 2];
+						System.arraycopy(entries, 0, newEntries, 0, numEntries);
+						entries = newEntries;
+					}
+					entries[numEntries++] = ascii ? new String(field, 0,
+							fieldLength, ISO_8859_1) : new String(field, 0,
+							fieldLength, DEFAULT_CHARSET);
+					if (position < end && buffer.get(position) == ',')
+						position++;
+					else {
+						// skip the line break, which may be a CRLF
+						if (position < end
+								&& buffer.get(position++) == '\r'
+								&& position < end
+								&& buffer.get(position) == '\n')
+							position++;
+						break;
+					}
+				}
+				// skip empty lines
+				if (numEntries > 1 || fieldLength > 0 || quoted)
+					return true;
+			}
+			return false;
+		}
+
+		/**
+		 * Parses the field starting at the current position into the field
+		 * buffer, leaving the position at the delimiter which ends it.
+		 * 
+		 * @return true if the field was quoted
+		 */
+		private boolean parseField() {
+			fieldLength = 0;
+			ascii = true;
+			byte b;
+			// skip leading whitespace
+			while (position < end && ((b = buffer.get(position)) & 0xFF) <= ' '
+					&& b != '\n' && b != '\r')
+				position++;
+
+			if (position < end && buffer.get(position) == '"') {
+				position++;
+				boolean terminated = false;
+				while (position < end) {
+					b = buffer.get(position++);
+					if (b == '"') {
+						// two quotes are an escaped quote
+						if (position < end && buffer.get(position) == '"')
+							position++;
+						else {
+							terminated = true;
+							break;
+						}
+					}
+					append(b);
+				}
+				strayQuotes |= !terminated;
+				// ignore anything between the closing quote and the delimiter
+				while (position < end && (b = buffer.get(position)) != ','
+						&& b != '\n' && b != '\r') {
+					strayQuotes |= b == '"';
+					position++;
+				}
+				return true;
+			}
+
+			while (position < end && (b = buffer.get(position)) != ','
+					&& b != '\n' && b != '\r') {
+				strayQuotes |= b == '"';
+				append(b);
+				position++;
+			}
+			// trim trailing whitespace
+			while (fieldLength > 0 && (field[fieldLength - 1] & 0xFF) <= ' ')
+				fieldLength--;
+			return false;
+		}
+
+		private void append(byte b) {
+			if (fieldLength == field.length) {
+				byte[] newField = new byte[fieldLength * 2];
+				System.arraycopy(field, 0, newField, 0, fieldLength);
+				field = newField;
+			}
+			if (b < 0)
+				ascii = false;
+			field[fieldLength++] = b;
+		}
+	}
+}
@@ -18,22 +18,51 @@
 package jyVis.data;
 
 import java.awt.Color;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
 
 import colorMap.ColorMap;
+import jyVis.util.ParallelTasks;
 
 /**
  * A class which manages a color map, normalization, and dimension for assigning
  * colors based on the value at a specific record and dimension in a data table.
  * 
+ * The colors of all records in a dimension can be computed at once with
+ * getColors(int), which returns them as packed ARGB values for renderers
+ * which write pixels directly. These columns are kept until the color map,
+ * the normalization of the dimension or the dimension's values change.
+ * 
  * @author Curran Kelleher
  * 
  */
 public class DataColorMap {
+	/**
+	 * The number of records colored by each task of getColors()
+	 */
+	private static final int BLOCK_SIZE = 1 << 16;
+
 	public final DataTable data;
 	public ColorMap colorMap = ColorMap.getDefaultContinuousColorMap();
 	public Normalization normalization;
 	public int dimension = 0;
 
+	/**
+	 * The packed ARGB colors computed by getColors(), by dimension
+	 */
+	private int[][] colorColumns;
+
+	/**
+	 * The normalized values each column of colors was computed from
+	 */
+	private double[][] colorColumnValues;
+
+	/**
+	 * The table of the color map each column of colors was computed with
+	 */
+	private int[][] colorColumnTables;
+
 	/**
 	 * Construct a data color map associated with the specified data, with a
 	 * default initial color map
@@ -55,7 +84,83 @@ public class DataColorMap {
 	 *         at the specified record index
 	 */
 	public Color getColor(int record) {
-		return colorMap.getColor(normalization.normalize(record, dimension));
+		return getColor(record, dimension);
+	}
+
+	/**
+	 * Gets the color corresponding to the value in the associated data table at
+	 * the specified record and dimension, without using the
+	 * <code>dimension</code> field of this object.
+	 * 
+	 * @param record
+	 *            the index of the record to generate a color for
+	 * @param dimension
+	 *            the index of the dimension
+	 */
+	public Color getColor(int record, int dimension) {
+		return colorMap.getColor(normalization
+				.getNormalizedColumn(dimension)[record]);
+	}
+
+	/**
+	 * Gets the colors of all records for the specified dimension, as packed
+	 * ARGB values (see Color.getRGB()) indexed by record. The colors are
+	 * computed in parallel the first time they are asked for, and the same
+	 * array is returned until the color map or the normalized values of the
+	 * dimension change. If this thread is interrupted while the colors are
+	 * computed, the colors returned may be incomplete, and are not kept.
+	 * 
+	 * @param dimension
+	 *            the index of the dimension
+	 * @return the colors, which must not be modified
+	 */
+	public synchronized int[] getColors(int dimension) {
+		if (colorColumns == null) {
+			int numDimensions = data.getNumberOfDimensions();
+			colorColumns = new int[numDimensions][];
+			colorColumnValues = new double[numDimensions][];
+			colorColumnTables = new int[numDimensions][];
+		}
+
+		// the color map replaces it's table when it is edited
+		final double[] values = normalization.getNormalizedColumn(dimension);
+		final ColorMap colorMap = this.colorMap;
+		int[] table = colorMap.getARGBArray();
+		if (colorColumns[dimension] != null
+				&& colorColumnValues[dimension] == values
+				&& colorColumnTables[dimension] == table)
+			return colorColumns[dimension];
+
+		// look up the colors in blocks of records
+		final int[] colors = new int[values.length];
+		List<Callable<Object>> tasks = new ArrayList<Callable<Object>>();
+		for (int start = 0; start < values.length; start += BLOCK_SIZE) {
+			final int from = start;
+			final int to = Math.min(start + BLOCK_SIZE, values.length);
+			tasks.add(new Callable<Object>() {
+				public Object call() {
+					colorMap.map(values, colors, from, to);
+					return null;
+				}
+			});
+		}
+		if (!ParallelTasks.run(tasks))
+			return colors;
+
+		colorColumns[dimension] = colors;
+		colorColumnValues[dimension] = values;
+		colorColumnTables[dimension] = table;
+		return colors;
+	}
+
+	/**
+	 * Gets the colors of all records for the dimension stored in the
+	 * <code>dimension</code> field of this object.
+	 * 
+	 * @see #getColors(int)
+	 */
+	public int[] getColors() {
+		return getColors(dimension);
 	}
 
 	/**
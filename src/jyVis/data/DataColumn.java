@@ -0,0 +1,178 @@
+/******************************************************************************
+ * Copyright (C) 2007  Institute for Visualization and Perception Research,
+ *                     University of Massachusetts Lowell
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *******************************************************************************/
+package jyVis.data;
+
+/**
+ * The primitive storage of a single dimension (column) of a DataTable.
+ * Numerical entries are stored in a double array. Entries which are not
+ * numbers are dictionary encoded: they are stored as int codes which index
+ * into a lexicographically sorted array of the distinct strings of the column.
+ * The double value of such an entry is it's code, which is the same ID that
+ * DataEntry has always used for string values.
+ * 
+ * @author Curran Kelleher
+ * @see DataTable
+ */
+public class DataColumn {
+	/**
+	 * The code marking an entry of a categorical column which is actually a
+	 * number, and so is stored in the values array.
+	 */
+	public static final int NUMERIC_ENTRY = -1;
+
+	/**
+	 * The numerical values of this column, or null if every entry of this
+	 * column is a string.
+	 */
+	private final double[] values;
+
+	/**
+	 * The dictionary codes of the entries in this column, or null if every
+	 * entry of this column is a number.
+	 */
+	private final int[] codes;
+
+	/**
+	 * The sorted distinct strings of this column, indexed by code.
+	 */
+	private final String[] dictionary;
+
+	/**
+	 * The number of entries in this column
+	 */
+	private final int size;
+
+	/**
+	 * Construct a purely numerical column.
+	 * 
+	 * @param values
+	 *            the values of the column, which are used directly (not
+	 *            copied)
+	 */
+	public DataColumn(double[] values) {
+		this(values, null, null, values.length);
+	}
+
+	/**
+	 * Construct a column which may contain strings.
+	 * 
+	 * @param values
+	 *            the numerical values, or null if there are none. Only
+	 *            entries whose code is NUMERIC_ENTRY are read from this array.
+	 * @param codes
+	 *            the dictionary codes, or null if every entry is a number
+	 * @param dictionary
+	 *            the lexicographically sorted distinct strings of the column
+	 * @param size
+	 *            the number of entries in the column
+	 */
+	public DataColumn(double[] values, int[] codes, String[] dictionary,
+			int size) {
+		if (values == null && codes == null)
+			throw new IllegalArgumentException(
+					"a column needs either values or codes");
+		this.values = values;
+		this.codes = codes;
+		this.dictionary = dictionary != null ? dictionary : new String[0];
+		this.size = size;
+	}
+
+	/**
+	 * Gets the double value of the specified entry. For string entries, this
+	 * is the string's ID within this column.
+	 * 
+	 * @param record
+	 *            the index of the record
+	 */
+	public double get(int record) {
+		if (codes == null)
+			return values[record];
+		int code = codes[record];
+		return code == NUMERIC_ENTRY ? values[record] : code;
+	}
+
+	/**
+	 * Gets the string value of the specified entry.
+	 * 
+	 * @param record
+	 *            the index of the record
+	 * @return the string value, or null if the entry is a number
+	 */
+	public String getString(int record) {
+		if (codes == null)
+			return null;
+		int code = codes[record];
+		return code == NUMERIC_ENTRY ? null : dictionary[code];
+	}
+
+	/**
+	 * Copies the double values of this column (as returned by get()) into the
+	 * specified array.
+	 * 
+	 * @param destination
+	 *            the array to fill, which must have at least size() entries
+	 * @return the destination array
+	 */
+	public double[] copyValues(double[] destination) {
+		if (codes == null)
+			System.arraycopy(values, 0, destination, 0, size);
+		else
+			for (int i = 0; i < size; i++)
+				destination[i] = get(i);
+		return destination;
+	}
+
+	/**
+	 * @return the array of numerical values of this column, or null if every
+	 *         entry is a string. Only entries whose code is NUMERIC_ENTRY are
+	 *         meaningful. This array must not be modified.
+	 */
+	double[] getValueArray() {
+		return values;
+	}
+
+	/**
+	 * @return the array of dictionary codes of this column, or null if every
+	 *         entry is a number. This array must not be modified.
+	 */
+	int[] getCodeArray() {
+		return codes;
+	}
+
+	/**
+	 * @return true if this column contains any string entries
+	 */
+	public boolean isCategorical() {
+		return codes != null;
+	}
+
+	/**
+	 * @return the sorted distinct strings of this column, indexed by code.
+	 *         This array must not be modified.
+	 */
+	public String[] getDictionary() {
+		return dictionary;
+	}
+
+	/**
+	 * @return the number of entries in this column
+	 */
+	public int size() {
+		return size;
+	}
+}
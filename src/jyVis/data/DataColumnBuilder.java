@@ -0,0 +1,331 @@
+/******************************************************************************
+ * Copyright (C) 2007  Institute for Visualization and Perception Research,
+ *                     University of Massachusetts Lowell
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *******************************************************************************/
+package jyVis.data;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Accumulates the entries of one column as they are read, and builds a
+ * DataColumn from them. Each entry is parsed exactly once: entries which are
+ * numbers go into a growable double array, other entries are assigned IDs in
+ * a growable int array. Whether an entry is a number is decided by scanning
+ * it, not by catching exceptions.
+ * 
+ * @author Curran Kelleher
+ * @see DataColumn
+ */
+public class DataColumnBuilder {
+	/**
+	 * The numerical values read so far
+	 */
+	private double[] values;
+
+	/**
+	 * The string IDs read so far, or null if no strings have been read. These
+	 * are in order of first occurrence until build() sorts them.
+	 */
+	private int[] codes;
+
+	/**
+	 * The map of the distinct strings read so far to their IDs
+	 */
+	private Map<String, Integer> stringIDs;
+
+	/**
+	 * The number of entries read so far
+	 */
+	private int size;
+
+	/**
+	 * Construct an empty column builder.
+	 */
+	public DataColumnBuilder() {
+		this(1024);
+	}
+
+	/**
+	 * Construct an empty column builder.
+	 * 
+	 * @param initialCapacity
+	 *            the number of entries to allocate space for initially
+	 */
+	public DataColumnBuilder(int initialCapacity) {
+		values = new double[Math.max(initialCapacity, 16)];
+	}
+
+	/**
+	 * Adds an entry to the end of the column. If the string represents a
+	 * number (as defined by Double.parseDouble) it is stored as a number,
+	 * otherwise it is stored as a string.
+	 * 
+	 * @param entry
+	 *            the entry to add
+	 */
+	public void add(String entry) {
+		if (isNumber(entry))
+			addNumber(Double.parseDouble(entry));
+		else
+			addString(entry);
+	}
+
+	/**
+	 * Adds a numerical entry to the end of the column.
+	 */
+	public void addNumber(double value) {
+		ensureCapacity(size + 1);
+		values[size] = value;
+		if (codes != null)
+			codes[size] = DataColumn.NUMERIC_ENTRY;
+		size++;
+	}
+
+	/**
+	 * Adds a string entry to the end of the column.
+	 */
+	public void addString(String entry) {
+		ensureCapacity(size + 1);
+		if (codes == null) {
+			codes = new int[values.length];
+			Arrays.fill(codes, 0, size, DataColumn.NUMERIC_ENTRY);
+			stringIDs = new HashMap<String, Integer>();
+		}
+		Integer id = stringIDs.get(entry);
+		if (id == null)
+			stringIDs.put(entry, id = stringIDs.size());
+		codes[size++] = id;
+	}
+
+	/**
+	 * Adds an entry for a value which is missing from the input (for example,
+	 * in a short line of a file). Missing values are NaN.
+	 */
+	public void addMissing() {
+		addNumber(Double.NaN);
+	}
+
+	/**
+	 * @return the number of entries added so far
+	 */
+	public int size() {
+		return size;
+	}
+
+	private void ensureCapacity(int capacity) {
+		if (capacity > values.length) {
+			int newLength = Math.max(capacity, values.length
+					+ (values.length >> 1));
+			values = Arrays.copyOf(values, newLength);
+			if (codes != null)
+				codes = Arrays.copyOf(codes, newLength);
+		}
+	}
+
+	/**
+	 * Builds the column containing the entries added so far. Strings are
+	 * assigned IDs in their lexicographical ordering. This builder should not
+	 * be used after calling this method.
+	 */
+	public DataColumn build() {
+		if (values.length != size)
+			values = Arrays.copyOf(values, size);
+		if (codes == null)
+			return new DataColumn(values);
+
+		if (codes.length != size)
+			codes = Arrays.copyOf(codes, size);
+		return createCategoricalColumn(values, codes, stringIDs, size);
+	}
+
+	/**
+	 * Builds a single column containing the entries of all the specified
+	 * builders, one after the other. This is used to join columns which were
+	 * read in pieces (for example, by different threads). The builders should
+	 * not be used after calling this method.
+	 * 
+	 * @param parts
+	 *            the builders holding the consecutive pieces of the column
+	 */
+	public static DataColumn concatenate(DataColumnBuilder[] parts) {
+		if (parts.length == 1)
+			return parts[0].build();
+
+		int totalSize = 0;
+		boolean hasStrings = false;
+		for (DataColumnBuilder part : parts) {
+			totalSize += part.size;
+			hasStrings |= part.codes != null;
+		}
+
+		double[] values = new double[totalSize];
+		int[] codes = hasStrings ? new int[totalSize] : null;
+		Map<String, Integer> stringIDs = hasStrings ? new HashMap<String, Integer>()
+				: null;
+
+		int offset = 0;
+		for (int p = 0; p < parts.length; p++) {
+			DataColumnBuilder part = parts[p];
+			System.arraycopy(part.values, 0, values, offset, part.size);
+			if (hasStrings) {
+				if (part.codes == null)
+					Arrays.fill(codes, offset, offset + part.size,
+							DataColumn.NUMERIC_ENTRY);
+				else {
+					// map the IDs of this part to the IDs of the whole column
+					int[] partIDs = new int[part.stringIDs.size()];
+					for (Map.Entry<String, Integer> e : part.stringIDs
+							.entrySet()) {
+						Integer id = stringIDs.get(e.getKey());
+						if (id == null)
+							stringIDs.put(e.getKey(), id = stringIDs.size());
+						partIDs[e.getValue()] = id;
+					}
+					for (int i = 0; i < part.size; i++) {
+						int code = part.codes[i];
+						codes[offset + i] = code == DataColumn.NUMERIC_ENTRY ? code
+								: partIDs[code];
+					}
+				}
+			}
+			offset += part.size;
+			// let the buffers of the part be collected
+			parts[p] = null;
+		}
+
+		if (!hasStrings)
+			return new DataColumn(values);
+		return createCategoricalColumn(values, codes, stringIDs, totalSize);
+	}
+
+	/**
+	 * Creates a dictionary encoded column, where the strings are assigned IDs
+	 * in their lexicographical ordering.
+	 * 
+	 * @param values
+	 *            the numerical values of the column
+	 * @param codes
+	 *            the codes of the column, which are IDs from stringIDs, or
+	 *            DataColumn.NUMERIC_ENTRY. These are replaced by the sorted
+	 *            IDs.
+	 * @param stringIDs
+	 *            the map of the distinct strings to their unsorted IDs
+	 * @param size
+	 *            the number of entries in the column
+	 */
+	private static DataColumn createCategoricalColumn(double[] values,
+			int[] codes, Map<String, Integer> stringIDs, int size) {
+		// calculate the lexicographical ordering of string IDs
+		String[] dictionary = stringIDs.keySet().toArray(
+				new String[stringIDs.size()]);
+		Arrays.sort(dictionary);
+		int[] sortedIDs = new int[dictionary.length];
+		for (int i = 0; i < dictionary.length; i++)
+			sortedIDs[stringIDs.get(dictionary[i])] = i;
+
+		boolean hasNumbers = false;
+		for (int i = 0; i < size; i++)
+			if (codes[i] == DataColumn.NUMERIC_ENTRY)
+				hasNumbers = true;
+			else
+				codes[i] = sortedIDs[codes[i]];
+
+		return new DataColumn(hasNumbers ? values : null, codes, dictionary,
+				size);
+	}
+
+	/**
+	 * Determines whether or not the specified string can be parsed by
+	 * Double.parseDouble, without throwing an exception in the common case.
+	 * 
+	 * @param s
+	 *            the string to test
+	 * @return true if the string represents a number
+	 */
+	public static boolean isNumber(String s) {
+		int end = s.length();
+		int i = 0;
+		// Double.parseDouble ignores leading and trailing whitespace
+		while (i < end && s.charAt(i) <= ' ')
+			i++;
+		while (end > i && s.charAt(end - 1) <= ' ')
+			end--;
+		if (i == end)
+			return false;
+
+		char c = s.charAt(i);
+		if (c == '+' || c == '-')
+			i++;
+		if (i == end)
+			return false;
+
+		if (s.startsWith("NaN", i))
+			return i + 3 == end;
+		if (s.startsWith("Infinity", i))
+			return i + 8 == end;
+
+		// hexadecimal floating point literals are rare enough to let the
+		// parser decide
+		if (end - i > 1 && s.charAt(i) == '0'
+				&& (s.charAt(i + 1) == 'x' || s.charAt(i + 1) == 'X')) {
+			try {
+				Double.parseDouble(s);
+				return true;
+			} catch (NumberFormatException e) {
+				return false;
+			}
+		}
+
+		// digits, an optional decimal point, and more digits
+		int digits = 0;
+		while (i < end && (c = s.charAt(i)) >= '0' && c <= '9') {
+			i++;
+			digits++;
+		}
+		if (i < end && s.charAt(i) == '.') {
+			i++;
+			while (i < end && (c = s.charAt(i)) >= '0' && c <= '9') {
+				i++;
+				digits++;
+			}
+		}
+		if (digits == 0)
+			return false;
+
+		// an optional exponent
+		if (i < end && ((c = s.charAt(i)) == 'e' || c == 'E')) {
+			i++;
+			if (i < end && ((c = s.charAt(i)) == '+' || c == '-'))
+				i++;
+			int exponentDigits = 0;
+			while (i < end && (c = s.charAt(i)) >= '0' && c <= '9') {
+				i++;
+				exponentDigits++;
+			}
+			if (exponentDigits == 0)
+				return false;
+		}
+
+		// an optional type suffix
+		if (i < end
+				&& ((c = s.charAt(i)) == 'd' || c == 'D' || c == 'f' || c == 'F'))
+			i++;
+
+		return i == end;
+	}
+}
@@ -18,7 +18,8 @@
 package jyVis.data;
 
 /**
- * A value, or entry, in a data table.
+ * A value, or entry, in a data table. Data tables do not store DataEntry
+ * objects, they are created on demand from the table's columns.
  * 
  * @author Curran Kelleher
  * @see DataTable
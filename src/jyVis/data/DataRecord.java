@@ -17,7 +17,7 @@
  *******************************************************************************/
 package jyVis.data;
 
-import java.util.ArrayList;
+import java.util.AbstractList;
 import java.util.List;
 import java.util.Map;
 
@@ -25,14 +25,15 @@ import jyVis.graphics.DrawingPanel;
 import jyVis.visualizationPrimitives.VisualizationPrimitive;
 
 /**
- * A data record, or row of entries, in a DataTable.
+ * A data record, or row of entries, in a DataTable. A DataRecord does not
+ * store it's entries, it is a view onto the columns of it's parent table. The
+ * DataEntry objects it returns are created on demand.
  * 
  * @author Curran Kelleher
  * @see DataTable
  * @see DataEntry
  */
-@SuppressWarnings("serial")
-public class DataRecord extends ArrayList<DataEntry> {
+public class DataRecord extends AbstractList<DataEntry> {
 	/**
 	 * The JVObjects associated with this record, mapped by the JVDrawingPanels
 	 * in which they occur. This exists for efficient linking of selections.
@@ -49,16 +50,79 @@ public class DataRecord extends ArrayList<DataEntry> {
 	public int index;
 
 	/**
-	 * Constructs a DataRecord with the specified initial capacity. This
-	 * pre-allocates the ArrayList so it will never have to take CPU time to
-	 * reallocate a larger array when elements are being added to it.
+	 * The table which stores the entries of this record
+	 */
+	private final DataTable table;
+
+	/**
+	 * Constructs a view of the record at the specified index of the specified
+	 * table.
 	 * 
-	 * @param initialCapacity
+	 * @param table
+	 *            the table containing the record
+	 * @param index
+	 *            the index of the record in the table
 	 */
-	public DataRecord(int initialCapacity, int index) {
-		super(initialCapacity);
+	public DataRecord(DataTable table, int index) {
+		this.table = table;
 		this.index = index;
 	}
+
+	/**
+	 * Creates a DataEntry for the value of this record in the specified
+	 * dimension.
+	 */
+	public DataEntry get(int dimension) {
+		return table.getEntry(index, dimension);
+	}
+
+	/**
+	 * Gets the double value of this record in the specified dimension without
+	 * creating a DataEntry.
+	 * 
+	 * @param dimension
+	 *            the index of the dimension
+	 */
+	public double getValue(int dimension) {
+		return table.get(index, dimension);
+	}
+
+	/**
+	 * Gets the value of this record in the specified dimension as a String,
+	 * without creating a DataEntry.
+	 * 
+	 * @param dimension
+	 *            the index of the dimension
+	 * @see DataTable#getAsString(int, int)
+	 */
+	public String getValueAsString(int dimension) {
+		return table.getAsString(index, dimension);
+	}
+
+	/**
+	 * @return the number of entries (dimensions) in this record
+	 */
+	public int size() {
+		return table.getNumberOfDimensions();
+	}
+
+	/**
+	 * @return the table this record is in
+	 */
+	public DataTable getDataTable() {
+		return table;
+	}
+
+	/**
+	 * Records are views, so they are equal only if they are the same object.
+	 */
+	public boolean equals(Object o) {
+		return this == o;
+	}
+
+	public int hashCode() {
+		return System.identityHashCode(this);
+	}
 }
 /*
  * CVS Log
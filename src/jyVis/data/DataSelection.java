@@ -17,39 +17,454 @@
  *******************************************************************************/
 package jyVis.data;
 
-import java.util.ArrayList;
+import java.util.AbstractSet;
+import java.util.Arrays;
 import java.util.BitSet;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
 
 /**
- * The class which stores a selection of DataRecords. This class is a list of
- * DataRecord objects, and also provides methods supporting encoding and
- * decoding of selections as BitSet objects.
+ * The class which stores a selection of DataRecords. This class is a set of
+ * DataRecord objects, stored as a bit set in which the set bits are the
+ * indices of the selected records, so membership tests are O(1) and a record
+ * can not be selected twice. Iteration returns the records in the order of
+ * their indices. This class also provides set operations (union,
+ * intersection, difference and symmetric difference) which operate on whole
+ * words of bits at a time, and methods supporting encoding and decoding of
+ * selections as BitSet objects.
+ * 
+ * A selection holds records of a single DataTable. If it is constructed
+ * without one, it is associated with the table of the first record added to
+ * it.
  * 
  * @author Curran Kelleher
  * @see BitSet
  */
-@SuppressWarnings("serial")
-public class DataSelection extends ArrayList<DataRecord> {
+public class DataSelection extends AbstractSet<DataRecord> {
+	/**
+	 * The operation which replaces a selection with another one
+	 */
+	public static final int REPLACE = 0;
+
+	/**
+	 * The operation which adds the records of another selection to a
+	 * selection (see or())
+	 */
+	public static final int UNION = 1;
+
+	/**
+	 * The operation which keeps only the records of a selection which are also
+	 * in another selection (see and())
+	 */
+	public static final int INTERSECTION = 2;
+
+	/**
+	 * The operation which removes the records of another selection from a
+	 * selection (see andNot())
+	 */
+	public static final int DIFFERENCE = 3;
+
+	/**
+	 * The operation which toggles the records of another selection in a
+	 * selection (see xor())
+	 */
+	public static final int SYMMETRIC_DIFFERENCE = 4;
+
+	/**
+	 * The table whose records are selected, or null if it is not known yet
+	 */
+	private DataTable data;
+
+	/**
+	 * The bits of this selection, where bit i of words[i / 64] is set if the
+	 * record with index i is selected.
+	 */
+	private long[] words;
+
+	/**
+	 * The number of selected records
+	 */
+	private int size;
+
+	/**
+	 * Incremented whenever this selection changes, so that iterators can
+	 * detect concurrent modification.
+	 */
+	private int modificationCount;
+
 	/**
 	 * Construct an empty selection.
 	 * 
 	 */
 	public DataSelection() {
+		words = new long[0];
+	}
+
+	/**
+	 * Construct an empty selection of records of the specified table.
+	 * 
+	 * @param data
+	 *            the table whose records are selected
+	 */
+	public DataSelection(DataTable data) {
+		this.data = data;
+		words = new long[(data.getNumberOfRecords() + 63) >> 6];
+	}
+
+	/**
+	 * Construct a selection containing the same records as the specified
+	 * selection.
+	 * 
+	 * @param selection
+	 *            the selection to copy
+	 */
+	public DataSelection(DataSelection selection) {
+		data = selection.data;
+		words = selection.words.clone();
+		size = selection.size;
+	}
+
+	/**
+	 * Construct a selection of the specified table from the specified bits.
+	 * 
+	 * @param data
+	 *            the table whose records are selected
+	 * @param words
+	 *            the bits of the selection, which are used directly (not
+	 *            copied)
+	 */
+	DataSelection(DataTable data, long[] words) {
+		this.data = data;
+		this.words = words;
+		updateSize();
+	}
+
+	/**
+	 * @return the table whose records are selected, or null if no table has
+	 *         been associated with this selection yet
+	 */
+	public DataTable getDataTable() {
+		return data;
+	}
+
+	/**
+	 * Adds the specified record to this selection. An empty selection takes
+	 * on the table of the record.
+	 * 
+	 * @return true if the record was not already selected
+	 */
+	public boolean add(DataRecord record) {
+		if (data == null || (size == 0 && record.getDataTable() != data))
+			data = record.getDataTable();
+		else if (record.getDataTable() != data)
+			throw new IllegalArgumentException(
+					"the record is not in the table of this selection");
+		return addIndex(record.index);
+	}
+
+	/**
+	 * Adds the record with the specified index to this selection.
+	 * 
+	 * @param recordIndex
+	 *            the index of the record in it's table
+	 * @return true if the record was not already selected
+	 */
+	public boolean addIndex(int recordIndex) {
+		int wordIndex = recordIndex >> 6;
+		if (wordIndex >= words.length)
+			words = Arrays.copyOf(words, Math.max(wordIndex + 1,
+					words.length * 2));
+		long bit = 1L << recordIndex;
+		if ((words[wordIndex] & bit) != 0)
+			return false;
+		words[wordIndex] |= bit;
+		size++;
+		modificationCount++;
+		return true;
+	}
+
+	/**
+	 * Removes the specified record from this selection.
+	 * 
+	 * @return true if the record was selected
+	 */
+	public boolean remove(Object o) {
+		if (!(o instanceof DataRecord))
+			return false;
+		DataRecord record = (DataRecord) o;
+		return record.getDataTable() == data && removeIndex(record.index);
+	}
+
+	/**
+	 * Removes the record with the specified index from this selection.
+	 * 
+	 * @param recordIndex
+	 *            the index of the record in it's table
+	 * @return true if the record was selected
+	 */
+	public boolean removeIndex(int recordIndex) {
+		if (!containsIndex(recordIndex))
+			return false;
+		words[recordIndex >> 6] &= ~(1L << recordIndex);
+		size--;
+		modificationCount++;
+		return true;
+	}
+
+	/**
+	 * Determines whether the specified record is in this selection.
+	 */
+	public boolean contains(Object o) {
+		if (!(o instanceof DataRecord))
+			return false;
+		DataRecord record = (DataRecord) o;
+		return record.getDataTable() == data && containsIndex(record.index);
+	}
+
+	/**
+	 * Determines whether the record with the specified index is in this
+	 * selection.
+	 * 
+	 * @param recordIndex
+	 *            the index of the record in it's table
+	 */
+	public boolean containsIndex(int recordIndex) {
+		int wordIndex = recordIndex >> 6;
+		return recordIndex >= 0 && wordIndex < words.length
+				&& (words[wordIndex] & (1L << recordIndex)) != 0;
+	}
+
+	/**
+	 * Finds the index of the first selected record whose index is at least
+	 * the specified index.
+	 * 
+	 * @param fromIndex
+	 *            the index to start searching from
+	 * @return the index of the record, or -1 if there is none
+	 */
+	public int nextIndex(int fromIndex) {
+		int wordIndex = fromIndex >> 6;
+		if (wordIndex >= words.length)
+			return -1;
+		long word = words[wordIndex] & (-1L << fromIndex);
+		while (true) {
+			if (word != 0)
+				return (wordIndex << 6) + Long.numberOfTrailingZeros(word);
+			if (++wordIndex == words.length)
+				return -1;
+			word = words[wordIndex];
+		}
+	}
+
+	/**
+	 * @return the number of selected records
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Deselects all records.
+	 */
+	public void clear() {
+		Arrays.fill(words, 0);
+		size = 0;
+		modificationCount++;
+	}
+
+	/**
+	 * Iterates over the selected records, in the order of their indices.
+	 */
+	public Iterator<DataRecord> iterator() {
+		return new Iterator<DataRecord>() {
+			int next = nextIndex(0);
+
+			int last = -1;
+
+			int expectedModificationCount = modificationCount;
+
+			public boolean hasNext() {
+				return next != -1;
+			}
+
+			public DataRecord next() {
+				if (next == -1)
+					throw new NoSuchElementException();
+				if (modificationCount != expectedModificationCount)
+					throw new ConcurrentModificationException();
+				last = next;
+				next = nextIndex(next + 1);
+				return data.records.get(last);
+			}
+
+			public void remove() {
+				if (last == -1)
+					throw new IllegalStateException();
+				removeIndex(last);
+				last = -1;
+				expectedModificationCount = modificationCount;
+			}
+		};
+	}
+
+	/**
+	 * Makes this selection contain exactly the records of the specified
+	 * selection.
+	 * 
+	 * @param selection
+	 *            the other selection
+	 */
+	public void set(DataSelection selection) {
+		data = selection.data;
+		if (words.length < selection.words.length)
+			words = new long[selection.words.length];
+		System.arraycopy(selection.words, 0, words, 0, selection.words.length);
+		Arrays.fill(words, selection.words.length, words.length, 0);
+		size = selection.size;
+		modificationCount++;
+	}
+
+	/**
+	 * Combines the specified selection into this selection using the specified
+	 * operation.
+	 * 
+	 * @param selection
+	 *            the other selection, which must be of the same table
+	 * @param operation
+	 *            one of REPLACE, UNION, INTERSECTION, DIFFERENCE or
+	 *            SYMMETRIC_DIFFERENCE
+	 */
+	public void combine(DataSelection selection, int operation) {
+		switch (operation) {
+		case REPLACE:
+			set(selection);
+			break;
+		case UNION:
+			or(selection);
+			break;
+		case INTERSECTION:
+			and(selection);
+			break;
+		case DIFFERENCE:
+			andNot(selection);
+			break;
+		case SYMMETRIC_DIFFERENCE:
+			xor(selection);
+			break;
+		default:
+			throw new IllegalArgumentException("unknown operation "
+					+ operation);
+		}
+	}
+
+	/**
+	 * Adds all records of the specified selection to this selection.
+	 * 
+	 * @param selection
+	 *            the other selection, which must be of the same table
+	 */
+	public void or(DataSelection selection) {
+		checkTable(selection);
+		if (selection.words.length > words.length)
+			words = Arrays.copyOf(words, selection.words.length);
+		for (int i = 0; i < selection.words.length; i++)
+			words[i] |= selection.words[i];
+		updateSize();
+	}
+
+	/**
+	 * Removes all records from this selection which are not in the specified
+	 * selection.
+	 * 
+	 * @param selection
+	 *            the other selection, which must be of the same table
+	 */
+	public void and(DataSelection selection) {
+		checkTable(selection);
+		int n = Math.min(words.length, selection.words.length);
+		for (int i = 0; i < n; i++)
+			words[i] &= selection.words[i];
+		Arrays.fill(words, n, words.length, 0);
+		updateSize();
+	}
+
+	/**
+	 * Removes all records of the specified selection from this selection.
+	 * 
+	 * @param selection
+	 *            the other selection, which must be of the same table
+	 */
+	public void andNot(DataSelection selection) {
+		checkTable(selection);
+		int n = Math.min(words.length, selection.words.length);
+		for (int i = 0; i < n; i++)
+			words[i] &= ~selection.words[i];
+		updateSize();
+	}
+
+	/**
+	 * Replaces this selection with the records which are in either this
+	 * selection or the specified selection, but not in both.
+	 * 
+	 * @param selection
+	 *            the other selection, which must be of the same table
+	 */
+	public void xor(DataSelection selection) {
+		checkTable(selection);
+		if (selection.words.length > words.length)
+			words = Arrays.copyOf(words, selection.words.length);
+		for (int i = 0; i < selection.words.length; i++)
+			words[i] ^= selection.words[i];
+		updateSize();
+	}
+
+	/**
+	 * Makes sure the specified selection can be combined with this one, and
+	 * associates this selection with it's table if necessary.
+	 */
+	private void checkTable(DataSelection selection) {
+		if (data == null)
+			data = selection.data;
+		else if (selection.data != null && selection.data != data)
+			throw new IllegalArgumentException(
+					"the selections are of different tables");
+	}
+
+	/**
+	 * Recounts the selected records after a bulk operation
+	 */
+	private void updateSize() {
+		int count = 0;
+		for (long word : words)
+			count += Long.bitCount(word);
+		size = count;
+		modificationCount++;
+	}
+
+	/**
+	 * @return the bits of this selection, which may have trailing zero words.
+	 *         The array is not copied, so it must not be modified.
+	 */
+	long[] getWordArray() {
+		return words;
 	}
 
 	/**
-	 * Sets this list of DataRecords such that it includes the DataRecords in
-	 * the specified data whose indices correspond to the set bits (1 bits) of
-	 * the specified BitSet.
+	 * Sets this selection such that it includes the DataRecords in the
+	 * specified data whose indices correspond to the set bits (1 bits) of the
+	 * specified BitSet.
 	 * 
 	 * @param bitSet
 	 * @param data
 	 */
 	public void setAsBitSet(BitSet bitSet, DataTable data) {
-		clear();
-		for (int i = 0; i < bitSet.length(); i++)
-			if (bitSet.get(i))
-				this.add(data.records.get(i));
+		this.data = data;
+		words = new long[(bitSet.length() + 63) >> 6];
+		for (int i = bitSet.nextSetBit(0); i >= 0; i = bitSet.nextSetBit(i + 1))
+			words[i >> 6] |= 1L << i;
+		size = bitSet.cardinality();
+		modificationCount++;
 	}
 
 	/**
@@ -57,9 +472,9 @@ public class DataSelection extends ArrayList<DataRecord> {
 	 * correspond to the indices of the selected records.
 	 */
 	public BitSet getAsBitSet() {
-		BitSet bitSet = new BitSet();
-		for (DataRecord r : this)
-			bitSet.set(r.index);
+		BitSet bitSet = new BitSet(words.length << 6);
+		for (int i = nextIndex(0); i >= 0; i = nextIndex(i + 1))
+			bitSet.set(i);
 		return bitSet;
 	}
 }
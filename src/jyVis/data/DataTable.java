@@ -17,25 +17,33 @@
  *******************************************************************************/
 package jyVis.data;
 
+import java.util.AbstractList;
 import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Observable;
-import java.util.TreeMap;
+
+import transformation.TransformationMapping;
 
 /**
- * A generic table of data.
+ * A generic table of data. The data is stored column by column in primitive
+ * arrays (see DataColumn). The DataRecord and DataEntry objects exposed
+ * through the records list are lightweight views onto those columns which are
+ * created only when they are asked for.
  * 
  * @author Curran Kelleher
+ * @see DataColumn
  * @see DataRecord
  * @see DataEntry
  */
 public class DataTable extends Observable {
 
 	/**
-	 * The list of records which make up this data table.
+	 * The list of records which make up this data table. This list is a view
+	 * onto the columns of this table, whose DataRecords are created the first
+	 * time the list is used and reused thereafter. It cannot be modified.
 	 */
-	public List<DataRecord> records;
+	public final List<DataRecord> records;
 
 	/**
 	 * The current list of selections, that is, the list of lists of the
@@ -43,18 +51,44 @@ public class DataTable extends Observable {
 	 */
 	private List<DataSelection> selections;
 
+	/**
+	 * The undo and redo history of the selections
+	 */
+	private final SelectionHistory selectionHistory = new SelectionHistory();
+
 	/**
 	 * The metadata associated with each of the dimensions of this DataTable. If
 	 * the data table is found to be non-rectangular, then this will be null
-	 * (because it would be meaningless)
+	 * (because it would be meaningless). The row of dimension names is never
+	 * one of the records, even if the table is not rectangular.
 	 */
 	public List<DataDimensionMetadata> dimensions;
 
+	/**
+	 * The columns which store the data of this table, one per dimension.
+	 */
+	private final DataColumn[] columns;
+
+	/**
+	 * The number of records in this table
+	 */
+	private final int numberOfRecords;
+
 	/**
 	 * The name of this dataset, derived from the file name
 	 */
 	private String name;
 
+	/**
+	 * The normalized columns which are in use by the views of this table
+	 */
+	private final NormalizedColumnCache normalizedColumns;
+
+	/**
+	 * The sorted orders of the records of this table
+	 */
+	private final RecordOrderCache recordOrders;
+
 	/**
 	 * Constructs a data table from the given table of Strings. If a string
 	 * represents a valid number, it becomes a data entry with a double value
@@ -82,75 +116,94 @@ public class DataTable extends Observable {
 	 *            the name of this dataset, used for displaying
 	 */
 	public DataTable(List<List<String>> stringsTable, String name) {
+		this(createBuilder(stringsTable), name);
+	}
 
-		this.name = name;
-		records = new ArrayList<DataRecord>(stringsTable.size());
-
-		int numberOfDimensions = stringsTable.get(0).size();
-
-		// the map of strings to their IDs
-		List<TreeMap<String, Integer>> stringIDMaps = new ArrayList<TreeMap<String, Integer>>(
-				numberOfDimensions);
+	/**
+	 * Used by the table of Strings constructor, feeds the records after the
+	 * names row into a builder.
+	 */
+	private static DataTableBuilder createBuilder(
+			List<List<String>> stringsTable) {
+		DataTableBuilder builder = new DataTableBuilder(stringsTable.get(0));
+		for (int recordIndex = 1; recordIndex < stringsTable.size(); recordIndex++)
+			builder.addRecord(stringsTable.get(recordIndex));
+		return builder;
+	}
 
-		// the counts of the number of Strings with unique IDs for each lookup
-		// table
-		int[] stringIDCounts = new int[numberOfDimensions];
+	/**
+	 * Constructs a data table from the records added to the specified builder.
+	 * 
+	 * @see DataTableBuilder#build(String)
+	 */
+	DataTable(DataTableBuilder builder, String name) {
+		this(builder.buildColumns(), builder.dimensionNames, name,
+				builder.rectangular);
+	}
 
-		// populate the list of maps and
-		DataRecord titleRecord = new DataRecord(numberOfDimensions, 0);
-		for (int dimensionIndex = 0; dimensionIndex < numberOfDimensions; dimensionIndex++) {
-			titleRecord.add(new DataEntry(stringsTable.get(0).get(
-					dimensionIndex), 0.0));
-			stringIDMaps.add(new TreeMap<String, Integer>());
-			stringIDCounts[dimensionIndex] = 0;
-		}
-		records.add(titleRecord);
-
-		// find the string which need to be assigned IDs
-		for (int recordIndex = 1; recordIndex < stringsTable.size(); recordIndex++) {
-			List<String> stringRecord = stringsTable.get(recordIndex);
-			for (int dimensionIndex = 0; dimensionIndex < stringRecord.size(); dimensionIndex++) {
-				String stringEntry = stringRecord.get(dimensionIndex);
-				try {
-					Double.parseDouble(stringEntry);
-				} catch (Exception e) {
-					stringIDMaps.get(dimensionIndex).put(stringEntry, 0);
-				}
-			}
-		}
+	/**
+	 * Constructs a data table directly from columns.
+	 * 
+	 * @param columns
+	 *            the columns of the table, which must all be the same size
+	 * @param dimensionNames
+	 *            the names of the dimensions, one for each column
+	 * @param name
+	 *            the name of this dataset, used for displaying
+	 */
+	public DataTable(DataColumn[] columns, String[] dimensionNames, String name) {
+		this(columns, dimensionNames, name, true);
+	}
 
-		// calculate the lexicographical ordering of string IDs
-		for (int dimensionIndex = 0; dimensionIndex < numberOfDimensions; dimensionIndex++) {
-			TreeMap<String, Integer> map = stringIDMaps.get(dimensionIndex);
-			int i = 0;
-			for (String s : map.keySet()) {
-				map.put(s, new Integer(i));
-				i++;
-			}
-		}
+	/**
+	 * Constructs a data table directly from columns.
+	 * 
+	 * @param columns
+	 *            the columns of the table, which must all be the same size
+	 * @param dimensionNames
+	 *            the names of the dimensions, one for each column
+	 * @param name
+	 *            the name of this dataset, used for displaying
+	 * @param rectangular
+	 *            false if the records the columns were built from had
+	 *            different numbers of entries, in which case the dimension
+	 *            metadata will be null
+	 */
+	DataTable(DataColumn[] columns, String[] dimensionNames, String name,
+			boolean rectangular) {
+		this(columns, name, null);
+		if (columns.length != dimensionNames.length)
+			throw new IllegalArgumentException("There are " + columns.length
+					+ " columns but " + dimensionNames.length
+					+ " dimension names");
+		for (DataColumn column : columns)
+			if (column.size() != numberOfRecords)
+				rectangular = false;
+		computeTableAttributes(dimensionNames, rectangular);
+	}
 
-		// make the data entry objects and add them
-		for (int recordIndex = 1; recordIndex < stringsTable.size(); recordIndex++) {
-			List<String> stringRecord = stringsTable.get(recordIndex);
-
-			DataRecord record = new DataRecord(stringRecord.size(),
-					recordIndex - 1);
-			for (int dimensionIndex = 0; dimensionIndex < stringRecord.size(); dimensionIndex++) {
-				String stringEntry = stringRecord.get(dimensionIndex);
-				try {
-					record.add(new DataEntry(Double.parseDouble(stringEntry)));
-				} catch (Exception e) {
-					TreeMap<String, Integer> treeMap = stringIDMaps
-							.get(dimensionIndex);
-					Integer integer = treeMap.get(stringEntry);
-
-					record.add(new DataEntry(stringEntry, integer));
-				}
-			}
-			records.add(record);
-		}
-		// compute the metadata
-		computeTableAttributes();
+	/**
+	 * Constructs a data table from columns and dimension metadata which has
+	 * already been computed, for example when loading a snapshot.
+	 * 
+	 * @param columns
+	 *            the columns of the table, which must all be the same size
+	 * @param name
+	 *            the name of this dataset, used for displaying
+	 * @param dimensions
+	 *            the metadata of the dimensions, or null if the table is not
+	 *            rectangular
+	 * @see DataTableSnapshot
+	 */
+	DataTable(DataColumn[] columns, String name,
+			List<DataDimensionMetadata> dimensions) {
+		this.name = name;
+		this.columns = columns;
+		numberOfRecords = columns.length > 0 ? columns[0].size() : 0;
+		records = new RecordList();
+		this.dimensions = dimensions;
+		normalizedColumns = new NormalizedColumnCache(this);
+		recordOrders = new RecordOrderCache(this);
 	}
 
 	/**
@@ -158,57 +211,36 @@ public class DataTable extends Observable {
 	 * populates the table metadata, which is absolutely necessary for the
 	 * normalizations which visualizations use.
 	 * 
+	 * @param names
+	 *            the names of the dimensions
+	 * @param rectangular
+	 *            false if the records of the table were found to have
+	 *            different numbers of entries
 	 */
-	private void computeTableAttributes() {
-		// only operate if the data is there
-		if (records.size() > 0) {
-			// assume the data is rectangular (to be confirmed later),
-			// therefore all widths are the same, so use the width of the first
-			// record as the width of every record
-			int width = records.get(0).size();
-			dimensions = new ArrayList<DataDimensionMetadata>(width);
-
-			// create the dimension metadata
-			for (int i = 0; i < width; i++)
-				dimensions.add(new DataDimensionMetadata(i));
-
-			// compute the maximum and minimum values, exclude the first row
-			// because that row is assumed to contain the names of the
-			// dimensions.
-			boolean firstRow = true;
-			for (DataRecord r : records) {
-				if (firstRow)// skip the names row
-				{
-					firstRow = false;
-					continue;
-				}
-				if (r.size() == width)
-					for (int i = 0; i < width; i++) {
-						double val = r.get(i).value;
-						DataDimensionMetadata d = dimensions.get(i);
-						if (val > d.maxValue)
-							d.maxValue = val;
-						if (val < d.minValue)
-							d.minValue = val;
-					}
-				else {
-					// if we are here, then the data table is not
-					// rectangular,meaning that the contents of
-					// dimensionMetadata is worthless
-					dimensions = null;
-					// so we'll just forget about it and return
-					return;
-				}
-			}
+	private void computeTableAttributes(String[] names, boolean rectangular) {
+		// if the data is not rectangular, the metadata is worthless
+		if (!rectangular) {
+			dimensions = null;
+			return;
+		}
 
-			// if the data is tabular...
-			if (dimensions != null && records.size() > 0) {
-				// remove the row of names from the data
-				DataRecord names = records.remove(0);
-				// compute the names for the dimensions
-				for (int i = 0; i < width; i++)
-					dimensions.get(i).name = names.get(i).toString().trim();
+		int width = columns.length;
+		dimensions = new ArrayList<DataDimensionMetadata>(width);
+
+		// create the dimension metadata and compute the maximum and minimum
+		// values
+		for (int i = 0; i < width; i++) {
+			DataDimensionMetadata d = new DataDimensionMetadata(i);
+			DataColumn column = columns[i];
+			for (int record = 0; record < numberOfRecords; record++) {
+				double val = column.get(record);
+				if (val > d.maxValue)
+					d.maxValue = val;
+				if (val < d.minValue)
+					d.minValue = val;
 			}
+			d.name = names[i].trim();
+			dimensions.add(d);
 		}
 	}
 
@@ -222,7 +254,134 @@ public class DataTable extends Observable {
 	 * @return The value in the table
 	 */
 	public double get(int record, int dimension) {
-		return records.get(record).get(dimension).value;
+		return columns[dimension].get(record);
+	}
+
+	/**
+	 * Gets the string value of the specified entry in the table.
+	 * 
+	 * @param record
+	 *            the index of the record which the value is in
+	 * @param dimension
+	 *            the index of the dimension which contains the value
+	 * @return The string value of the entry, or null if the entry is a number
+	 */
+	public String getString(int record, int dimension) {
+		return columns[dimension].getString(record);
+	}
+
+	/**
+	 * Gets the specified entry in the table as a String, in the same way as
+	 * DataEntry.toString() does.
+	 * 
+	 * @param record
+	 *            the index of the record which the value is in
+	 * @param dimension
+	 *            the index of the dimension which contains the value
+	 * @return The string value of the entry if it has one, otherwise a string
+	 *         representation of it's double value.
+	 */
+	public String getAsString(int record, int dimension) {
+		DataColumn column = columns[dimension];
+		String stringValue = column.getString(record);
+		return stringValue != null ? stringValue : "" + column.get(record);
+	}
+
+	/**
+	 * Creates a DataEntry for the specified entry in the table. DataEntry
+	 * objects are not stored in the table, a new one is made on every call.
+	 * 
+	 * @param record
+	 *            the index of the record which the value is in
+	 * @param dimension
+	 *            the index of the dimension which contains the value
+	 */
+	public DataEntry getEntry(int record, int dimension) {
+		DataColumn column = columns[dimension];
+		String stringValue = column.getString(record);
+		return stringValue != null ? new DataEntry(stringValue, column
+				.get(record)) : new DataEntry(column.get(record));
+	}
+
+	/**
+	 * Gets the column which stores the specified dimension.
+	 * 
+	 * @param dimension
+	 *            the index of the dimension
+	 */
+	public DataColumn getColumn(int dimension) {
+		return columns[dimension];
+	}
+
+	/**
+	 * Gets the values of the specified dimension normalized from the specified
+	 * domain to the interval from 0 to 1 with the specified function. The
+	 * column is computed only if no other view of this table is using it
+	 * already. It must be released with releaseNormalizedColumn() when it is
+	 * no longer needed.
+	 * 
+	 * @param dimension
+	 *            the index of the dimension
+	 * @param min
+	 *            the minimum of the domain
+	 * @param max
+	 *            the maximum of the domain
+	 * @param function
+	 *            the mapping function, which is compared with equals()
+	 * @see Normalization#getNormalizedColumn(int)
+	 */
+	public NormalizedColumn acquireNormalizedColumn(int dimension, double min,
+			double max, TransformationMapping function) {
+		return normalizedColumns.acquire(dimension, min, max, function);
+	}
+
+	/**
+	 * Gives back a column obtained from acquireNormalizedColumn(), so that it
+	 * can be dropped once no view uses it.
+	 */
+	public void releaseNormalizedColumn(NormalizedColumn column) {
+		normalizedColumns.release(column);
+	}
+
+	/**
+	 * Gets the indices of the records of this table, sorted by their values
+	 * (as returned by get()) in the specified dimension. Records with equal
+	 * values are in the order of their indices. The order is computed the
+	 * first time it is asked for, and kept for later calls.
+	 * 
+	 * @param dimension
+	 *            the index of the dimension
+	 * @return the indices of the records, which must not be modified
+	 */
+	public int[] getSortedRecordIndices(int dimension) {
+		return recordOrders.getOrder(dimension);
+	}
+
+	/**
+	 * Gets the indices of the records of this table, sorted by their values in
+	 * the first of the specified dimensions, then records with equal values by
+	 * the second dimension, and so on.
+	 * 
+	 * @param dimensions
+	 *            the indices of the dimensions, most significant first
+	 * @return the indices of the records, which must not be modified
+	 */
+	public int[] getSortedRecordIndices(int[] dimensions) {
+		return recordOrders.getOrder(dimensions);
+	}
+
+	/**
+	 * @return the number of records in this table
+	 */
+	public int getNumberOfRecords() {
+		return numberOfRecords;
+	}
+
+	/**
+	 * @return the number of dimensions (columns) in this table
+	 */
+	public int getNumberOfDimensions() {
+		return columns.length;
 	}
 
 	/**
@@ -327,14 +486,105 @@ public class DataTable extends Observable {
 			else
 				selections.clear();
 			for (String bits : selectionsAsBits) {
-				DataSelection dataSelection = new DataSelection();
+				DataSelection dataSelection = new DataSelection(this);
 				dataSelection.setAsBitSet(Base64.decode(bits), this);
 				selections.add(dataSelection);
 			}
 		}
+		recordSelectionChange();
 		updateDrawingPanels();
 	}
 
+	/**
+	 * Records the current selections in the selection history, so that the
+	 * change from the previously recorded selections can be undone. This
+	 * should be called when a change to the selections is finished (for
+	 * example when the mouse is released), not while it is being made.
+	 * 
+	 * @return true if the selections changed since they were last recorded
+	 */
+	public boolean recordSelectionChange() {
+		return selectionHistory.record(selections);
+	}
+
+	/**
+	 * Restores the selections to what they were before the most recently
+	 * recorded change, and updates the drawing panels. Changes which have not
+	 * been recorded yet are recorded first.
+	 * 
+	 * @return true if there was a change to undo
+	 */
+	public boolean undoSelectionChange() {
+		recordSelectionChange();
+		return restoreSelections(selectionHistory.undo());
+	}
+
+	/**
+	 * Redoes the most recently undone change to the selections, and updates
+	 * the drawing panels. If there are changes which have not been recorded
+	 * yet, they are recorded instead, which leaves nothing to redo.
+	 * 
+	 * @return true if there was a change to redo
+	 */
+	public boolean redoSelectionChange() {
+		recordSelectionChange();
+		return restoreSelections(selectionHistory.redo());
+	}
+
+	/**
+	 * Sets the current list of selections to selections with the specified
+	 * bits.
+	 * 
+	 * @param bits
+	 *            the bits of each selection, or null to leave the selections
+	 *            as they are
+	 * @return true if the selections were set
+	 */
+	private boolean restoreSelections(long[][] bits) {
+		if (bits == null)
+			return false;
+		if (bits.length == 0)
+			selections = null;
+		else {
+			selections = new ArrayList<DataSelection>();
+			for (long[] words : bits)
+				selections.add(new DataSelection(this, words));
+		}
+		updateDrawingPanels();
+		return true;
+	}
+
+	/**
+	 * The list of record views exposed as the records field. The DataRecord
+	 * objects are all created the first time the list is used, and then kept
+	 * so that the visualization primitives linked to them (see
+	 * DataRecord.objects) persist. Once they are published, reading them
+	 * takes no lock.
+	 */
+	private class RecordList extends AbstractList<DataRecord> {
+		private volatile DataRecord[] recordViews;
+
+		public DataRecord get(int index) {
+			DataRecord[] recordViews = this.recordViews;
+			if (recordViews == null)
+				recordViews = createRecordViews();
+			return recordViews[index];
+		}
+
+		private synchronized DataRecord[] createRecordViews() {
+			if (recordViews == null) {
+				DataRecord[] views = new DataRecord[numberOfRecords];
+				for (int i = 0; i < views.length; i++)
+					views[i] = new DataRecord(DataTable.this, i);
+				recordViews = views;
+			}
+			return recordViews;
+		}
+
+		public int size() {
+			return numberOfRecords;
+		}
+	}
 }
 /*
  * CVS Log
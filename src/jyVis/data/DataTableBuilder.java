@@ -0,0 +1,191 @@
+/******************************************************************************
+ * Copyright (C) 2007  Institute for Visualization and Perception Research,
+ *                     University of Massachusetts Lowell
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *******************************************************************************/
+package jyVis.data;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Builds a DataTable one record at a time, parsing each entry directly into
+ * the typed buffer of it's column (see DataColumnBuilder). This is used for
+ * streaming files into tables without holding the file's contents as a table
+ * of Strings.
+ * 
+ * @author Curran Kelleher
+ * @see DataTable
+ */
+public class DataTableBuilder {
+	/**
+	 * The names of the dimensions
+	 */
+	final String[] dimensionNames;
+
+	/**
+	 * The builders for the columns, one per dimension
+	 */
+	private final DataColumnBuilder[] columns;
+
+	/**
+	 * False once a record with the wrong number of entries has been added
+	 */
+	boolean rectangular = true;
+
+	/**
+	 * Construct a builder for a table with the specified dimensions.
+	 * 
+	 * @param dimensionNames
+	 *            the names of the dimensions (the first row of a CSV file)
+	 */
+	public DataTableBuilder(String[] dimensionNames) {
+		this.dimensionNames = dimensionNames;
+		columns = new DataColumnBuilder[dimensionNames.length];
+		for (int i = 0; i < columns.length; i++)
+			columns[i] = new DataColumnBuilder();
+	}
+
+	/**
+	 * Construct a builder for a table with the specified dimensions.
+	 * 
+	 * @param dimensionNames
+	 *            the names of the dimensions (the first row of a CSV file)
+	 */
+	public DataTableBuilder(List<String> dimensionNames) {
+		this(dimensionNames.toArray(new String[dimensionNames.size()]));
+	}
+
+	/**
+	 * Adds a record to the table.
+	 * 
+	 * @param entries
+	 *            the array holding the entries of the record
+	 * @param numEntries
+	 *            the number of entries in the array which belong to the
+	 *            record. If this is not the number of dimensions, the table
+	 *            is not rectangular. Missing entries become NaN and extra
+	 *            entries are ignored.
+	 */
+	public void addRecord(String[] entries, int numEntries) {
+		if (numEntries != columns.length)
+			rectangular = false;
+		for (int i = 0; i < columns.length; i++)
+			if (i < numEntries)
+				columns[i].add(entries[i]);
+			else
+				columns[i].addMissing();
+	}
+
+	/**
+	 * Adds a record to the table.
+	 * 
+	 * @param entries
+	 *            the entries of the record
+	 */
+	public void addRecord(List<String> entries) {
+		int numEntries = entries.size();
+		if (numEntries != columns.length)
+			rectangular = false;
+		for (int i = 0; i < columns.length; i++)
+			if (i < numEntries)
+				columns[i].add(entries.get(i));
+			else
+				columns[i].addMissing();
+	}
+
+	/**
+	 * @return the number of records added so far
+	 */
+	public int getNumberOfRecords() {
+		return columns.length > 0 ? columns[0].size() : 0;
+	}
+
+	/**
+	 * Builds the table containing the records added so far. This builder
+	 * should not be used after calling this method.
+	 * 
+	 * @param name
+	 *            the name of the dataset, used for displaying
+	 */
+	public DataTable build(String name) {
+		return new DataTable(this, name);
+	}
+
+	/**
+	 * Builds the columns containing the records added so far, releasing the
+	 * buffers of this builder as it goes.
+	 */
+	DataColumn[] buildColumns() {
+		DataColumn[] builtColumns = new DataColumn[columns.length];
+		for (int i = 0; i < columns.length; i++) {
+			builtColumns[i] = columns[i].build();
+			// let the buffers be collected as soon as possible
+			columns[i] = null;
+		}
+		return builtColumns;
+	}
+
+	/**
+	 * Builds a single table containing the records of all the specified
+	 * builders, one after the other. The columns are joined in parallel using
+	 * the specified executor. The builders should not be used after calling
+	 * this method.
+	 * 
+	 * @param parts
+	 *            the builders holding consecutive pieces of the table, which
+	 *            must all have the same dimension names
+	 * @param name
+	 *            the name of the dataset, used for displaying
+	 * @param executor
+	 *            the executor used for joining columns
+	 */
+	public static DataTable concatenate(final DataTableBuilder[] parts,
+			String name, ExecutorService executor) throws InterruptedException {
+		String[] dimensionNames = parts[0].dimensionNames;
+		boolean rectangular = true;
+		for (DataTableBuilder part : parts)
+			rectangular &= part.rectangular;
+
+		List<Callable<DataColumn>> tasks = new ArrayList<Callable<DataColumn>>();
+		for (int i = 0; i < dimensionNames.length; i++) {
+			final int dimension = i;
+			tasks.add(new Callable<DataColumn>() {
+				public DataColumn call() {
+					DataColumnBuilder[] pieces = new DataColumnBuilder[parts.length];
+					for (int p = 0; p < parts.length; p++) {
+						pieces[p] = parts[p].columns[dimension];
+						parts[p].columns[dimension] = null;
+					}
+					return DataColumnBuilder.concatenate(pieces);
+				}
+			});
+		}
+
+		DataColumn[] columns = new DataColumn[dimensionNames.length];
+		List<Future<DataColumn>> futures = executor.invokeAll(tasks);
+		try {
+			for (int i = 0; i < columns.length; i++)
+				columns[i] = futures.get(i).get();
+		} catch (ExecutionException e) {
+			throw new RuntimeException(e.getCause());
+		}
+		return new DataTable(columns, dimensionNames, name, rectangular);
+	}
+}
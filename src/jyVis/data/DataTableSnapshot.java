@@ -0,0 +1,409 @@
+/******************************************************************************
+ * Copyright (C) 2007  Institute for Visualization and Perception Research,
+ *                     University of Massachusetts Lowell
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *******************************************************************************/
+package jyVis.data;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads and writes binary columnar snapshots of DataTables, so that a CSV file
+ * which has been parsed once can be loaded again without parsing it. The
+ * snapshot is stored next to the CSV file (with SNAPSHOT_EXTENSION appended to
+ * it's name), and records the size and modification time of the CSV file it
+ * was made from. A snapshot whose CSV file has changed since is ignored.
+ * 
+ * The snapshot consists of a header holding the dimension names, the minimum
+ * and maximum of each dimension, and the dictionary of each categorical
+ * column, followed by the columns themselves as raw little-endian doubles and
+ * ints. The columns are loaded by memory mapping the file and copying each
+ * column into it's array in bulk. Loading a snapshot still takes time and
+ * heap space proportional to the size of the table; what it saves is
+ * parsing the text and computing the metadata.
+ * 
+ * @author Curran Kelleher
+ * @see CSVFileUtils
+ */
+public class DataTableSnapshot {
+	/**
+	 * The extension appended to the name of a CSV file to get the name of it's
+	 * snapshot file
+	 */
+	public static final String SNAPSHOT_EXTENSION = "snapshot";
+
+	/**
+	 * The number identifying snapshot files ("JyVs")
+	 */
+	private static final int MAGIC = 0x4A795673;
+
+	/**
+	 * The version of the snapshot format, which is incremented whenever the
+	 * format changes so that old snapshots are ignored
+	 */
+	private static final int VERSION = 1;
+
+	/**
+	 * The number of bytes at the start of the file which give the magic
+	 * number, version, and header length
+	 */
+	private static final int PREFIX_LENGTH = 12;
+
+	/**
+	 * The largest region of the file which is mapped or buffered at once
+	 */
+	private static final int WINDOW_SIZE = 1 << 26;
+
+	/**
+	 * The size of the buffer used for writing columns
+	 */
+	private static final int WRITE_BUFFER_SIZE = 1 << 16;
+
+	/**
+	 * Gets the snapshot file for the specified CSV file.
+	 * 
+	 * @param sourceFile
+	 *            the CSV file
+	 */
+	public static File getSnapshotFile(File sourceFile) {
+		return new File(sourceFile.getPath() + "." + SNAPSHOT_EXTENSION);
+	}
+
+	/**
+	 * Loads the snapshot of the specified CSV file.
+	 * 
+	 * @param sourceFile
+	 *            the CSV file
+	 * @param name
+	 *            the name of the dataset, used for displaying
+	 * @return the table, or null if there is no snapshot, if the CSV file has
+	 *         changed since the snapshot was written, or if the snapshot could
+	 *         not be read.
+	 */
+	public static DataTable read(File sourceFile, String name) {
+		File snapshotFile = getSnapshotFile(sourceFile);
+		if (!snapshotFile.isFile())
+			return null;
+		try {
+			RandomAccessFile file = new RandomAccessFile(snapshotFile, "r");
+			try {
+				return read(file.getChannel(), sourceFile.length(), sourceFile
+						.lastModified(), name);
+			} finally {
+				file.close();
+			}
+		} catch (IOException e) {
+			return null;
+		} catch (RuntimeException e) {
+			// the snapshot is truncated or corrupt
+			return null;
+		}
+	}
+
+	private static DataTable read(FileChannel channel, long sourceLength,
+			long sourceModified, String name) throws IOException {
+		long size = channel.size();
+		if (size < PREFIX_LENGTH)
+			return null;
+		ByteBuffer prefix = map(channel, 0, PREFIX_LENGTH);
+		if (prefix.getInt() != MAGIC || prefix.getInt() != VERSION)
+			return null;
+		int headerLength = prefix.getInt();
+
+		ByteBuffer header = map(channel, 0, headerLength);
+		header.position(PREFIX_LENGTH);
+		if (header.getLong() != sourceLength
+				|| header.getLong() != sourceModified)
+			return null;
+
+		int numRecords = header.getInt();
+		int numDimensions = header.getInt();
+		boolean rectangular = header.get() != 0;
+
+		List<DataDimensionMetadata> dimensions = new ArrayList<DataDimensionMetadata>(
+				numDimensions);
+		boolean[] hasValues = new boolean[numDimensions];
+		boolean[] hasCodes = new boolean[numDimensions];
+		String[][] dictionaries = new String[numDimensions][];
+		for (int i = 0; i < numDimensions; i++) {
+			DataDimensionMetadata d = new DataDimensionMetadata(i);
+			d.name = readString(header);
+			d.minValue = header.getDouble();
+			d.maxValue = header.getDouble();
+			dimensions.add(d);
+			hasValues[i] = header.get() != 0;
+			hasCodes[i] = header.get() != 0;
+			dictionaries[i] = new String[header.getInt()];
+			for (int j = 0; j < dictionaries[i].length; j++)
+				dictionaries[i][j] = readString(header);
+		}
+
+		// make sure the file holds all of the columns before mapping them
+		long length = headerLength;
+		for (int i = 0; i < numDimensions; i++) {
+			if (hasValues[i])
+				length += numRecords * 8L;
+			if (hasCodes[i])
+				length += (numRecords * 4L + 7) & ~7L;
+		}
+		if (length != size)
+			return null;
+
+		// read the columns
+		long position = headerLength;
+		DataColumn[] columns = new DataColumn[numDimensions];
+		for (int i = 0; i < numDimensions; i++) {
+			double[] values = null;
+			int[] codes = null;
+			if (hasValues[i]) {
+				values = new double[numRecords];
+				position = readDoubles(channel, position, values);
+			}
+			if (hasCodes[i]) {
+				codes = new int[numRecords];
+				position = readInts(channel, position, codes);
+			}
+			columns[i] = new DataColumn(values, codes, dictionaries[i],
+					numRecords);
+		}
+		return new DataTable(columns, name, rectangular ? dimensions : null);
+	}
+
+	/**
+	 * Writes a snapshot of the specified table, which was read from the
+	 * specified CSV file. The snapshot is written to a temporary file first,
+	 * so an incomplete snapshot is never left in place.
+	 * 
+	 * @param table
+	 *            the table to write
+	 * @param sourceFile
+	 *            the CSV file the table was read from
+	 * @param sourceLength
+	 *            the length of the CSV file when it was read
+	 * @param sourceModified
+	 *            the modification time of the CSV file when it was read
+	 * @throws IOException
+	 *             if the snapshot could not be written
+	 */
+	public static void write(DataTable table, File sourceFile,
+			long sourceLength, long sourceModified) throws IOException {
+		File snapshotFile = getSnapshotFile(sourceFile);
+		File temporaryFile = new File(snapshotFile.getPath() + ".tmp");
+		RandomAccessFile file = new RandomAccessFile(temporaryFile, "rw");
+		try {
+			FileChannel channel = file.getChannel();
+			channel.truncate(0);
+			write(table, channel, sourceLength, sourceModified);
+			channel.force(false);
+		} finally {
+			file.close();
+		}
+		snapshotFile.delete();
+		if (!temporaryFile.renameTo(snapshotFile)) {
+			temporaryFile.delete();
+			throw new IOException("could not create " + snapshotFile);
+		}
+	}
+
+	private static void write(DataTable table, FileChannel channel,
+			long sourceLength, long sourceModified) throws IOException {
+		int numRecords = table.getNumberOfRecords();
+		int numDimensions = table.getNumberOfDimensions();
+		List<DataDimensionMetadata> dimensions = table.dimensions;
+
+		// the header
+		HeaderBuffer header = new HeaderBuffer();
+		header.buffer.position(PREFIX_LENGTH);
+		header.putLong(sourceLength);
+		header.putLong(sourceModified);
+		header.putInt(numRecords);
+		header.putInt(numDimensions);
+		header.put(dimensions != null);
+		for (int i = 0; i < numDimensions; i++) {
+			DataColumn column = table.getColumn(i);
+			DataDimensionMetadata d = dimensions != null ? dimensions.get(i)
+					: null;
+			header.putString(d != null ? d.name : "");
+			header.putDouble(d != null ? d.minValue : Double.NaN);
+			header.putDouble(d != null ? d.maxValue : Double.NaN);
+			header.put(column.getValueArray() != null);
+			header.put(column.getCodeArray() != null);
+			String[] dictionary = column.getDictionary();
+			header.putInt(dictionary.length);
+			for (String s : dictionary)
+				header.putString(s);
+		}
+		// align the columns to 8 bytes
+		while (header.buffer.position() % 8 != 0)
+			header.put(false);
+
+		ByteBuffer buffer = header.buffer;
+		int headerLength = buffer.position();
+		buffer.putInt(0, MAGIC);
+		buffer.putInt(4, VERSION);
+		buffer.putInt(8, headerLength);
+		buffer.flip();
+		writeFully(channel, buffer);
+
+		// the columns
+		ByteBuffer writeBuffer = ByteBuffer.allocateDirect(WRITE_BUFFER_SIZE)
+				.order(ByteOrder.LITTLE_ENDIAN);
+		for (int i = 0; i < numDimensions; i++) {
+			DataColumn column = table.getColumn(i);
+			double[] values = column.getValueArray();
+			if (values != null)
+				for (int start = 0; start < numRecords;) {
+					int count = Math.min(numRecords - start,
+							WRITE_BUFFER_SIZE / 8);
+					writeBuffer.clear();
+					writeBuffer.asDoubleBuffer().put(values, start, count);
+					writeBuffer.limit(count * 8);
+					writeFully(channel, writeBuffer);
+					start += count;
+				}
+			int[] codes = column.getCodeArray();
+			if (codes != null) {
+				for (int start = 0; start < numRecords;) {
+					int count = Math.min(numRecords - start,
+							WRITE_BUFFER_SIZE / 4);
+					writeBuffer.clear();
+					writeBuffer.asIntBuffer().put(codes, start, count);
+					writeBuffer.limit(count * 4);
+					writeFully(channel, writeBuffer);
+					start += count;
+				}
+				// keep the next column aligned to 8 bytes
+				if (numRecords % 2 != 0) {
+					writeBuffer.clear();
+					writeBuffer.putInt(0);
+					writeBuffer.flip();
+					writeFully(channel, writeBuffer);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Copies doubles from the file into the specified array, one window at a
+	 * time.
+	 * 
+	 * @return the position in the file after the doubles
+	 */
+	private static long readDoubles(FileChannel channel, long position,
+			double[] values) throws IOException {
+		for (int start = 0; start < values.length;) {
+			int count = Math.min(values.length - start, WINDOW_SIZE / 8);
+			map(channel, position, count * 8L).asDoubleBuffer().get(values,
+					start, count);
+			position += count * 8L;
+			start += count;
+		}
+		return position;
+	}
+
+	/**
+	 * Copies ints from the file into the specified array, one window at a
+	 * time.
+	 * 
+	 * @return the position in the file after the ints, aligned to 8 bytes
+	 */
+	private static long readInts(FileChannel channel, long position,
+			int[] codes) throws IOException {
+		for (int start = 0; start < codes.length;) {
+			int count = Math.min(codes.length - start, WINDOW_SIZE / 4);
+			map(channel, position, count * 4L).asIntBuffer().get(codes, start,
+					count);
+			position += count * 4L;
+			start += count;
+		}
+		return (position + 7) & ~7L;
+	}
+
+	/**
+	 * Maps the specified region of the file into memory as little-endian
+	 */
+	private static ByteBuffer map(FileChannel channel, long position,
+			long length) throws IOException {
+		return channel.map(FileChannel.MapMode.READ_ONLY, position, length)
+				.order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	private static void writeFully(FileChannel channel, ByteBuffer buffer)
+			throws IOException {
+		while (buffer.hasRemaining())
+			channel.write(buffer);
+	}
+
+	private static String readString(ByteBuffer buffer)
+			throws UnsupportedEncodingException {
+		byte[] bytes = new byte[buffer.getInt()];
+		buffer.get(bytes);
+		return new String(bytes, "UTF-8");
+	}
+
+	/**
+	 * A growable little-endian buffer which the header is written into.
+	 */
+	private static class HeaderBuffer {
+		ByteBuffer buffer = ByteBuffer.allocate(4096).order(
+				ByteOrder.LITTLE_ENDIAN);
+
+		private void ensureRemaining(int length) {
+			if (buffer.remaining() < length) {
+				ByteBuffer newBuffer = ByteBuffer.allocate(
+						Math.max(buffer.capacity() * 2, buffer.position()
+								+ length)).order(ByteOrder.LITTLE_ENDIAN);
+				buffer.flip();
+				newBuffer.put(buffer);
+				buffer = newBuffer;
+			}
+		}
+
+		void put(boolean b) {
+			ensureRemaining(1);
+			buffer.put((byte) (b ? 1 : 0));
+		}
+
+		void putInt(int i) {
+			ensureRemaining(4);
+			buffer.putInt(i);
+		}
+
+		void putLong(long l) {
+			ensureRemaining(8);
+			buffer.putLong(l);
+		}
+
+		void putDouble(double d) {
+			ensureRemaining(8);
+			buffer.putDouble(d);
+		}
+
+		void putString(String s) throws UnsupportedEncodingException {
+			byte[] bytes = s.getBytes("UTF-8");
+			ensureRemaining(4 + bytes.length);
+			buffer.putInt(bytes.length);
+			buffer.put(bytes);
+		}
+	}
+}
@@ -60,11 +60,11 @@ public class DataTableSwingModel implements TableModel {
 	}
 
 	public int getRowCount() {
-		return data.records.size();
+		return data.getNumberOfRecords();
 	}
 
 	public Object getValueAt(int record, int dimension) {
-		return data.records.get(record).get(dimension);
+		return data.getEntry(record, dimension);
 	}
 
 	/**
@@ -19,17 +19,60 @@ package jyVis.data;
 
 import transformation.Interval;
 import transformation.Transformation;
+import transformation.TransformationKernel;
 import transformation.TransformationMapping;
 
 /**
  * A normalization which can be applied to data.
  * 
+ * The normalization of each dimension is compiled into a TransformationKernel
+ * (see getKernel()), which is kept until the domain of the dimension or the
+ * mapping function changes, so normalizing values does not allocate anything
+ * and the methods of this class are safe to call from several threads. Whole
+ * columns can be normalized with getNormalizedColumn(), which shares the
+ * normalized values with all other normalizations of the same table which use
+ * the same domain and mapping function for the dimension.
+ * 
  * @author Curran Kelleher
  * 
  */
 public class Normalization {
 	private Transformation transformation = new Transformation();
 
+	/**
+	 * The normalized columns this normalization holds, by dimension
+	 */
+	private NormalizedColumn[] columns;
+
+	/**
+	 * The kernels compiled by getKernel(), by dimension
+	 */
+	private TransformationKernel[] kernels;
+
+	/**
+	 * The minimum and maximum of the domain each kernel was compiled for
+	 */
+	private double[] kernelDomains;
+
+	/**
+	 * The mapping function each kernel was compiled with
+	 */
+	private TransformationMapping[] kernelFunctions;
+
+	/**
+	 * The mapping functions set for individual dimensions with
+	 * setMappingFunction(int, TransformationMapping), by dimension, or null if
+	 * there are none. Dimensions without one use the function of
+	 * transformation.
+	 */
+	private TransformationMapping[] dimensionFunctions;
+
+	/**
+	 * The domain of the dimension being normalized, as set by the interval
+	 * mapping
+	 */
+	private final Interval domain = new Interval();
+
 	/**
 	 * The data associated with this normalization
 	 */
@@ -72,8 +115,80 @@ public class Normalization {
 	 * @param dimension
 	 */
 	public double normalize(int record, int dimension) {
-		intervalMap.setDomainFromDimension(dimension, transformation.domain);
-		return transformation.transform(data.get(record, dimension));
+		return getKernel(dimension).transform(data.get(record, dimension));
+	}
+
+	/**
+	 * Gets the kernel which normalizes values of the specified dimension with
+	 * the current domain of the dimension and the current mapping function.
+	 * The kernel is immutable, so it can be used by any thread, and can be
+	 * applied to whole arrays of values.
+	 * 
+	 * @param dimension
+	 */
+	public synchronized TransformationKernel getKernel(int dimension) {
+		if (kernels == null) {
+			int numDimensions = data.getNumberOfDimensions();
+			kernels = new TransformationKernel[numDimensions];
+			kernelDomains = new double[numDimensions * 2];
+			kernelFunctions = new TransformationMapping[numDimensions];
+		}
+		TransformationMapping function = getMappingFunction(dimension);
+		intervalMap.setDomainFromDimension(dimension, domain);
+		TransformationKernel kernel = kernels[dimension];
+		int i = dimension * 2;
+		if (kernel == null || kernelFunctions[dimension] != function
+				|| Double.compare(kernelDomains[i], domain.min) != 0
+				|| Double.compare(kernelDomains[i + 1], domain.max) != 0) {
+			kernel = kernels[dimension] = TransformationKernel.compile(
+					function, domain.min, domain.max,
+					transformation.range.min, transformation.range.max);
+			kernelFunctions[dimension] = function;
+			kernelDomains[i] = domain.min;
+			kernelDomains[i + 1] = domain.max;
+		}
+		return kernel;
+	}
+
+	/**
+	 * Gets the normalized values of all records in the specified dimension, as
+	 * normalize() would compute them. The column is obtained from the data
+	 * table, which shares it between the normalizations using it, and is held
+	 * until the domain or mapping function of the dimension changes or
+	 * releaseNormalizedColumns() is called.
+	 * 
+	 * @param dimension
+	 * @return the normalized values, indexed by record, which must not be
+	 *         modified
+	 */
+	public synchronized double[] getNormalizedColumn(int dimension) {
+		if (columns == null)
+			columns = new NormalizedColumn[data.getNumberOfDimensions()];
+		TransformationMapping function = getMappingFunction(dimension);
+		intervalMap.setDomainFromDimension(dimension, domain);
+		NormalizedColumn column = columns[dimension];
+		if (column == null
+				|| !column.matches(domain.min, domain.max, function)) {
+			columns[dimension] = data.acquireNormalizedColumn(dimension,
+					domain.min, domain.max, function);
+			if (column != null)
+				data.releaseNormalizedColumn(column);
+			column = columns[dimension];
+		}
+		return column.values;
+	}
+
+	/**
+	 * Releases the normalized columns held by this normalization, so that the
+	 * data table can drop those which are not used elsewhere.
+	 */
+	public synchronized void releaseNormalizedColumns() {
+		if (columns != null)
+			for (int i = 0; i < columns.length; i++)
+				if (columns[i] != null) {
+					data.releaseNormalizedColumn(columns[i]);
+					columns[i] = null;
+				}
 	}
 
 	/**
@@ -85,9 +200,11 @@ public class Normalization {
 	 * @param dimension
 	 *            the dimension used to specify the output range
 	 */
-	public double inverseNormalize(double value, int dimension) {
-		intervalMap.setDomainFromDimension(dimension, transformation.domain);
-		return transformation.inverseTransform(value);
+	public synchronized double inverseNormalize(double value, int dimension) {
+		intervalMap.setDomainFromDimension(dimension, domain);
+		return getMappingFunction(dimension).inverseTransform(value,
+				domain.min, domain.max, transformation.range.min,
+				transformation.range.max);
 	}
 
 	/**
@@ -97,10 +214,37 @@ public class Normalization {
 	 * 
 	 * @param function
 	 */
-	public void setMappingFunction(TransformationMapping function) {
+	public synchronized void setMappingFunction(TransformationMapping function) {
 		transformation.function = function;
 	}
 
+	/**
+	 * Sets the mapping function used for the specified dimension only, which
+	 * is necessary for mappings which depend on the values of a dimension,
+	 * such as a QuantileTransformationMapping.
+	 * 
+	 * @param dimension
+	 * @param function
+	 *            the mapping function, or null to use the one set with
+	 *            setMappingFunction(TransformationMapping)
+	 */
+	public synchronized void setMappingFunction(int dimension,
+			TransformationMapping function) {
+		if (dimensionFunctions == null)
+			dimensionFunctions = new TransformationMapping[data
+					.getNumberOfDimensions()];
+		dimensionFunctions[dimension] = function;
+	}
+
+	/**
+	 * @return the mapping function used for the specified dimension
+	 */
+	public synchronized TransformationMapping getMappingFunction(int dimension) {
+		TransformationMapping function = dimensionFunctions == null ? null
+				: dimensionFunctions[dimension];
+		return function != null ? function : transformation.function;
+	}
+
 	public interface DimensionIntervalMapping {
 		public void setDomainFromDimension(int dimension, Interval domain);
 	}
@@ -0,0 +1,78 @@
+/******************************************************************************
+ * Copyright (C) 2007  Institute for Visualization and Perception Research,
+ *                     University of Massachusetts Lowell
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *******************************************************************************/
+package jyVis.data;
+
+import transformation.TransformationMapping;
+
+/**
+ * A column of a DataTable whose values have been normalized to the interval
+ * from 0 to 1, shared by all the views of the table which use the same
+ * normalization of the same dimension. Normalized columns are obtained from
+ * DataTable.acquireNormalizedColumn(), and must be given back with
+ * DataTable.releaseNormalizedColumn() when they are no longer used, so that
+ * the table can drop the ones no view uses.
+ * 
+ * @author Curran Kelleher
+ * @see Normalization#getNormalizedColumn(int)
+ */
+public class NormalizedColumn {
+	/**
+	 * The index of the dimension which was normalized
+	 */
+	public final int dimension;
+
+	/**
+	 * The domain the values were normalized from
+	 */
+	public final double min, max;
+
+	/**
+	 * The mapping function the values were normalized with
+	 */
+	public final TransformationMapping function;
+
+	/**
+	 * The normalized values, one per record. This array must not be modified.
+	 */
+	public final double[] values;
+
+	/**
+	 * The number of times this column has been acquired but not released
+	 */
+	int references;
+
+	NormalizedColumn(int dimension, double min, double max,
+			TransformationMapping function, double[] values) {
+		this.dimension = dimension;
+		this.min = min;
+		this.max = max;
+		this.function = function;
+		this.values = values;
+	}
+
+	/**
+	 * Determines whether this column is the normalization of it's dimension
+	 * from the specified domain with the specified function.
+	 */
+	public boolean matches(double min, double max,
+			TransformationMapping function) {
+		return Double.compare(this.min, min) == 0
+				&& Double.compare(this.max, max) == 0
+				&& this.function.equals(function);
+	}
+}
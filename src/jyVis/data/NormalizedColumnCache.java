@@ -0,0 +1,89 @@
+/******************************************************************************
+ * Copyright (C) 2007  Institute for Visualization and Perception Research,
+ *                     University of Massachusetts Lowell
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *******************************************************************************/
+package jyVis.data;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import transformation.TransformationKernel;
+import transformation.TransformationMapping;
+
+/**
+ * The normalized columns of a DataTable which are in use. Each column is
+ * computed the first time it is acquired, shared by everything which acquires
+ * it while it is in use, and dropped when the last reference to it is
+ * released. Since the domain a column was normalized from is part of what
+ * identifies it, a change to the metadata of a dimension causes new columns
+ * to be computed, and the old ones are dropped as their users move on.
+ * 
+ * @author Curran Kelleher
+ * @see NormalizedColumn
+ */
+class NormalizedColumnCache {
+	/**
+	 * The table whose columns are normalized
+	 */
+	private final DataTable data;
+
+	/**
+	 * The columns in use, by dimension. There are rarely more than one or two
+	 * per dimension, so they are found by searching.
+	 */
+	private final List<List<NormalizedColumn>> columns;
+
+	NormalizedColumnCache(DataTable data) {
+		this.data = data;
+		int numDimensions = data.getNumberOfDimensions();
+		columns = new ArrayList<List<NormalizedColumn>>(numDimensions);
+		for (int i = 0; i < numDimensions; i++)
+			columns.add(new ArrayList<NormalizedColumn>(2));
+	}
+
+	/**
+	 * Gets the normalization of the specified dimension from the specified
+	 * domain with the specified function, computing it if it is not in use.
+	 */
+	synchronized NormalizedColumn acquire(int dimension, double min,
+			double max, TransformationMapping function) {
+		List<NormalizedColumn> columnsOfDimension = columns.get(dimension);
+		for (NormalizedColumn column : columnsOfDimension)
+			if (column.matches(min, max, function)) {
+				column.references++;
+				return column;
+			}
+
+		DataColumn dataColumn = data.getColumn(dimension);
+		double[] values = dataColumn.copyValues(new double[dataColumn.size()]);
+		TransformationKernel.compile(function, min, max, 0, 1).transform(
+				values, values, 0, values.length);
+		NormalizedColumn column = new NormalizedColumn(dimension, min, max,
+				function, values);
+		column.references = 1;
+		columnsOfDimension.add(column);
+		return column;
+	}
+
+	/**
+	 * Releases one reference to the specified column, dropping it if it is no
+	 * longer used.
+	 */
+	synchronized void release(NormalizedColumn column) {
+		if (column.references > 0 && --column.references == 0)
+			columns.get(column.dimension).remove(column);
+	}
+}
@@ -0,0 +1,246 @@
+/******************************************************************************
+ * Copyright (C) 2007  Institute for Visualization and Perception Research,
+ *                     University of Massachusetts Lowell
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *******************************************************************************/
+package jyVis.data;
+
+import java.lang.ref.SoftReference;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+
+import jyVis.util.ParallelTasks;
+
+/**
+ * The sorted orders of the records of a DataTable. The order of the records by
+ * a single dimension is computed with a radix sort of the values of the
+ * column (in parallel for large tables), and kept until memory runs low, so
+ * sorting by a dimension which has been sorted by before costs nothing. Orders
+ * by several dimensions are built from the orders of the single dimensions.
+ * 
+ * Records are ordered as by Double.compare() on DataTable.get(), and records
+ * with equal values are in the order of their indices.
+ * 
+ * @author Curran Kelleher
+ * @see DataTable#getSortedRecordIndices(int)
+ */
+class RecordOrderCache {
+	/**
+	 * The number of bits of the keys sorted by each pass of the radix sort
+	 */
+	private static final int BITS_PER_PASS = 8;
+
+	/**
+	 * The number of different digits of a pass of the radix sort
+	 */
+	private static final int RADIX = 1 << BITS_PER_PASS;
+
+	/**
+	 * The minimum number of records sorted by a task
+	 */
+	private static final int MIN_RECORDS_PER_TASK = 65536;
+
+	/**
+	 * The table whose records are sorted
+	 */
+	private final DataTable data;
+
+	/**
+	 * The orders of the records by each dimension which have been computed
+	 */
+	private final List<SoftReference<int[]>> orders;
+
+	RecordOrderCache(DataTable data) {
+		this.data = data;
+		int numDimensions = data.getNumberOfDimensions();
+		orders = new ArrayList<SoftReference<int[]>>(numDimensions);
+		for (int i = 0; i < numDimensions; i++)
+			orders.add(null);
+	}
+
+	/**
+	 * Gets the indices of the records sorted by the specified dimension,
+	 * computing them if they are not cached.
+	 * 
+	 * @return the indices, which must not be modified
+	 */
+	synchronized int[] getOrder(int dimension) {
+		SoftReference<int[]> reference = orders.get(dimension);
+		int[] order = reference == null ? null : reference.get();
+		if (order == null) {
+			order = sort(getKeys(dimension));
+			orders.set(dimension, new SoftReference<int[]>(order));
+		}
+		return order;
+	}
+
+	/**
+	 * Gets the indices of the records sorted by the first of the specified
+	 * dimensions, then records with equal values by the second, and so on.
+	 * Starting from the order by the last dimension, the records are sorted
+	 * by the ranks of their values in each of the other dimensions with a
+	 * stable counting sort.
+	 * 
+	 * @return the indices, which must not be modified
+	 */
+	int[] getOrder(int[] dimensions) {
+		if (dimensions.length == 0)
+			throw new IllegalArgumentException("no dimensions to sort by");
+		if (dimensions.length == 1)
+			return getOrder(dimensions[0]);
+		int n = data.getNumberOfRecords();
+		int[] order = getOrder(dimensions[dimensions.length - 1]);
+		int[] counts = new int[n + 1];
+		for (int k = dimensions.length - 2; k >= 0; k--) {
+			int[] ranks = getRanks(dimensions[k]);
+			int[] sorted = new int[n];
+			Arrays.fill(counts, 0);
+			for (int i = 0; i < n; i++)
+				counts[ranks[i] + 1]++;
+			for (int rank = 0; rank < n; rank++)
+				counts[rank + 1] += counts[rank];
+			for (int i = 0; i < n; i++) {
+				int record = order[i];
+				sorted[counts[ranks[record]]++] = record;
+			}
+			order = sorted;
+		}
+		return order;
+	}
+
+	/**
+	 * Computes the rank of each record in the order by the specified
+	 * dimension, where records with equal values have the same rank.
+	 * 
+	 * @return the ranks, by record index
+	 */
+	private int[] getRanks(int dimension) {
+		int[] order = getOrder(dimension);
+		DataColumn column = data.getColumn(dimension);
+		int[] ranks = new int[order.length];
+		for (int i = 1; i < order.length; i++)
+			ranks[order[i]] = Double.compare(column.get(order[i]), column
+					.get(order[i - 1])) == 0 ? ranks[order[i - 1]] : i;
+		return ranks;
+	}
+
+	/**
+	 * Computes the keys which the values of the specified dimension are sorted
+	 * by. The keys compare as unsigned integers in the same way as the values
+	 * compare with Double.compare().
+	 */
+	private long[] getKeys(int dimension) {
+		DataColumn column = data.getColumn(dimension);
+		long[] keys = new long[column.size()];
+		for (int i = 0; i < keys.length; i++) {
+			long bits = Double.doubleToLongBits(column.get(i));
+			// flip every bit of negative numbers, and the sign of the others
+			keys[i] = bits ^ (bits >> 63 | Long.MIN_VALUE);
+		}
+		return keys;
+	}
+
+	/**
+	 * Sorts the record indices by the specified keys, with a least significant
+	 * digit first radix sort. The records are divided among tasks, each of
+	 * which counts the digits of it's records and then moves them to their
+	 * place. Passes in which every key has the same digit are skipped.
+	 * 
+	 * @param keys
+	 *            the keys of the records, by record index, which are reordered
+	 * @return the indices of the records, sorted by their keys
+	 */
+	private static int[] sort(long[] keys) {
+		final int n = keys.length;
+		ForkJoinPool pool = ForkJoinPool.commonPool();
+		final int numTasks = Math.max(1, Math.min(pool.getParallelism(), n
+				/ MIN_RECORDS_PER_TASK));
+		final int[] starts = new int[numTasks + 1];
+		for (int t = 0; t <= numTasks; t++)
+			starts[t] = (int) ((long) n * t / numTasks);
+
+		final long[][] keyBuffers = { keys, new long[n] };
+		final int[][] orderBuffers = { new int[n], new int[n] };
+		for (int i = 0; i < n; i++)
+			orderBuffers[0][i] = i;
+		final int[][] counts = new int[numTasks][RADIX];
+
+		int source = 0;
+		for (int shift = 0; shift < 64; shift += BITS_PER_PASS) {
+			final int pass = shift;
+			final long[] fromKeys = keyBuffers[source];
+			final int[] fromOrder = orderBuffers[source];
+			final long[] toKeys = keyBuffers[1 - source];
+			final int[] toOrder = orderBuffers[1 - source];
+
+			// count the digits of the records of each task
+			List<Callable<Object>> tasks = new ArrayList<Callable<Object>>();
+			for (int t = 0; t < numTasks; t++) {
+				final int task = t;
+				tasks.add(new Callable<Object>() {
+					public Object call() {
+						int[] taskCounts = counts[task];
+						Arrays.fill(taskCounts, 0);
+						for (int i = starts[task]; i < starts[task + 1]; i++)
+							taskCounts[(int) (fromKeys[i] >>> pass) & RADIX - 1]++;
+						return null;
+					}
+				});
+			}
+			ParallelTasks.runUninterruptibly(pool, tasks);
+
+			// turn the counts into the positions each task moves it's
+			// records with each digit to, unless there is only one digit
+			boolean oneDigit = false;
+			int position = 0;
+			for (int digit = 0; digit < RADIX; digit++) {
+				int total = 0;
+				for (int t = 0; t < numTasks; t++) {
+					int count = counts[t][digit];
+					counts[t][digit] = position;
+					position += count;
+					total += count;
+				}
+				oneDigit |= total == n;
+			}
+			if (oneDigit)
+				continue;
+
+			// move the records
+			tasks.clear();
+			for (int t = 0; t < numTasks; t++) {
+				final int task = t;
+				tasks.add(new Callable<Object>() {
+					public Object call() {
+						int[] positions = counts[task];
+						for (int i = starts[task]; i < starts[task + 1]; i++) {
+							long key = fromKeys[i];
+							int p = positions[(int) (key >>> pass) & RADIX - 1]++;
+							toKeys[p] = key;
+							toOrder[p] = fromOrder[i];
+						}
+						return null;
+					}
+				});
+			}
+			ParallelTasks.runUninterruptibly(pool, tasks);
+			source = 1 - source;
+		}
+		return orderBuffers[source];
+	}
+}
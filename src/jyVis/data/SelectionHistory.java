@@ -0,0 +1,230 @@
+/******************************************************************************
+ * Copyright (C) 2007  Institute for Visualization and Perception Research,
+ *                     University of Massachusetts Lowell
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *******************************************************************************/
+package jyVis.data;
+
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * The undo and redo history of the selections of a DataTable. Only the
+ * selections as they were last recorded are kept in full; each step of the
+ * history is stored as the difference between the selections before and after
+ * it. The difference of each selection is the exclusive or of it's bits before
+ * and after, of which only the non-zero words are stored. Because the
+ * exclusive or is it's own inverse, the same difference is used to undo and
+ * to redo a step.
+ * 
+ * @author Curran Kelleher
+ * @see DataTable#recordSelectionChange()
+ */
+public class SelectionHistory {
+	/**
+	 * One step of the history
+	 */
+	private static class Step {
+		/**
+		 * The number of selections before and after the step
+		 */
+		final int numSelectionsBefore, numSelectionsAfter;
+
+		/**
+		 * The start of the differences of each selection in wordIndices and
+		 * words, followed by the total number of differing words
+		 */
+		final int[] starts;
+
+		/**
+		 * The indices of the words which differ
+		 */
+		final int[] wordIndices;
+
+		/**
+		 * The exclusive or of the differing words before and after the step
+		 */
+		final long[] words;
+
+		Step(int numSelectionsBefore, int numSelectionsAfter, int[] starts,
+				int[] wordIndices, long[] words) {
+			this.numSelectionsBefore = numSelectionsBefore;
+			this.numSelectionsAfter = numSelectionsAfter;
+			this.starts = starts;
+			this.wordIndices = wordIndices;
+			this.words = words;
+		}
+	}
+
+	/**
+	 * The maximum number of steps which can be undone
+	 */
+	public static int maxSteps = 100;
+
+	/**
+	 * The bits of each selection as they were last recorded
+	 */
+	private long[][] current = new long[0][];
+
+	/**
+	 * The steps which can be undone, the most recent last
+	 */
+	private final LinkedList<Step> undoSteps = new LinkedList<Step>();
+
+	/**
+	 * The steps which can be redone, the most recently undone last
+	 */
+	private final LinkedList<Step> redoSteps = new LinkedList<Step>();
+
+	/**
+	 * Records the specified selections as a new step of the history, unless
+	 * they are the same as the ones last recorded. Recording a step discards
+	 * the steps which could be redone.
+	 * 
+	 * @param selections
+	 *            the selections, or null if there is no selection
+	 * @return true if a step was recorded
+	 */
+	public boolean record(List<DataSelection> selections) {
+		int n = selections == null ? 0 : selections.size();
+		long[][] next = new long[n][];
+		for (int i = 0; i < n; i++)
+			next[i] = selections.get(i).getWordArray().clone();
+
+		int numSelections = Math.max(current.length, n);
+		int[] starts = new int[numSelections + 1];
+		int numWords = 0;
+		for (int i = 0; i < numSelections; i++)
+			numWords += countDifferences(get(current, i), get(next, i));
+		if (numWords == 0 && current.length == n)
+			return false;
+
+		int[] wordIndices = new int[numWords];
+		long[] words = new long[numWords];
+		int k = 0;
+		for (int i = 0; i < numSelections; i++) {
+			starts[i] = k;
+			long[] a = get(current, i), b = get(next, i);
+			for (int j = 0, length = Math.max(a.length, b.length); j < length; j++) {
+				long word = get(a, j) ^ get(b, j);
+				if (word != 0) {
+					wordIndices[k] = j;
+					words[k++] = word;
+				}
+			}
+		}
+		starts[numSelections] = k;
+
+		undoSteps.add(new Step(current.length, n, starts, wordIndices, words));
+		while (undoSteps.size() > maxSteps)
+			undoSteps.removeFirst();
+		redoSteps.clear();
+		current = next;
+		return true;
+	}
+
+	/**
+	 * Undoes the most recent step.
+	 * 
+	 * @return the bits of each selection after undoing the step, or null if
+	 *         there is nothing to undo
+	 */
+	public long[][] undo() {
+		if (undoSteps.isEmpty())
+			return null;
+		Step step = undoSteps.removeLast();
+		redoSteps.add(step);
+		return apply(step, step.numSelectionsBefore);
+	}
+
+	/**
+	 * Redoes the most recently undone step.
+	 * 
+	 * @return the bits of each selection after redoing the step, or null if
+	 *         there is nothing to redo
+	 */
+	public long[][] redo() {
+		if (redoSteps.isEmpty())
+			return null;
+		Step step = redoSteps.removeLast();
+		undoSteps.add(step);
+		return apply(step, step.numSelectionsAfter);
+	}
+
+	/**
+	 * @return true if there is a step which can be undone
+	 */
+	public boolean canUndo() {
+		return !undoSteps.isEmpty();
+	}
+
+	/**
+	 * @return true if there is a step which can be redone
+	 */
+	public boolean canRedo() {
+		return !redoSteps.isEmpty();
+	}
+
+	/**
+	 * Applies the differences of the specified step to the current selections.
+	 * 
+	 * @return copies of the resulting selections
+	 */
+	private long[][] apply(Step step, int numSelections) {
+		long[][] next = new long[numSelections][];
+		for (int i = 0; i < numSelections; i++) {
+			long[] bits = get(current, i);
+			int start = step.starts[i], end = step.starts[i + 1];
+			if (end > start)
+				bits = Arrays.copyOf(bits, Math.max(bits.length,
+						step.wordIndices[end - 1] + 1));
+			for (int k = start; k < end; k++)
+				bits[step.wordIndices[k]] ^= step.words[k];
+			next[i] = bits;
+		}
+		current = next;
+		long[][] copies = new long[numSelections][];
+		for (int i = 0; i < numSelections; i++)
+			copies[i] = next[i].clone();
+		return copies;
+	}
+
+	/**
+	 * @return the number of words which differ between the specified bits
+	 */
+	private static int countDifferences(long[] a, long[] b) {
+		int count = 0;
+		for (int j = 0, length = Math.max(a.length, b.length); j < length; j++)
+			if (get(a, j) != get(b, j))
+				count++;
+		return count;
+	}
+
+	/**
+	 * @return the bits of the specified selection, or no bits if there is no
+	 *         such selection
+	 */
+	private static long[] get(long[][] selections, int i) {
+		return i < selections.length ? selections[i] : new long[0];
+	}
+
+	/**
+	 * @return the specified word, or zero if it is past the end of the bits
+	 */
+	private static long get(long[] bits, int j) {
+		return j < bits.length ? bits[j] : 0;
+	}
+}
@@ -0,0 +1,322 @@
+/******************************************************************************
+ * Copyright (C) 2007  Institute for Visualization and Perception Research,
+ *                     University of Massachusetts Lowell
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *******************************************************************************/
+package jyVis.graphics;
+
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.util.Arrays;
+import java.util.List;
+
+import jyVis.visualizationPrimitives.VisualizationPrimitive;
+
+/**
+ * A spatial index of the pixel-space bounding boxes of visualization
+ * primitives, used for answering point queries (which object is under the
+ * mouse) without testing every object. The panel is divided into a uniform
+ * grid of cells, and each object is registered in every cell its bounding box
+ * overlaps. Objects which overlap very many cells are kept in a separate list
+ * which is checked on every query.
+ * 
+ * The index is maintained incrementally: update() compares the current
+ * bounding box of each object with the one it was indexed with, and only
+ * moves the objects which have changed.
+ * 
+ * @author Curran Kelleher
+ * @see VisualizationPrimitiveIndex
+ */
+public class BoundingBoxIndex {
+	/**
+	 * Decides which objects a point query may return.
+	 */
+	public interface Filter {
+		/**
+		 * @return true if the specified object, whose bounding box contains
+		 *         the point, is a result of the query
+		 */
+		boolean accept(VisualizationPrimitive object, Point point);
+	}
+
+	/**
+	 * The width and height of the grid cells, in pixels
+	 */
+	private static final int CELL_SIZE = 32;
+
+	/**
+	 * The number of cells an object may overlap before it is put in the list
+	 * of large objects instead of in the cells
+	 */
+	private static final int MAX_CELLS_PER_OBJECT = 64;
+
+	/**
+	 * The objects being indexed, in painting order
+	 */
+	private final List<VisualizationPrimitive> objects;
+
+	/**
+	 * The objects as they were when last indexed, by position in the list
+	 */
+	private VisualizationPrimitive[] indexedObjects = new VisualizationPrimitive[0];
+
+	/**
+	 * The bounding boxes the objects were indexed with, as (x, y, width,
+	 * height) quadruples. Objects with an empty bounding box are not in any
+	 * cell.
+	 */
+	private int[] boxes = new int[0];
+
+	/**
+	 * The number of objects which have been indexed
+	 */
+	private int numIndexed;
+
+	/**
+	 * The number of columns and rows of cells
+	 */
+	private int columns = 1, rows = 1;
+
+	/**
+	 * The indices of the objects overlapping each cell (in ascending order),
+	 * for the cells in row major order. The array for a cell is created when
+	 * the first object is put in it.
+	 */
+	private int[][] cells = new int[1][];
+
+	/**
+	 * The number of entries used in each array of cells
+	 */
+	private int[] cellSizes = new int[1];
+
+	/**
+	 * The indices of the objects which overlap too many cells to be put in
+	 * them, in ascending order
+	 */
+	private int[] largeObjects = new int[16];
+
+	/**
+	 * The number of entries used in largeObjects
+	 */
+	private int numLargeObjects;
+
+	/**
+	 * Construct an index which will index the objects in the specified list
+	 * 
+	 * @param objects
+	 */
+	public BoundingBoxIndex(List<VisualizationPrimitive> objects) {
+		this.objects = objects;
+	}
+
+	/**
+	 * Sets the size of the pixel space being indexed. If the size changed,
+	 * all entries are cleared.
+	 * 
+	 * @param width
+	 * @param height
+	 */
+	public void reset(int width, int height) {
+		int newColumns = Math.max(1, (width + CELL_SIZE - 1) / CELL_SIZE);
+		int newRows = Math.max(1, (height + CELL_SIZE - 1) / CELL_SIZE);
+		if (newColumns != columns || newRows != rows) {
+			columns = newColumns;
+			rows = newRows;
+			cells = new int[columns * rows][];
+			cellSizes = new int[columns * rows];
+			numLargeObjects = 0;
+			Arrays.fill(indexedObjects, 0, numIndexed, null);
+			numIndexed = 0;
+		}
+	}
+
+	/**
+	 * Brings the index up to date with the current list of objects and their
+	 * current bounding boxes. Only objects whose bounding box has changed (or
+	 * which have been added or removed) are moved.
+	 */
+	public void update() {
+		int n = objects.size();
+		if (n > indexedObjects.length) {
+			int newLength = Math.max(n, indexedObjects.length * 2);
+			indexedObjects = Arrays.copyOf(indexedObjects, newLength);
+			boxes = Arrays.copyOf(boxes, newLength * 4);
+		}
+
+		for (int i = 0; i < n; i++) {
+			VisualizationPrimitive o = objects.get(i);
+			Rectangle box = o.getBoundingBox();
+			int j = i * 4;
+			if (i < numIndexed) {
+				if (indexedObjects[i] == o && boxes[j] == box.x
+						&& boxes[j + 1] == box.y && boxes[j + 2] == box.width
+						&& boxes[j + 3] == box.height)
+					continue;
+				remove(i);
+			}
+			indexedObjects[i] = o;
+			boxes[j] = box.x;
+			boxes[j + 1] = box.y;
+			boxes[j + 2] = box.width;
+			boxes[j + 3] = box.height;
+			insert(i);
+		}
+
+		// remove the objects which are no longer in the list
+		for (int i = n; i < numIndexed; i++) {
+			remove(i);
+			indexedObjects[i] = null;
+		}
+		numIndexed = n;
+	}
+
+	/**
+	 * Finds the first object (in painting order) whose bounding box contains
+	 * the specified point and which is accepted by the specified filter.
+	 * 
+	 * @param point
+	 *            the pixel point to query with
+	 * @param filter
+	 *            decides which objects may be returned
+	 * @return the object, or null if there is none
+	 */
+	public VisualizationPrimitive performPointQuery(Point point, Filter filter) {
+		// the entries are sorted, so the first match in each array is the
+		// first in painting order
+		int best = Integer.MAX_VALUE;
+		int cell = cellRow(point.y) * columns + cellColumn(point.x);
+		int[] candidates = cells[cell];
+		for (int k = 0, size = cellSizes[cell]; k < size; k++) {
+			int i = candidates[k];
+			if (boxContains(i, point) && filter.accept(indexedObjects[i], point)) {
+				best = i;
+				break;
+			}
+		}
+		for (int k = 0; k < numLargeObjects; k++) {
+			int i = largeObjects[k];
+			if (i >= best)
+				break;
+			if (boxContains(i, point) && filter.accept(indexedObjects[i], point)) {
+				best = i;
+				break;
+			}
+		}
+		return best == Integer.MAX_VALUE ? null : indexedObjects[best];
+	}
+
+	/**
+	 * Determines whether the indexed bounding box of the specified object
+	 * contains the specified point, in the same way as Rectangle.contains().
+	 */
+	private boolean boxContains(int i, Point point) {
+		int j = i * 4;
+		int x = boxes[j], y = boxes[j + 1];
+		int width = boxes[j + 2], height = boxes[j + 3];
+		return width > 0 && height > 0 && point.x >= x && point.y >= y
+				&& point.x < x + width && point.y < y + height;
+	}
+
+	private int cellColumn(int x) {
+		return x < 0 ? 0 : Math.min(x / CELL_SIZE, columns - 1);
+	}
+
+	private int cellRow(int y) {
+		return y < 0 ? 0 : Math.min(y / CELL_SIZE, rows - 1);
+	}
+
+	/**
+	 * Puts the specified object in the cells it's indexed bounding box
+	 * overlaps
+	 */
+	private void insert(int i) {
+		int j = i * 4;
+		if (boxes[j + 2] <= 0 || boxes[j + 3] <= 0)
+			return;
+		int column1 = cellColumn(boxes[j]);
+		int column2 = cellColumn(boxes[j] + boxes[j + 2] - 1);
+		int row1 = cellRow(boxes[j + 1]);
+		int row2 = cellRow(boxes[j + 1] + boxes[j + 3] - 1);
+		if ((column2 - column1 + 1) * (row2 - row1 + 1) > MAX_CELLS_PER_OBJECT) {
+			if (numLargeObjects == largeObjects.length)
+				largeObjects = Arrays.copyOf(largeObjects,
+						numLargeObjects * 2);
+			insertEntry(largeObjects, numLargeObjects++, i);
+			return;
+		}
+		for (int row = row1; row <= row2; row++)
+			for (int column = column1; column <= column2; column++) {
+				int cell = row * columns + column;
+				int[] entries = cells[cell];
+				int size = cellSizes[cell];
+				if (entries == null)
+					entries = cells[cell] = new int[4];
+				else if (size == entries.length)
+					entries = cells[cell] = Arrays.copyOf(entries, size * 2);
+				insertEntry(entries, size, i);
+				cellSizes[cell] = size + 1;
+			}
+	}
+
+	/**
+	 * Removes the specified object from the cells it's indexed bounding box
+	 * overlaps
+	 */
+	private void remove(int i) {
+		int j = i * 4;
+		if (boxes[j + 2] <= 0 || boxes[j + 3] <= 0)
+			return;
+		int column1 = cellColumn(boxes[j]);
+		int column2 = cellColumn(boxes[j] + boxes[j + 2] - 1);
+		int row1 = cellRow(boxes[j + 1]);
+		int row2 = cellRow(boxes[j + 1] + boxes[j + 3] - 1);
+		if ((column2 - column1 + 1) * (row2 - row1 + 1) > MAX_CELLS_PER_OBJECT) {
+			numLargeObjects = removeEntry(largeObjects, numLargeObjects, i);
+			return;
+		}
+		for (int row = row1; row <= row2; row++)
+			for (int column = column1; column <= column2; column++) {
+				int cell = row * columns + column;
+				cellSizes[cell] = removeEntry(cells[cell], cellSizes[cell], i);
+			}
+	}
+
+	/**
+	 * Inserts the specified entry into the sorted array, which must have room
+	 * for it. Objects are usually indexed in order, so the entry usually goes
+	 * at the end.
+	 */
+	private static void insertEntry(int[] entries, int size, int entry) {
+		int k = size;
+		if (k > 0 && entries[k - 1] > entry) {
+			k = -Arrays.binarySearch(entries, 0, size, entry) - 1;
+			System.arraycopy(entries, k, entries, k + 1, size - k);
+		}
+		entries[k] = entry;
+	}
+
+	/**
+	 * Removes the specified entry from the sorted array.
+	 * 
+	 * @return the new number of entries in the array
+	 */
+	private static int removeEntry(int[] entries, int size, int entry) {
+		int k = Arrays.binarySearch(entries, 0, size, entry);
+		if (k < 0)
+			return size;
+		System.arraycopy(entries, k + 1, entries, k, size - k - 1);
+		return size - 1;
+	}
+}
@@ -17,6 +17,7 @@
  *******************************************************************************/
 package jyVis.graphics;
 
+import java.awt.AlphaComposite;
 import java.awt.Color;
 import java.awt.Component;
 import java.awt.Dimension;
@@ -58,6 +59,13 @@ public class DrawingPanel extends Component implements Observer {
 	 */
 	private List<VisualizationPrimitive> objects = new ArrayList<VisualizationPrimitive>();
 
+	/**
+	 * The objects which represent many records (see
+	 * VisualizationPrimitive.representsManyRecords()), in the order of the
+	 * list of objects. This is guarded by the lock of the list of objects.
+	 */
+	private List<VisualizationPrimitive> aggregateObjects = new ArrayList<VisualizationPrimitive>();
+
 	/**
 	 * The window into the coordinate space in which objects in this panel are
 	 * drawn.
@@ -80,7 +88,7 @@ public class DrawingPanel extends Component implements Observer {
 	 * efficient selection and mouse interactions.
 	 */
 	public VisualizationPrimitiveIndex index = new VisualizationPrimitiveIndex(
-			objects);
+			objects, aggregateObjects);
 
 	/**
 	 * A flag indicating whether a selection is in the process of being made or
@@ -105,10 +113,30 @@ public class DrawingPanel extends Component implements Observer {
 	 */
 	private BufferedImage bufferImageBehindSelection;
 
+	/**
+	 * The transparent image of the selected objects, drawn in the colors of
+	 * their selections, which is displayed on top of
+	 * bufferImageBehindSelection
+	 */
+	private BufferedImage bufferImageOfSelections;
+
 	/**
 	 * The back buffer Graphics objects
 	 */
-	private Graphics2D bufferGraphics, bufferGraphicsBehindSelection;
+	private Graphics2D bufferGraphics, bufferGraphicsBehindSelection,
+			bufferGraphicsOfSelections;
+
+	/**
+	 * False when the selections or the objects have changed since
+	 * bufferImageOfSelections was drawn
+	 */
+	private volatile boolean bufferImageOfSelectionsIsValid = false;
+
+	/**
+	 * True if bufferImageOfSelections was drawn with anti-aliasing (which is
+	 * turned off while a selection is being made)
+	 */
+	private boolean bufferImageOfSelectionsIsAntialiased;
 
 	/**
 	 * If true, then the window will always be square (not distorted). It is
@@ -126,6 +154,31 @@ public class DrawingPanel extends Component implements Observer {
 	 */
 	public int probingDimension = 0;
 
+	/**
+	 * The renderer which updates the display in the background when drawing
+	 * all objects takes longer than JyVisSettings.frameBudget
+	 */
+	private final ProgressiveRenderer progressiveRenderer = new ProgressiveRenderer(
+			this);
+
+	/**
+	 * The time, in milliseconds, the last complete drawing of all objects
+	 * took
+	 */
+	private volatile long renderingTime;
+
+	/**
+	 * Decides which records are drawn while the user is interacting with this
+	 * panel
+	 */
+	private final LevelOfDetail levelOfDetail = new LevelOfDetail();
+
+	/**
+	 * The time, in milliseconds, spent drawing the buffers since the last
+	 * frame of the current interaction was painted
+	 */
+	private long interactionFrameTime;
+
 	/**
 	 * Construct an empty drawing panel which is associated with the specified
 	 * DataTable for the purpose of selection.
@@ -171,37 +224,18 @@ public class DrawingPanel extends Component implements Observer {
 				// draw the buffered image
 				g.drawImage(bufferImage, 0, 0, this);
 			else {
+				long start = System.nanoTime();
 				if (bufferImageBehindSelection == null)
 					updateBufferBehindSelection();
+				if (!bufferImageOfSelectionsIsValid
+						|| bufferImageOfSelectionsIsAntialiased == selectionIsBeingMade)
+					updateBufferOfSelections(selections);
+				interactionFrameTime += (System.nanoTime() - start) / 1000000;
 
-				// draw the grayscale buffered image
+				// draw the grayscale buffered image, and the selected objects
+				// on top of it
 				g.drawImage(bufferImageBehindSelection, 0, 0, this);
-
-				// set anti-aliasing
-				if (!selectionIsBeingMade)
-					((Graphics2D) g).setRenderingHint(
-							RenderingHints.KEY_ANTIALIASING,
-							RenderingHints.VALUE_ANTIALIAS_ON);
-
-				// draw the selected objects
-				Color temp;
-				int numSelections = selections.size();
-				for (int i = 0; i < numSelections; i++) {
-					List<DataRecord> selectedRecords = selections.get(i);
-					Color color = JyVisSettings.selectionsColorMap.getColor(i
-							% JyVisSettings.selectionsColorMap.colorNodes
-									.size());
-					for (DataRecord r : selectedRecords) {
-						Map<DrawingPanel, List<VisualizationPrimitive>> objects = r.objects;
-						List<VisualizationPrimitive> list = objects.get(this);
-						for (VisualizationPrimitive o : list) {
-							temp = o.color;
-							o.color = color;
-							o.paint(g, window);
-							o.color = temp;
-						}
-					}
-				}
+				g.drawImage(bufferImageOfSelections, 0, 0, this);
 			}
 
 			// draw the selection polygon if a selection is being made
@@ -216,6 +250,11 @@ public class DrawingPanel extends Component implements Observer {
 			}
 			if (QuadTree.paintQuadTree)
 				index.paintQuadTree(g);
+
+			// adapt the level of detail to the time this frame took
+			if (levelOfDetail.isInteracting())
+				levelOfDetail.frameDrawn(interactionFrameTime);
+			interactionFrameTime = 0;
 		}
 	}
 
@@ -228,10 +267,32 @@ public class DrawingPanel extends Component implements Observer {
 	 * Redraws the objects without re-indexing them for selection and mouse
 	 * interactions. Use this method instead of updateDisplay() when the
 	 * position of things is not changing for faster performance
+	 * 
+	 * If JyVisSettings.progressiveRendering is true and drawing all objects
+	 * took longer than JyVisSettings.frameBudget the last time, the objects
+	 * are drawn in the background by a ProgressiveRenderer, and this method
+	 * returns immediately. The panel shows partial frames while they are
+	 * drawn, and calling this method again abandons the drawing in progress.
+	 * During an interaction (see beginInteraction()) the objects are always
+	 * drawn immediately, leaving out records if necessary.
 	 */
 	public void updateDisplay() {
-		updateBufferGraphics();
-		repaint();
+		int w = getWidth();
+		int h = getHeight();
+		if (JyVisSettings.progressiveRendering
+				&& !levelOfDetail.isInteracting()
+				&& renderingTime > JyVisSettings.frameBudget
+				&& bufferImage != null && w == oldWidth && h == oldHeight) {
+			synchronized (this) {
+				window.setSize(getSize());
+				if (makeWindowSquare)
+					window.makeWindowSquare();
+			}
+			progressiveRenderer.render();
+		} else {
+			updateBufferGraphics();
+			repaint();
+		}
 	}
 
 	private void updateBufferGraphics() {
@@ -239,6 +300,10 @@ public class DrawingPanel extends Component implements Observer {
 		int h = getHeight();
 		if (w > 0 && h > 0) {
 			synchronized (this) {
+				// this drawing replaces any drawing in the background
+				progressiveRenderer.cancel();
+				long start = System.nanoTime();
+
 				if (bufferImage == null || oldWidth != w || oldHeight != h) {
 					oldWidth = w;
 					oldHeight = h;
@@ -261,16 +326,116 @@ public class DrawingPanel extends Component implements Observer {
 				bufferGraphics.fillRect(0, 0, w, h);
 
 				// draw all of the objects
+				boolean sampling = levelOfDetail.isSampling();
 				synchronized (objects) {
 					index.reset(window.getWidth(), window.getHeight());
 					bufferImageBehindSelection = null;// a flag to recreate it
-					for (VisualizationPrimitive o : objects)
-						o.paint(bufferGraphics, window);
+					bufferImageOfSelectionsIsValid = false;
+					TiledRenderer.paint(sampling ? getSampledObjects()
+							: objects, bufferImage, bufferGraphics, window);
 				}
+				long time = (System.nanoTime() - start) / 1000000;
+				if (levelOfDetail.isInteracting())
+					interactionFrameTime += time;
+				if (!sampling)
+					renderingTime = time;
 			}
 		}
 	}
 
+	/**
+	 * @return the objects which are drawn at the current level of detail: all
+	 *         objects which have no associated record, and the objects of the
+	 *         records in the sample. This must be called while holding the
+	 *         lock of the list of objects.
+	 */
+	private List<VisualizationPrimitive> getSampledObjects() {
+		List<VisualizationPrimitive> sampledObjects = new ArrayList<VisualizationPrimitive>();
+		for (VisualizationPrimitive o : objects) {
+			DataRecord r = o.getAssociatedRecord();
+			if (r == null || levelOfDetail.isDrawn(r.index))
+				sampledObjects.add(o);
+		}
+		return sampledObjects;
+	}
+
+	/**
+	 * Signals the start of an interaction (such as dragging an object or
+	 * brushing) during which this panel will be updated often. Until
+	 * endInteraction() is called, if drawing all records would take longer
+	 * than JyVisSettings.interactiveFrameTime, only a stratified sample of the
+	 * records is drawn, sized to keep frames near that time. The sample is the
+	 * same from frame to frame, as long as it's size does not change.
+	 * 
+	 * This is called by the mouse listener of the panel when a mouse button is
+	 * pressed.
+	 */
+	public void beginInteraction() {
+		synchronized (this) {
+			levelOfDetail.begin(data == null ? 0 : data.getNumberOfRecords(),
+					renderingTime);
+			interactionFrameTime = 0;
+		}
+	}
+
+	/**
+	 * Signals the end of an interaction, drawing all records again if any
+	 * were left out while it was in progress.
+	 */
+	public void endInteraction() {
+		boolean sampled;
+		synchronized (this) {
+			sampled = levelOfDetail.end();
+		}
+		if (sampled)
+			updateDisplay();
+	}
+
+	/**
+	 * @return the list of objects drawn on this panel, which is also the lock
+	 *         held while using them. Subclasses hold it while changing the
+	 *         objects outside of the event dispatch thread.
+	 */
+	protected List<VisualizationPrimitive> getObjects() {
+		return objects;
+	}
+
+	/**
+	 * Copies a frame drawn by the progressive renderer into the back buffer
+	 * and repaints the panel, unless the frame is of an abandoned generation
+	 * or the size of the panel has changed.
+	 * 
+	 * @param frame
+	 *            the image of the objects drawn so far
+	 * @param generation
+	 *            the generation of the pass which drew the frame
+	 * @param complete
+	 *            true if all objects have been drawn
+	 * @param time
+	 *            the time, in milliseconds, drawing all objects took
+	 */
+	void publishFrame(BufferedImage frame, int generation, boolean complete,
+			long time) {
+		synchronized (this) {
+			if (!progressiveRenderer.isCurrent(generation)
+					|| bufferImage == null
+					|| frame.getWidth() != bufferImage.getWidth()
+					|| frame.getHeight() != bufferImage.getHeight())
+				return;
+			bufferImage.setData(frame.getRaster());
+			if (complete) {
+				synchronized (objects) {
+					// the objects were drawn, and so must be indexed again
+					index.reset(window.getWidth(), window.getHeight());
+				}
+				bufferImageBehindSelection = null;
+				bufferImageOfSelectionsIsValid = false;
+				renderingTime = time;
+			}
+		}
+		repaint();
+	}
+
 	private void updateBufferBehindSelection() {
 
 		// if there is data
@@ -292,12 +457,86 @@ public class DrawingPanel extends Component implements Observer {
 			bufferGraphicsBehindSelection.fillRect(0, 0, w, h);
 
 			Color temp;
-			for (VisualizationPrimitive o : objects) {
-				// paint for behind selections
-				temp = o.color;
-				o.color = JyVisSettings.colorOfObjectsBehindSelections;
-				o.paint(bufferGraphicsBehindSelection, window);
-				o.color = temp;
+			synchronized (objects) {
+				List<VisualizationPrimitive> drawnObjects = levelOfDetail
+						.isSampling() ? getSampledObjects() : objects;
+				for (VisualizationPrimitive o : drawnObjects) {
+					// paint for behind selections
+					temp = o.color;
+					o.color = JyVisSettings.colorOfObjectsBehindSelections;
+					o.paint(bufferGraphicsBehindSelection, window);
+					o.color = temp;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Draws the selected objects, in the colors of their selections, into
+	 * bufferImageOfSelections. This is only done when the selections or the
+	 * objects change, so that repainting the panel while a selection exists
+	 * only draws two images.
+	 * 
+	 * @param selections
+	 *            the current list of selections
+	 */
+	private void updateBufferOfSelections(List<DataSelection> selections) {
+		int w = getWidth();
+		int h = getHeight();
+		if (bufferImageOfSelections == null
+				|| bufferImageOfSelections.getWidth() != w
+				|| bufferImageOfSelections.getHeight() != h) {
+			bufferImageOfSelections = new BufferedImage(w, h,
+					BufferedImage.TYPE_INT_ARGB_PRE);
+			bufferGraphicsOfSelections = bufferImageOfSelections
+					.createGraphics();
+		}
+		Graphics2D g = bufferGraphicsOfSelections;
+
+		// make the image transparent
+		g.setComposite(AlphaComposite.Clear);
+		g.fillRect(0, 0, w, h);
+		g.setComposite(AlphaComposite.SrcOver);
+
+		// anti-alias unless a selection is being made
+		bufferImageOfSelectionsIsAntialiased = !selectionIsBeingMade;
+		g.setRenderingHint(RenderingHints.KEY_ANTIALIASING,
+				bufferImageOfSelectionsIsAntialiased ? RenderingHints.VALUE_ANTIALIAS_ON
+						: RenderingHints.VALUE_ANTIALIAS_OFF);
+
+		// this is set before drawing, so that a change to the selections
+		// while drawing will cause the image to be drawn again
+		bufferImageOfSelectionsIsValid = true;
+
+		// draw the selected objects. The colors of the objects are changed
+		// while they are drawn, so the lock of the objects is held to keep a
+		// progressive rendering pass from drawing them at the same time.
+		Color temp;
+		int numSelections = selections.size();
+		synchronized (this.objects) {
+			for (int i = 0; i < numSelections; i++) {
+				DataSelection selectedRecords = selections.get(i);
+				Color color = JyVisSettings.selectionsColorMap.getColor(i
+						% JyVisSettings.selectionsColorMap.colorNodes.size());
+				for (DataRecord r : selectedRecords) {
+					if (!levelOfDetail.isDrawn(r.index))
+						continue;
+					Map<DrawingPanel, List<VisualizationPrimitive>> objects = r.objects;
+					List<VisualizationPrimitive> list = objects == null ? null
+							: objects.get(this);
+					if (list != null)
+						for (VisualizationPrimitive o : list) {
+							temp = o.color;
+							o.color = color;
+							o.paint(g, window);
+							o.color = temp;
+						}
+				}
+
+				// draw the selected records of objects which represent many
+				// records
+				for (VisualizationPrimitive o : aggregateObjects)
+					o.paintSelection(g, window, selectedRecords, color);
 			}
 		}
 	}
@@ -310,6 +549,9 @@ public class DrawingPanel extends Component implements Observer {
 	public void add(VisualizationPrimitive object) {
 		synchronized (objects) {
 			objects.add(object);
+			if (object.representsManyRecords())
+				aggregateObjects.add(object);
+			index.objectsChanged();
 		}
 	}
 
@@ -320,8 +562,12 @@ public class DrawingPanel extends Component implements Observer {
 	 * @param objects
 	 */
 	public void add(List<VisualizationPrimitive> objects) {
-		synchronized (objects) {
+		synchronized (this.objects) {
 			this.objects.addAll(objects);
+			for (VisualizationPrimitive o : objects)
+				if (o.representsManyRecords())
+					aggregateObjects.add(o);
+			index.objectsChanged();
 		}
 	}
 
@@ -332,13 +578,35 @@ public class DrawingPanel extends Component implements Observer {
 	public void clearObjects() {
 		synchronized (objects) {
 			objects.clear();
+			aggregateObjects.clear();
+			index.objectsChanged();
 		}
 	}
 
+	/**
+	 * Gives back the normalized columns held by this panel (see
+	 * Normalization.getNormalizedColumn()), so that the data table can drop
+	 * them if no other view uses them. This does nothing by default; panels
+	 * which normalize the data override it. Columns are acquired again when
+	 * they are next needed.
+	 */
+	public void releaseNormalizedColumns() {
+	}
+
+	/**
+	 * Releases the normalized columns of this panel when it is removed from
+	 * it's window, for example when the window is closed.
+	 */
+	public void removeNotify() {
+		super.removeNotify();
+		releaseNormalizedColumns();
+	}
+
 	/**
 	 * This method is called when the selection in the data table changes.
 	 */
 	public void update(Observable arg0, Object arg1) {
+		bufferImageOfSelectionsIsValid = false;
 		repaint();
 	}
 
@@ -60,6 +60,7 @@ public class DrawingPanelMouseListener extends MouseAdapter {
 	}
 
 	public void mousePressed(MouseEvent e) {
+		parentPanel.beginInteraction();
 		delegator.assignObjectWithMouseFocus(e);
 		if (!delegator.mousePressed(e))
 			selectionListener.mousePressed(e);
@@ -73,6 +74,7 @@ public class DrawingPanelMouseListener extends MouseAdapter {
 	public void mouseReleased(MouseEvent e) {
 		if (!delegator.mouseReleased(e))
 			selectionListener.mouseReleased(e);
+		parentPanel.endInteraction();
 	}
 
 	public void mouseMoved(MouseEvent e) {
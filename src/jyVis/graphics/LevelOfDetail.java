@@ -0,0 +1,185 @@
+/******************************************************************************
+ * Copyright (C) 2007  Institute for Visualization and Perception Research,
+ *                     University of Massachusetts Lowell
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *******************************************************************************/
+package jyVis.graphics;
+
+import java.util.Random;
+
+import jyVis.JyVisSettings;
+
+/**
+ * Decides which records a DrawingPanel draws while the user is interacting
+ * with it (dragging an anchor or an axis, or brushing), so that the panel
+ * stays responsive when drawing all records takes too long.
+ * 
+ * The records are divided into aligned blocks of 2^level consecutive indices,
+ * and one record of each block is drawn: the one with the smallest random
+ * priority. Since the record chosen for a block is also the one chosen for
+ * the half of the block it is in, the sample at one level contains the samples
+ * at all higher levels, and the priorities are fixed, so the drawn records
+ * only change when the level does. The level is adapted after every frame to
+ * keep the time frames take to draw near
+ * JyVisSettings.interactiveFrameTime.
+ * 
+ * @author Curran Kelleher
+ * @see DrawingPanel#beginInteraction()
+ */
+class LevelOfDetail {
+	/**
+	 * The highest level, at which one record in 2^MAX_LEVEL is drawn
+	 */
+	private static final int MAX_LEVEL = 24;
+
+	/**
+	 * For each record, the highest level at which it is drawn
+	 */
+	private byte[] recordLevels = new byte[0];
+
+	/**
+	 * The current level, 0 meaning all records are drawn
+	 */
+	private int level;
+
+	/**
+	 * True between beginInteraction() and endInteraction()
+	 */
+	private boolean interacting;
+
+	/**
+	 * True if a frame was drawn with some records left out since the
+	 * interaction began
+	 */
+	private boolean sampled;
+
+	/**
+	 * Starts an interaction, choosing the initial level from the time the last
+	 * complete drawing of the panel took.
+	 * 
+	 * @param numberOfRecords
+	 *            the number of records of the table of the panel
+	 * @param renderingTime
+	 *            the time, in milliseconds, drawing all records took
+	 */
+	void begin(int numberOfRecords, long renderingTime) {
+		if (recordLevels.length != numberOfRecords)
+			computeRecordLevels(numberOfRecords);
+		interacting = true;
+		sampled = false;
+		level = 0;
+		long frameTime = Math.max(1, JyVisSettings.interactiveFrameTime);
+		while (level < MAX_LEVEL && renderingTime >> level > frameTime)
+			level++;
+	}
+
+	/**
+	 * Ends the interaction.
+	 * 
+	 * @return true if any frame was drawn with records left out, in which case
+	 *         the panel must be drawn again in full
+	 */
+	boolean end() {
+		boolean wasSampled = sampled;
+		interacting = false;
+		sampled = false;
+		return wasSampled;
+	}
+
+	/**
+	 * @return true if an interaction is in progress
+	 */
+	boolean isInteracting() {
+		return interacting;
+	}
+
+	/**
+	 * @return true if records are currently left out
+	 */
+	boolean isSampling() {
+		return interacting && level > 0 && JyVisSettings.levelOfDetailRendering;
+	}
+
+	/**
+	 * @return true if the record with the specified index is drawn at the
+	 *         current level
+	 */
+	boolean isDrawn(int recordIndex) {
+		if (!isSampling())
+			return true;
+		if (recordIndex < 0 || recordIndex >= recordLevels.length)
+			return true;
+		boolean drawn = recordLevels[recordIndex] >= level;
+		if (!drawn)
+			sampled = true;
+		return drawn;
+	}
+
+	/**
+	 * Adapts the level to the time the last frame of the interaction took. The
+	 * level is raised as soon as frames are too slow, but only lowered when
+	 * frames at the lower level (which draw twice as many records) would still
+	 * be fast enough, so that it does not alternate between two levels.
+	 * 
+	 * @param frameTime
+	 *            the time, in milliseconds, the last frame took to draw
+	 */
+	void frameDrawn(long frameTime) {
+		if (!interacting)
+			return;
+		long target = Math.max(1, JyVisSettings.interactiveFrameTime);
+		if (frameTime > target) {
+			while (level < MAX_LEVEL && frameTime > target) {
+				level++;
+				frameTime >>= 1;
+			}
+		} else if (level > 0 && frameTime * 2 < target * 3 / 4)
+			level--;
+	}
+
+	/**
+	 * Computes the level of every record by holding a tournament between the
+	 * records of each pair of neighboring blocks, which the record with the
+	 * smaller priority wins. The winner of a block of 2^j records has level j.
+	 */
+	private void computeRecordLevels(int numberOfRecords) {
+		recordLevels = new byte[numberOfRecords];
+		int[] priorities = new int[numberOfRecords];
+		Random random = new Random(0);
+		for (int i = 0; i < numberOfRecords; i++)
+			priorities[i] = random.nextInt();
+
+		// the winners of the blocks of the current size
+		int[] winners = new int[numberOfRecords];
+		for (int i = 0; i < numberOfRecords; i++)
+			winners[i] = i;
+		int numWinners = numberOfRecords;
+		for (byte j = 1; numWinners > 1; j++) {
+			int n = 0;
+			for (int k = 0; k < numWinners; k += 2) {
+				int winner = winners[k];
+				if (k + 1 < numWinners
+						&& priorities[winners[k + 1]] < priorities[winner])
+					winner = winners[k + 1];
+				recordLevels[winner] = j;
+				winners[n++] = winner;
+			}
+			numWinners = n;
+		}
+		// the winner of the whole table is drawn at every level
+		if (numberOfRecords > 0)
+			recordLevels[winners[0]] = Byte.MAX_VALUE;
+	}
+}
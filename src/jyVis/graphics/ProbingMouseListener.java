@@ -105,7 +105,8 @@ public class ProbingMouseListener {
 		popupPanel.removeAll();
 		popupPanel.add(new JLabel(parentPanel.data.dimensions
 				.get(parentPanel.probingDimension).name
-				+ " : " + record.get(parentPanel.probingDimension).toString()));
+				+ " : "
+				+ record.getValueAsString(parentPanel.probingDimension)));
 
 		if (popup == null)
 			initializePopupPanelSize();
@@ -0,0 +1,279 @@
+/******************************************************************************
+ * Copyright (C) 2007  Institute for Visualization and Perception Research,
+ *                     University of Massachusetts Lowell
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *******************************************************************************/
+package jyVis.graphics;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import jyVis.JyVisSettings;
+import jyVis.visualizationPrimitives.VisualizationPrimitive;
+import transformation.Window2D;
+
+/**
+ * Renders the objects of a DrawingPanel on a background thread, so that
+ * updating the display of a panel with many objects does not block the thread
+ * which changed them (usually the event dispatch thread, while the user drags
+ * something).
+ * 
+ * Each rendering pass draws the objects in slices of about SLICE_TIME
+ * milliseconds. A pass first draws a preview for about JyVisSettings.frameBudget
+ * milliseconds: the objects which have no associated record (axes, labels,
+ * anchors) are drawn first, in the order of the list, and then the objects of
+ * records in a random order, so that the preview shows an even sample of the
+ * records. The preview is published, and then all objects are drawn again in
+ * the order of the list, so that the complete frame looks the same as one
+ * drawn by the panel itself. Each call to render() starts a new generation; a
+ * pass checks between slices whether it is still of the latest generation,
+ * and if not it is abandoned and a pass of the latest generation is started.
+ * 
+ * @author Curran Kelleher
+ * @see DrawingPanel#updateDisplay()
+ */
+class ProgressiveRenderer implements Runnable {
+	/**
+	 * The time, in milliseconds, each slice of objects should take to draw
+	 */
+	private static final int SLICE_TIME = 10;
+
+	/**
+	 * The number of objects drawn in the first slice of a pass
+	 */
+	private static final int FIRST_SLICE_SIZE = 256;
+
+	/**
+	 * The panel whose objects are rendered
+	 */
+	private final DrawingPanel panel;
+
+	/**
+	 * The latest generation, incremented by render() and cancel()
+	 */
+	private volatile int generation;
+
+	/**
+	 * True if a pass of the latest generation has been requested but not
+	 * started
+	 */
+	private boolean passRequested;
+
+	/**
+	 * The rendering thread, which is started when the first pass is requested
+	 */
+	private Thread thread;
+
+	/**
+	 * A random permutation of the positions in the list of objects, which
+	 * determines the order in which the objects of records are drawn. It is
+	 * recomputed when the number of objects changes.
+	 */
+	private int[] shuffledPositions = new int[0];
+
+	/**
+	 * The image passes are drawn into
+	 */
+	private BufferedImage frame;
+
+	/**
+	 * Construct a renderer for the specified panel
+	 */
+	ProgressiveRenderer(DrawingPanel panel) {
+		this.panel = panel;
+	}
+
+	/**
+	 * Requests a pass of a new generation, abandoning the current pass if
+	 * there is one. This returns immediately.
+	 */
+	synchronized void render() {
+		generation++;
+		passRequested = true;
+		if (thread == null) {
+			thread = new Thread(this, "Progressive renderer");
+			thread.setDaemon(true);
+			thread.start();
+		}
+		notifyAll();
+	}
+
+	/**
+	 * Abandons the current pass, if there is one, without requesting a new
+	 * one.
+	 */
+	synchronized void cancel() {
+		generation++;
+		passRequested = false;
+	}
+
+	/**
+	 * @return true if the specified generation is the latest one
+	 */
+	boolean isCurrent(int generation) {
+		return generation == this.generation;
+	}
+
+	/**
+	 * Waits for requested passes and performs them.
+	 */
+	public void run() {
+		while (true) {
+			int passGeneration;
+			synchronized (this) {
+				while (!passRequested)
+					try {
+						wait();
+					} catch (InterruptedException e) {
+						return;
+					}
+				passRequested = false;
+				passGeneration = generation;
+			}
+			try {
+				renderPass(passGeneration);
+			} catch (RuntimeException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * Draws a preview of the objects of the panel and publishes it, then draws
+	 * all of the objects in order and publishes the complete frame, unless a
+	 * newer generation is requested.
+	 */
+	private void renderPass(int passGeneration) {
+		int width = panel.getWidth(), height = panel.getHeight();
+		if (width <= 0 || height <= 0)
+			return;
+
+		// take a snapshot of the objects and the window
+		List<VisualizationPrimitive> objects = panel.getObjects();
+		VisualizationPrimitive[] listOrder;
+		Window2D window;
+		synchronized (objects) {
+			listOrder = objects.toArray(new VisualizationPrimitive[objects
+					.size()]);
+			window = panel.window.copy();
+		}
+		VisualizationPrimitive[] importanceOrder = listOrder.clone();
+		sortByImportance(importanceOrder);
+
+		if (frame == null || frame.getWidth() != width
+				|| frame.getHeight() != height) {
+			frame = new BufferedImage(width, height,
+					BufferedImage.TYPE_INT_RGB);
+		}
+
+		// the preview
+		if (!draw(importanceOrder, window, passGeneration,
+				JyVisSettings.frameBudget * 1000000L))
+			return;
+		panel.publishFrame(frame, passGeneration, false, 0);
+
+		// the complete frame
+		long start = System.nanoTime();
+		if (!draw(listOrder, window, passGeneration, Long.MAX_VALUE))
+			return;
+		panel.publishFrame(frame, passGeneration, true,
+				(System.nanoTime() - start) / 1000000);
+	}
+
+	/**
+	 * Clears the frame and draws the specified objects into it, in order, one
+	 * slice at a time, until all are drawn or the specified time has passed.
+	 * 
+	 * @param timeLimit
+	 *            the time, in nanoseconds, after which no more slices are
+	 *            drawn
+	 * @return false if the pass was abandoned because a newer generation was
+	 *         requested
+	 */
+	private boolean draw(VisualizationPrimitive[] order, Window2D window,
+			int passGeneration, long timeLimit) {
+		long start = System.nanoTime();
+		List<VisualizationPrimitive> objects = panel.getObjects();
+		Graphics2D g = frame.createGraphics();
+		g.setRenderingHint(RenderingHints.KEY_ANTIALIASING,
+				RenderingHints.VALUE_ANTIALIAS_ON);
+		Color background = panel.getBackground();
+		g.setColor(background);
+		g.fillRect(0, 0, frame.getWidth(), frame.getHeight());
+
+		int sliceSize = FIRST_SLICE_SIZE;
+		try {
+			for (int sliceStart = 0; sliceStart < order.length;) {
+				if (!isCurrent(passGeneration))
+					return false;
+				int sliceEnd = Math.min(sliceStart + sliceSize, order.length);
+				long sliceStartTime = System.nanoTime();
+				synchronized (objects) {
+					TiledRenderer.paint(Arrays.asList(order).subList(
+							sliceStart, sliceEnd), frame, g, window);
+				}
+				long now = System.nanoTime();
+				if (now - start >= timeLimit)
+					break;
+
+				// size the next slice to take about SLICE_TIME
+				double nanosPerObject = (double) Math.max(1, now
+						- sliceStartTime)
+						/ (sliceEnd - sliceStart);
+				sliceSize = (int) Math.max(1, Math.min(Integer.MAX_VALUE / 2,
+						SLICE_TIME * 1000000L / nanosPerObject));
+				sliceStart = sliceEnd;
+			}
+		} finally {
+			g.dispose();
+		}
+		return true;
+	}
+
+	/**
+	 * Puts the objects which have no associated record first, in their
+	 * order, followed by the objects of records in the order of the random
+	 * permutation.
+	 */
+	private void sortByImportance(VisualizationPrimitive[] order) {
+		int n = order.length;
+		if (shuffledPositions.length != n) {
+			shuffledPositions = new int[n];
+			for (int i = 0; i < n; i++)
+				shuffledPositions[i] = i;
+			Random random = new Random(0);
+			for (int i = n - 1; i > 0; i--) {
+				int j = random.nextInt(i + 1);
+				int temp = shuffledPositions[i];
+				shuffledPositions[i] = shuffledPositions[j];
+				shuffledPositions[j] = temp;
+			}
+		}
+
+		VisualizationPrimitive[] objects = order.clone();
+		int k = 0;
+		for (VisualizationPrimitive o : objects)
+			if (o.getAssociatedRecord() == null)
+				order[k++] = o;
+		for (int position : shuffledPositions)
+			if (objects[position].getAssociatedRecord() != null)
+				order[k++] = objects[position];
+	}
+}
@@ -29,6 +29,7 @@ import jyVis.JyVis;
 import jyVis.JyVisSettings;
 import jyVis.data.DataRecord;
 import jyVis.data.DataSelection;
+import jyVis.data.DataTable;
 import quadTree.QuadTree;
 import scripting.ScriptBottleneck;
 
@@ -58,10 +59,28 @@ public class SelectionMouseListener {
 	List<Point> selectionPoints = new ArrayList<Point>();
 
 	/**
-	 * The re-usable list of selected data records
+	 * The selection which is being made or changed
 	 */
 	DataSelection selectedRecords = new DataSelection();
 
+	/**
+	 * The records which were in selectedRecords when the mouse was pressed
+	 */
+	DataSelection previousRecords = new DataSelection();
+
+	/**
+	 * The re-usable selection of the records inside the selection polygon (or
+	 * under the mouse), which is combined with previousRecords to get
+	 * selectedRecords
+	 */
+	DataSelection brushedRecords = new DataSelection();
+
+	/**
+	 * The DataSelection operation with which brushedRecords is combined with
+	 * previousRecords
+	 */
+	int operation = DataSelection.REPLACE;
+
 	/**
 	 * The re-usable selection polygon
 	 */
@@ -89,6 +108,20 @@ public class SelectionMouseListener {
 				if (e.getKeyChar() == JyVisSettings.drawQuadTreeModifierKey)
 					QuadTree.paintQuadTree = !QuadTree.paintQuadTree;
 			}
+
+			public void keyPressed(KeyEvent e) {
+				DataTable data = parentPanel.data;
+				if (data != null
+						&& (e.getModifiersEx() & KeyEvent.CTRL_DOWN_MASK) != 0) {
+					boolean changed = false;
+					if (e.getKeyCode() == JyVisSettings.undoSelectionKey)
+						changed = data.undoSelectionChange();
+					else if (e.getKeyCode() == JyVisSettings.redoSelectionKey)
+						changed = data.redoSelectionChange();
+					if (changed)
+						logSelectionChange();
+				}
+			}
 		});
 
 	}
@@ -123,16 +156,37 @@ public class SelectionMouseListener {
 				selectionPoints.add(new Point(a.x, a.y));
 			}
 
-			if ((e.getModifiersEx() & JyVisSettings.multipleSelectionModifierKey) == JyVisSettings.multipleSelectionModifierKey)
+			DataTable data = parentPanel.data;
+			List<DataSelection> selections = data.getSelections();
+			DataSelection currentSelection = selections == null
+					|| selections.isEmpty() ? null : selections
+					.get(selections.size() - 1);
+			int modifiers = e.getModifiersEx()
+					& (KeyEvent.SHIFT_DOWN_MASK | KeyEvent.CTRL_DOWN_MASK);
+			previousRecords = new DataSelection(data);
+			if (modifiers == JyVisSettings.unionSelectionModifierKey)
+				operation = DataSelection.UNION;
+			else if (modifiers == JyVisSettings.subtractSelectionModifierKey)
+				operation = DataSelection.DIFFERENCE;
+			else if (modifiers == JyVisSettings.multipleSelectionModifierKey)
+				operation = DataSelection.REPLACE;
+			else
+				operation = JyVisSettings.selectionMode;
+
+			if (modifiers == JyVisSettings.multipleSelectionModifierKey)
 				// add a new selection to the list of selections
-				parentPanel.data
-						.addSelection(selectedRecords = new DataSelection());
-			else {
+				data.addSelection(selectedRecords = new DataSelection(data));
+			else if (operation != DataSelection.REPLACE
+					&& currentSelection != null) {
+				// combine the new selection with the current one
+				previousRecords.set(currentSelection);
+				selectedRecords = currentSelection;
+			} else {
 				// clear all existing selections, and set the
 				// current selection
-				List<DataSelection> selections = new ArrayList<DataSelection>();
+				selections = new ArrayList<DataSelection>();
 				selections.add(selectedRecords);
-				parentPanel.data.setSelections(selections);
+				data.setSelections(selections);
 			}
 		}
 	}
@@ -184,25 +238,48 @@ public class SelectionMouseListener {
 	}
 
 	/**
-	 * Clears the list "selectedRecords", determines a new selection based on
-	 * the current selection polygon "polygon", adds the newly selected records
-	 * to "selectedRecords"
+	 * Determines the records inside the current selection polygon "polygon",
+	 * and combines them with the records which were selected when the mouse
+	 * was pressed to get "selectedRecords"
 	 * 
 	 */
 	private void determineSelectedRecords() {
-		selectedRecords.clear();
-		parentPanel.index.performSpatialQuery(polygon, selectedRecords);
-		parentPanel.data.updateDrawingPanels();
+		brushedRecords.clear();
+		parentPanel.index.performSpatialQuery(polygon, brushedRecords);
+		combineSelectedRecords();
 	}
 
 	private void determineSelectedRecords(Point point) {
 		DataRecord record = parentPanel.index.performPointQueryForRecord(point);
-		selectedRecords.clear();
+		brushedRecords.clear();
 		if (record != null)
-			selectedRecords.add(record);
+			brushedRecords.add(record);
+		combineSelectedRecords();
+	}
+
+	/**
+	 * Sets "selectedRecords" to the combination of "previousRecords" and
+	 * "brushedRecords" using the current operation.
+	 */
+	private void combineSelectedRecords() {
+		selectedRecords.set(previousRecords);
+		selectedRecords.combine(brushedRecords, operation);
 		parentPanel.data.updateDrawingPanels();
 	}
 
+	/**
+	 * Removes "selectedRecords" from the list of selections, which is set to
+	 * null if it becomes empty.
+	 */
+	private void removeSelectedRecords() {
+		List<DataSelection> selections = parentPanel.data.getSelections();
+		if (selections != null) {
+			selections.remove(selectedRecords);
+			if (selections.isEmpty())
+				parentPanel.data.setSelections(null);
+		}
+	}
+
 	public void mouseReleased(MouseEvent e) {
 		if (parentPanel.data != null) {
 			DrawingPanel.selectionIsBeingMade = false;
@@ -212,7 +289,7 @@ public class SelectionMouseListener {
 				determineSelectedRecords(e.getPoint());
 				if (selectedRecords.size() == 0
 						&& (e.getModifiersEx() & JyVisSettings.multipleSelectionModifierKey) != JyVisSettings.multipleSelectionModifierKey)
-					parentPanel.data.setSelections(null);
+					removeSelectedRecords();
 				parentPanel.data.updateDrawingPanels();
 			} else // if a selection polygon was made
 			{
@@ -224,11 +301,12 @@ public class SelectionMouseListener {
 				} else {
 					if (selectedRecords.size() == 0
 							&& (e.getModifiersEx() & JyVisSettings.multipleSelectionModifierKey) != JyVisSettings.multipleSelectionModifierKey)
-						parentPanel.data.setSelections(null);
+						removeSelectedRecords();
 					parentPanel.data.updateDrawingPanels();
 				}
 			}
-			// log the change in selection
+			// record the change in the selection history, and log it
+			parentPanel.data.recordSelectionChange();
 			logSelectionChange();
 		}
 	}
@@ -0,0 +1,245 @@
+/******************************************************************************
+ * Copyright (C) 2007  Institute for Visualization and Perception Research,
+ *                     University of Massachusetts Lowell
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *******************************************************************************/
+package jyVis.graphics;
+
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+
+import jyVis.util.ParallelTasks;
+import jyVis.visualizationPrimitives.BatchRenderer;
+import jyVis.visualizationPrimitives.VisualizationPrimitive;
+import transformation.Window2D;
+
+/**
+ * Paints a list of visualization primitives into an image using all
+ * available processors. The image is divided into square tiles, and each
+ * tileable object (see VisualizationPrimitive.isTileable()) is put in the
+ * bins of the tiles its bounding box overlaps. The tiles are then painted
+ * concurrently, each through it's own Graphics clipped to the tile, painting
+ * the objects of it's bin in the order they appear in the list. Since the
+ * tiles do not overlap, the result is the same as painting the whole list in
+ * order.
+ * 
+ * Objects which are not tileable are painted one at a time, in order, between
+ * the runs of tileable objects before and after them. Runs of objects which
+ * share a batch renderer (see VisualizationPrimitive.getBatchRenderer()) are
+ * painted by it.
+ * 
+ * @author Curran Kelleher
+ * @see DrawingPanel
+ */
+public class TiledRenderer {
+	/**
+	 * The width and height of the tiles, in pixels
+	 */
+	private static final int TILE_SIZE = 256;
+
+	/**
+	 * The number of objects each transformation and binning task handles
+	 */
+	private static final int CHUNK_SIZE = 16384;
+
+	/**
+	 * Runs of tileable objects shorter than this are painted on the calling
+	 * thread, since there is not enough work to be worth splitting
+	 */
+	private static final int MIN_TILED_OBJECTS = 4096;
+
+	/**
+	 * The number of pixels by which bounding boxes are grown when binning, to
+	 * account for anti-aliasing and outlines which reach past them
+	 */
+	private static final int BOUNDING_BOX_MARGIN = 2;
+
+	/**
+	 * The tile bins computed by one binning task: for each tile, the indices
+	 * of the objects of the task's chunk which overlap it, in order.
+	 */
+	private static class Bins {
+		final int[][] entries;
+
+		final int[] sizes;
+
+		Bins(int numTiles) {
+			entries = new int[numTiles][];
+			sizes = new int[numTiles];
+		}
+
+		void add(int tile, int objectIndex) {
+			int[] tileEntries = entries[tile];
+			int size = sizes[tile];
+			if (tileEntries == null)
+				tileEntries = entries[tile] = new int[64];
+			else if (size == tileEntries.length)
+				tileEntries = entries[tile] = Arrays.copyOf(tileEntries,
+						size * 2);
+			tileEntries[size] = objectIndex;
+			sizes[tile] = size + 1;
+		}
+	}
+
+	/**
+	 * Paints the specified objects, in order, into the specified image.
+	 * 
+	 * @param objects
+	 *            the objects to paint
+	 * @param image
+	 *            the image to paint into
+	 * @param g
+	 *            a Graphics of the image, whose rendering hints are used for
+	 *            all tiles, and which is used for painting objects which are
+	 *            not tileable
+	 * @param w
+	 *            the window to use for coordinate-space to pixel-space
+	 *            transformations.
+	 */
+	public static void paint(List<VisualizationPrimitive> objects,
+			BufferedImage image, Graphics2D g, Window2D w) {
+		ForkJoinPool pool = ForkJoinPool.commonPool();
+		boolean tiled = pool.getParallelism() > 1;
+		int n = objects.size();
+		VisualizationPrimitive[] array = objects
+				.toArray(new VisualizationPrimitive[n]);
+		int start = 0;
+		while (start < n) {
+			int end = start;
+			BatchRenderer batchRenderer = array[start].getBatchRenderer();
+			if (batchRenderer != null) {
+				// paint the run of objects which share the batch renderer
+				while (end < n && array[end].getBatchRenderer() == batchRenderer)
+					end++;
+				if (!batchRenderer.paint(array, start, end, image, g, w))
+					for (int i = start; i < end; i++)
+						array[i].paint(g, w);
+				start = end;
+				continue;
+			}
+
+			while (end < n && array[end].isTileable()
+					&& array[end].supportsTransformedPainting()
+					&& array[end].getBatchRenderer() == null)
+				end++;
+			if (end == start)
+				// the object is not tileable
+				array[end++].paint(g, w);
+			else if (!tiled || end - start < MIN_TILED_OBJECTS)
+				// the run is too short to be worth splitting
+				for (int i = start; i < end; i++)
+					array[i].paint(g, w);
+			else
+				paintTiled(array, start, end, image, g.getRenderingHints(), w,
+						pool);
+			start = end;
+		}
+	}
+
+	/**
+	 * Paints the specified run of tileable objects using tiles.
+	 */
+	private static void paintTiled(final VisualizationPrimitive[] objects,
+			int start, int end, final BufferedImage image,
+			final RenderingHints hints, final Window2D w, ForkJoinPool pool) {
+		final int columns = (image.getWidth() + TILE_SIZE - 1) / TILE_SIZE;
+		final int rows = (image.getHeight() + TILE_SIZE - 1) / TILE_SIZE;
+		final int numTiles = columns * rows;
+		if (numTiles == 0)
+			return;
+
+		// compute the pixel-space points of the objects and put them in the
+		// bins of the tiles they overlap, one chunk of objects per task
+		List<Callable<Bins>> binningTasks = new ArrayList<Callable<Bins>>();
+		for (int chunkStart = start; chunkStart < end; chunkStart += CHUNK_SIZE) {
+			final int from = chunkStart;
+			final int to = Math.min(chunkStart + CHUNK_SIZE, end);
+			binningTasks.add(new Callable<Bins>() {
+				public Bins call() {
+					Bins bins = new Bins(numTiles);
+					for (int i = from; i < to; i++) {
+						VisualizationPrimitive o = objects[i];
+						o.computeWindowTransformation(w);
+						Rectangle box = o.getBoundingBox();
+						int x1 = Math.min(box.x, box.x + box.width)
+								- BOUNDING_BOX_MARGIN;
+						int x2 = Math.max(box.x, box.x + box.width)
+								+ BOUNDING_BOX_MARGIN;
+						int y1 = Math.min(box.y, box.y + box.height)
+								- BOUNDING_BOX_MARGIN;
+						int y2 = Math.max(box.y, box.y + box.height)
+								+ BOUNDING_BOX_MARGIN;
+						int column1 = Math.max(x1 / TILE_SIZE, 0);
+						int column2 = Math.min(x2 / TILE_SIZE, columns - 1);
+						int row1 = Math.max(y1 / TILE_SIZE, 0);
+						int row2 = Math.min(y2 / TILE_SIZE, rows - 1);
+						for (int row = row1; row <= row2; row++)
+							for (int column = column1; column <= column2; column++)
+								bins.add(row * columns + column, i);
+					}
+					return bins;
+				}
+			});
+		}
+		final List<Bins> chunkBins = ParallelTasks.invokeAll(pool,
+				binningTasks);
+		if (chunkBins == null)
+			return;
+
+		// paint the tiles, the ones with the most objects first so that the
+		// work is spread evenly
+		final int[] tileSizes = new int[numTiles];
+		List<Integer> tiles = new ArrayList<Integer>();
+		for (int tile = 0; tile < numTiles; tile++) {
+			for (Bins bins : chunkBins)
+				tileSizes[tile] += bins.sizes[tile];
+			if (tileSizes[tile] > 0)
+				tiles.add(tile);
+		}
+		Collections.sort(tiles, new Comparator<Integer>() {
+			public int compare(Integer a, Integer b) {
+				return tileSizes[b] - tileSizes[a];
+			}
+		});
+
+		List<Callable<Object>> paintingTasks = new ArrayList<Callable<Object>>();
+		for (final int tile : tiles)
+			paintingTasks.add(new Callable<Object>() {
+				public Object call() {
+					Graphics2D g = image.createGraphics();
+					g.setRenderingHints(hints);
+					g.clipRect(tile % columns * TILE_SIZE, tile / columns
+							* TILE_SIZE, TILE_SIZE, TILE_SIZE);
+					for (Bins bins : chunkBins) {
+						int[] entries = bins.entries[tile];
+						for (int k = 0, size = bins.sizes[tile]; k < size; k++)
+							objects[entries[k]].paintTransformed(g);
+					}
+					g.dispose();
+					return null;
+				}
+			});
+		ParallelTasks.run(pool, paintingTasks);
+	}
+}
@@ -20,12 +20,12 @@ package jyVis.graphics;
 import java.awt.Graphics;
 import java.awt.Point;
 import java.awt.Polygon;
+import java.util.Arrays;
 import java.util.List;
 
 import jyVis.data.DataRecord;
 import jyVis.data.DataSelection;
 import jyVis.visualizationPrimitives.VisualizationPrimitive;
-import quadTree.PointValuePair;
 import quadTree.QuadTree;
 
 /**
@@ -44,17 +44,113 @@ public class VisualizationPrimitiveIndex {
 	 */
 	List<VisualizationPrimitive> objects;
 
+	/**
+	 * The objects which represent many records, which select their records
+	 * themselves instead of being in the quad tree
+	 */
+	private final List<VisualizationPrimitive> aggregateObjects;
+
+	/**
+	 * True if the objects have been painted since their selectable points were
+	 * last checked against the quad tree
+	 */
 	boolean indexingRequired = false;
 
+	/**
+	 * True if the quad tree must be rebuilt from scratch, because the size of
+	 * the pixel space has changed
+	 */
+	private boolean rebuildRequired = true;
+
+	/**
+	 * The objects whose selectable points are in the quad tree, as they were
+	 * when indexed, by position in the list of objects
+	 */
+	private VisualizationPrimitive[] indexedObjects = new VisualizationPrimitive[0];
+
+	/**
+	 * The number of objects whose selectable points are in the quad tree
+	 */
+	private int numIndexedObjects;
+
+	/**
+	 * The offset of the first indexed point of each indexed object in the
+	 * point arrays, followed by the total number of indexed points
+	 */
+	private int[] pointOffsets = new int[1];
+
+	/**
+	 * The selectable points which are in the quad tree, and their records
+	 */
+	private int[] pointXs = new int[16], pointYs = new int[16];
+
+	private DataRecord[] pointRecords = new DataRecord[16];
+
+	/**
+	 * The positions of the objects which have told this index that their
+	 * selectable points changed since it was last brought up to date, guarded
+	 * by itself because objects are painted by several threads at once
+	 */
+	private final int[] movedObjects = new int[64];
+
+	private int numMovedObjects;
+
+	/**
+	 * True if more objects have moved than fit in movedObjects, in which case
+	 * the index is rebuilt instead of moving their points
+	 */
+	private volatile boolean tooManyMoved;
+
+	/**
+	 * The index of the bounding boxes of the objects, used for point queries
+	 */
+	private final BoundingBoxIndex boundingBoxIndex;
+
+	/**
+	 * True if the objects have been painted since the bounding box index was
+	 * last updated
+	 */
+	private volatile boolean boundingBoxIndexingRequired = true;
+
+	/**
+	 * The size of the pixel space the bounding box index covers
+	 */
+	private int width, height;
+
 	/**
 	 * Construct an index which will index the objects in the specified list
 	 * 
 	 * @param objects
+	 * @param aggregateObjects
+	 *            the objects of the list which represent many records (see
+	 *            VisualizationPrimitive.representsManyRecords())
 	 */
-	public VisualizationPrimitiveIndex(List<VisualizationPrimitive> objects) {
+	public VisualizationPrimitiveIndex(List<VisualizationPrimitive> objects,
+			List<VisualizationPrimitive> aggregateObjects) {
 		this.objects = objects;
+		this.aggregateObjects = aggregateObjects;
+		boundingBoxIndex = new BoundingBoxIndex(objects);
 	}
 
+	/**
+	 * Accepts objects which have mouse listeners and contain the point
+	 */
+	private static final BoundingBoxIndex.Filter listeningObjectFilter = new BoundingBoxIndex.Filter() {
+		public boolean accept(VisualizationPrimitive object, Point point) {
+			return object.hasMouseListeners() && object.contains(point);
+		}
+	};
+
+	/**
+	 * Accepts objects which contain the point and have an associated record
+	 */
+	private static final BoundingBoxIndex.Filter recordObjectFilter = new BoundingBoxIndex.Filter() {
+		public boolean accept(VisualizationPrimitive object, Point point) {
+			return object.contains(point)
+					&& object.getAssociatedRecord() != null;
+		}
+	};
+
 	/**
 	 * Gets the visualization primitive below the specified point on the drawing
 	 * panel
@@ -64,13 +160,7 @@ public class VisualizationPrimitiveIndex {
 	 */
 	public VisualizationPrimitive performPointQueryForListeningObject(
 			Point point) {
-		for (VisualizationPrimitive object : objects)
-			if (object.getBoundingBox().contains(point))
-				if (object.hasMouseListeners())
-					if (object.contains(point))
-						return object;
-
-		return null;
+		return performPointQuery(point, listeningObjectFilter);
 	}
 
 	/**
@@ -81,57 +171,202 @@ public class VisualizationPrimitiveIndex {
 	 *            the pixel point on the drawing panel to query with
 	 */
 	public DataRecord performPointQueryForRecord(Point point) {
-		for (VisualizationPrimitive object : objects)
-			if (object.getBoundingBox().contains(point))
-				if (object.contains(point))
-					if (object.getAssociatedRecord() != null)
-						return object.getAssociatedRecord();
+		VisualizationPrimitive object = performPointQuery(point,
+				recordObjectFilter);
+		return object != null ? object.getAssociatedRecord() : null;
+	}
 
-		return null;
+	/**
+	 * Performs a point query on the bounding box index, first bringing it up
+	 * to date with the positions the objects were last painted at if they have
+	 * been painted since it was last updated.
+	 */
+	private VisualizationPrimitive performPointQuery(Point point,
+			BoundingBoxIndex.Filter filter) {
+		synchronized (objects) {
+			if (boundingBoxIndexingRequired) {
+				boundingBoxIndexingRequired = false;
+				boundingBoxIndex.reset(width, height);
+				boundingBoxIndex.update();
+			}
+			return boundingBoxIndex.performPointQuery(point, filter);
+		}
 	}
 
 	/**
-	 * Clears all entries in this index, and sets it up for indexing to a pixel
-	 * space of the specified size when queried
+	 * Marks the objects as having been painted in a pixel space of the
+	 * specified size, so the index is brought up to date when it is next
+	 * queried. The index is only rebuilt from scratch if the size changed.
 	 * 
 	 * @param width
 	 * @param height
 	 */
 	public void reset(int width, int height) {
-		quadtree.reset(width, height);
+		if (width != this.width || height != this.height)
+			rebuildRequired = true;
 		indexingRequired = true;
+		this.width = width;
+		this.height = height;
+		boundingBoxIndexingRequired = true;
 	}
 
 	public void paintQuadTree(Graphics g) {
-		quadtree.paint(g);
+		synchronized (objects) {
+			quadtree.paint(g);
+		}
 	}
 
 	public void performSpatialQuery(Polygon polygon,
 			DataSelection selectedRecords) {
-		ensureIndex();
-		if (QuadTree.paintQuadTree)
-			quadtree.resetColors();
-		quadtree.performSpatialQuery(polygon, selectedRecords);
+		synchronized (objects) {
+			ensureIndex();
+			if (QuadTree.paintQuadTree)
+				quadtree.resetColors();
+			quadtree.performSpatialQuery(polygon, selectedRecords);
+			// objects which represent many records are not in the quad tree
+			for (VisualizationPrimitive o : aggregateObjects)
+				o.selectRecords(polygon, selectedRecords);
+		}
 	}
 
 	/**
-	 * Ensures that the objects have been indexed
+	 * Records that the selectable points (or the associated record) of the
+	 * object at the specified position have changed, so only it's points are
+	 * moved when the index is next brought up to date. This is called by
+	 * VisualizationPrimitive.selectablePointsChanged().
+	 * 
+	 * @param object
+	 *            the object which changed
+	 * @param position
+	 *            the position of the object in the list of objects, as given
+	 *            to it by this index
+	 */
+	public void objectMoved(VisualizationPrimitive object, int position) {
+		if (tooManyMoved)
+			return;
+		synchronized (movedObjects) {
+			if (numMovedObjects == movedObjects.length)
+				tooManyMoved = true;
+			else
+				movedObjects[numMovedObjects++] = position;
+		}
+	}
+
+	/**
+	 * Marks the index as needing to be rebuilt because objects have been
+	 * added to or removed from the list of objects. This must be called with
+	 * the list of objects locked.
+	 */
+	void objectsChanged() {
+		rebuildRequired = true;
+		indexingRequired = true;
+		boundingBoxIndexingRequired = true;
+	}
+
+	/**
+	 * Ensures that the selectable points of the objects in the quad tree are
+	 * where the objects were last painted. When only a few objects have moved
+	 * (or no objects have moved, for example when only colors changed), only
+	 * their points are moved in the quad tree.
 	 * 
 	 */
 	private void ensureIndex() {
-		if (indexingRequired) {
-			synchronized (this) {
-				for (VisualizationPrimitive o : objects) {
-					List<Point> selectablePoints = o.getSelectablePoints();
-					DataRecord associatedRecord = o.getAssociatedRecord();
-					if (selectablePoints != null && associatedRecord != null)
-						for (Point p : selectablePoints)
-							quadtree.put(new PointValuePair<DataRecord>(p,
-									associatedRecord));
+		if (!indexingRequired)
+			return;
+		indexingRequired = false;
+
+		synchronized (movedObjects) {
+			boolean moved = !rebuildRequired && !tooManyMoved
+					&& objects.size() == numIndexedObjects;
+			for (int j = 0; j < numMovedObjects && moved; j++)
+				moved = moveIndexedPoints(movedObjects[j]);
+			numMovedObjects = 0;
+			tooManyMoved = false;
+			if (moved)
+				return;
+		}
+		rebuildIndex();
+	}
+
+	/**
+	 * Moves the points in the quad tree for the object at the specified
+	 * position to it's current selectable points.
+	 * 
+	 * @return false if the object's number of points has changed, or it is
+	 *         not the object indexed at that position, in which case the
+	 *         index must be rebuilt
+	 */
+	private boolean moveIndexedPoints(int i) {
+		VisualizationPrimitive o = objects.get(i);
+		if (indexedObjects[i] != o)
+			return false;
+		int offset = pointOffsets[i];
+		int numPoints = pointOffsets[i + 1] - offset;
+		List<Point> selectablePoints = o.getSelectablePoints();
+		DataRecord associatedRecord = o.getAssociatedRecord();
+		boolean selectable = selectablePoints != null
+				&& associatedRecord != null;
+		if ((selectable ? selectablePoints.size() : 0) != numPoints)
+			return false;
+
+		for (int k = offset; k < offset + numPoints; k++)
+			quadtree.remove(pointXs[k], pointYs[k], pointRecords[k]);
+		if (selectable) {
+			int k = offset;
+			for (Point p : selectablePoints) {
+				pointXs[k] = p.x;
+				pointYs[k] = p.y;
+				pointRecords[k] = associatedRecord;
+				quadtree.put(p.x, p.y, associatedRecord);
+				k++;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Clears the quad tree and indexes the selectable points of all objects
+	 * into it.
+	 */
+	private void rebuildIndex() {
+		int n = objects.size();
+		if (n > indexedObjects.length) {
+			indexedObjects = new VisualizationPrimitive[n];
+			pointOffsets = new int[n + 1];
+		} else
+			Arrays.fill(indexedObjects, n, indexedObjects.length, null);
+
+		int numPoints = 0;
+		for (int i = 0; i < n; i++) {
+			VisualizationPrimitive o = objects.get(i);
+			indexedObjects[i] = o;
+			o.setIndexPosition(this, i);
+			pointOffsets[i] = numPoints;
+			List<Point> selectablePoints = o.getSelectablePoints();
+			DataRecord associatedRecord = o.getAssociatedRecord();
+			if (selectablePoints != null && associatedRecord != null) {
+				int newNumPoints = numPoints + selectablePoints.size();
+				if (newNumPoints > pointXs.length) {
+					int newLength = Math.max(newNumPoints, pointXs.length * 2);
+					pointXs = Arrays.copyOf(pointXs, newLength);
+					pointYs = Arrays.copyOf(pointYs, newLength);
+					pointRecords = Arrays.copyOf(pointRecords, newLength);
+				}
+				for (Point p : selectablePoints) {
+					pointXs[numPoints] = p.x;
+					pointYs[numPoints] = p.y;
+					pointRecords[numPoints++] = associatedRecord;
 				}
-				indexingRequired = false;
 			}
 		}
+		pointOffsets[n] = numPoints;
+		Arrays.fill(pointRecords, numPoints, pointRecords.length, null);
+		numIndexedObjects = n;
+
+		quadtree.reset(width, height);
+		if (numPoints > 0)
+			quadtree.putAll(pointXs, pointYs, pointRecords, numPoints);
+		rebuildRequired = false;
 	}
 }
 /*
@@ -0,0 +1,118 @@
+/******************************************************************************
+ * Copyright (C) 2007  Institute for Visualization and Perception Research,
+ *                     University of Massachusetts Lowell
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *******************************************************************************/
+package jyVis.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Runs lists of tasks in a fork-join pool and waits for them. The tasks are
+ * run on the calling thread instead if there is only one of them or the pool
+ * has only one thread. An exception thrown by a task is rethrown as a
+ * RuntimeException.
+ * 
+ * @author Curran Kelleher
+ */
+public class ParallelTasks {
+	/**
+	 * Runs the specified tasks in the common pool and waits for them.
+	 * 
+	 * @return false if this thread was interrupted
+	 */
+	public static boolean run(List<Callable<Object>> tasks) {
+		return run(ForkJoinPool.commonPool(), tasks);
+	}
+
+	/**
+	 * Runs the specified tasks in the specified pool and waits for them.
+	 * 
+	 * @return false if this thread was interrupted
+	 */
+	public static boolean run(ForkJoinPool pool, List<Callable<Object>> tasks) {
+		return invokeAll(pool, tasks) != null;
+	}
+
+	/**
+	 * Runs the specified tasks in the specified pool, waits for them, and
+	 * collects their results.
+	 * 
+	 * @return the results of the tasks, in order, or null if this thread was
+	 *         interrupted
+	 */
+	public static <T> List<T> invokeAll(ForkJoinPool pool,
+			List<Callable<T>> tasks) {
+		List<T> results = new ArrayList<T>(tasks.size());
+		try {
+			if (tasks.size() > 1 && pool.getParallelism() > 1)
+				for (Future<T> future : pool.invokeAll(tasks))
+					results.add(future.get());
+			else
+				for (Callable<T> task : tasks)
+					results.add(task.call());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return null;
+		} catch (ExecutionException e) {
+			throw new RuntimeException(e.getCause());
+		} catch (RuntimeException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		}
+		return results;
+	}
+
+	/**
+	 * Runs the specified tasks in the specified pool and waits for all of
+	 * them to finish, for work which can not be left half done. An
+	 * interruption is only passed on once the tasks have finished.
+	 */
+	public static void runUninterruptibly(ForkJoinPool pool,
+			List<Callable<Object>> tasks) {
+		try {
+			if (tasks.size() > 1 && pool.getParallelism() > 1) {
+				List<Future<Object>> futures = new ArrayList<Future<Object>>();
+				for (Callable<Object> task : tasks)
+					futures.add(pool.submit(task));
+				boolean interrupted = false;
+				for (Future<Object> future : futures)
+					while (true)
+						try {
+							future.get();
+							break;
+						} catch (InterruptedException e) {
+							interrupted = true;
+						}
+				if (interrupted)
+					Thread.currentThread().interrupt();
+			} else
+				for (Callable<Object> task : tasks)
+					task.call();
+		} catch (ExecutionException e) {
+			throw new RuntimeException(e.getCause());
+		} catch (RuntimeException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		}
+	}
+}
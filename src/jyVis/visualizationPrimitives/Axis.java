@@ -297,6 +297,14 @@ public class Axis extends Line {
 		}
 	}
 
+	/**
+	 * Axes draw their tick marks and labels in paint(), so they are not
+	 * tileable.
+	 */
+	public boolean isTileable() {
+		return false;
+	}
+
 	public int getNumMajorTickMarks() {
 		return numMajorTickMarks;
 	}
@@ -0,0 +1,59 @@
+/******************************************************************************
+ * Copyright (C) 2007  Institute for Visualization and Perception Research,
+ *                     University of Massachusetts Lowell
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *******************************************************************************/
+package jyVis.visualizationPrimitives;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+
+import transformation.Window2D;
+
+/**
+ * Paints many visualization primitives of the same kind at once, faster than
+ * painting them one at a time through Graphics calls. Objects which can be
+ * painted this way return their renderer from
+ * VisualizationPrimitive.getBatchRenderer().
+ * 
+ * @author Curran Kelleher
+ * @see GlyphBatchRenderer
+ */
+public interface BatchRenderer {
+	/**
+	 * Paints a run of objects, all of which returned this renderer from
+	 * getBatchRenderer(), in order. Like paint(), this also calculates the
+	 * pixel-space points the objects need for selection.
+	 * 
+	 * @param objects
+	 *            the array containing the objects
+	 * @param from
+	 *            the index of the first object to paint
+	 * @param to
+	 *            the index after the last object to paint
+	 * @param image
+	 *            the image to paint into
+	 * @param g
+	 *            a Graphics of the image
+	 * @param w
+	 *            the window to use for coordinate-space to pixel-space
+	 *            transformations.
+	 * @return true if the objects were painted, or false if this renderer
+	 *         can not paint into the specified image, in which case the
+	 *         objects must be painted individually
+	 */
+	boolean paint(VisualizationPrimitive[] objects, int from, int to,
+			BufferedImage image, Graphics2D g, Window2D w);
+}
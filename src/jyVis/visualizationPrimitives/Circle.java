@@ -94,11 +94,31 @@ public class Circle extends VisualizationPrimitive {
 	 *            the Graphics object to draw on.
 	 */
 	public void paint(Graphics g, Window2D w) {
+		computeWindowTransformation(w);
+		paintTransformed(g);
+	}
+
+	/**
+	 * Calculates the pixel-space center point and diameter of this circle.
+	 * 
+	 * @param w
+	 *            the window to use for coordinate-space to pixel-space
+	 *            transformations.
+	 */
+	public void computeWindowTransformation(Window2D w) {
 		diameterPixel = (int) (w.getXPixelMagnitude(radius) + w
 				.getYPixelMagnitude(radius));
 
-		pixelPoint.x = (int) w.getXPixel(x);
-		pixelPoint.y = (int) w.getYPixel(y);
+		int xPixel = (int) w.getXPixel(x);
+		int yPixel = (int) w.getYPixel(y);
+		if (xPixel != pixelPoint.x || yPixel != pixelPoint.y) {
+			pixelPoint.x = xPixel;
+			pixelPoint.y = yPixel;
+			selectablePointsChanged();
+		}
+	}
+
+	public void paintTransformed(Graphics g) {
 		g.setColor(color);
 		if (fill || drawOutline) {
 			int xp = pixelPoint.x - diameterPixel / 2;
@@ -114,6 +134,14 @@ public class Circle extends VisualizationPrimitive {
 		}
 	}
 
+	public boolean supportsTransformedPainting() {
+		return true;
+	}
+
+	public boolean isTileable() {
+		return true;
+	}
+
 	/**
 	 * Determines whether or not the specified point is inside this circle.
 	 * 
@@ -0,0 +1,533 @@
+/******************************************************************************
+ * Copyright (C) 2007  Institute for Visualization and Perception Research,
+ *                     University of Massachusetts Lowell
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *******************************************************************************/
+package jyVis.visualizationPrimitives;
+
+import java.awt.Color;
+import java.awt.Graphics;
+import java.awt.Polygon;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+
+import jyVis.data.DataSelection;
+import jyVis.data.DataTable;
+import jyVis.util.ParallelTasks;
+import transformation.Window2D;
+import colorMap.ColorMap;
+
+/**
+ * A visualization primitive which represents all records of a table at once,
+ * by the number of records at each pixel rather than by an object per record.
+ * The positions of the records are counted into a grid of bins, one per pixel
+ * (concurrently, each task counting into it's own grid, after which the grids
+ * are added together), and each bin is drawn in the color which the color map
+ * assigns to it's density. If values are given for the records, the bins also
+ * sum the values, and each bin is drawn in the color of the mean value of it's
+ * records, with an opacity determined by it's density.
+ * 
+ * Records are selected by finding the bins inside the selection polygon, and
+ * then the records in those bins. A record is inside the polygon if the pixel
+ * it is at is, in the same way as the selectable point of a Glyph.
+ * 
+ * @author Curran Kelleher
+ * @see GlyphCollection
+ */
+public class DensityMap extends VisualizationPrimitive {
+	/**
+	 * The number of records transformed to pixel space at a time
+	 */
+	private static final int BLOCK_SIZE = 4096;
+
+	/**
+	 * The minimum number of records counted by a task
+	 */
+	private static final int MIN_RECORDS_PER_TASK = 65536;
+
+	/**
+	 * The width and height of the squares of bins which are tested against
+	 * the selection polygon as a whole
+	 */
+	private static final int CELL_SIZE = 8;
+
+	/**
+	 * The opacity of the bins with the lowest density, when the bins are not
+	 * drawn in the colors of the color map
+	 */
+	private static final double MIN_OPACITY = 0.25;
+
+	/**
+	 * The table whose records are represented
+	 */
+	private final DataTable data;
+
+	/**
+	 * The x coordinates of the records, by record index
+	 */
+	public double[] xs;
+
+	/**
+	 * The y coordinates of the records, by record index
+	 */
+	public double[] ys;
+
+	/**
+	 * The values (from 0 to 1) of the records which determine the colors of
+	 * the bins, by record index. If this is null, the colors of the bins are
+	 * determined by their densities.
+	 */
+	public double[] values;
+
+	/**
+	 * The color map used for determining the colors of the bins
+	 */
+	public ColorMap colorMap = ColorMap.getDefaultContinuousColorMap();
+
+	/**
+	 * The size of the grid of bins when this object was last painted
+	 */
+	private int width, height;
+
+	/**
+	 * The number of records in each bin, in row major order
+	 */
+	private int[] counts = new int[0];
+
+	/**
+	 * The sum of the values of the records in each bin, if there are values
+	 */
+	private double[] sums;
+
+	/**
+	 * The grid the selected records are counted into by paintSelection()
+	 */
+	private int[] selectedCounts = new int[0];
+
+	/**
+	 * The grids the tasks of count() other than the first count into, which
+	 * are kept between calls
+	 */
+	private int[][] taskCountGrids = new int[0][];
+
+	/**
+	 * The grids the tasks of count() other than the first sum values into
+	 */
+	private double[][] taskSumGrids = new double[0][];
+
+	/**
+	 * The largest number of records in a bin
+	 */
+	private int maxCount;
+
+	/**
+	 * The window this object was last painted with
+	 */
+	private Window2D paintedWindow;
+
+	/**
+	 * The index of the first record of each bin in binRecords, followed by
+	 * the number of records
+	 */
+	private int[] binStarts;
+
+	/**
+	 * The indices of the records in each bin, bin after bin. This is built
+	 * when records are first selected after painting.
+	 */
+	private int[] binRecords;
+
+	/**
+	 * The image the bins are drawn into
+	 */
+	private BufferedImage image;
+
+	/**
+	 * The bounding box of the bins which are not empty
+	 */
+	private Rectangle boundingBox = new Rectangle();
+
+	/**
+	 * Construct a density map representing the records of the specified table.
+	 * The positions of the records must be assigned before it is painted.
+	 * 
+	 * @param data
+	 *            the table whose records are represented
+	 */
+	public DensityMap(DataTable data) {
+		this.data = data;
+		xs = new double[data.getNumberOfRecords()];
+		ys = new double[data.getNumberOfRecords()];
+		// null means "use the color map" (see paint())
+		color = null;
+	}
+
+	/**
+	 * Sets the position of the specified record.
+	 * 
+	 * @param record
+	 *            the index of the record
+	 * @param x
+	 *            the x coordinate of the record
+	 * @param y
+	 *            the y coordinate of the record
+	 */
+	public void setPosition(int record, double x, double y) {
+		xs[record] = x;
+		ys[record] = y;
+	}
+
+	/**
+	 * Sets the positions of all records. The arrays are used directly rather
+	 * than copied, so changes made to them later are seen when this is next
+	 * painted.
+	 * 
+	 * @param xs
+	 *            the x coordinates of the records, by record index
+	 * @param ys
+	 *            the y coordinates of the records, by record index
+	 */
+	public synchronized void setPositions(double[] xs, double[] ys) {
+		this.xs = xs;
+		this.ys = ys;
+	}
+
+	/**
+	 * Counts the records into the bins and draws them. If the color of this
+	 * object is not null (for example when it is drawn behind selections), the
+	 * bins are drawn in that color, with an opacity determined by their
+	 * densities.
+	 */
+	public synchronized void paint(Graphics g, Window2D w) {
+		width = w.getWidth();
+		height = w.getHeight();
+		paintedWindow = w.copy();
+		binRecords = null;
+		maxCount = 0;
+		boundingBox.setBounds(0, 0, 0, 0);
+		if (width <= 0 || height <= 0 || xs == null)
+			return;
+
+		if (counts.length != width * height)
+			counts = new int[width * height];
+		if (values == null)
+			sums = null;
+		else if (sums == null || sums.length != counts.length)
+			sums = new double[counts.length];
+		if (!count(null, counts, sums))
+			return;
+
+		int minX = width, minY = height, maxX = -1, maxY = -1;
+		for (int y = 0, bin = 0; y < height; y++)
+			for (int x = 0; x < width; x++, bin++)
+				if (counts[bin] != 0) {
+					maxCount = Math.max(maxCount, counts[bin]);
+					minX = Math.min(minX, x);
+					maxX = Math.max(maxX, x);
+					minY = Math.min(minY, y);
+					maxY = Math.max(maxY, y);
+				}
+		if (maxX >= 0)
+			boundingBox.setBounds(minX, minY, maxX - minX + 1, maxY - minY
+					+ 1);
+
+		drawBins(g, counts, sums, color);
+	}
+
+	public boolean representsManyRecords() {
+		return true;
+	}
+
+	/**
+	 * Draws the selected records into bins of their own, in the color of the
+	 * selection, using the window this object was last painted with.
+	 */
+	public synchronized void paintSelection(Graphics g, Window2D w,
+			DataSelection selection, Color selectionColor) {
+		if (paintedWindow == null || width <= 0 || height <= 0 || xs == null
+				|| selection.getDataTable() != data || selection.isEmpty())
+			return;
+		if (selectedCounts.length != width * height)
+			selectedCounts = new int[width * height];
+		if (count(selection, selectedCounts, null))
+			drawBins(g, selectedCounts, null, selectionColor);
+	}
+
+	/**
+	 * Draws the specified bins into the image, then draws the image.
+	 * 
+	 * @param binColor
+	 *            the color to draw the bins in, or null to use the color map
+	 */
+	private void drawBins(Graphics g, int[] binCounts, double[] binSums,
+			Color binColor) {
+		if (image == null || image.getWidth() != width
+				|| image.getHeight() != height)
+			image = new BufferedImage(width, height,
+					BufferedImage.TYPE_INT_ARGB);
+		int[] pixels = ((DataBufferInt) image.getRaster().getDataBuffer())
+				.getData();
+
+		double logOfMaxCount = Math.log(1 + maxCount);
+		int rgb = binColor == null ? 0 : binColor.getRGB() & 0xFFFFFF;
+		for (int bin = 0; bin < binCounts.length; bin++) {
+			int count = binCounts[bin];
+			if (count == 0) {
+				pixels[bin] = 0;
+				continue;
+			}
+			double density = Math.log(1 + count) / logOfMaxCount;
+			if (binColor == null && binSums == null)
+				pixels[bin] = colorMap.getColor(density).getRGB();
+			else {
+				int argb = binColor != null ? rgb : colorMap.getColor(
+						binSums[bin] / count).getRGB();
+				double opacity = (MIN_OPACITY + (1 - MIN_OPACITY) * density)
+						* (binColor != null ? 1 : (argb >>> 24) / 255.0);
+				pixels[bin] = (int) (opacity * 255 + 0.5) << 24 | argb
+						& 0xFFFFFF;
+			}
+		}
+		g.drawImage(image, 0, 0, null);
+	}
+
+	/**
+	 * Counts the records (or the selected records) into the specified bins,
+	 * using paintedWindow. The records are divided among tasks, each counting
+	 * into it's own grid, and then the grids are added together.
+	 * 
+	 * @param selection
+	 *            the records to count, or null to count all records
+	 * @param binCounts
+	 *            the bins to count the records into
+	 * @param binSums
+	 *            the bins to sum the values of the records into, or null
+	 * @return false if this thread was interrupted
+	 */
+	private boolean count(final DataSelection selection, int[] binCounts,
+			double[] binSums) {
+		final int n = Math.min(xs.length, ys.length);
+		ForkJoinPool pool = ForkJoinPool.commonPool();
+		final int numTasks = Math.max(1, Math.min(pool.getParallelism(), n
+				/ MIN_RECORDS_PER_TASK));
+
+		if (taskCountGrids.length < numTasks) {
+			taskCountGrids = Arrays.copyOf(taskCountGrids, numTasks);
+			taskSumGrids = Arrays.copyOf(taskSumGrids, numTasks);
+		}
+		final int[][] taskCounts = taskCountGrids;
+		final double[][] taskSums = taskSumGrids;
+		taskCounts[0] = binCounts;
+		taskSums[0] = binSums;
+		List<Callable<Object>> tasks = new ArrayList<Callable<Object>>();
+		for (int t = 0; t < numTasks; t++) {
+			final int task = t;
+			final int start = (int) ((long) n * t / numTasks);
+			final int end = (int) ((long) n * (t + 1) / numTasks);
+			tasks.add(new Callable<Object>() {
+				public Object call() {
+					if (taskCounts[task] == null
+							|| taskCounts[task].length != width * height)
+						taskCounts[task] = new int[width * height];
+					else
+						Arrays.fill(taskCounts[task], 0);
+					if (taskSums[0] != null) {
+						if (taskSums[task] == null
+								|| taskSums[task].length != width * height)
+							taskSums[task] = new double[width * height];
+						else
+							Arrays.fill(taskSums[task], 0);
+					}
+					countRecords(selection, start, end, taskCounts[task],
+							taskSums[task]);
+					return null;
+				}
+			});
+		}
+		if (!ParallelTasks.run(pool, tasks))
+			return false;
+
+		// add the grids of the other tasks to the first one, one range of
+		// bins per task
+		if (numTasks > 1) {
+			tasks.clear();
+			final int numBins = width * height;
+			for (int t = 0; t < numTasks; t++) {
+				final int start = (int) ((long) numBins * t / numTasks);
+				final int end = (int) ((long) numBins * (t + 1) / numTasks);
+				tasks.add(new Callable<Object>() {
+					public Object call() {
+						int[] total = taskCounts[0];
+						for (int task = 1; task < numTasks; task++) {
+							int[] counts = taskCounts[task];
+							for (int bin = start; bin < end; bin++)
+								total[bin] += counts[bin];
+						}
+						if (taskSums[0] != null) {
+							double[] totalSums = taskSums[0];
+							for (int task = 1; task < numTasks; task++) {
+								double[] sums = taskSums[task];
+								for (int bin = start; bin < end; bin++)
+									totalSums[bin] += sums[bin];
+							}
+						}
+						return null;
+					}
+				});
+			}
+			if (!ParallelTasks.run(pool, tasks))
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Counts the records (or the selected records) with indices from start to
+	 * end into the specified bins.
+	 */
+	private void countRecords(DataSelection selection, int start, int end,
+			int[] binCounts, double[] binSums) {
+		int[] records = new int[BLOCK_SIZE];
+		double[] xBuffer = new double[BLOCK_SIZE];
+		double[] yBuffer = new double[BLOCK_SIZE];
+		int[] xPixels = new int[BLOCK_SIZE];
+		int[] yPixels = new int[BLOCK_SIZE];
+		int i = next(selection, start);
+		while (i != -1 && i < end) {
+			// gather a block of records
+			int m = 0;
+			for (; i != -1 && i < end && m < BLOCK_SIZE; i = next(selection,
+					i + 1)) {
+				records[m] = i;
+				xBuffer[m] = xs[i];
+				yBuffer[m] = ys[i];
+				m++;
+			}
+
+			// count them
+			paintedWindow.getPixels(xBuffer, yBuffer, 0, m, xPixels, yPixels);
+			for (int k = 0; k < m; k++) {
+				int x = xPixels[k], y = yPixels[k];
+				if (x >= 0 && x < width && y >= 0 && y < height) {
+					int bin = y * width + x;
+					binCounts[bin]++;
+					if (binSums != null)
+						binSums[bin] += values[records[k]];
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return the index of the first record (or selected record) whose index is
+	 *         at least the specified index, or -1 if there is none
+	 */
+	private static int next(DataSelection selection, int index) {
+		return selection == null ? index : selection.nextIndex(index);
+	}
+
+	/**
+	 * Adds the records in the bins inside the selection polygon to the
+	 * selection. Squares of bins entirely inside the polygon are added
+	 * without testing each bin, as in the selection quad tree.
+	 */
+	public synchronized void selectRecords(Polygon polygon,
+			DataSelection selectedRecords) {
+		if (paintedWindow == null || xs == null || maxCount == 0)
+			return;
+		Rectangle bounds = polygon.getBounds().intersection(
+				new Rectangle(0, 0, width, height));
+		if (bounds.isEmpty())
+			return;
+		if (binRecords == null)
+			sortRecordsIntoBins();
+
+		// the first record is added as a record, which makes sure the
+		// selection is of the table of this object
+		boolean tableChecked = selectedRecords.getDataTable() == data;
+		for (int cellY = bounds.y; cellY < bounds.y + bounds.height; cellY += CELL_SIZE)
+			for (int cellX = bounds.x; cellX < bounds.x + bounds.width; cellX += CELL_SIZE) {
+				int maxX = Math.min(cellX + CELL_SIZE, bounds.x
+						+ bounds.width);
+				int maxY = Math.min(cellY + CELL_SIZE, bounds.y
+						+ bounds.height);
+				boolean inside = polygon.contains(cellX, cellY, CELL_SIZE,
+						CELL_SIZE);
+				if (!inside
+						&& !polygon.intersects(cellX, cellY, CELL_SIZE,
+								CELL_SIZE))
+					continue;
+				for (int y = cellY; y < maxY; y++)
+					for (int x = cellX; x < maxX; x++) {
+						int bin = y * width + x;
+						if (binStarts[bin] != binStarts[bin + 1]
+								&& (inside || polygon.contains(x, y)))
+							for (int k = binStarts[bin]; k < binStarts[bin + 1]; k++)
+								if (tableChecked)
+									selectedRecords.addIndex(binRecords[k]);
+								else {
+									selectedRecords.add(data.records
+											.get(binRecords[k]));
+									tableChecked = true;
+								}
+					}
+			}
+	}
+
+	/**
+	 * Sorts the indices of the records by the bins they were counted into when
+	 * this object was last painted, into binRecords.
+	 */
+	private void sortRecordsIntoBins() {
+		int numBins = width * height;
+		if (binStarts == null || binStarts.length != numBins + 1)
+			binStarts = new int[numBins + 1];
+		for (int bin = 0; bin < numBins; bin++)
+			binStarts[bin + 1] = binStarts[bin] + counts[bin];
+		binRecords = new int[binStarts[numBins]];
+
+		int[] positions = Arrays.copyOf(binStarts, numBins);
+		int n = Math.min(xs.length, ys.length);
+		double[] xBuffer = new double[BLOCK_SIZE];
+		double[] yBuffer = new double[BLOCK_SIZE];
+		int[] xPixels = new int[BLOCK_SIZE];
+		int[] yPixels = new int[BLOCK_SIZE];
+		for (int start = 0; start < n; start += BLOCK_SIZE) {
+			int m = Math.min(BLOCK_SIZE, n - start);
+			System.arraycopy(xs, start, xBuffer, 0, m);
+			System.arraycopy(ys, start, yBuffer, 0, m);
+			paintedWindow.getPixels(xBuffer, yBuffer, 0, m, xPixels, yPixels);
+			for (int k = 0; k < m; k++) {
+				int x = xPixels[k], y = yPixels[k];
+				if (x >= 0 && x < width && y >= 0 && y < height)
+					binRecords[positions[y * width + x]++] = start + k;
+			}
+		}
+	}
+
+	/**
+	 * Returns the bounding box of the bins which were not empty when this
+	 * object was last painted.
+	 */
+	public Rectangle getBoundingBox() {
+		return boundingBox;
+	}
+}
@@ -17,9 +17,9 @@
  *******************************************************************************/
 package jyVis.visualizationPrimitives;
 
-import java.awt.Color;
 import java.awt.Graphics;
 import java.awt.Point;
+import java.awt.Rectangle;
 import java.util.LinkedList;
 import java.util.List;
 
@@ -50,6 +50,20 @@ public class Glyph extends Polygon {
 	 */
 	private List<Point> selectablePoints;
 
+	/**
+	 * The renderer which paints this glyph together with the other glyphs of
+	 * it's GlyphCollection, or null if this glyph is painted by itself
+	 */
+	BatchRenderer batchRenderer;
+
+	/**
+	 * The window with which the polygon of this glyph still has to be
+	 * calculated, or null if it is up to date. When this glyph is painted by
+	 * a batch renderer only it's center point is calculated, and the polygon
+	 * is calculated when it is first needed.
+	 */
+	private Window2D pendingWindow;
+
 	public Glyph() {
 		this(0, 0, 0);
 	}
@@ -96,7 +110,8 @@ public class Glyph extends Polygon {
 	 *            the window to use for coordinate-space to pixel-space
 	 *            transformations.
 	 */
-	public void paint(Graphics g, Window2D w) {
+	public void computeWindowTransformation(Window2D w) {
+		pendingWindow = null;
 		// these calculations retain the aspect ratio of the shapes, while
 		// making their size be influenced equally by the width and height of
 		// the screen
@@ -110,18 +125,63 @@ public class Glyph extends Polygon {
 		}
 		p.invalidate();
 
-		pixelPoint.x = (int) w.getXPixel(x);
-		pixelPoint.y = (int) w.getYPixel(y);
+		setPixelPoint((int) w.getXPixel(x), (int) w.getYPixel(y));
+	}
 
-		if (fill) {
-			g.setColor(color);
-			g.fillPolygon(p);
-		}
-		if (drawOutline) {
-			g.setColor(Color.black);
-			g.drawPolygon(p);
+	/**
+	 * Sets the pixel-space center point of this glyph, calculated by a batch
+	 * renderer, and defers calculating the polygon.
+	 * 
+	 * @param x
+	 * @param y
+	 * @param w
+	 *            a window which will not change, with which the polygon will
+	 *            be calculated when it is needed
+	 */
+	void setPixelPoint(int x, int y, Window2D w) {
+		setPixelPoint(x, y);
+		pendingWindow = w;
+	}
+
+	/**
+	 * Sets the pixel-space center point of this glyph, which is it's
+	 * selectable point.
+	 */
+	private void setPixelPoint(int x, int y) {
+		if (x != pixelPoint.x || y != pixelPoint.y) {
+			pixelPoint.x = x;
+			pixelPoint.y = y;
+			selectablePointsChanged();
 		}
 	}
+
+	/**
+	 * Calculates the polygon of this glyph if it was deferred
+	 */
+	private void updatePolygon() {
+		Window2D w = pendingWindow;
+		if (w != null)
+			computeWindowTransformation(w);
+	}
+
+	public void paintTransformed(Graphics g) {
+		updatePolygon();
+		super.paintTransformed(g);
+	}
+
+	public boolean contains(Point point) {
+		updatePolygon();
+		return super.contains(point);
+	}
+
+	public Rectangle getBoundingBox() {
+		updatePolygon();
+		return super.getBoundingBox();
+	}
+
+	public BatchRenderer getBatchRenderer() {
+		return batchRenderer;
+	}
 }
 /*
  * CVS Log
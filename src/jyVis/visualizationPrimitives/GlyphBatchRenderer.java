@@ -0,0 +1,552 @@
+/******************************************************************************
+ * Copyright (C) 2007  Institute for Visualization and Perception Research,
+ *                     University of Massachusetts Lowell
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *******************************************************************************/
+package jyVis.visualizationPrimitives;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.geom.Path2D;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+
+import jyVis.data.DataRecord;
+import jyVis.util.ParallelTasks;
+import transformation.Window2D;
+
+/**
+ * Paints the glyphs of a GlyphCollection without a Graphics call per glyph.
+ * The centers of all glyphs are transformed to pixel space in one loop over
+ * primitive arrays, and each glyph is drawn by stamping a sprite (the shape
+ * rasterized once per shape and pixel size) in the glyph's color directly into
+ * the pixels of the image. Only outlines are drawn through Java2D.
+ * 
+ * The image is divided into horizontal bands which are stamped concurrently,
+ * each band going through the glyphs which overlap it in order, so the
+ * painting order of the glyphs is preserved.
+ * 
+ * @author Curran Kelleher
+ * @see GlyphCollection
+ */
+public class GlyphBatchRenderer implements BatchRenderer {
+	/**
+	 * The number of steps per pixel to which the sizes of sprites are rounded
+	 */
+	private static final int SUBPIXELS = 4;
+
+	/**
+	 * The number of glyphs each transformation task handles
+	 */
+	private static final int CHUNK_SIZE = 16384;
+
+	/**
+	 * The minimum height of the bands which are stamped concurrently
+	 */
+	private static final int MIN_BAND_HEIGHT = 16;
+
+	/**
+	 * The number of pixels in a band, if there are enough bands for all
+	 * processors
+	 */
+	private static final int BAND_PIXELS = 1 << 16;
+
+	/**
+	 * The number of sprites kept before they are all discarded, so that
+	 * sprites for sizes which are no longer used do not accumulate
+	 */
+	private static final int MAX_SPRITES = 4096;
+
+	/**
+	 * A shape rasterized around the center pixel of a glyph
+	 */
+	private static class Sprite {
+		/**
+		 * The position of the upper left pixel relative to the center pixel
+		 */
+		final int x, y;
+
+		/**
+		 * The size of the sprite in pixels
+		 */
+		final int width, height;
+
+		/**
+		 * The coverage (0 to 255) of each pixel, row by row
+		 */
+		final byte[] coverage;
+
+		Sprite(int x, int y, int width, int height, byte[] coverage) {
+			this.x = x;
+			this.y = y;
+			this.width = width;
+			this.height = height;
+			this.coverage = coverage;
+		}
+	}
+
+	/**
+	 * Identifies a sprite by the shape and the pixel size of a glyph
+	 */
+	private static class SpriteKey {
+		double[] xCoordinates, yCoordinates;
+
+		/**
+		 * The pixels per unit of the shape coordinates, in subpixels
+		 */
+		int xScale, yScale;
+
+		boolean antialiased;
+
+		int hash;
+
+		void set(double[] xCoordinates, double[] yCoordinates, int xScale,
+				int yScale, boolean antialiased) {
+			this.xCoordinates = xCoordinates;
+			this.yCoordinates = yCoordinates;
+			this.xScale = xScale;
+			this.yScale = yScale;
+			this.antialiased = antialiased;
+			hash = ((Arrays.hashCode(xCoordinates) * 31 + Arrays
+					.hashCode(yCoordinates)) * 31 + xScale)
+					* 31 + yScale + (antialiased ? 1 : 0);
+		}
+
+		SpriteKey copy() {
+			SpriteKey copy = new SpriteKey();
+			copy.set(xCoordinates.clone(), yCoordinates.clone(), xScale,
+					yScale, antialiased);
+			return copy;
+		}
+
+		public int hashCode() {
+			return hash;
+		}
+
+		public boolean equals(Object o) {
+			SpriteKey k = (SpriteKey) o;
+			return hash == k.hash && xScale == k.xScale
+					&& yScale == k.yScale && antialiased == k.antialiased
+					&& Arrays.equals(xCoordinates, k.xCoordinates)
+					&& Arrays.equals(yCoordinates, k.yCoordinates);
+		}
+	}
+
+	/**
+	 * The sprite used for shapes which cover no pixels
+	 */
+	private static final Sprite EMPTY_SPRITE = new Sprite(0, 0, 0, 0,
+			new byte[0]);
+
+	/**
+	 * The sprites which have been rasterized
+	 */
+	private final ConcurrentHashMap<SpriteKey, Sprite> sprites = new ConcurrentHashMap<SpriteKey, Sprite>();
+
+	/**
+	 * The coordinate-space centers of the glyphs being painted
+	 */
+	private double[] xs = new double[0], ys = new double[0];
+
+	/**
+	 * The pixel-space centers and the colors of the glyphs being painted
+	 */
+	private int[] xPixels = new int[0], yPixels = new int[0],
+			colors = new int[0];
+
+	/**
+	 * The rows spanned by the outlines of the glyphs being painted. For glyphs
+	 * without outlines, the top is greater than the bottom.
+	 */
+	private int[] outlineTops = new int[0], outlineBottoms = new int[0];
+
+	/**
+	 * The sprites of the glyphs being painted, null for glyphs which are not
+	 * filled
+	 */
+	private Sprite[] glyphSprites = new Sprite[0];
+
+	/**
+	 * The indices of the glyphs overlapping each band, band after band
+	 */
+	private int[] bandEntries = new int[0];
+
+	/**
+	 * The packed ARGB colors of the glyphs' records, by record index (see
+	 * DataColorMap.getColors()), or null. The color of a glyph is used
+	 * instead when it differs, which happens when it is set directly rather
+	 * than through GlyphCollection.updateGlyphs().
+	 */
+	volatile int[] recordColors;
+
+	public synchronized boolean paint(final VisualizationPrimitive[] objects,
+			final int from, int to, BufferedImage image, Graphics2D g,
+			Window2D w) {
+		// only the pixel layout of the panel's back buffer is supported
+		if (image.getType() != BufferedImage.TYPE_INT_RGB)
+			return false;
+		WritableRaster raster = image.getRaster();
+		if (!(raster.getDataBuffer() instanceof DataBufferInt)
+				|| !(raster.getSampleModel() instanceof SinglePixelPackedSampleModel)
+				|| raster.getSampleModelTranslateX() != 0
+				|| raster.getSampleModelTranslateY() != 0)
+			return false;
+		DataBufferInt dataBuffer = (DataBufferInt) raster.getDataBuffer();
+		final int[] data = dataBuffer.getData();
+		final int offset = dataBuffer.getOffset();
+		final int stride = ((SinglePixelPackedSampleModel) raster
+				.getSampleModel()).getScanlineStride();
+		final int imageWidth = image.getWidth();
+
+		final int n = to - from;
+		ensureCapacity(n);
+		if (sprites.size() > MAX_SPRITES)
+			sprites.clear();
+
+		// the glyphs calculate their polygons later with a copy of the window,
+		// since the window of the panel may change in the mean time
+		final Window2D window = w.copy();
+
+		// the size calculation of Glyph.computeWindowTransformation()
+		final int windowWidth = w.getWidth(), windowHeight = w.getHeight();
+		final double xMagnitude = w.getXPixelMagnitude(1);
+		final double yMagnitude = w.getYPixelMagnitude(1);
+		final boolean antialiased = g
+				.getRenderingHint(RenderingHints.KEY_ANTIALIASING) == RenderingHints.VALUE_ANTIALIAS_ON;
+
+		final int[] recordColors = this.recordColors;
+		ForkJoinPool pool = ForkJoinPool.commonPool();
+		boolean parallel = pool.getParallelism() > 1;
+
+		// transform the glyphs and find their sprites, one chunk per task
+		List<Callable<Object>> tasks = new ArrayList<Callable<Object>>();
+		for (int chunkStart = 0; chunkStart < n; chunkStart += CHUNK_SIZE) {
+			final int start = chunkStart;
+			final int end = Math.min(chunkStart + CHUNK_SIZE, n);
+			tasks.add(new Callable<Object>() {
+				public Object call() {
+					for (int i = start; i < end; i++) {
+						Glyph glyph = (Glyph) objects[from + i];
+						xs[i] = glyph.x;
+						ys[i] = glyph.y;
+					}
+					window.getPixels(xs, ys, start, end, xPixels, yPixels);
+
+					SpriteKey key = new SpriteKey();
+					Sprite sprite = null;
+					for (int i = start; i < end; i++) {
+						Glyph glyph = (Glyph) objects[from + i];
+						glyph.setPixelPoint(xPixels[i], yPixels[i], window);
+						colors[i] = colorOf(glyph, recordColors);
+
+						if (glyph.fill) {
+							double a = glyph.size
+									* (windowWidth + windowHeight) / 2;
+							int xScale = (int) Math.round(a / windowWidth
+									* xMagnitude * SUBPIXELS);
+							int yScale = (int) Math.round(a / windowHeight
+									* yMagnitude * SUBPIXELS);
+							// neighboring glyphs usually look the same
+							if (sprite == null
+									|| glyph.xCoordinates != key.xCoordinates
+									|| glyph.yCoordinates != key.yCoordinates
+									|| xScale != key.xScale
+									|| yScale != key.yScale) {
+								key.set(glyph.xCoordinates,
+										glyph.yCoordinates, xScale, yScale,
+										antialiased);
+								sprite = getSprite(key);
+							}
+							glyphSprites[i] = sprite;
+						} else
+							glyphSprites[i] = null;
+
+						if (glyph.drawOutline) {
+							glyph.computeWindowTransformation(window);
+							java.awt.Rectangle box = glyph.getBoundingBox();
+							outlineTops[i] = box.y - 1;
+							outlineBottoms[i] = box.y + box.height + 1;
+						} else {
+							outlineTops[i] = 0;
+							outlineBottoms[i] = -1;
+						}
+					}
+					return null;
+				}
+			});
+		}
+		if (!ParallelTasks.run(pool, tasks))
+			return true;
+
+		// put the glyphs in the bins of the bands of rows they overlap, in
+		// order, so that each band only goes through it's own glyphs. The
+		// bands are small enough for their pixels to stay in the processor
+		// cache while they are stamped.
+		final int imageHeight = image.getHeight();
+		int numBands = Math.max(parallel ? pool.getParallelism() * 2 : 1,
+				imageWidth * imageHeight / BAND_PIXELS);
+		final int bandHeight = Math.max(MIN_BAND_HEIGHT,
+				(imageHeight + numBands - 1) / numBands);
+		numBands = (imageHeight + bandHeight - 1) / bandHeight;
+		final int[] bandStarts = new int[numBands + 1];
+		for (int pass = 0; pass < 2; pass++) {
+			for (int i = 0; i < n; i++) {
+				int top = outlineTops[i], bottom = outlineBottoms[i];
+				Sprite sprite = glyphSprites[i];
+				if (sprite != null && sprite.height > 0) {
+					int spriteTop = yPixels[i] + sprite.y;
+					if (top > bottom) {
+						top = spriteTop;
+						bottom = spriteTop + sprite.height - 1;
+					} else {
+						top = Math.min(top, spriteTop);
+						bottom = Math.max(bottom, spriteTop + sprite.height - 1);
+					}
+				}
+				if (top > bottom || bottom < 0 || top >= imageHeight)
+					continue;
+				int firstBand = Math.max(top, 0) / bandHeight;
+				int lastBand = Math.min(bottom, imageHeight - 1) / bandHeight;
+				for (int band = firstBand; band <= lastBand; band++)
+					if (pass == 0)
+						bandStarts[band + 1]++;
+					else
+						bandEntries[bandStarts[band]++] = i;
+			}
+			if (pass == 0) {
+				for (int band = 0; band < numBands; band++)
+					bandStarts[band + 1] += bandStarts[band];
+				if (bandEntries.length < bandStarts[numBands])
+					bandEntries = new int[bandStarts[numBands]];
+			} else {
+				// the starts were advanced to the ends of the bands
+				System.arraycopy(bandStarts, 0, bandStarts, 1, numBands);
+				bandStarts[0] = 0;
+			}
+		}
+
+		// stamp the glyphs, one band of rows per task
+		final int[] entries = bandEntries;
+		final RenderingHints hints = g.getRenderingHints();
+		final BufferedImage outlineImage = image;
+		tasks.clear();
+		for (int band = 0; band < numBands; band++) {
+			final int top = band * bandHeight;
+			final int bottom = Math.min(top + bandHeight, imageHeight);
+			final int first = bandStarts[band], last = bandStarts[band + 1];
+			tasks.add(new Callable<Object>() {
+				public Object call() {
+					Graphics2D outlineGraphics = null;
+					for (int k = first; k < last; k++) {
+						int i = entries[k];
+						Sprite sprite = glyphSprites[i];
+						if (sprite != null)
+							stamp(data, offset, stride, imageWidth, top,
+									bottom, sprite, xPixels[i], yPixels[i],
+									colors[i]);
+						if (outlineTops[i] < bottom
+								&& outlineBottoms[i] >= top
+								&& outlineTops[i] <= outlineBottoms[i]) {
+							if (outlineGraphics == null) {
+								outlineGraphics = outlineImage.createGraphics();
+								outlineGraphics.setRenderingHints(hints);
+								outlineGraphics.clipRect(0, top, imageWidth,
+										bottom - top);
+								outlineGraphics.setColor(Color.black);
+							}
+							outlineGraphics
+									.drawPolygon(((Glyph) objects[from + i]).p);
+						}
+					}
+					if (outlineGraphics != null)
+						outlineGraphics.dispose();
+					return null;
+				}
+			});
+		}
+		ParallelTasks.run(pool, tasks);
+		return true;
+	}
+
+	/**
+	 * @return the packed ARGB color of the specified glyph, from the colors of
+	 *         the records if the glyph has not been given a different one
+	 */
+	private static int colorOf(Glyph glyph, int[] recordColors) {
+		DataRecord record = glyph.getAssociatedRecord();
+		Color color = glyph.color;
+		if (recordColors != null && record != null
+				&& record.index < recordColors.length) {
+			int argb = recordColors[record.index];
+			if (color == null || color.getRGB() == argb)
+				return argb;
+		}
+		return color.getRGB();
+	}
+
+	/**
+	 * Gets the sprite for the specified key, rasterizing it if it does not
+	 * exist yet.
+	 */
+	private Sprite getSprite(SpriteKey key) {
+		Sprite sprite = sprites.get(key);
+		if (sprite == null) {
+			sprite = rasterize(key);
+			Sprite existing = sprites.putIfAbsent(key.copy(), sprite);
+			if (existing != null)
+				sprite = existing;
+		}
+		return sprite;
+	}
+
+	/**
+	 * Rasterizes the shape of the specified key, centered on the center of a
+	 * pixel, the same way Glyph paints it.
+	 */
+	private static Sprite rasterize(SpriteKey key) {
+		double xScale = (double) key.xScale / SUBPIXELS;
+		double yScale = (double) key.yScale / SUBPIXELS;
+		Path2D.Double path = new Path2D.Double();
+		for (int i = 0; i < key.xCoordinates.length; i++) {
+			double x = key.xCoordinates[i] * xScale;
+			double y = -key.yCoordinates[i] * yScale;
+			if (i == 0)
+				path.moveTo(x, y);
+			else
+				path.lineTo(x, y);
+		}
+		path.closePath();
+
+		Rectangle2D bounds = path.getBounds2D();
+		int x = (int) Math.floor(bounds.getMinX()) - 1;
+		int y = (int) Math.floor(bounds.getMinY()) - 1;
+		int width = (int) Math.ceil(bounds.getMaxX()) + 2 - x;
+		int height = (int) Math.ceil(bounds.getMaxY()) + 2 - y;
+		if (key.xCoordinates.length < 3 || bounds.isEmpty())
+			return EMPTY_SPRITE;
+
+		BufferedImage image = new BufferedImage(width, height,
+				BufferedImage.TYPE_INT_ARGB);
+		Graphics2D g = image.createGraphics();
+		g.setRenderingHint(RenderingHints.KEY_ANTIALIASING,
+				key.antialiased ? RenderingHints.VALUE_ANTIALIAS_ON
+						: RenderingHints.VALUE_ANTIALIAS_OFF);
+		g.translate(-x, -y);
+		g.setColor(Color.white);
+		g.fill(path);
+		g.dispose();
+
+		// trim the rows and columns which are not covered
+		int minColumn = width, maxColumn = -1, minRow = height, maxRow = -1;
+		for (int row = 0; row < height; row++)
+			for (int column = 0; column < width; column++)
+				if (image.getRGB(column, row) >>> 24 != 0) {
+					minColumn = Math.min(minColumn, column);
+					maxColumn = Math.max(maxColumn, column);
+					minRow = Math.min(minRow, row);
+					maxRow = Math.max(maxRow, row);
+				}
+		if (maxColumn < 0)
+			return EMPTY_SPRITE;
+
+		int trimmedWidth = maxColumn - minColumn + 1;
+		int trimmedHeight = maxRow - minRow + 1;
+		byte[] coverage = new byte[trimmedWidth * trimmedHeight];
+		for (int row = 0, k = 0; row < trimmedHeight; row++)
+			for (int column = 0; column < trimmedWidth; column++)
+				coverage[k++] = (byte) (image.getRGB(minColumn + column,
+						minRow + row) >>> 24);
+		return new Sprite(x + minColumn, y + minRow, trimmedWidth,
+				trimmedHeight, coverage);
+	}
+
+	/**
+	 * Blends the specified sprite in the specified color into the rows of the
+	 * image from top (inclusive) to bottom (exclusive).
+	 */
+	private static void stamp(int[] data, int offset, int stride,
+			int imageWidth, int top, int bottom, Sprite sprite, int x, int y,
+			int argb) {
+		int alpha = argb >>> 24;
+		int left = x + sprite.x;
+		int spriteTop = y + sprite.y;
+		int rowStart = Math.max(spriteTop, top);
+		int rowEnd = Math.min(spriteTop + sprite.height, bottom);
+		int columnStart = Math.max(left, 0);
+		int columnEnd = Math.min(left + sprite.width, imageWidth);
+		if (alpha == 0 || rowStart >= rowEnd || columnStart >= columnEnd)
+			return;
+
+		int red = (argb >> 16) & 0xFF;
+		int green = (argb >> 8) & 0xFF;
+		int blue = argb & 0xFF;
+		int rgb = argb & 0xFFFFFF;
+		byte[] coverage = sprite.coverage;
+		for (int row = rowStart; row < rowEnd; row++) {
+			int k = (row - spriteTop) * sprite.width + columnStart - left;
+			int d = offset + row * stride + columnStart;
+			for (int column = columnStart; column < columnEnd; column++, k++, d++) {
+				int c = coverage[k] & 0xFF;
+				if (c == 0)
+					continue;
+				int a = alpha == 0xFF ? c : divideBy255(c * alpha);
+				if (a == 0xFF)
+					data[d] = rgb;
+				else {
+					int p = data[d];
+					int b = 255 - a;
+					data[d] = divideBy255(red * a + ((p >> 16) & 0xFF) * b) << 16
+							| divideBy255(green * a + ((p >> 8) & 0xFF) * b) << 8
+							| divideBy255(blue * a + (p & 0xFF) * b);
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return the specified value (from 0 to 255 * 255) divided by 255 and
+	 *         rounded
+	 */
+	private static int divideBy255(int value) {
+		value += 128;
+		return (value + (value >> 8)) >> 8;
+	}
+
+	/**
+	 * Makes sure the arrays can hold the specified number of glyphs.
+	 */
+	private void ensureCapacity(int n) {
+		if (xs.length < n) {
+			xs = new double[n];
+			ys = new double[n];
+			xPixels = new int[n];
+			yPixels = new int[n];
+			colors = new int[n];
+			outlineTops = new int[n];
+			outlineBottoms = new int[n];
+			glyphSprites = new Sprite[n];
+		}
+	}
+}
@@ -21,6 +21,7 @@ import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
 
+import jyVis.JyVisSettings;
 import jyVis.data.DataColorMap;
 import jyVis.data.DataRecord;
 import jyVis.data.Normalization;
@@ -28,12 +29,20 @@ import jyVis.graphics.DrawingPanel;
 import shapeMap.ShapeMap;
 import transformation.Interval;
 import transformation.Transformation;
+import transformation.TransformationKernel;
 import colorMap.ColorMap;
 
 /**
  * A class which manages the color, shape, and size aspects of a collection of
  * glyphs which correspond to records in a DataTable.
  * 
+ * When the table has more records than
+ * JyVisSettings.densityRenderingThreshold, no glyphs are created. Instead, the
+ * records are represented by a DensityMap, which shows how many records are
+ * at each pixel in the colors of the color map, and the shapes and sizes are
+ * not used. The positions of the records are set with setPosition(), which
+ * works in both cases.
+ * 
  * @author Curran Kelleher
  * 
  */
@@ -94,13 +103,40 @@ public class GlyphCollection implements Iterable<Glyph> {
 	 */
 	public boolean drawOutlines = false;
 
+	/**
+	 * The renderer which paints all of the glyphs at once
+	 */
+	private final GlyphBatchRenderer batchRenderer = new GlyphBatchRenderer();
+
+	/**
+	 * The density map representing the records, or null if there is a glyph
+	 * for every record
+	 */
+	DensityMap densityMap;
+
 	/**
 	 * Constructs a collection of glyphs. When this constructor is invoked, new
 	 * JVGlyph objects are created for every record in the data table inside of
-	 * the panel, set up for selection, and added to the panel.
+	 * the panel, set up for selection, and added to the panel. If the table
+	 * has more records than JyVisSettings.densityRenderingThreshold, a density
+	 * map is added to the panel instead.
 	 * 
 	 */
 	public GlyphCollection(DrawingPanel panel) {
+		this(panel,
+				panel.data.getNumberOfRecords() > JyVisSettings.densityRenderingThreshold);
+	}
+
+	/**
+	 * Constructs a collection of glyphs, or a density map representing the
+	 * records if densityMode is true.
+	 * 
+	 * @param panel
+	 *            the panel to add the glyphs or the density map to
+	 * @param densityMode
+	 *            if true, a density map is used instead of glyphs
+	 */
+	public GlyphCollection(DrawingPanel panel, boolean densityMode) {
 		// store the reference to the panel
 		this.panel = panel;
 
@@ -112,13 +148,21 @@ public class GlyphCollection implements Iterable<Glyph> {
 		// create the default normalization for the shape map
 		sizeNormalization = new Normalization(panel.data);
 
-		// create a glyph for every data record and set them up for selection.
-		glyphs = new ArrayList<Glyph>(panel.data.records.size());
-		for (DataRecord record : panel.data.records) {
-			Glyph glyph = new Glyph();
-			glyph.setUpForSelection(record, panel);
-			glyphs.add(glyph);
-			panel.add(glyph);
+		if (densityMode) {
+			glyphs = new ArrayList<Glyph>();
+			densityMap = new DensityMap(panel.data);
+			panel.add(densityMap);
+		} else {
+			// create a glyph for every data record and set them up for
+			// selection.
+			glyphs = new ArrayList<Glyph>(panel.data.getNumberOfRecords());
+			for (DataRecord record : panel.data.records) {
+				Glyph glyph = new Glyph();
+				glyph.setUpForSelection(record, panel);
+				glyph.batchRenderer = batchRenderer;
+				glyphs.add(glyph);
+				panel.add(glyph);
+			}
 		}
 
 		// initialize the glyph properties
@@ -127,8 +171,61 @@ public class GlyphCollection implements Iterable<Glyph> {
 	}
 
 	/**
+	 * Sets the position of the glyph of the specified record (or of the
+	 * record in the density map). The display is not updated.
+	 * 
+	 * @param record
+	 *            the index of the record
+	 * @param x
+	 *            the x coordinate of the record
+	 * @param y
+	 *            the y coordinate of the record
+	 */
+	public void setPosition(int record, double x, double y) {
+		if (densityMap != null)
+			densityMap.setPosition(record, x, y);
+		else {
+			// the glyphs are in the order of their records
+			Glyph glyph = glyphs.get(record);
+			glyph.x = x;
+			glyph.y = y;
+		}
+	}
+
+	/**
+	 * Sets the positions of the glyphs of all records (or of the records in
+	 * the density map). The density map uses the arrays directly. The display
+	 * is not updated.
 	 * 
-	 * @return the list of glyphs that this class is managing.
+	 * @param xs
+	 *            the x coordinates of the records, by record index
+	 * @param ys
+	 *            the y coordinates of the records, by record index
+	 */
+	public void setPositions(double[] xs, double[] ys) {
+		if (densityMap != null)
+			densityMap.setPositions(xs, ys);
+		else
+			// the glyphs are in the order of their records
+			for (int record = 0; record < glyphs.size(); record++) {
+				Glyph glyph = glyphs.get(record);
+				glyph.x = xs[record];
+				glyph.y = ys[record];
+			}
+	}
+
+	/**
+	 * @return true if the records are represented by a density map instead
+	 *         of glyphs
+	 */
+	public boolean isDensityMode() {
+		return densityMap != null;
+	}
+
+	/**
+	 * 
+	 * @return the list of glyphs that this class is managing. This is empty
+	 *         if the records are represented by a density map.
 	 */
 	public List<Glyph> getGlyphs() {
 		return glyphs;
@@ -298,24 +395,57 @@ public class GlyphCollection implements Iterable<Glyph> {
 	 */
 	public void updateGlyphs(boolean updateColors, boolean updateShapes,
 			boolean updateSize, boolean updateOutlines, boolean updateDisplay) {
+		// the normalized values, which are not needed in density mode
+		double[] colorValues = null, shapeValues = null, sizeValues = null;
+		ColorMap colorMap = dataColorMap.colorMap;
+		if (!glyphs.isEmpty()) {
+			if (updateColors) {
+				colorValues = dataColorMap.normalization
+						.getNormalizedColumn(dataColorMap.dimension);
+				// the batch renderer reads the packed colors of the records
+				batchRenderer.recordColors = dataColorMap.getColors();
+			}
+			if (updateShapes)
+				shapeValues = shapeNormalization
+						.getNormalizedColumn(shapeDimension);
+			if (updateSize)
+				sizeValues = sizeNormalization
+						.getNormalizedColumn(sizeDimension);
+		}
+		TransformationKernel sizeKernel = sizeTransformation.getKernel();
 		for (Glyph g : glyphs) {
 			int record = g.getAssociatedRecord().index;
 			if (updateColors)
-				g.color = dataColorMap.getColor(record);
+				g.color = colorMap.getColor(colorValues[record]);
 			if (updateShapes)
-				g.setShape(shapeMap.getShape(shapeNormalization.normalize(
-						record, shapeDimension)));
+				g.setShape(shapeMap.getShape(shapeValues[record]));
 			if (updateSize)
-				g.size = sizeTransformation.transform(sizeNormalization
-						.normalize(record, sizeDimension));
+				g.size = sizeKernel.transform(sizeValues[record]);
 			if (updateOutlines)
 				g.drawOutline = drawOutlines;
 		}
+		if (densityMap != null && updateColors) {
+			// the bins are drawn in the colors of the mean values of their
+			// records
+			densityMap.values = dataColorMap.normalization
+					.getNormalizedColumn(dataColorMap.dimension);
+			densityMap.colorMap = dataColorMap.colorMap;
+		}
 
 		if (updateDisplay)
 			panel.updateDisplay();
 	}
 
+	/**
+	 * Gives back the normalized columns of the color, shape and size
+	 * normalizations to the data table.
+	 */
+	public void releaseNormalizedColumns() {
+		dataColorMap.normalization.releaseNormalizedColumns();
+		shapeNormalization.releaseNormalizedColumns();
+		sizeNormalization.releaseNormalizedColumns();
+	}
+
 	/**
 	 * Returns the iterator for iterating over the list of glyphs in this glyph
 	 * collection
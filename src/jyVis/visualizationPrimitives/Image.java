@@ -29,6 +29,8 @@ import transformation.Window2D;
 public class Image extends VisualizationPrimitive {
 	BufferedImage image;
 
+	Rectangle boundingBox;
+
 	public Image(int width, int height) {
 		image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
 		Graphics2D graphics = image.createGraphics();
@@ -50,6 +52,9 @@ public class Image extends VisualizationPrimitive {
 	}
 
 	public Rectangle getBoundingBox() {
-		return new Rectangle(0, 0, image.getWidth(), image.getHeight());
+		if (boundingBox == null)
+			boundingBox = new Rectangle();
+		boundingBox.setBounds(0, 0, image.getWidth(), image.getHeight());
+		return boundingBox;
 	}
 }
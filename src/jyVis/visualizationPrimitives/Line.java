@@ -110,7 +110,17 @@ public class Line extends VisualizationPrimitive {
 	 * 
 	 */
 	public void computeWindowTransformation(Window2D w) {
-
+		int ax = (int) w.getXPixel(x1);
+		int bx = (int) w.getXPixel(x2);
+		int ay = (int) w.getYPixel(y1);
+		int by = (int) w.getYPixel(y2);
+		if (ax != a.x || ay != a.y || bx != b.x || by != b.y) {
+			a.x = ax;
+			b.x = bx;
+			a.y = ay;
+			b.y = by;
+			selectablePointsChanged();
+		}
 	}
 
 	/**
@@ -125,17 +135,25 @@ public class Line extends VisualizationPrimitive {
 	 *            transformations.
 	 */
 	public void paint(Graphics g, Window2D w) {
-		a.x = (int) w.getXPixel(x1);
-		b.x = (int) w.getXPixel(x2);
-		a.y = (int) w.getYPixel(y1);
-		b.y = (int) w.getYPixel(y2);
+		computeWindowTransformation(w);
+		paintTransformed(g);
+	}
 
+	public void paintTransformed(Graphics g) {
 		if (fill || drawOutline) {
 			g.setColor(color);
 			g.drawLine(a.x, a.y, b.x, b.y);
 		}
 	}
 
+	public boolean supportsTransformedPainting() {
+		return true;
+	}
+
+	public boolean isTileable() {
+		return true;
+	}
+
 	/**
 	 * This method always returns false for JVLine.
 	 */
@@ -53,6 +53,11 @@ public class Polygon extends VisualizationPrimitive {
 	 */
 	protected java.awt.Polygon p;
 
+	/**
+	 * The bounding box of this polygon
+	 */
+	private Rectangle boundingBox;
+
 	/**
 	 * Construct an empty polygon
 	 * 
@@ -111,14 +116,36 @@ public class Polygon extends VisualizationPrimitive {
 	 *            the Graphics object to draw on.
 	 */
 	public void paint(Graphics g, Window2D w) {
+		computeWindowTransformation(w);
+		paintTransformed(g);
+	}
 
+	/**
+	 * Calculates the pixel-space points of this polygon.
+	 * 
+	 * @param w
+	 *            the window to use for coordinate-space to pixel-space
+	 *            transformations.
+	 */
+	public void computeWindowTransformation(Window2D w) {
+		boolean changed = false;
 		for (int i = 0; i < xCoordinates.length; i++) {
-			p.xpoints[i] = (int) w.getXPixel(xCoordinates[i]);
-			p.ypoints[i] = (int) w.getYPixel(yCoordinates[i]);
+			int x = (int) w.getXPixel(xCoordinates[i]);
+			int y = (int) w.getYPixel(yCoordinates[i]);
 			// System.out.println(p.xpoints[i]+" "+p.ypoints[i]);
+			if (x != p.xpoints[i] || y != p.ypoints[i]) {
+				p.xpoints[i] = x;
+				p.ypoints[i] = y;
+				changed = true;
+			}
 		}
-		p.invalidate();
+		if (changed) {
+			p.invalidate();
+			selectablePointsChanged();
+		}
+	}
 
+	public void paintTransformed(Graphics g) {
 		if (fill) {
 			g.setColor(color);
 			g.fillPolygon(p);
@@ -129,6 +156,14 @@ public class Polygon extends VisualizationPrimitive {
 		}
 	}
 
+	public boolean supportsTransformedPainting() {
+		return true;
+	}
+
+	public boolean isTileable() {
+		return true;
+	}
+
 	/**
 	 * Determines whether or not the specified point is inside this circle.
 	 * 
@@ -153,8 +188,33 @@ public class Polygon extends VisualizationPrimitive {
 		return selectablePoints;
 	}
 
+	/**
+	 * Returns the bounding box of this polygon (in pixel space). The same
+	 * Rectangle is reused on every call.
+	 */
 	public Rectangle getBoundingBox() {
-		return p.getBounds();
+		if (boundingBox == null)
+			boundingBox = new Rectangle();
+		int n = p.npoints;
+		if (n == 0) {
+			boundingBox.setBounds(0, 0, 0, 0);
+			return boundingBox;
+		}
+		int minX = p.xpoints[0], maxX = minX;
+		int minY = p.ypoints[0], maxY = minY;
+		for (int i = 1; i < n; i++) {
+			int x = p.xpoints[i], y = p.ypoints[i];
+			if (x < minX)
+				minX = x;
+			else if (x > maxX)
+				maxX = x;
+			if (y < minY)
+				minY = y;
+			else if (y > maxY)
+				maxY = y;
+		}
+		boundingBox.setBounds(minX, minY, maxX - minX, maxY - minY);
+		return boundingBox;
 	}
 }
 /*
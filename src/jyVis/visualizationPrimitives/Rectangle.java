@@ -88,15 +88,29 @@ public class Rectangle extends VisualizationPrimitive {
 	 *            transformations.
 	 */
 	public void paint(Graphics g, Window2D w) {
+		computeWindowTransformation(w);
+		paintTransformed(g);
+	}
 
-		Graphics2D g2d = (Graphics2D) g;
-
+	/**
+	 * Calculates the pixel-space corner points of this rectangle.
+	 * 
+	 * @param w
+	 *            the window to use for coordinate-space to pixel-space
+	 *            transformations.
+	 */
+	public void computeWindowTransformation(Window2D w) {
 		int xpixel = (int) w.getXPixel(x1);
 		int ypixel = (int) w.getYPixel(y1);
 		int ypixel2 = (int) w.getYPixel(y2);
 		int xpixel2 = (int) w.getXPixel(x2);
 
 		Point point0 = points.get(0);
+		Point point2 = points.get(2);
+		if (xpixel == point0.x && ypixel == point0.y && xpixel2 == point2.x
+				&& ypixel2 == point2.y)
+			return;
+
 		point0.x = xpixel;
 		point0.y = ypixel;
 
@@ -104,13 +118,19 @@ public class Rectangle extends VisualizationPrimitive {
 		point1.x = xpixel;
 		point1.y = ypixel2;
 
-		Point point2 = points.get(2);
 		point2.x = xpixel2;
 		point2.y = ypixel2;
 
 		Point point3 = points.get(3);
 		point3.x = xpixel2;
 		point3.y = ypixel;
+		selectablePointsChanged();
+	}
+
+	public void paintTransformed(Graphics g) {
+		Graphics2D g2d = (Graphics2D) g;
+		Point point1 = points.get(1);
+		Point point3 = points.get(3);
 
 		g2d.setColor(color);
 		if (fill || drawOutline) {
@@ -127,6 +147,14 @@ public class Rectangle extends VisualizationPrimitive {
 		}
 	}
 
+	public boolean supportsTransformedPainting() {
+		return true;
+	}
+
+	public boolean isTileable() {
+		return true;
+	}
+
 	/**
 	 * Determines whether or not the specified point is inside this rectangle.
 	 * 
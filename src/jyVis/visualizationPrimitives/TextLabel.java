@@ -371,6 +371,14 @@ public class TextLabel extends Rectangle {
 		}
 	}
 
+	/**
+	 * Text labels calculate their size from the font in paint(), so they are
+	 * not tileable.
+	 */
+	public boolean isTileable() {
+		return false;
+	}
+
 	public String getText() {
 		return text;
 	}
@@ -20,6 +20,7 @@ package jyVis.visualizationPrimitives;
 import java.awt.Color;
 import java.awt.Graphics;
 import java.awt.Point;
+import java.awt.Polygon;
 import java.awt.Rectangle;
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -28,7 +29,9 @@ import java.util.List;
 
 import jyVis.GlobalObjects;
 import jyVis.data.DataRecord;
+import jyVis.data.DataSelection;
 import jyVis.graphics.DrawingPanel;
+import jyVis.graphics.VisualizationPrimitiveIndex;
 import scripting.ScriptBottleneck;
 import transformation.Window2D;
 
@@ -73,6 +76,15 @@ public abstract class VisualizationPrimitive {
 	 */
 	private int globalObjectsIndex;
 
+	/**
+	 * The index which holds the selectable points of this object, and the
+	 * position of this object in it's list of objects. The index is told when
+	 * the selectable points change, so it need not check every object.
+	 */
+	private VisualizationPrimitiveIndex index;
+
+	private int indexPosition;
+
 	/**
 	 * Draws this object, using the transformation information calculated in
 	 * computeWindowTransformation().
@@ -85,6 +97,67 @@ public abstract class VisualizationPrimitive {
 	 */
 	public abstract void paint(Graphics g, Window2D w);
 
+	/**
+	 * Calculates the pixel-space points that this object will need when drawing
+	 * and testing for selections, without drawing it. This does nothing by
+	 * default, for objects which calculate their points in paint().
+	 * 
+	 * @param w
+	 *            the window to use for coordinate-space to pixel-space
+	 *            transformations.
+	 */
+	public void computeWindowTransformation(Window2D w) {
+	}
+
+	/**
+	 * Draws this object using the pixel-space points calculated by the last
+	 * call to computeWindowTransformation(). This does nothing by default;
+	 * subclasses which override it must also override
+	 * supportsTransformedPainting() to return true.
+	 * 
+	 * @param g
+	 *            the Graphics to draw this object on
+	 */
+	public void paintTransformed(Graphics g) {
+	}
+
+	/**
+	 * Determines whether this object can be drawn with paintTransformed()
+	 * after computeWindowTransformation(). This is false by default, and
+	 * objects for which it is false are drawn with paint().
+	 * 
+	 * @return true if this object overrides paintTransformed()
+	 */
+	public boolean supportsTransformedPainting() {
+		return false;
+	}
+
+	/**
+	 * Determines whether this object can be drawn by the tiled renderer, which
+	 * calls computeWindowTransformation() once and then paintTransformed() for
+	 * each tile the object overlaps, possibly from several threads at once.
+	 * This is true for objects whose paint() does nothing more than those two
+	 * calls, and whose paintTransformed() does not modify the object. It is
+	 * false by default; subclasses which override paint() must make sure it is
+	 * false. Objects are only tiled if supportsTransformedPainting() is true
+	 * as well.
+	 * 
+	 * @return true if this object can be drawn by the tiled renderer
+	 */
+	public boolean isTileable() {
+		return false;
+	}
+
+	/**
+	 * Gets the renderer which paints this object together with the objects
+	 * next to it in the list of objects of a panel, if there is one.
+	 * 
+	 * @return the renderer, or null if this object is painted by itself
+	 */
+	public BatchRenderer getBatchRenderer() {
+		return null;
+	}
+
 	/**
 	 * Sets the color of this object.
 	 * 
@@ -180,6 +253,33 @@ public abstract class VisualizationPrimitive {
 
 		// set this object's associated record
 		associatedRecord = record;
+		selectablePointsChanged();
+	}
+
+	/**
+	 * Sets the index which holds the selectable points of this object, and
+	 * the position of this object in it's list of objects. This is called by
+	 * VisualizationPrimitiveIndex when it indexes this object.
+	 * 
+	 * @param index
+	 * @param position
+	 */
+	public void setIndexPosition(VisualizationPrimitiveIndex index,
+			int position) {
+		this.index = index;
+		indexPosition = position;
+	}
+
+	/**
+	 * Tells the index holding this object's selectable points that they have
+	 * changed. Subclasses which implement getSelectablePoints() must call this
+	 * whenever the points they return change, or the index will not see the
+	 * change.
+	 */
+	protected void selectablePointsChanged() {
+		VisualizationPrimitiveIndex index = this.index;
+		if (index != null)
+			index.objectMoved(this, indexPosition);
 	}
 
 	/**
@@ -192,6 +292,53 @@ public abstract class VisualizationPrimitive {
 		return null;
 	}
 
+	/**
+	 * Determines whether this object represents many records without having
+	 * an associated record (such as DensityMap). Panels keep these objects in
+	 * a list of their own, and only call selectRecords() and paintSelection()
+	 * on them, so this must not change after the object is added to a panel.
+	 * 
+	 * @return true if this object overrides selectRecords() and
+	 *         paintSelection(); false by default
+	 */
+	public boolean representsManyRecords() {
+		return false;
+	}
+
+	/**
+	 * Adds the records represented by this object which are inside the
+	 * specified selection polygon to the specified selection. This is for
+	 * objects which represent many records without having an associated record
+	 * (such as DensityMap), and does nothing by default.
+	 * 
+	 * @param polygon
+	 *            the selection polygon, in pixel space
+	 * @param selectedRecords
+	 *            the selection to add the records to
+	 */
+	public void selectRecords(Polygon polygon, DataSelection selectedRecords) {
+	}
+
+	/**
+	 * Draws the records of the specified selection which are represented by
+	 * this object, in the specified color. This is for objects which represent
+	 * many records without having an associated record (such as DensityMap),
+	 * and does nothing by default.
+	 * 
+	 * @param g
+	 *            the Graphics to draw the selected records on
+	 * @param w
+	 *            the window to use for coordinate-space to pixel-space
+	 *            transformations.
+	 * @param selection
+	 *            the selected records
+	 * @param selectionColor
+	 *            the color of the selection
+	 */
+	public void paintSelection(Graphics g, Window2D w, DataSelection selection,
+			Color selectionColor) {
+	}
+
 	/**
 	 * 
 	 * @return the record associated with this object, or null if this object
@@ -19,16 +19,28 @@ package quadTree;
 
 import java.awt.Color;
 import java.awt.Graphics;
-import java.awt.Point;
 import java.awt.Rectangle;
 import java.awt.Shape;
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Arrays;
+import java.util.Collection;
 
 /**
  * A general quad tree, a 2D index of point-value pairs which can be queried
  * with a polygon, returning results in O(log(n)) time.
  * 
+ * This is a packed quad tree: there are no node objects. The points are kept
+ * in flat arrays, sorted by the Morton code (the interleaved bits of the x and
+ * y coordinates) of the grid cell they fall in. In this ordering, the points
+ * of every quad tree node are a contiguous range of the arrays, so the
+ * subnodes of a node are found by binary search. The tree is bulk loaded (in
+ * O(n log(n)) time) the first time it is queried or painted after points have
+ * been added.
+ * 
+ * Small changes do not cause the tree to be rebuilt: points added after the
+ * tree was built are kept unsorted after the sorted points and tested one by
+ * one, and removed points are marked as removed in place. Once there are too
+ * many of either, the tree is rebuilt.
+ * 
  * @author Curran Kelleher
  * 
  * @param <T>
@@ -38,7 +50,7 @@ import java.util.List;
 public class QuadTree<T> extends Rectangle {
 	/**
 	 * The maximum capacity for quadtree nodes, or "buckets". When the number of
-	 * entries inside a node exceeds this number, then that node splits into
+	 * entries inside a node exceeds this number, then that node is split into
 	 * four subnodes.
 	 */
 	private int threshold;
@@ -60,34 +72,83 @@ public class QuadTree<T> extends Rectangle {
 	private static final Color nodeColor_traversed = Color.red;
 
 	/**
-	 * The current color of this node.
+	 * The largest number of bits used for each coordinate in Morton codes.
+	 * Larger regions are indexed with grid cells of more than one pixel.
+	 */
+	private static final int MAX_GRID_BITS = 15;
+
+	/**
+	 * The number of unsorted points which are always allowed before the tree
+	 * is rebuilt
+	 */
+	private static final int MIN_UNSORTED_POINTS = 64;
+
+	/**
+	 * The x coordinates of the points
+	 */
+	private int[] xs = new int[16];
+
+	/**
+	 * The y coordinates of the points
 	 */
-	private Color nodeColor = nodeColor_untouched;
+	private int[] ys = new int[16];
 
 	/**
-	 * The entries (point-value pairs) inside this node
+	 * The values of the points. An array of Objects is used as opposed to an
+	 * array of T because arrays cannot be created using generics. Removed
+	 * points among the sorted points have a null value.
 	 */
-	private List<PointValuePair<T>> entries = new ArrayList<PointValuePair<T>>();
+	private Object[] values = new Object[16];
 
 	/**
-	 * A flag indicating whether this node is a leaf (true) or has subnodes
-	 * (false). If true, then "entries" exists and "subtrees" does not exist. If
-	 * false, then "entries" does not exist and "subtrees" exists
+	 * The number of points
 	 */
-	private boolean leaf = true;
+	private int size;
 
 	/**
-	 * The four subnodes of this node. This is populated when number of entries
-	 * exceeds the capacity of this node. (see splitThisNode()) A List is used
-	 * as opposed to an array because arrays cannot be created using generics.
+	 * The Morton codes of the sorted points. The first sizeInside points are
+	 * the points inside the tree in this order, and the rest are the points
+	 * outside the tree followed by the points added since it was built.
 	 */
-	private List<QuadTree<T>> subtrees;
+	private int[] keys = new int[0];
 
 	/**
-	 * If there are any points outside the top level of the quadtree, yet still
-	 * need to be indexed, they will go in this node.
+	 * The number of sorted points, which are the first points in the arrays.
 	 */
-	private QuadTree<T> nodeToContainPointsOutsideTheTree;
+	private int sizeInside;
+
+	/**
+	 * The number of points which were outside the tree when it was built
+	 */
+	private int sizeOutside;
+
+	/**
+	 * The number of sorted points which have been removed
+	 */
+	private int numRemoved;
+
+	/**
+	 * The number of bits of each coordinate used in Morton codes, so the root
+	 * node is (1 << gridBits) grid cells wide.
+	 */
+	private int gridBits;
+
+	/**
+	 * The log2 of the width of a grid cell in pixels
+	 */
+	private int shift;
+
+	/**
+	 * The nodes which have been traversed by the last spacial query, as
+	 * triples of (level, x, y) in grid cells. These are recorded only when
+	 * paintQuadTree is true.
+	 */
+	private int[] traversedNodes = new int[0];
+
+	/**
+	 * The number of entries in traversedNodes which are used
+	 */
+	private int traversedNodesSize;
 
 	/**
 	 * Construct an emtpy quadtree node of size (0,0)
@@ -99,7 +160,8 @@ public class QuadTree<T> extends Rectangle {
 	/**
 	 * Construct a quadtree node covering the rectangular region specified by
 	 * the two points: (x1,y1) - the upper left corner, and (x2,y2) - the lower
-	 * right corner. A default of 5 is used as the threshold for node splitting.
+	 * right corner. A default of 16 is used as the threshold for node
+	 * splitting.
 	 * 
 	 * @param x1
 	 * @param y1
@@ -107,7 +169,7 @@ public class QuadTree<T> extends Rectangle {
 	 * @param y2
 	 */
 	public QuadTree(int x1, int y1, int x2, int y2) {
-		this(x1, y1, x2, y2, 5);
+		this(x1, y1, x2, y2, 16);
 	}
 
 	/**
@@ -122,11 +184,12 @@ public class QuadTree<T> extends Rectangle {
 	 * @param threshold -
 	 *            The maximum capacity for quadtree nodes (or "buckets"). When
 	 *            the number of entries inside a node exceeds this number, then
-	 *            that node splits into four subnodes.
+	 *            that node is split into four subnodes.
 	 */
-	private QuadTree(int x1, int y1, int x2, int y2, int threshold) {
+	public QuadTree(int x1, int y1, int x2, int y2, int threshold) {
 		super(x1, y1, x2 - x1, y2 - y1);
 		this.threshold = threshold;
+		computeGrid();
 	}
 
 	/**
@@ -135,96 +198,209 @@ public class QuadTree<T> extends Rectangle {
 	 * @param e
 	 */
 	public void put(PointValuePair<T> e) {
+		put(e.point.x, e.point.y, e.value);
+	}
+
+	/**
+	 * Indexes the specified point-value pair into this quadtree, without
+	 * creating any objects for it.
+	 * 
+	 * @param x
+	 *            the x coordinate of the point
+	 * @param y
+	 *            the y coordinate of the point
+	 * @param value
+	 *            the value to index by the point
+	 */
+	public void put(int x, int y, T value) {
 		if (getWidth() == 0 && getHeight() == 0)
 			throw new RuntimeException(
 					"Don't index into a quadtree of 0 size, it's silly");
-		if (leaf) {
-			entries.add(e);
-			// handle the case where there are overlapping points,
-			// this test is to avoid infinite recursion when the number of
-			// overlapping points is greater than the threshold
-			if (!allEntriesAreEqual())
-				splitThisNode();
-		} else
-			localNodeThatContainsPoint(e.point).put(e);
+		if (size == xs.length) {
+			int newLength = size * 2;
+			xs = Arrays.copyOf(xs, newLength);
+			ys = Arrays.copyOf(ys, newLength);
+			values = Arrays.copyOf(values, newLength);
+		}
+		xs[size] = x;
+		ys[size] = y;
+		values[size++] = value;
 	}
 
 	/**
+	 * Indexes the specified points into this quadtree, all at once.
 	 * 
-	 * @return true if all entries are equal
-	 */
-	private boolean allEntriesAreEqual() {
-		Point firstPoint = entries.get(0).point;
-		for (PointValuePair<T> e : entries)
-			if (!e.point.equals(firstPoint))
-				return false;
-		return true;
+	 * @param pointXs
+	 *            the x coordinates of the points
+	 * @param pointYs
+	 *            the y coordinates of the points
+	 * @param pointValues
+	 *            the values to index by the points
+	 * @param n
+	 *            the number of points to index from the arrays
+	 */
+	public void putAll(int[] pointXs, int[] pointYs, T[] pointValues, int n) {
+		if (getWidth() == 0 && getHeight() == 0)
+			throw new RuntimeException(
+					"Don't index into a quadtree of 0 size, it's silly");
+		if (size + n > xs.length) {
+			int newLength = Math.max(size + n, size * 2);
+			xs = Arrays.copyOf(xs, newLength);
+			ys = Arrays.copyOf(ys, newLength);
+			values = Arrays.copyOf(values, newLength);
+		}
+		System.arraycopy(pointXs, 0, xs, size, n);
+		System.arraycopy(pointYs, 0, ys, size, n);
+		System.arraycopy(pointValues, 0, values, size, n);
+		size += n;
 	}
 
 	/**
-	 * Returns the one subnode which contains the specified point, of the four
-	 * subnodes of this node
+	 * Removes one occurrence of the specified point-value pair from this
+	 * quadtree.
 	 * 
-	 * @param p
-	 *            the point to test
-	 * @return the subnode of this node which contains that point
-	 */
-	private QuadTree<T> localNodeThatContainsPoint(Point p) {
-		for (QuadTree<T> n : subtrees)
-			if (n.contains(p))
-				return n;
-		// if we are here, then the point is outside the tree
-		if (nodeToContainPointsOutsideTheTree == null)
-			nodeToContainPointsOutsideTheTree = new QuadTree<T>(
-					Integer.MIN_VALUE, Integer.MIN_VALUE, Integer.MAX_VALUE,
-					Integer.MAX_VALUE, Integer.MAX_VALUE);
-		return nodeToContainPointsOutsideTheTree;
+	 * @param x
+	 *            the x coordinate of the point
+	 * @param y
+	 *            the y coordinate of the point
+	 * @param value
+	 *            the value indexed by the point
+	 * @return true if the point-value pair was found and removed
+	 */
+	public boolean remove(int x, int y, T value) {
+		int gridX = x - this.x;
+		int gridY = y - this.y;
+		if (gridX >= 0 && gridY >= 0 && gridX < width && gridY < height) {
+			int key = morton(gridX >> shift, gridY >> shift);
+			for (int i = lowerBound(0, sizeInside, key); i < sizeInside
+					&& keys[i] == key; i++)
+				if (values[i] == value && xs[i] == x && ys[i] == y) {
+					values[i] = null;
+					numRemoved++;
+					return true;
+				}
+		}
+		// the point may be outside the tree or unsorted
+		for (int i = sizeInside; i < size; i++)
+			if (values[i] == value && xs[i] == x && ys[i] == y) {
+				size--;
+				xs[i] = xs[size];
+				ys[i] = ys[size];
+				values[i] = values[size];
+				values[size] = null;
+				return true;
+			}
+		return false;
 	}
 
 	/**
-	 * Splits this node; transforms it from a leaf into a tree.
-	 * 
+	 * @return the number of points indexed by this quadtree
+	 */
+	public int size() {
+		return size - numRemoved;
+	}
+
+	/**
+	 * Computes the size of the grid which covers this rectangle
+	 */
+	private void computeGrid() {
+		int maxDimension = Math.max(Math.max(width, height), 2);
+		int bits = 32 - Integer.numberOfLeadingZeros(maxDimension - 1);
+		gridBits = Math.min(bits, MAX_GRID_BITS);
+		shift = bits - gridBits;
+	}
+
+	/**
+	 * Sorts the points by Morton code, if there are too many unsorted or
+	 * removed points to be efficient.
+	 */
+	private void ensureBuilt() {
+		int allowedChanges = Math.max(MIN_UNSORTED_POINTS, sizeInside >> 3);
+		if (size - sizeInside - sizeOutside <= allowedChanges
+				&& numRemoved <= allowedChanges)
+			return;
+
+		computeGrid();
+
+		// sort the points inside the tree by (Morton code, original index),
+		// and keep the points outside the tree in their original order
+		long[] order = new long[size];
+		int[] outside = new int[size];
+		int numInside = 0, numOutside = 0;
+		for (int i = 0; i < size; i++) {
+			// skip the removed points
+			if (values[i] == null)
+				continue;
+			int gridX = xs[i] - x;
+			int gridY = ys[i] - y;
+			if (gridX < 0 || gridY < 0 || gridX >= width || gridY >= height)
+				outside[numOutside++] = i;
+			else
+				order[numInside++] = ((long) morton(gridX >> shift,
+						gridY >> shift) << 32)
+						| i;
+		}
+		Arrays.sort(order, 0, numInside);
+
+		int[] sortedXs = new int[xs.length];
+		int[] sortedYs = new int[ys.length];
+		Object[] sortedValues = new Object[values.length];
+		keys = new int[numInside];
+		for (int j = 0; j < numInside; j++) {
+			int i = (int) order[j];
+			keys[j] = (int) (order[j] >>> 32);
+			sortedXs[j] = xs[i];
+			sortedYs[j] = ys[i];
+			sortedValues[j] = values[i];
+		}
+		for (int j = 0; j < numOutside; j++) {
+			int i = outside[j];
+			sortedXs[numInside + j] = xs[i];
+			sortedYs[numInside + j] = ys[i];
+			sortedValues[numInside + j] = values[i];
+		}
+		xs = sortedXs;
+		ys = sortedYs;
+		values = sortedValues;
+		size = numInside + numOutside;
+		sizeInside = numInside;
+		sizeOutside = numOutside;
+		numRemoved = 0;
+	}
+
+	/**
+	 * Computes the Morton code of the specified grid cell, which interleaves
+	 * the bits of x (in the even bits) and y (in the odd bits).
+	 */
+	private static int morton(int x, int y) {
+		return spreadBits(x) | (spreadBits(y) << 1);
+	}
+
+	/**
+	 * Spreads the lower 16 bits of the specified int into the even bits
 	 */
-	private void splitThisNode() {
-		// 1.) set the leaf flag to false
-		// 2.) create subtrees
-		// 3.) transfer entries into subtrees
-
-		// 1.) set the leaf flag to false
-		leaf = false;
-
-		// 2.) create subtrees
-		subtrees = new ArrayList<QuadTree<T>>(4);
-
-		// (x1,y1)------------|
-		// |------------------|
-		// |------------------|
-		// |------------------|
-		// |------------------|
-		// |------------------|
-		// |------------------|
-		// |-----------(x2,y2)|
-		int x1 = x, y1 = y, x2 = x + width, y2 = y + height;
-		int halfwayX = (x1 + x2) / 2;
-		int halfwayY = (y1 + y2) / 2;
-
-		// (x1,y1)-------------(halfwayX,y1)-------------(x2,y1)
-		// |-------------------------|-------------------------|
-		// |----------[0]------------|-----------[1]-----------|
-		// |-------------------------|-------------------------|
-		// (x1,halfwayY)----(halfwayX,halfwayY)----(x2,halfwayY)
-		// |-------------------------|-------------------------|
-		// |----------[2]------------|-----------[3]-----------|
-		// |-------------------------|-------------------------|
-		// (x1,y2)-------------(halfwayX,y2)-------------(x2,y2)
-		subtrees.add(new QuadTree<T>(x1, y1, halfwayX, halfwayY, threshold));
-		subtrees.add(new QuadTree<T>(halfwayX, y1, x2, halfwayY, threshold));
-		subtrees.add(new QuadTree<T>(x1, halfwayY, halfwayX, y2, threshold));
-		subtrees.add(new QuadTree<T>(halfwayX, halfwayY, x2, y2, threshold));
-
-		// 3.) transfer entries into subtrees
-		for (PointValuePair<T> e : entries)
-			localNodeThatContainsPoint(e.point).put(e);
+	private static int spreadBits(int v) {
+		v &= 0x0000FFFF;
+		v = (v | (v << 8)) & 0x00FF00FF;
+		v = (v | (v << 4)) & 0x0F0F0F0F;
+		v = (v | (v << 2)) & 0x33333333;
+		v = (v | (v << 1)) & 0x55555555;
+		return v;
+	}
+
+	/**
+	 * Finds the first index in the specified range of keys whose key is at
+	 * least the specified key.
+	 */
+	private int lowerBound(int from, int to, int key) {
+		while (from < to) {
+			int mid = (from + to) >>> 1;
+			if (keys[mid] < key)
+				from = mid + 1;
+			else
+				to = mid;
+		}
+		return from;
 	}
 
 	/**
@@ -234,30 +410,39 @@ public class QuadTree<T> extends Rectangle {
 	 *            the graphics to paint on
 	 */
 	public void paint(Graphics g) {
-		paint(g, 0, 0, 0, 0);
+		ensureBuilt();
+		g.setColor(nodeColor_untouched);
+		paint(g, 0, 0, 0, 0, sizeInside);
+		g.setColor(nodeColor_traversed);
+		for (int i = 0; i < traversedNodesSize; i += 3) {
+			int nodeSize = (1 << (gridBits - traversedNodes[i])) << shift;
+			g.drawRect(x + (traversedNodes[i + 1] << shift), y
+					+ (traversedNodes[i + 2] << shift), nodeSize - 1,
+					nodeSize - 1);
+		}
 	}
 
 	/**
-	 * The convoluted recursive function which paints this tree.
+	 * The recursive function which paints the nodes of this tree.
 	 */
-	public void paint(Graphics g, int x1Indent, int y1Indent, int x2Indent,
-			int y2Indent) {
-		if (!leaf) {
-			int indent = 1;
-			subtrees.get(0)
-					.paint(g, x1Indent + indent, y1Indent + indent, 0, 0);
-			subtrees.get(1)
-					.paint(g, 0, y1Indent + indent, x2Indent + indent, 0);
-			subtrees.get(2)
-					.paint(g, x1Indent + indent, 0, 0, y2Indent + indent);
-
-			subtrees.get(3)
-					.paint(g, 0, 0, x2Indent + indent, y2Indent + indent);
-
+	private void paint(Graphics g, int level, int nodeX, int nodeY, int from,
+			int to) {
+		int nodeSize = (1 << (gridBits - level)) << shift;
+		g.drawRect(x + (nodeX << shift), y + (nodeY << shift), nodeSize - 1,
+				nodeSize - 1);
+		if (to - from > threshold && level < gridBits) {
+			int half = 1 << (gridBits - level - 1);
+			int childSpan = 1 << (2 * (gridBits - level - 1));
+			int nodeKey = keys[from] & ~(childSpan * 4 - 1);
+			int start = from;
+			for (int i = 0; i < 4; i++) {
+				int end = i == 3 ? to : lowerBound(start, to, nodeKey + (i + 1)
+						* childSpan);
+				paint(g, level + 1, nodeX + (i & 1) * half, nodeY + (i >> 1)
+						* half, start, end);
+				start = end;
+			}
 		}
-		g.setColor(nodeColor);
-		g.drawRect(x + x1Indent, y + y1Indent, width - x2Indent - x1Indent - 1,
-				height - y2Indent - y1Indent - 1);
 	}
 
 	/**
@@ -265,61 +450,93 @@ public class QuadTree<T> extends Rectangle {
 	 * 
 	 */
 	public void resetColors() {
-		nodeColor = nodeColor_untouched;
-		if (!leaf)
-			for (QuadTree<T> n : subtrees)
-				n.resetColors();
+		traversedNodesSize = 0;
 	}
 
 	/**
-	 * A recursive function which performs the spacial query
+	 * Performs the spacial query.
 	 * 
 	 * @param polygon
 	 *            the polygon to query with
 	 * @param entriesInside
-	 *            the cumulative list of all entries inside the boundingBox
-	 */
-	public void performSpatialQuery(Shape polygon, List<T> entriesInside) {
-
-		nodeColor = nodeColor_traversed;
-		if (leaf) {
-			for (PointValuePair<T> e : entries)
-				if (polygon.contains(e.point))
-					entriesInside.add(e.value);
-		} else
-			for (QuadTree<T> n : subtrees) {
-				if (polygon.intersects(n)) {
-					// if n is entirely inside rectangle, then there is no point
-					// in testing the entries in n, because they are definitely
-					// inside rectangle, so add them to the list without testing
-					// them.
-					if (polygon.contains(n))
-						n.addAllEntries(entriesInside);
-					else
-						n.performSpatialQuery(polygon, entriesInside);
-				}
-				// if there are some points outside the tree, test them
-				if (nodeToContainPointsOutsideTheTree != null)
-					for (PointValuePair<T> e : nodeToContainPointsOutsideTheTree.entries)
-						if (polygon.contains(e.point))
-							entriesInside.add(e.value);
-			}
-
+	 *            the cumulative list of all entries inside the polygon
+	 */
+	public void performSpatialQuery(Shape polygon, Collection<? super T> entriesInside) {
+		ensureBuilt();
+		if (sizeInside > 0)
+			performSpatialQuery(polygon, entriesInside, 0, 0, 0, 0, sizeInside);
+
+		// test the points outside the tree and the unsorted points
+		for (int i = sizeInside; i < size; i++)
+			if (polygon.contains(xs[i], ys[i]))
+				entriesInside.add(value(i));
 	}
 
 	/**
-	 * Adds all entries contained in this node (in all subtrees)
+	 * A recursive function which performs the spacial query on a node.
 	 * 
-	 * @param entriesInside
-	 *            the list which the entries will be added to
-	 */
-	private void addAllEntries(List<T> entriesInside) {
-		if (leaf)
-			for (PointValuePair<T> e : entries)
-				entriesInside.add(e.value);
-		else
-			for (QuadTree<T> n : subtrees)
-				n.addAllEntries(entriesInside);
+	 * @param level
+	 *            the depth of the node, 0 for the root
+	 * @param nodeX
+	 *            the x coordinate of the node's upper left corner in grid
+	 *            cells
+	 * @param nodeY
+	 *            the y coordinate of the node's upper left corner in grid
+	 *            cells
+	 * @param from
+	 *            the index of the first point inside the node
+	 * @param to
+	 *            the index after the last point inside the node
+	 */
+	private void performSpatialQuery(Shape polygon, Collection<? super T> entriesInside,
+			int level, int nodeX, int nodeY, int from, int to) {
+		if (from == to)
+			return;
+		double nodeSize = (double) ((1 << (gridBits - level)) << shift);
+		double left = x + (nodeX << shift), top = y + (nodeY << shift);
+		if (!polygon.intersects(left, top, nodeSize, nodeSize))
+			return;
+		if (paintQuadTree)
+			recordTraversedNode(level, nodeX, nodeY);
+
+		// if the node is entirely inside the polygon, then there is no point
+		// in testing it's entries, because they are definitely inside the
+		// polygon, so add them to the list without testing them.
+		if (polygon.contains(left, top, nodeSize, nodeSize)) {
+			for (int i = from; i < to; i++)
+				if (values[i] != null)
+					entriesInside.add(value(i));
+		} else if (to - from <= threshold || level == gridBits) {
+			for (int i = from; i < to; i++)
+				if (values[i] != null && polygon.contains(xs[i], ys[i]))
+					entriesInside.add(value(i));
+		} else {
+			int half = 1 << (gridBits - level - 1);
+			int childSpan = 1 << (2 * (gridBits - level - 1));
+			int nodeKey = keys[from] & ~(childSpan * 4 - 1);
+			int start = from;
+			for (int i = 0; i < 4; i++) {
+				int end = i == 3 ? to : lowerBound(start, to, nodeKey + (i + 1)
+						* childSpan);
+				performSpatialQuery(polygon, entriesInside, level + 1, nodeX
+						+ (i & 1) * half, nodeY + (i >> 1) * half, start, end);
+				start = end;
+			}
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private T value(int i) {
+		return (T) values[i];
+	}
+
+	private void recordTraversedNode(int level, int nodeX, int nodeY) {
+		if (traversedNodesSize + 3 > traversedNodes.length)
+			traversedNodes = Arrays.copyOf(traversedNodes, Math.max(48,
+					traversedNodes.length * 2));
+		traversedNodes[traversedNodesSize++] = level;
+		traversedNodes[traversedNodesSize++] = nodeX;
+		traversedNodes[traversedNodesSize++] = nodeY;
 	}
 
 	/**
@@ -330,11 +547,17 @@ public class QuadTree<T> extends Rectangle {
 	 * @param height
 	 */
 	public void reset(int width, int height) {
-		leaf = true;
-		entries.clear();
-		subtrees = null;
+		// let the values be collected
+		Arrays.fill(values, 0, size, null);
+		size = 0;
+		sizeInside = 0;
+		sizeOutside = 0;
+		numRemoved = 0;
+		keys = new int[0];
+		traversedNodesSize = 0;
 		this.width = width;
 		this.height = height;
+		computeGrid();
 	}
 }
 /*
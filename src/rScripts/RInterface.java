@@ -1,7 +1,5 @@
 package rScripts;
 
-import jyVis.data.DataEntry;
-import jyVis.data.DataRecord;
 import jyVis.data.DataTable;
 
 import org.rosuda.JRclient.RSrvException;
@@ -74,12 +72,14 @@ public class RInterface {
 	 */
 	public static String generateDataInputCommand(DataTable data) {
 		if (data != null && data.dimensions.size() > 0
-				&& data.records.size() > 1) {
+				&& data.getNumberOfRecords() > 1) {
 			StringBuffer b = new StringBuffer();
 			b.append("data <- matrix(c(");
-			for (DataRecord r : data.records)
-				for (DataEntry e : r)
-					b.append(e.value + ",");
+			int numRecords = data.getNumberOfRecords();
+			int numDimensions = data.getNumberOfDimensions();
+			for (int r = 0; r < numRecords; r++)
+				for (int d = 0; d < numDimensions; d++)
+					b.append(data.get(r, d) + ",");
 			b.deleteCharAt(b.length() - 1);
 			b.append(")," + data.dimensions.size() + ")");
 			return b.toString();
@@ -119,7 +119,7 @@ public class RadViz extends DrawingPanel {
 	public void updateLayout() {
 		int classifier = 4;
 		RadVizAnchorLayoutEngine.layoutAnchors(this, classifier);
-		double[] sumOfValues = new double[data.records.size()];
+		double[] sumOfValues = new double[data.getNumberOfRecords()];
 
 		// clear the glyph positions
 		for (Glyph glyph : glyphs) {
@@ -185,7 +185,7 @@ public class RadViz extends DrawingPanel {
 
 	class DimensionalAnchor extends JVMouseAdapter {
 		double angle;
-		public double[] normalizedValues = new double[data.records.size()];
+		public double[] normalizedValues = new double[data.getNumberOfRecords()];
 		public TextLabel label = new TextLabel();
 		public Circle circle = new Circle();
 
@@ -195,7 +195,7 @@ public class RadViz extends DrawingPanel {
 			label.size = 15;
 
 			// calculate the normalized values
-			for (int record = 0; record < data.records.size(); record++)
+			for (int record = 0; record < data.getNumberOfRecords(); record++)
 				normalizedValues[record] = normalization.normalize(record,
 						dimension);
 
@@ -150,7 +150,8 @@ public class RadVizAnchorLayoutEngine {
 		// classifier dimension
 		Map<String, RecordClass> recordClassesMap = new HashMap<String, RecordClass>();
 		for (DataRecord r : radViz.data.records) {
-			String className = r.get(classifierDimensionIndex).stringValue;
+			String className = radViz.data.getString(r.index,
+					classifierDimensionIndex);
 			RecordClass recordClass = recordClassesMap.get(className);
 			if (recordClass == null)
 				recordClassesMap.put(className, recordClass = new RecordClass(
@@ -0,0 +1,143 @@
+/******************************************************************************
+ * Copyright (C) 2007  Institute for Visualization and Perception Research,
+ *                     University of Massachusetts Lowell
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *******************************************************************************/
+package tools.heatmap;
+
+import java.awt.Color;
+import java.awt.Graphics;
+import java.awt.Rectangle;
+
+import jyVis.visualizationPrimitives.VisualizationPrimitive;
+import transformation.Window2D;
+
+/**
+ * A visualization primitive which draws the dendrogram of a
+ * HierarchicalClustering in a rectangle. The leaves are spread along one side
+ * of the rectangle in proportion to the number of points they contain, so they
+ * line up with the rows or columns of the heat map, and the merges are drawn
+ * at a distance from that side proportional to their height.
+ * 
+ * @author Curran Kelleher
+ * @see HierarchicalClustering
+ */
+public class Dendrogram extends VisualizationPrimitive {
+	/**
+	 * The clustering to draw, or null to draw nothing
+	 */
+	private HierarchicalClustering clustering;
+
+	/**
+	 * True if the leaves are spread from left to right along the bottom of
+	 * the rectangle, false if they are spread from top to bottom along it's
+	 * left side
+	 */
+	private final boolean horizontal;
+
+	/**
+	 * The rectangle the dendrogram is drawn in
+	 */
+	public double x1, y1, x2, y2;
+
+	/**
+	 * The bounding box of the dendrogram when it was last painted
+	 */
+	private Rectangle boundingBox = new Rectangle();
+
+	/**
+	 * Construct an empty dendrogram
+	 * 
+	 * @param horizontal
+	 *            true if the leaves are spread from left to right along the
+	 *            bottom of the rectangle, false if they are spread from top to
+	 *            bottom along it's left side
+	 */
+	public Dendrogram(boolean horizontal) {
+		this.horizontal = horizontal;
+		color = Color.black;
+	}
+
+	/**
+	 * Sets the clustering to draw.
+	 * 
+	 * @param clustering
+	 *            the clustering, or null to draw nothing
+	 */
+	public synchronized void setClustering(HierarchicalClustering clustering) {
+		this.clustering = clustering;
+	}
+
+	public synchronized void paint(Graphics g, Window2D w) {
+		int left = (int) w.getXPixel(x1), right = (int) w.getXPixel(x2);
+		int top = (int) w.getYPixel(y2), bottom = (int) w.getYPixel(y1);
+		boundingBox.setBounds(left, top, right - left, bottom - top);
+		if (clustering == null || !fill || boundingBox.isEmpty())
+			return;
+
+		// the position of each node along the leaves (u) and towards the
+		// root (v), from 0 to 1
+		int numberOfLeaves = clustering.getNumberOfLeaves();
+		int numberOfMerges = clustering.getNumberOfMerges();
+		double[] us = new double[numberOfLeaves + numberOfMerges];
+		double[] vs = new double[us.length];
+		long total = 0;
+		for (int i = 0; i < numberOfLeaves; i++)
+			total += clustering.getLeafSize(clustering.getLeaf(i));
+		long start = 0;
+		for (int i = 0; i < numberOfLeaves; i++) {
+			int leaf = clustering.getLeaf(i);
+			int size = clustering.getLeafSize(leaf);
+			us[leaf] = (start + size / 2.0) / total;
+			start += size;
+		}
+		double maxHeight = 0;
+		for (int merge = 0; merge < numberOfMerges; merge++)
+			maxHeight = Math.max(maxHeight, clustering.getHeight(merge));
+
+		g.setColor(color);
+		for (int merge = 0; merge < numberOfMerges; merge++) {
+			int a = clustering.getLeft(merge), b = clustering.getRight(merge);
+			int node = numberOfLeaves + merge;
+			us[node] = (us[a] + us[b]) / 2;
+			vs[node] = maxHeight == 0 ? 0 : clustering.getHeight(merge)
+					/ maxHeight;
+			drawLine(g, us[a], vs[a], us[a], vs[node]);
+			drawLine(g, us[b], vs[b], us[b], vs[node]);
+			drawLine(g, us[a], vs[node], us[b], vs[node]);
+		}
+	}
+
+	/**
+	 * Draws a line between two points given as (position along the leaves,
+	 * position towards the root), using the bounding box.
+	 */
+	private void drawLine(Graphics g, double u1, double v1, double u2,
+			double v2) {
+		Rectangle r = boundingBox;
+		if (horizontal)
+			g.drawLine(r.x + (int) (u1 * r.width), r.y + r.height
+					- (int) (v1 * r.height), r.x + (int) (u2 * r.width), r.y
+					+ r.height - (int) (v2 * r.height));
+		else
+			g.drawLine(r.x + (int) (v1 * r.width), r.y
+					+ (int) (u1 * r.height), r.x + (int) (v2 * r.width), r.y
+					+ (int) (u2 * r.height));
+	}
+
+	public Rectangle getBoundingBox() {
+		return boundingBox;
+	}
+}
@@ -17,9 +17,13 @@
  *******************************************************************************/
 package tools.heatmap;
 
+import java.awt.GraphicsEnvironment;
 import java.util.Arrays;
-import java.util.Comparator;
 
+import javax.swing.ProgressMonitor;
+import javax.swing.SwingUtilities;
+
+import jyVis.JyVisSettings;
 import jyVis.data.DataColorMap;
 import jyVis.data.DataRecord;
 import jyVis.data.DataTable;
@@ -33,15 +37,38 @@ import transformation.Transformation2D;
 /**
  * A heat map visualization tool
  * 
+ * If the number of cells (records times dimensions) is above
+ * JyVisSettings.densityRenderingThreshold, no Rectangle is created for the
+ * cells. Instead they are drawn by a HeatMapImage.
+ * 
+ * The records are laid out in the order of their values in the dimensions to
+ * sort by, which the table computes and keeps for each dimension. Clicking
+ * the label of a dimension makes it the first dimension to sort by, and the
+ * dimensions clicked before break ties.
+ * 
+ * The records and the dimensions can also be ordered by hierarchical
+ * clustering of their normalized values, in which case their dendrograms are
+ * drawn above and to the right of the cells. The clusterings are computed on
+ * a background thread, with a progress monitor which can cancel them, and the
+ * layout is updated when they are done.
+ * 
  * @author Curran Kelleher
  * 
  */
 @SuppressWarnings("serial")
-public class HeatMap extends DrawingPanel implements
-		Comparator<HeatMap.HeatMapRecord> {
+public class HeatMap extends DrawingPanel {
 	TextLabel title = new TextLabel(data.getName(), 0.5, 0.96);
 
-	HeatMapRecord[] records = new HeatMapRecord[data.records.size()];
+	/**
+	 * The rectangles of the records, by record index
+	 */
+	HeatMapRecord[] records = new HeatMapRecord[data.getNumberOfRecords()];
+
+	/**
+	 * The image representing the cells, or null if there is a Rectangle object
+	 * for every cell
+	 */
+	HeatMapImage heatMapImage;
 
 	TextLabel[] textLabels = new TextLabel[data.dimensions.size()];
 
@@ -55,14 +82,81 @@ public class HeatMap extends DrawingPanel implements
 
 	ListState dimensionsListState = new ListState(data.dimensions.toArray());
 
-	int dimensionToSortBy;
+	/**
+	 * The dimensions the records are sorted by, most significant first
+	 */
+	int[] dimensionsToSortBy = { 0 };
+
+	/**
+	 * The width (for the dimensions) or height (for the records) of the
+	 * dendrograms
+	 */
+	static final double DENDROGRAM_SIZE = 0.1;
+
+	/**
+	 * The largest number of records whose values are used for clustering the
+	 * dimensions
+	 */
+	static final int DIMENSION_CLUSTERING_SAMPLE_SIZE = 4096;
+
+	/**
+	 * True if the records are ordered by clustering rather than sorting
+	 */
+	boolean clusterRecords;
+
+	/**
+	 * True if the dimensions are ordered by clustering
+	 */
+	boolean clusterDimensions;
+
+	/**
+	 * The clustering of the records and the dimensions it was computed from,
+	 * or null if it has not been computed
+	 */
+	private HierarchicalClustering recordClustering;
+
+	private int[] recordClusteringDimensions;
+
+	/**
+	 * The clustering of the dimensions and the dimensions it was computed
+	 * from (by position in that array), or null if it has not been computed
+	 */
+	private HierarchicalClustering dimensionClustering;
+
+	private int[] dimensionClusteringDimensions;
+
+	/**
+	 * The thread computing clusterings, or null if there is none
+	 */
+	private Thread clusteringThread;
+
+	/**
+	 * The dimensions whose values the clustering thread clusters, and whether
+	 * it clusters the records and the dimensions
+	 */
+	private int[] clusteringThreadInput;
+
+	private boolean clusteringThreadRecords, clusteringThreadDimensions;
+
+	Dendrogram recordDendrogram = new Dendrogram(true);
+
+	Dendrogram dimensionDendrogram = new Dendrogram(false);
 
 	public HeatMap(DataTable data) {
 		super(data);
 		add(title);
 		this.propertyPanel = new HeatMapGUI(this);
-		for (int i = 0; i < data.records.size(); i++)
+		long numberOfCells = (long) data.getNumberOfRecords()
+				* data.dimensions.size();
+		if (numberOfCells > JyVisSettings.densityRenderingThreshold) {
+			records = new HeatMapRecord[0];
+			heatMapImage = new HeatMapImage(this);
+			add(heatMapImage);
+		}
+		for (int i = 0; i < records.length; i++)
 			records[i] = new HeatMapRecord(data.records.get(i), this);
+		add(recordDendrogram);
+		add(dimensionDendrogram);
 		for (int i = 0; i < data.dimensions.size(); i++) {
 			TextLabel textLabel = new TextLabel(data.dimensions.get(i).name);
 			textLabel.xAlignment = TextLabel.RIGHT;
@@ -70,8 +164,7 @@ public class HeatMap extends DrawingPanel implements
 			final int labelDimension = i;
 			textLabel.addJVMouseListener(new JVMouseAdapter() {
 				public void mousePressed(double x, double y) {
-					dimensionToSortBy = labelDimension;
-					calculateRectangles();
+					sortBy(labelDimension);
 				}
 			});
 			add(textLabels[i] = textLabel);
@@ -81,20 +174,95 @@ public class HeatMap extends DrawingPanel implements
 	}
 
 	public void calculateColors() {
-		int numRecords = data.records.size();
+		// the image gets it's colors from the color map when it is painted
+		int numRecords = records.length;
 		int numDimensions = data.dimensions.size();
 		for (int i = 0; i < numRecords; i++) {
 			HeatMapRecord heatMapRecord = records[i];
-			for (colorMap.dimension = 0; colorMap.dimension < numDimensions; colorMap.dimension++)
-				heatMapRecord.rectangles[colorMap.dimension].color = colorMap
-						.getColor(heatMapRecord.record.index);
+			for (int dimension = 0; dimension < numDimensions; dimension++)
+				heatMapRecord.rectangles[dimension].color = colorMap.getColor(
+						heatMapRecord.record.index, dimension);
 		}
 	}
 
+	/**
+	 * Makes the specified dimension the first dimension to sort by, keeping
+	 * the other dimensions to sort by (in their order) to break ties, and
+	 * lays out the records.
+	 */
+	public void sortBy(int dimension) {
+		int[] newDimensions = new int[dimensionsToSortBy.length + 1];
+		int n = 0;
+		newDimensions[n++] = dimension;
+		for (int d : dimensionsToSortBy)
+			if (d != dimension)
+				newDimensions[n++] = d;
+		dimensionsToSortBy = Arrays.copyOf(newDimensions, n);
+		clusterRecords = false;
+		calculateRectangles();
+	}
+
+	/**
+	 * Sets whether the records are ordered by hierarchical clustering instead
+	 * of by the dimensions to sort by, and lays them out. The clustering is
+	 * computed in the background, and the records keep their order until it
+	 * is done.
+	 */
+	public void setClusterRecords(boolean clusterRecords) {
+		this.clusterRecords = clusterRecords;
+		calculateRectangles();
+	}
+
+	/**
+	 * Sets whether the dimensions are ordered by hierarchical clustering
+	 * instead of by the order of the list of dimensions, and lays them out.
+	 */
+	public void setClusterDimensions(boolean clusterDimensions) {
+		this.clusterDimensions = clusterDimensions;
+		calculateRectangles();
+	}
+
 	public void calculateRectangles() {
-		Arrays.sort(records, this);
-		int numRecords = data.records.size();
-		int numActiveDimensions = dimensionsListState.includedIndices.size();
+		int[] includedDimensions = getIncludedDimensions();
+		boolean recordsClustered = clusterRecords
+				&& Arrays.equals(recordClusteringDimensions, includedDimensions);
+		boolean dimensionsClustered = clusterDimensions
+				&& Arrays.equals(dimensionClusteringDimensions,
+						includedDimensions);
+		if (clusterRecords && !recordsClustered || clusterDimensions
+				&& !dimensionsClustered)
+			startClustering(includedDimensions, clusterRecords
+					&& !recordsClustered, clusterDimensions
+					&& !dimensionsClustered);
+
+		int[] order = recordsClustered ? recordClustering.getOrder() : data
+				.getSortedRecordIndices(dimensionsToSortBy);
+		int[] dimensions = includedDimensions.clone();
+		if (dimensionsClustered)
+			for (int i = 0; i < dimensions.length; i++)
+				dimensions[i] = includedDimensions[dimensionClustering
+						.getOrder()[i]];
+		int numRecords = records.length;
+		int numActiveDimensions = dimensions.length;
+
+		// make room for the dendrograms
+		plotSpace.setRangeXMax(dimensionsClustered ? 1 - DENDROGRAM_SIZE : 1);
+		plotSpace.setRangeYMax(recordsClustered ? 0.9 - DENDROGRAM_SIZE : 0.9);
+		recordDendrogram.setClustering(recordsClustered ? recordClustering
+				: null);
+		recordDendrogram.x1 = plotSpace.getRangeXMin();
+		recordDendrogram.x2 = plotSpace.getRangeXMax();
+		recordDendrogram.y1 = plotSpace.getRangeYMax();
+		recordDendrogram.y2 = 0.9;
+		dimensionDendrogram.setClustering(dimensionsClustered ? dimensionClustering
+				: null);
+		dimensionDendrogram.x1 = plotSpace.getRangeXMax();
+		dimensionDendrogram.x2 = 1;
+		dimensionDendrogram.y1 = plotSpace.getRangeYMin();
+		dimensionDendrogram.y2 = plotSpace.getRangeYMax();
+
+		if (heatMapImage != null)
+			heatMapImage.setLayout(order, dimensions);
 
 		// hide the excluded dimensions
 		for (Integer excludedDimensionIndex : dimensionsListState.excludedIndices) {
@@ -108,9 +276,9 @@ public class HeatMap extends DrawingPanel implements
 
 		// show and lay out the included dimensions
 		for (int i = 0; i < numActiveDimensions; i++) {
-			int dimensionIndex = dimensionsListState.includedIndices.get(i);
+			int dimensionIndex = dimensions[i];
 			for (int record = 0; record < numRecords; record++) {
-				Rectangle rectangle = records[record].rectangles[dimensionIndex];
+				Rectangle rectangle = records[order[record]].rectangles[dimensionIndex];
 				rectangle.x1 = plotSpace.transformX((double) record
 						/ numRecords);
 				rectangle.y1 = plotSpace
@@ -131,6 +299,133 @@ public class HeatMap extends DrawingPanel implements
 		updateDisplay();
 	}
 
+	/**
+	 * @return the indices of the included dimensions, from top to bottom
+	 */
+	private int[] getIncludedDimensions() {
+		int[] dimensions = new int[dimensionsListState.includedIndices.size()];
+		for (int i = 0; i < dimensions.length; i++)
+			dimensions[i] = dimensionsListState.includedIndices.get(i);
+		return dimensions;
+	}
+
+	/**
+	 * Starts computing the specified clusterings on a background thread,
+	 * unless the running clustering thread is already computing them. A
+	 * running clustering thread which computes something else is interrupted.
+	 * When the clusterings are done, the records are laid out again on the
+	 * event dispatch thread. If they are cancelled, clustering is turned off.
+	 * 
+	 * @param dimensions
+	 *            the dimensions whose values are clustered
+	 * @param recordsNeeded
+	 *            true if the records are clustered
+	 * @param dimensionsNeeded
+	 *            true if the dimensions are clustered
+	 */
+	private void startClustering(final int[] dimensions,
+			final boolean recordsNeeded, final boolean dimensionsNeeded) {
+		if (clusteringThread != null) {
+			if (Arrays.equals(clusteringThreadInput, dimensions)
+					&& (clusteringThreadRecords || !recordsNeeded)
+					&& (clusteringThreadDimensions || !dimensionsNeeded))
+				return;
+			clusteringThread.interrupt();
+		}
+		clusteringThreadInput = dimensions;
+		clusteringThreadRecords = recordsNeeded;
+		clusteringThreadDimensions = dimensionsNeeded;
+
+		final int[] pointOrder = data.getSortedRecordIndices(dimensionsToSortBy);
+		// the clustering thread reports progress through the event dispatch
+		// thread
+		final HierarchicalClustering.Progress progress = GraphicsEnvironment
+				.isHeadless() ? null : new HierarchicalClustering.Progress(
+				new ProgressMonitor(HeatMap.this, "Clustering "
+						+ data.getName(), "", 0, 100));
+		clusteringThread = new Thread("Heat map clustering") {
+			public void run() {
+				HierarchicalClustering newRecordClustering = null;
+				HierarchicalClustering newDimensionClustering = null;
+				boolean canceled = false;
+				try {
+					double[][] columns = new double[dimensions.length][];
+					for (int i = 0; i < dimensions.length; i++)
+						columns[i] = colorMap.normalization
+								.getNormalizedColumn(dimensions[i]);
+					int n = data.getNumberOfRecords();
+					if (recordsNeeded) {
+						newRecordClustering = HierarchicalClustering.cluster(
+								columns, n, pointOrder, progress);
+						canceled = newRecordClustering == null;
+					}
+					if (dimensionsNeeded && !canceled) {
+						// the dimensions are the points, and a sample of the
+						// records are their coordinates
+						int sampleSize = Math.min(n,
+								DIMENSION_CLUSTERING_SAMPLE_SIZE);
+						double[][] coordinates = new double[sampleSize][dimensions.length];
+						for (int s = 0; s < sampleSize; s++) {
+							int record = (int) ((long) s * n / sampleSize);
+							for (int i = 0; i < dimensions.length; i++)
+								coordinates[s][i] = columns[i][record];
+						}
+						newDimensionClustering = HierarchicalClustering
+								.cluster(coordinates, dimensions.length, null,
+										progress);
+						canceled = newDimensionClustering == null;
+					}
+				} finally {
+					if (progress != null)
+						progress.close();
+				}
+				clusteringFinished(this, dimensions, newRecordClustering,
+						newDimensionClustering, canceled);
+			}
+		};
+		clusteringThread.setDaemon(true);
+		clusteringThread.start();
+	}
+
+	/**
+	 * Called by the clustering thread when it is done, to use the clusterings
+	 * on the event dispatch thread.
+	 */
+	private void clusteringFinished(final Thread thread,
+			final int[] dimensions,
+			final HierarchicalClustering newRecordClustering,
+			final HierarchicalClustering newDimensionClustering,
+			final boolean canceled) {
+		SwingUtilities.invokeLater(new Runnable() {
+			public void run() {
+				// the thread has been replaced by one clustering something
+				// else
+				if (thread != clusteringThread)
+					return;
+				clusteringThread = null;
+				if (canceled) {
+					if (clusteringThreadRecords)
+						clusterRecords = false;
+					if (clusteringThreadDimensions)
+						clusterDimensions = false;
+				}
+				if (newRecordClustering != null) {
+					recordClustering = newRecordClustering;
+					recordClusteringDimensions = dimensions;
+				}
+				if (newDimensionClustering != null) {
+					dimensionClustering = newDimensionClustering;
+					dimensionClusteringDimensions = dimensions;
+				}
+				calculateRectangles();
+			}
+		});
+	}
+
+	public void releaseNormalizedColumns() {
+		colorMap.normalization.releaseNormalizedColumns();
+	}
+
 	class HeatMapRecord {
 		Rectangle[] rectangles = new Rectangle[data.dimensions.size()];
 
@@ -145,9 +440,4 @@ public class HeatMap extends DrawingPanel implements
 			}
 		}
 	}
-
-	public int compare(HeatMapRecord a, HeatMapRecord b) {
-		return Double.compare(a.record.get(dimensionToSortBy).value, b.record
-				.get(dimensionToSortBy).value);
-	}
 }
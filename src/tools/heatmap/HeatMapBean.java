@@ -48,14 +48,38 @@ public class HeatMapBean {
 	}
 
 	public int getDimensionToSortBy() {
-		return plot.dimensionToSortBy;
+		return plot.dimensionsToSortBy[0];
 	}
 
 	public void setDimensionToSortBy(int dimensionToSortBy) {
-		plot.dimensionToSortBy = dimensionToSortBy;
+		plot.sortBy(dimensionToSortBy);
+	}
+
+	public int[] getDimensionsToSortBy() {
+		return plot.dimensionsToSortBy.clone();
+	}
+
+	public void setDimensionsToSortBy(int[] dimensionsToSortBy) {
+		plot.dimensionsToSortBy = dimensionsToSortBy.clone();
 		plot.calculateRectangles();
 	}
 
+	public boolean getClusterRecords() {
+		return plot.clusterRecords;
+	}
+
+	public void setClusterRecords(boolean clusterRecords) {
+		plot.setClusterRecords(clusterRecords);
+	}
+
+	public boolean getClusterDimensions() {
+		return plot.clusterDimensions;
+	}
+
+	public void setClusterDimensions(boolean clusterDimensions) {
+		plot.setClusterDimensions(clusterDimensions);
+	}
+
 	public ListState getDimensionsListState() {
 		return plot.dimensionsListState;
 	}
@@ -26,6 +26,7 @@ import javax.swing.JLabel;
 import javax.swing.JPanel;
 
 import jyVis.data.DataDimensionMetadata;
+import jyVis.widgets.JLCheckBox;
 import jyVis.widgets.JLColorMapEditorPanel;
 import jyVis.widgets.JLComboBox;
 import jyVis.widgets.JLListEditor;
@@ -60,6 +61,9 @@ public class HeatMapGUI extends JPanel {
 		List<DataDimensionMetadata> dims = plot.data.dimensions;
 		p.add(new JLabel("Sorting"));
 		p.add(new JLComboBox(dims, plotBean, "DimensionToSortBy"));
+		p.add(new JLCheckBox("Cluster Records", plotBean, "ClusterRecords"));
+		p.add(new JLCheckBox("Cluster Dimensions", plotBean,
+				"ClusterDimensions"));
 		p.add(new JLabel("Probing"));
 		p.add(new JLComboBox(dims, plot, "ProbingDimension"));
 
@@ -0,0 +1,315 @@
+/******************************************************************************
+ * Copyright (C) 2007  Institute for Visualization and Perception Research,
+ *                     University of Massachusetts Lowell
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *******************************************************************************/
+package tools.heatmap;
+
+import java.awt.Color;
+import java.awt.Graphics;
+import java.awt.Polygon;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import jyVis.data.DataSelection;
+import jyVis.util.ParallelTasks;
+import jyVis.visualizationPrimitives.VisualizationPrimitive;
+import transformation.Window2D;
+
+/**
+ * A visualization primitive which represents all cells of a HeatMap at once,
+ * as an image, rather than by a Rectangle per cell. The records are laid out
+ * from left to right in the sorted order, and the dimensions from top to
+ * bottom. Each pixel column shows the records which fall into it; when there
+ * are more records than pixel columns, the colors of the records in a column
+ * are averaged. The colors of the cells are the packed color columns of the
+ * DataColorMap of the heat map, so the image is only drawn again when the
+ * layout, the size or the colors change.
+ * 
+ * Records are selected by arithmetic on the pixel columns: a column is inside
+ * the selection polygon if one of the corners of it's cells is, as for the
+ * corners of a Rectangle, and all records which fall into it are selected.
+ * 
+ * @author Curran Kelleher
+ * @see HeatMap
+ */
+public class HeatMapImage extends VisualizationPrimitive {
+	/**
+	 * The opacity of the selected columns with the fewest selected records
+	 */
+	private static final double MIN_OPACITY = 0.25;
+
+	/**
+	 * The plot whose cells are represented
+	 */
+	private final HeatMap plot;
+
+	/**
+	 * The indices of the records, from left to right
+	 */
+	private int[] order = new int[0];
+
+	/**
+	 * The indices of the visible dimensions, from top to bottom
+	 */
+	private int[] dimensions = new int[0];
+
+	/**
+	 * The pixel bounds of the cells when this object was last painted
+	 */
+	private Rectangle bounds = new Rectangle();
+
+	/**
+	 * The color columns of the visible dimensions the image was drawn with
+	 */
+	private int[][] drawnColors = new int[0][];
+
+	/**
+	 * True when the layout has changed since the image was drawn
+	 */
+	private boolean layoutChanged = true;
+
+	/**
+	 * The image the cells are drawn into
+	 */
+	private BufferedImage image;
+
+	/**
+	 * The image the selected columns are drawn into
+	 */
+	private BufferedImage selectionImage;
+
+	/**
+	 * Construct a heat map image for the specified plot
+	 */
+	public HeatMapImage(HeatMap plot) {
+		this.plot = plot;
+		// null means "use the colors of the cells" (see paint())
+		color = null;
+	}
+
+	/**
+	 * Sets the order of the records and the visible dimensions.
+	 * 
+	 * @param order
+	 *            the indices of the records, from left to right
+	 * @param dimensions
+	 *            the indices of the visible dimensions, from top to bottom
+	 */
+	public synchronized void setLayout(int[] order, int[] dimensions) {
+		this.order = order;
+		this.dimensions = dimensions;
+		layoutChanged = true;
+	}
+
+	/**
+	 * Draws the cells. If the color of this object is not null (for example
+	 * when it is drawn behind selections), the cells are drawn in that color.
+	 */
+	public synchronized void paint(Graphics g, Window2D w) {
+		int x1 = (int) w.getXPixel(plot.plotSpace.getRangeXMin());
+		int x2 = (int) w.getXPixel(plot.plotSpace.getRangeXMax());
+		int y1 = (int) w.getYPixel(plot.plotSpace.getRangeYMax());
+		int y2 = (int) w.getYPixel(plot.plotSpace.getRangeYMin());
+		Rectangle newBounds = new Rectangle(x1, y1, x2 - x1, y2 - y1);
+		if (newBounds.isEmpty() || order.length == 0 || dimensions.length == 0) {
+			bounds = new Rectangle();
+			return;
+		}
+
+		if (color != null) {
+			bounds = newBounds;
+			g.setColor(color);
+			g.fillRect(bounds.x, bounds.y, bounds.width, bounds.height);
+			return;
+		}
+
+		int[][] colors = new int[dimensions.length][];
+		boolean colorsChanged = colors.length != drawnColors.length;
+		for (int i = 0; i < colors.length; i++) {
+			colors[i] = plot.colorMap.getColors(dimensions[i]);
+			colorsChanged |= !colorsChanged && colors[i] != drawnColors[i];
+		}
+		if (layoutChanged || colorsChanged || !newBounds.equals(bounds)
+				|| image == null) {
+			bounds = newBounds;
+			if (drawImage(colors)) {
+				drawnColors = colors;
+				layoutChanged = false;
+			}
+		}
+		g.drawImage(image, bounds.x, bounds.y, null);
+	}
+
+	/**
+	 * Draws the cells into the image, one band of rows per task.
+	 * 
+	 * @param colors
+	 *            the color columns of the visible dimensions
+	 * @return false if this thread was interrupted
+	 */
+	private boolean drawImage(final int[][] colors) {
+		final int width = bounds.width, height = bounds.height;
+		if (image == null || image.getWidth() != width
+				|| image.getHeight() != height)
+			image = new BufferedImage(width, height,
+					BufferedImage.TYPE_INT_ARGB);
+		final int[] pixels = ((DataBufferInt) image.getRaster()
+				.getDataBuffer()).getData();
+
+		List<Callable<Object>> tasks = new ArrayList<Callable<Object>>();
+		for (int i = 0; i < colors.length; i++) {
+			final int[] column = colors[i];
+			final int top = getTop(i, height), bottom = getTop(i + 1, height);
+			if (top == bottom)
+				continue;
+			tasks.add(new Callable<Object>() {
+				public Object call() {
+					int row = top * width;
+					for (int x = 0; x < width; x++) {
+						int from = getFirstRecord(x, width);
+						int to = getFirstRecord(x + 1, width);
+						if (to <= from)
+							to = from + 1;
+						if (to == from + 1) {
+							pixels[row + x] = column[order[from]];
+							continue;
+						}
+						// average the colors of the records in the column
+						long a = 0, r = 0, g = 0, b = 0;
+						for (int k = from; k < to; k++) {
+							int argb = column[order[k]];
+							a += argb >>> 24;
+							r += argb >> 16 & 0xFF;
+							g += argb >> 8 & 0xFF;
+							b += argb & 0xFF;
+						}
+						int n = to - from;
+						pixels[row + x] = (int) (a / n) << 24
+								| (int) (r / n) << 16 | (int) (g / n) << 8
+								| (int) (b / n);
+					}
+					for (int y = top + 1; y < bottom; y++)
+						System.arraycopy(pixels, row, pixels, y * width, width);
+					return null;
+				}
+			});
+		}
+		return ParallelTasks.run(tasks);
+	}
+
+	public boolean representsManyRecords() {
+		return true;
+	}
+
+	/**
+	 * Draws the pixel columns containing selected records, in the color of
+	 * the selection, with an opacity determined by the fraction of the records
+	 * of the column which are selected.
+	 */
+	public synchronized void paintSelection(Graphics g, Window2D w,
+			DataSelection selection, Color selectionColor) {
+		if (bounds.isEmpty() || selection.isEmpty()
+				|| selection.getDataTable() != plot.data)
+			return;
+		int width = bounds.width, height = bounds.height;
+		if (selectionImage == null || selectionImage.getWidth() != width
+				|| selectionImage.getHeight() != height)
+			selectionImage = new BufferedImage(width, height,
+					BufferedImage.TYPE_INT_ARGB);
+		int[] pixels = ((DataBufferInt) selectionImage.getRaster()
+				.getDataBuffer()).getData();
+
+		int rgb = selectionColor.getRGB() & 0xFFFFFF;
+		for (int x = 0; x < width; x++) {
+			int from = getFirstRecord(x, width);
+			int to = Math.max(from + 1, getFirstRecord(x + 1, width));
+			int selected = 0;
+			for (int k = from; k < to; k++)
+				if (selection.containsIndex(order[k]))
+					selected++;
+			double opacity = selected == 0 ? 0 : MIN_OPACITY
+					+ (1 - MIN_OPACITY) * selected / (to - from);
+			pixels[x] = (int) (opacity * 255 + 0.5) << 24 | rgb;
+		}
+		for (int y = 1; y < height; y++)
+			System.arraycopy(pixels, 0, pixels, y * width, width);
+		g.drawImage(selectionImage, bounds.x, bounds.y, null);
+	}
+
+	/**
+	 * Adds the records of the pixel columns which are inside the selection
+	 * polygon to the selection. A column is inside the polygon if the polygon
+	 * contains one of the corners of the cells of the column.
+	 */
+	public synchronized void selectRecords(Polygon polygon,
+			DataSelection selectedRecords) {
+		Rectangle polygonBounds = polygon.getBounds();
+		int width = bounds.width, height = bounds.height;
+		if (bounds.isEmpty() || !polygonBounds.intersects(bounds))
+			return;
+
+		int minX = Math.max(0, polygonBounds.x - bounds.x);
+		int maxX = Math.min(width, polygonBounds.x + polygonBounds.width
+				- bounds.x);
+		boolean tableChecked = selectedRecords.getDataTable() == plot.data;
+		for (int x = minX; x <= maxX; x++) {
+			boolean inside = false;
+			for (int i = 0; i <= dimensions.length && !inside; i++)
+				inside = polygon.contains(bounds.x + x, bounds.y
+						+ getTop(i, height));
+			if (!inside)
+				continue;
+			// the right edge belongs to the last column
+			int column = Math.min(x, width - 1);
+			int from = getFirstRecord(column, width);
+			int to = Math.max(from + 1, getFirstRecord(column + 1, width));
+			for (int k = from; k < to; k++)
+				if (tableChecked)
+					selectedRecords.addIndex(order[k]);
+				else {
+					selectedRecords.add(plot.data.records.get(order[k]));
+					tableChecked = true;
+				}
+		}
+	}
+
+	/**
+	 * @return the position in the order of the first record which falls into
+	 *         the specified pixel column
+	 */
+	private int getFirstRecord(int x, int width) {
+		return (int) ((long) x * order.length / width);
+	}
+
+	/**
+	 * @return the first pixel row of the band of the visible dimension at the
+	 *         specified position, relative to the top of the cells
+	 */
+	private int getTop(int i, int height) {
+		return (int) ((long) i * height / dimensions.length);
+	}
+
+	/**
+	 * Returns the bounds of the cells when this object was last painted.
+	 */
+	public Rectangle getBoundingBox() {
+		return bounds;
+	}
+}
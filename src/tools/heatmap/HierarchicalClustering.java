@@ -0,0 +1,655 @@
+/******************************************************************************
+ * Copyright (C) 2007  Institute for Visualization and Perception Research,
+ *                     University of Massachusetts Lowell
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *******************************************************************************/
+package tools.heatmap;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import javax.swing.ProgressMonitor;
+import javax.swing.SwingUtilities;
+
+import jyVis.util.ParallelTasks;
+
+/**
+ * A hierarchical clustering (with Ward's criterion) of a set of points, used
+ * for ordering the rows and columns of a HeatMap and drawing their
+ * dendrograms.
+ * 
+ * The clusters are merged with the nearest neighbor chain algorithm, which
+ * only keeps the centroid and size of each cluster, so it needs memory linear
+ * in the number of points instead of a matrix of distances. If there are more
+ * than MAX_LEAVES points, they are first aggregated into at most MAX_LEAVES
+ * groups with two levels of k-means (a coarse clustering, then a clustering
+ * of each coarse cluster), and the groups become the leaves of the
+ * dendrogram.
+ * 
+ * The coordinates of the points are given by coordinate, so the normalized
+ * columns of a table can be clustered as they are. Missing (NaN) coordinates
+ * are treated as 0.5, the middle of the normalized range.
+ * 
+ * @author Curran Kelleher
+ * @see Dendrogram
+ */
+public class HierarchicalClustering {
+	/**
+	 * The largest number of leaves of a dendrogram
+	 */
+	public static final int MAX_LEAVES = 1024;
+
+	/**
+	 * The number of clusters of the coarse level of k-means
+	 */
+	private static final int COARSE_CLUSTERS = 32;
+
+	/**
+	 * The number of points k-means is fitted to per cluster. The clusters are
+	 * fitted to a sample of the points, then all points are assigned to them.
+	 */
+	private static final int SAMPLE_SIZE_PER_CLUSTER = 32;
+
+	/**
+	 * The number of iterations of k-means
+	 */
+	private static final int K_MEANS_ITERATIONS = 10;
+
+	/**
+	 * The number of points assigned to clusters by a task
+	 */
+	private static final int BLOCK_SIZE = 16384;
+
+	/**
+	 * The number of leaves
+	 */
+	private final int numberOfLeaves;
+
+	/**
+	 * The nodes merged by each merge. Leaves are nodes 0 to numberOfLeaves -
+	 * 1, and merge i creates node numberOfLeaves + i.
+	 */
+	private final int[] left, right;
+
+	/**
+	 * The height of each merge, which never decreases from a node to it's
+	 * parent
+	 */
+	private final double[] heights;
+
+	/**
+	 * The leaves, in the order of the dendrogram
+	 */
+	private final int[] leafOrder;
+
+	/**
+	 * The number of points in each leaf, by leaf
+	 */
+	private final int[] leafSizes;
+
+	/**
+	 * The points, in the order of the dendrogram
+	 */
+	private final int[] order;
+
+	private HierarchicalClustering(int numberOfLeaves, int[] left, int[] right,
+			double[] heights, int[] leafSizes, int[] leafOrder, int[] order) {
+		this.numberOfLeaves = numberOfLeaves;
+		this.left = left;
+		this.right = right;
+		this.heights = heights;
+		this.leafSizes = leafSizes;
+		this.leafOrder = leafOrder;
+		this.order = order;
+	}
+
+	/**
+	 * Clusters the specified points.
+	 * 
+	 * @param coordinates
+	 *            the coordinates of the points, where coordinates[c][p] is
+	 *            coordinate c of point p
+	 * @param numberOfPoints
+	 *            the number of points
+	 * @param pointOrder
+	 *            the order of the points within a leaf, or null to order them
+	 *            by index
+	 * @param progress
+	 *            the progress to report to and check for cancellation, or
+	 *            null
+	 * @return the clustering, or null if the clustering was cancelled (or the
+	 *         thread was interrupted)
+	 */
+	public static HierarchicalClustering cluster(double[][] coordinates,
+			int numberOfPoints, int[] pointOrder, Progress progress) {
+		int dimensions = coordinates.length;
+		int[] labels;
+		double[] centroids;
+		int[] sizes;
+		if (numberOfPoints <= MAX_LEAVES) {
+			// every point is a leaf
+			labels = new int[numberOfPoints];
+			centroids = new double[numberOfPoints * dimensions];
+			sizes = new int[numberOfPoints];
+			double[] point = new double[dimensions];
+			for (int p = 0; p < numberOfPoints; p++) {
+				labels[p] = p;
+				sizes[p] = 1;
+				getPoint(coordinates, p, point);
+				System.arraycopy(point, 0, centroids, p * dimensions,
+						dimensions);
+			}
+		} else {
+			labels = aggregate(coordinates, numberOfPoints, progress);
+			if (labels == null)
+				return null;
+			int numberOfLeaves = 0;
+			for (int label : labels)
+				numberOfLeaves = Math.max(numberOfLeaves, label + 1);
+			centroids = new double[numberOfLeaves * dimensions];
+			sizes = new int[numberOfLeaves];
+			computeCentroids(coordinates, labels, centroids, sizes);
+		}
+		if (isCanceled(progress))
+			return null;
+		setProgress(progress, 0.5);
+
+		return merge(centroids, sizes, dimensions, labels, pointOrder, progress);
+	}
+
+	/**
+	 * Aggregates the points into at most MAX_LEAVES groups with two levels of
+	 * k-means. The number of clusters each coarse cluster is divided into is
+	 * proportional to it's size.
+	 * 
+	 * @return the group of each point, where the groups are numbered from 0
+	 *         without gaps, or null if the clustering was cancelled
+	 */
+	private static int[] aggregate(double[][] coordinates, int numberOfPoints,
+			Progress progress) {
+		int[] all = new int[numberOfPoints];
+		for (int p = 0; p < numberOfPoints; p++)
+			all[p] = p;
+		int[] coarseLabels = new int[numberOfPoints];
+		int numCoarse = kMeans(coordinates, all, COARSE_CLUSTERS, coarseLabels,
+				progress);
+		if (numCoarse == -1)
+			return null;
+		setProgress(progress, 0.1);
+
+		// gather the members of each coarse cluster
+		int[] starts = new int[numCoarse + 1];
+		for (int p = 0; p < numberOfPoints; p++)
+			starts[coarseLabels[p] + 1]++;
+		for (int c = 0; c < numCoarse; c++)
+			starts[c + 1] += starts[c];
+		int[] members = new int[numberOfPoints];
+		int[] positions = Arrays.copyOf(starts, numCoarse);
+		for (int p = 0; p < numberOfPoints; p++)
+			members[positions[coarseLabels[p]]++] = p;
+
+		// divide each coarse cluster
+		int[] labels = new int[numberOfPoints];
+		int[] fineLabels = new int[numberOfPoints];
+		int numberOfGroups = 0;
+		for (int c = 0; c < numCoarse; c++) {
+			int[] clusterMembers = Arrays.copyOfRange(members, starts[c],
+					starts[c + 1]);
+			int k = (int) Math.max(1, (long) MAX_LEAVES
+					* clusterMembers.length / numberOfPoints);
+			int numFine = kMeans(coordinates, clusterMembers, k, fineLabels, progress);
+			if (numFine == -1)
+				return null;
+			for (int p : clusterMembers)
+				labels[p] = numberOfGroups + fineLabels[p];
+			numberOfGroups += numFine;
+			setProgress(progress, 0.1 + 0.4 * (c + 1) / numCoarse);
+		}
+		return labels;
+	}
+
+	/**
+	 * Clusters the specified points with k-means. The centroids are fitted to
+	 * a strided sample of the points, starting from points of the sample,
+	 * then every point is assigned to it's nearest centroid. Clusters which
+	 * end up empty are dropped.
+	 * 
+	 * @param points
+	 *            the indices of the points to cluster
+	 * @param k
+	 *            the number of clusters
+	 * @param labels
+	 *            the array to store the cluster of each point in, by point
+	 *            index
+	 * @return the number of clusters, or -1 if the clustering was cancelled
+	 */
+	private static int kMeans(final double[][] coordinates, final int[] points,
+			int k, final int[] labels, Progress progress) {
+		final int dimensions = coordinates.length;
+		k = Math.min(k, points.length);
+		int sampleSize = (int) Math.min(points.length,
+				(long) k * SAMPLE_SIZE_PER_CLUSTER);
+		int[] sample = new int[sampleSize];
+		for (int i = 0; i < sampleSize; i++)
+			sample[i] = points[(int) ((long) i * points.length / sampleSize)];
+
+		final double[] centroids = new double[k * dimensions];
+		double[] point = new double[dimensions];
+		for (int c = 0; c < k; c++) {
+			getPoint(coordinates, sample[(int) ((long) c * sampleSize / k)],
+					point);
+			System.arraycopy(point, 0, centroids, c * dimensions, dimensions);
+		}
+
+		double[] sums = new double[k * dimensions];
+		int[] counts = new int[k];
+		for (int iteration = 0; iteration < K_MEANS_ITERATIONS; iteration++) {
+			if (isCanceled(progress))
+				return -1;
+			Arrays.fill(sums, 0);
+			Arrays.fill(counts, 0);
+			for (int p : sample) {
+				getPoint(coordinates, p, point);
+				int c = nearest(point, centroids, k);
+				counts[c]++;
+				for (int d = 0; d < dimensions; d++)
+					sums[c * dimensions + d] += point[d];
+			}
+			// clusters with no points in the sample keep their centroid
+			for (int c = 0; c < k; c++)
+				if (counts[c] != 0)
+					for (int d = 0; d < dimensions; d++)
+						centroids[c * dimensions + d] = sums[c * dimensions
+								+ d]
+								/ counts[c];
+		}
+
+		// assign all points, in blocks
+		final int numClusters = k;
+		List<Callable<Object>> tasks = new ArrayList<Callable<Object>>();
+		for (int start = 0; start < points.length; start += BLOCK_SIZE) {
+			final int from = start;
+			final int to = Math.min(start + BLOCK_SIZE, points.length);
+			tasks.add(new Callable<Object>() {
+				public Object call() {
+					double[] point = new double[dimensions];
+					for (int i = from; i < to; i++) {
+						getPoint(coordinates, points[i], point);
+						labels[points[i]] = nearest(point, centroids,
+								numClusters);
+					}
+					return null;
+				}
+			});
+		}
+		if (!ParallelTasks.run(tasks) || isCanceled(progress))
+			return -1;
+
+		// number the clusters which are not empty without gaps
+		int[] numbers = new int[k];
+		for (int p : points)
+			numbers[labels[p]] = 1;
+		int numberOfClusters = 0;
+		for (int c = 0; c < k; c++)
+			numbers[c] = numbers[c] == 0 ? -1 : numberOfClusters++;
+		for (int p : points)
+			labels[p] = numbers[labels[p]];
+		return numberOfClusters;
+	}
+
+	/**
+	 * @return the index of the centroid nearest to the specified point
+	 */
+	private static int nearest(double[] point, double[] centroids, int k) {
+		int dimensions = point.length;
+		int best = 0;
+		double bestDistance = Double.POSITIVE_INFINITY;
+		for (int c = 0, offset = 0; c < k; c++, offset += dimensions) {
+			double distance = 0;
+			// stop adding once the centroid can not be the nearest
+			for (int d = 0; d < dimensions && distance < bestDistance; d++) {
+				double difference = point[d] - centroids[offset + d];
+				distance += difference * difference;
+			}
+			if (distance < bestDistance) {
+				bestDistance = distance;
+				best = c;
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * Computes the centroid and size of each group of points.
+	 */
+	private static void computeCentroids(double[][] coordinates, int[] labels,
+			double[] centroids, int[] sizes) {
+		int dimensions = coordinates.length;
+		double[] point = new double[dimensions];
+		for (int p = 0; p < labels.length; p++) {
+			int offset = labels[p] * dimensions;
+			getPoint(coordinates, p, point);
+			for (int d = 0; d < dimensions; d++)
+				centroids[offset + d] += point[d];
+			sizes[labels[p]]++;
+		}
+		for (int g = 0; g < sizes.length; g++)
+			for (int d = 0; d < dimensions; d++)
+				centroids[g * dimensions + d] /= sizes[g];
+	}
+
+	/**
+	 * Merges the leaves into a dendrogram with the nearest neighbor chain
+	 * algorithm. Starting from any cluster, the chain is extended with the
+	 * nearest neighbor of it's last cluster until two clusters are each
+	 * other's nearest neighbors, and those are merged. Ward's criterion is
+	 * reducible, so the rest of the chain stays valid after a merge, and the
+	 * result is the same as merging the closest pair each time.
+	 * 
+	 * @param centroids
+	 *            the centroids of the leaves, which are overwritten
+	 * @param sizes
+	 *            the number of points in each leaf
+	 * @param labels
+	 *            the leaf of each point
+	 * @param pointOrder
+	 *            the order of the points within a leaf, or null
+	 * @return the clustering, or null if it was cancelled
+	 */
+	private static HierarchicalClustering merge(double[] centroids,
+			int[] sizes, int dimensions, int[] labels, int[] pointOrder,
+			Progress progress) {
+		int numberOfLeaves = sizes.length;
+		int numberOfMerges = Math.max(0, numberOfLeaves - 1);
+		int[] left = new int[numberOfMerges];
+		int[] right = new int[numberOfMerges];
+		double[] heights = new double[numberOfMerges];
+
+		// the clusters are kept in the slots of the leaves
+		double[] weights = new double[numberOfLeaves];
+		int[] nodes = new int[numberOfLeaves];
+		int[] active = new int[numberOfLeaves];
+		int[] positions = new int[numberOfLeaves];
+		for (int i = 0; i < numberOfLeaves; i++) {
+			weights[i] = sizes[i];
+			nodes[i] = active[i] = positions[i] = i;
+		}
+		int numActive = numberOfLeaves;
+		int[] chain = new int[numberOfLeaves];
+		int chainLength = 0;
+
+		for (int merge = 0; merge < numberOfMerges;) {
+			if (chainLength == 0)
+				chain[chainLength++] = active[0];
+			int a = chain[chainLength - 1];
+			int previous = chainLength > 1 ? chain[chainLength - 2] : -1;
+
+			// find the nearest neighbor of a, preferring the previous cluster
+			// of the chain on ties so the chain can not cycle
+			int nearest = previous;
+			double nearestDistance = previous == -1 ? Double.POSITIVE_INFINITY
+					: wardDistance(centroids, weights, dimensions, a, previous);
+			for (int i = 0; i < numActive; i++) {
+				int b = active[i];
+				if (b == a)
+					continue;
+				double distance = wardDistance(centroids, weights, dimensions,
+						a, b);
+				if (distance < nearestDistance) {
+					nearestDistance = distance;
+					nearest = b;
+				}
+			}
+			if (nearest != previous) {
+				chain[chainLength++] = nearest;
+				continue;
+			}
+
+			// a and previous are reciprocal nearest neighbors, merge previous
+			// into a
+			chainLength -= 2;
+			left[merge] = nodes[previous];
+			right[merge] = nodes[a];
+			heights[merge] = Math.sqrt(2 * nearestDistance);
+			double weight = weights[a] + weights[previous];
+			for (int d = 0; d < dimensions; d++)
+				centroids[a * dimensions + d] = (centroids[a * dimensions + d]
+						* weights[a] + centroids[previous * dimensions + d]
+						* weights[previous])
+						/ weight;
+			weights[a] = weight;
+			nodes[a] = numberOfLeaves + merge;
+			int last = active[--numActive];
+			active[positions[previous]] = last;
+			positions[last] = positions[previous];
+			merge++;
+
+			if ((merge & 63) == 0) {
+				if (isCanceled(progress))
+					return null;
+				setProgress(progress, 0.5 + 0.5 * merge / numberOfMerges);
+			}
+		}
+
+		// order the leaves from left to right, depth first
+		int[] leafOrder = new int[numberOfLeaves];
+		int numOrdered = 0;
+		if (numberOfLeaves > 0) {
+			int[] stack = new int[numberOfLeaves];
+			int stackSize = 0;
+			stack[stackSize++] = numberOfLeaves - 1 + numberOfMerges;
+			while (stackSize > 0) {
+				int node = stack[--stackSize];
+				if (node < numberOfLeaves)
+					leafOrder[numOrdered++] = node;
+				else {
+					stack[stackSize++] = right[node - numberOfLeaves];
+					stack[stackSize++] = left[node - numberOfLeaves];
+				}
+			}
+		}
+
+		// order the points by leaf, keeping pointOrder within each leaf
+		int[] ranks = new int[numberOfLeaves];
+		for (int i = 0; i < numberOfLeaves; i++)
+			ranks[leafOrder[i]] = i;
+		int[] starts = new int[numberOfLeaves + 1];
+		for (int i = 0; i < numberOfLeaves; i++)
+			starts[i + 1] = starts[i] + sizes[leafOrder[i]];
+		int[] order = new int[labels.length];
+		for (int i = 0; i < labels.length; i++) {
+			int p = pointOrder == null ? i : pointOrder[i];
+			order[starts[ranks[labels[p]]]++] = p;
+		}
+		setProgress(progress, 1);
+		return new HierarchicalClustering(numberOfLeaves, left, right,
+				heights, sizes, leafOrder, order);
+	}
+
+	/**
+	 * @return the increase in the sum of squared distances to the centroids
+	 *         if the clusters in the specified slots were merged
+	 */
+	private static double wardDistance(double[] centroids, double[] weights,
+			int dimensions, int a, int b) {
+		double distance = 0;
+		for (int d = 0, i = a * dimensions, j = b * dimensions; d < dimensions; d++) {
+			double difference = centroids[i + d] - centroids[j + d];
+			distance += difference * difference;
+		}
+		return weights[a] * weights[b] / (weights[a] + weights[b]) * distance;
+	}
+
+	/**
+	 * Copies the coordinates of the specified point into the specified array,
+	 * replacing missing values with 0.5.
+	 */
+	private static void getPoint(double[][] coordinates, int p, double[] point) {
+		for (int d = 0; d < point.length; d++) {
+			double value = coordinates[d][p];
+			point[d] = value != value ? 0.5 : value;
+		}
+	}
+
+	/**
+	 * @return true if the clustering was cancelled with the progress or by
+	 *         interrupting the thread
+	 */
+	private static boolean isCanceled(Progress progress) {
+		return Thread.currentThread().isInterrupted() || progress != null
+				&& progress.isCanceled();
+	}
+
+	private static void setProgress(Progress progress, double fraction) {
+		if (progress != null)
+			progress.setProgress(fraction);
+	}
+
+	/**
+	 * @return the points, in the order of the leaves of the dendrogram. This
+	 *         array must not be modified.
+	 */
+	public int[] getOrder() {
+		return order;
+	}
+
+	/**
+	 * @return the number of leaves of the dendrogram
+	 */
+	public int getNumberOfLeaves() {
+		return numberOfLeaves;
+	}
+
+	/**
+	 * @return the number of merges, one less than the number of leaves
+	 */
+	public int getNumberOfMerges() {
+		return left.length;
+	}
+
+	/**
+	 * @return the leaf at the specified position from the left of the
+	 *         dendrogram
+	 */
+	public int getLeaf(int position) {
+		return leafOrder[position];
+	}
+
+	/**
+	 * @return the number of points in the specified leaf
+	 */
+	public int getLeafSize(int leaf) {
+		return leafSizes[leaf];
+	}
+
+	/**
+	 * @return the first of the nodes joined by the specified merge. Nodes
+	 *         below getNumberOfLeaves() are leaves, and node
+	 *         getNumberOfLeaves() + i is created by merge i.
+	 */
+	public int getLeft(int merge) {
+		return left[merge];
+	}
+
+	/**
+	 * @return the second of the nodes joined by the specified merge
+	 * @see #getLeft(int)
+	 */
+	public int getRight(int merge) {
+		return right[merge];
+	}
+
+	/**
+	 * @return the height of the specified merge
+	 */
+	public double getHeight(int merge) {
+		return heights[merge];
+	}
+
+	/**
+	 * The progress of a clustering, which is shown by a progress monitor. The
+	 * clustering thread never touches the progress monitor: progress is
+	 * passed to it on the event dispatch thread, which also notices when it
+	 * is cancelled and sets a flag the clustering thread checks.
+	 */
+	public static class Progress {
+		/**
+		 * The progress monitor, which is only used on the event dispatch
+		 * thread
+		 */
+		private final ProgressMonitor pm;
+
+		private final int minimum, maximum;
+
+		/**
+		 * True if the clustering has been cancelled
+		 */
+		private volatile boolean canceled;
+
+		/**
+		 * The last value passed to the progress monitor, used by the
+		 * clustering thread to avoid passing the same value again
+		 */
+		private int lastValue = Integer.MIN_VALUE;
+
+		/**
+		 * Construct a progress shown by the specified progress monitor, which
+		 * must not have been shown yet.
+		 */
+		public Progress(ProgressMonitor pm) {
+			this.pm = pm;
+			minimum = pm.getMinimum();
+			maximum = pm.getMaximum();
+		}
+
+		/**
+		 * Sets the fraction of the clustering which is done.
+		 */
+		void setProgress(double fraction) {
+			final int value = minimum + (int) ((maximum - minimum) * fraction);
+			if (value == lastValue)
+				return;
+			lastValue = value;
+			SwingUtilities.invokeLater(new Runnable() {
+				public void run() {
+					if (pm.isCanceled())
+						canceled = true;
+					else
+						pm.setProgress(value);
+				}
+			});
+		}
+
+		/**
+		 * @return true if the clustering has been cancelled
+		 */
+		public boolean isCanceled() {
+			return canceled;
+		}
+
+		/**
+		 * Closes the progress monitor. This may be called from any thread.
+		 */
+		public void close() {
+			SwingUtilities.invokeLater(new Runnable() {
+				public void run() {
+					pm.close();
+				}
+			});
+		}
+	}
+}
@@ -0,0 +1,414 @@
+/******************************************************************************
+ * Copyright (C) 2007  Institute for Visualization and Perception Research,
+ *                     University of Massachusetts Lowell
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *******************************************************************************/
+package tools.parallelCoordinates;
+
+import java.awt.Color;
+import java.awt.Graphics;
+import java.awt.Polygon;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+import jyVis.data.DataSelection;
+import jyVis.util.ParallelTasks;
+import jyVis.visualizationPrimitives.VisualizationPrimitive;
+import tools.parallelCoordinates.ParallelCoordinates.ParallelCoordinatesAxis;
+import transformation.Window2D;
+
+/**
+ * A visualization primitive which represents the lines of all records of a
+ * ParallelCoordinates plot at once. For each pair of neighboring axes, the
+ * lines between them are counted into a 2D histogram of (bin on the left axis,
+ * bin on the right axis), and each non empty cell of the histogram is drawn as
+ * a band between the two bins, with an opacity determined by the number of
+ * lines in it.
+ * 
+ * The histograms are kept for the pairs of axes which are next to each other,
+ * so when the axes are reordered only the histograms of the new pairs are
+ * computed (concurrently, one pair per task).
+ * 
+ * @author Curran Kelleher
+ * @see ParallelCoordinates
+ */
+public class LineDensityMap extends VisualizationPrimitive {
+	/**
+	 * The number of bins each axis is divided into
+	 */
+	private static final int NUMBER_OF_BINS = 128;
+
+	/**
+	 * The opacity of the bands with the fewest lines
+	 */
+	private static final double MIN_OPACITY = 0.1;
+
+	/**
+	 * The plot whose lines are represented
+	 */
+	private final ParallelCoordinates plot;
+
+	/**
+	 * The visible axes, from left to right
+	 */
+	private List<ParallelCoordinatesAxis> axes = new ArrayList<ParallelCoordinatesAxis>();
+
+	/**
+	 * The histograms of the pairs of neighboring axes, by pair key (see
+	 * getPairKey()). Cell (leftBin, rightBin) of the histogram of the pair
+	 * with the lower dimension on the left is at leftBin * NUMBER_OF_BINS +
+	 * rightBin.
+	 */
+	private Map<Integer, int[]> histograms = new HashMap<Integer, int[]>();
+
+	/**
+	 * The bounding box of the axes, computed when this object is painted
+	 */
+	private Rectangle boundingBox = new Rectangle();
+
+	/**
+	 * The image the bands are drawn into
+	 */
+	private BufferedImage image;
+
+	/**
+	 * Construct a line density map for the specified plot
+	 */
+	public LineDensityMap(ParallelCoordinates plot) {
+		this.plot = plot;
+		color = Color.black;
+	}
+
+	/**
+	 * Sets the visible axes, and computes the histograms of the pairs of
+	 * neighboring axes which have not been computed yet. The histograms of
+	 * pairs which are no longer neighbors are discarded.
+	 * 
+	 * @param axes
+	 *            the visible axes, from left to right
+	 */
+	public synchronized void setAxes(List<ParallelCoordinatesAxis> axes) {
+		this.axes = new ArrayList<ParallelCoordinatesAxis>(axes);
+
+		Map<Integer, int[]> newHistograms = new HashMap<Integer, int[]>();
+		final List<ParallelCoordinatesAxis[]> missingPairs = new ArrayList<ParallelCoordinatesAxis[]>();
+		for (int i = 0; i + 1 < axes.size(); i++) {
+			ParallelCoordinatesAxis a = axes.get(i), b = axes.get(i + 1);
+			if (a.dimension > b.dimension) {
+				ParallelCoordinatesAxis temp = a;
+				a = b;
+				b = temp;
+			}
+			Integer key = getPairKey(a, b);
+			int[] histogram = histograms.get(key);
+			if (histogram != null)
+				newHistograms.put(key, histogram);
+			else if (!newHistograms.containsKey(key)) {
+				newHistograms.put(key, null);
+				missingPairs.add(new ParallelCoordinatesAxis[] { a, b });
+			}
+		}
+
+		// compute the missing histograms, one pair per task
+		final int[][] results = new int[missingPairs.size()][];
+		List<Callable<Object>> tasks = new ArrayList<Callable<Object>>();
+		for (int i = 0; i < missingPairs.size(); i++) {
+			final int pair = i;
+			tasks.add(new Callable<Object>() {
+				public Object call() {
+					ParallelCoordinatesAxis[] axes = missingPairs.get(pair);
+					results[pair] = computeHistogram(axes[0], axes[1], null);
+					return null;
+				}
+			});
+		}
+		ParallelTasks.run(tasks);
+		for (int i = 0; i < missingPairs.size(); i++)
+			if (results[i] != null) {
+				ParallelCoordinatesAxis[] pair = missingPairs.get(i);
+				newHistograms.put(getPairKey(pair[0], pair[1]), results[i]);
+			}
+		histograms = newHistograms;
+	}
+
+	/**
+	 * @return the key of the pair of the specified axes in the map of
+	 *         histograms
+	 */
+	private Integer getPairKey(ParallelCoordinatesAxis a,
+			ParallelCoordinatesAxis b) {
+		return a.dimension * plot.axes.length + b.dimension;
+	}
+
+	/**
+	 * Counts the lines of the records (or the selected records) between the
+	 * specified axes into a histogram.
+	 * 
+	 * @param selection
+	 *            the records to count, or null to count all records
+	 */
+	private static int[] computeHistogram(ParallelCoordinatesAxis a,
+			ParallelCoordinatesAxis b, DataSelection selection) {
+		int[] histogram = new int[NUMBER_OF_BINS * NUMBER_OF_BINS];
+		double[] aValues = a.normalizedValues, bValues = b.normalizedValues;
+		int n = Math.min(aValues.length, bValues.length);
+		for (int i = selection == null ? 0 : selection.nextIndex(0); i != -1
+				&& i < n; i = selection == null ? i + 1 : selection
+				.nextIndex(i + 1)) {
+			double aValue = aValues[i], bValue = bValues[i];
+			// values which are not numbers are not drawn
+			if (aValue == aValue && bValue == bValue)
+				histogram[getBin(aValue) * NUMBER_OF_BINS + getBin(bValue)]++;
+		}
+		return histogram;
+	}
+
+	/**
+	 * @return the bin of the specified normalized value
+	 */
+	private static int getBin(double value) {
+		int bin = (int) (value * NUMBER_OF_BINS);
+		return bin < 0 ? 0 : bin >= NUMBER_OF_BINS ? NUMBER_OF_BINS - 1 : bin;
+	}
+
+	/**
+	 * Draws the bands of the histograms.
+	 */
+	public synchronized void paint(Graphics g, Window2D w) {
+		List<int[]> pairHistograms = new ArrayList<int[]>();
+		for (int i = 0; i + 1 < axes.size(); i++)
+			pairHistograms.add(getHistogram(axes.get(i), axes.get(i + 1)));
+		paintHistograms(g, w, pairHistograms, color);
+
+		if (axes.isEmpty())
+			boundingBox.setBounds(0, 0, 0, 0);
+		else {
+			int left = (int) w.getXPixel(axes.get(0).x1);
+			int right = (int) w.getXPixel(axes.get(axes.size() - 1).x1);
+			int top = (int) w.getYPixel(plot.plotSpace.getRangeYMax());
+			int bottom = (int) w.getYPixel(plot.plotSpace.getRangeYMin());
+			boundingBox.setBounds(left, top, right - left + 1, bottom - top
+					+ 1);
+		}
+	}
+
+	public boolean representsManyRecords() {
+		return true;
+	}
+
+	/**
+	 * Draws the lines of the selected records as bands in the color of the
+	 * selection.
+	 */
+	public synchronized void paintSelection(Graphics g, Window2D w,
+			final DataSelection selection, Color selectionColor) {
+		if (selection.getDataTable() != plot.data || selection.isEmpty())
+			return;
+		final int numPairs = Math.max(0, axes.size() - 1);
+		final int[][] results = new int[numPairs][];
+		List<Callable<Object>> tasks = new ArrayList<Callable<Object>>();
+		for (int i = 0; i < numPairs; i++) {
+			final int pair = i;
+			tasks.add(new Callable<Object>() {
+				public Object call() {
+					results[pair] = computeHistogram(axes.get(pair), axes
+							.get(pair + 1), selection);
+					return null;
+				}
+			});
+		}
+		if (ParallelTasks.run(tasks))
+			paintHistograms(g, w, Arrays.asList(results), selectionColor);
+	}
+
+	/**
+	 * Gets the histogram of the specified neighboring axes, with the cells
+	 * arranged as (bin on a, bin on b).
+	 * 
+	 * @return the histogram, or null if it was not computed because the
+	 *         thread computing it was interrupted
+	 */
+	private int[] getHistogram(ParallelCoordinatesAxis a,
+			ParallelCoordinatesAxis b) {
+		if (a.dimension < b.dimension)
+			return histograms.get(getPairKey(a, b));
+
+		// transpose the histogram of the pair in the other order
+		int[] histogram = histograms.get(getPairKey(b, a));
+		if (histogram == null)
+			return null;
+		int[] transposed = new int[histogram.length];
+		for (int i = 0; i < NUMBER_OF_BINS; i++)
+			for (int j = 0; j < NUMBER_OF_BINS; j++)
+				transposed[j * NUMBER_OF_BINS + i] = histogram[i
+						* NUMBER_OF_BINS + j];
+		return transposed;
+	}
+
+	/**
+	 * Draws the specified histograms of the pairs of neighboring axes, from
+	 * left to right, as bands in the specified color. The bands are
+	 * rasterized into a grid of line densities (a band of n lines which is h
+	 * pixels high in a column adds n / h to each of those pixels), one pair
+	 * per task since the pairs cover different columns. The densities are
+	 * then drawn in the color, with an opacity determined by the density.
+	 */
+	private void paintHistograms(Graphics g, Window2D w,
+			final List<int[]> pairHistograms, Color bandColor) {
+		final int width = w.getWidth(), height = w.getHeight();
+		if (width <= 0 || height <= 0)
+			return;
+		final float[] densities = new float[width * height];
+
+		// the pixel y of each bin boundary
+		final int[] binYs = new int[NUMBER_OF_BINS + 1];
+		for (int bin = 0; bin <= NUMBER_OF_BINS; bin++)
+			binYs[bin] = (int) w.getYPixel(plot.plotSpace
+					.transformY((double) bin / NUMBER_OF_BINS));
+
+		List<Callable<Object>> tasks = new ArrayList<Callable<Object>>();
+		for (int i = 0; i < pairHistograms.size(); i++) {
+			final int[] histogram = pairHistograms.get(i);
+			if (histogram == null)
+				continue;
+			final int leftX = (int) w.getXPixel(axes.get(i).x1);
+			final int rightX = (int) w.getXPixel(axes.get(i + 1).x1);
+			tasks.add(new Callable<Object>() {
+				public Object call() {
+					rasterize(histogram, leftX, rightX, binYs, densities,
+							width, height);
+					return null;
+				}
+			});
+		}
+		if (!ParallelTasks.run(tasks))
+			return;
+
+		float maxDensity = 0;
+		for (float density : densities)
+			maxDensity = Math.max(maxDensity, density);
+		if (maxDensity == 0)
+			return;
+
+		if (image == null || image.getWidth() != width
+				|| image.getHeight() != height)
+			image = new BufferedImage(width, height,
+					BufferedImage.TYPE_INT_ARGB);
+		int[] pixels = ((DataBufferInt) image.getRaster().getDataBuffer())
+				.getData();
+		int rgb = bandColor.getRGB() & 0xFFFFFF;
+		double logOfMaxDensity = Math.log(1 + maxDensity);
+		for (int pixel = 0; pixel < densities.length; pixel++) {
+			float density = densities[pixel];
+			if (density == 0)
+				pixels[pixel] = 0;
+			else {
+				double opacity = MIN_OPACITY + (1 - MIN_OPACITY)
+						* Math.log(1 + density) / logOfMaxDensity;
+				pixels[pixel] = (int) (opacity * 255 + 0.5) << 24 | rgb;
+			}
+		}
+		g.drawImage(image, 0, 0, null);
+	}
+
+	/**
+	 * Adds the line densities of the bands of the specified histogram, between
+	 * the columns leftX (inclusive) and rightX (exclusive), to the grid.
+	 */
+	private static void rasterize(int[] histogram, int leftX, int rightX,
+			int[] binYs, float[] densities, int width, int height) {
+		int firstX = Math.max(leftX, 0), lastX = Math.min(rightX, width);
+		if (firstX >= lastX)
+			return;
+		double columns = rightX - leftX;
+		for (int cell = 0; cell < histogram.length; cell++) {
+			int count = histogram[cell];
+			if (count == 0)
+				continue;
+			int leftBin = cell / NUMBER_OF_BINS;
+			int rightBin = cell % NUMBER_OF_BINS;
+			// the pixel y is smaller at the top of a bin
+			double leftTop = binYs[leftBin + 1];
+			double leftBottom = binYs[leftBin];
+			double rightTop = binYs[rightBin + 1];
+			double rightBottom = binYs[rightBin];
+			for (int x = firstX; x < lastX; x++) {
+				double t = (x - leftX) / columns;
+				int top = (int) (leftTop + (rightTop - leftTop) * t);
+				int bottom = (int) (leftBottom + (rightBottom - leftBottom) * t);
+				if (bottom <= top)
+					bottom = top + 1;
+				float density = (float) count / (bottom - top);
+				for (int y = Math.max(top, 0); y < Math.min(bottom, height); y++)
+					densities[y * width + x] += density;
+			}
+		}
+	}
+
+	/**
+	 * Adds the records which have a point on a visible axis inside the
+	 * selection polygon, in the same way as the points of the lines of a
+	 * ParallelCoordinates plot which draws every line.
+	 */
+	public synchronized void selectRecords(Polygon polygon,
+			DataSelection selectedRecords) {
+		Rectangle bounds = polygon.getBounds();
+		Window2D w = plot.window;
+		int n = plot.data.getNumberOfRecords();
+		boolean tableChecked = selectedRecords.getDataTable() == plot.data;
+		for (ParallelCoordinatesAxis axis : axes) {
+			// only the axes which cross the polygon's bounding box
+			int x = (int) w.getXPixel(axis.x1);
+			if (x < bounds.x || x >= bounds.x + bounds.width)
+				continue;
+
+			// find the pixels of the axis inside the polygon
+			boolean[] inside = new boolean[bounds.height];
+			boolean any = false;
+			for (int y = 0; y < bounds.height; y++)
+				any |= inside[y] = polygon.contains(x, bounds.y + y);
+			if (!any)
+				continue;
+
+			// add the records at those pixels
+			double[] values = axis.normalizedValues;
+			for (int i = 0; i < n; i++) {
+				int y = (int) w.getYPixel(plot.plotSpace.transformY(values[i]))
+						- bounds.y;
+				if (y >= 0 && y < bounds.height && inside[y])
+					if (tableChecked)
+						selectedRecords.addIndex(i);
+					else {
+						selectedRecords.add(plot.data.records.get(i));
+						tableChecked = true;
+					}
+			}
+		}
+	}
+
+	/**
+	 * Returns the bounding box of the axes when this object was last painted.
+	 */
+	public Rectangle getBoundingBox() {
+		return boundingBox;
+	}
+}
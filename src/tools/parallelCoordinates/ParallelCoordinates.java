@@ -19,9 +19,11 @@ package tools.parallelCoordinates;
 
 import java.awt.Color;
 import java.util.ArrayList;
+import java.util.List;
 
 import transformation.Transformation2D;
 
+import jyVis.JyVisSettings;
 import jyVis.data.DataColorMap;
 import jyVis.data.DataRecord;
 import jyVis.data.DataTable;
@@ -35,6 +37,11 @@ import listEditor.ListState;
 /**
  * A parallel coordinates visualization tool
  * 
+ * When there are more lines (records times the number of dimensions minus
+ * one) than JyVisSettings.densityRenderingThreshold, no Line objects are
+ * created. Instead the lines are represented by a LineDensityMap, which draws
+ * the density of the lines between each pair of neighboring axes.
+ * 
  * @author Curran Kelleher
  * 
  */
@@ -54,7 +61,7 @@ public class ParallelCoordinates extends DrawingPanel {
 	/**
 	 * The list of records. Each record is a list of lines
 	 */
-	ListOfLines[] records = new ListOfLines[data.records.size()];
+	ListOfLines[] records = new ListOfLines[data.getNumberOfRecords()];
 
 	/**
 	 * The object which manages a color map, normalization, and persistent
@@ -74,6 +81,12 @@ public class ParallelCoordinates extends DrawingPanel {
 	 */
 	ListState dimensionsListState = new ListState(data.dimensions);
 
+	/**
+	 * The density map representing the lines, or null if there is a Line
+	 * object for every line
+	 */
+	LineDensityMap lineDensityMap;
+
 	/**
 	 * Construct a plot which will visualize the specified data
 	 */
@@ -88,8 +101,16 @@ public class ParallelCoordinates extends DrawingPanel {
 			this.add(axis);
 		}
 
-		// initialize the records (each record is a list of lines)
-		for (int i = 0; i < data.records.size(); i++) {
+		// initialize the records (each record is a list of lines), or the
+		// density map if there are too many lines
+		long numberOfLines = (long) data.getNumberOfRecords()
+				* (data.dimensions.size() - 1);
+		if (numberOfLines > JyVisSettings.densityRenderingThreshold) {
+			records = new ListOfLines[0];
+			lineDensityMap = new LineDensityMap(this);
+			add(lineDensityMap);
+		}
+		for (int i = 0; i < records.length; i++) {
 			ListOfLines listOfLines = new ListOfLines();
 			records[i] = listOfLines;
 			DataRecord record = data.records.get(i);
@@ -117,6 +138,7 @@ public class ParallelCoordinates extends DrawingPanel {
 		int numberOfActiveDimensions = dimensionsListState.includedIndices
 				.size();
 		int lineIndex = 0;
+		List<ParallelCoordinatesAxis> visibleAxes = new ArrayList<ParallelCoordinatesAxis>();
 
 		// hide everything
 		for (ParallelCoordinatesAxis axis : axes)
@@ -129,6 +151,7 @@ public class ParallelCoordinates extends DrawingPanel {
 		for (Integer activeDimensionIndex : dimensionsListState.includedIndices) {
 			ParallelCoordinatesAxis axis = axes[activeDimensionIndex];
 			axis.visible = true;
+			visibleAxes.add(axis);
 
 			// lay out the current axis
 			double x = plotSpace.transformX((double) lineIndex
@@ -159,12 +182,22 @@ public class ParallelCoordinates extends DrawingPanel {
 			lineIndex++;
 		}
 
+		if (lineDensityMap != null)
+			lineDensityMap.setAxes(visibleAxes);
+
 		updateDisplay();
 	}
 
+	public void releaseNormalizedColumns() {
+		// the axes keep using the values they have, which stay valid
+		for (ParallelCoordinatesAxis axis : axes)
+			axis.normalization.releaseNormalizedColumns();
+		colorMap.normalization.releaseNormalizedColumns();
+	}
+
 	class ParallelCoordinatesAxis extends Axis {
 
-		public double[] normalizedValues = new double[data.records.size()];
+		public double[] normalizedValues;
 
 		public ParallelCoordinatesAxis(int dimension) {
 			super(new Normalization(data));
@@ -179,10 +212,8 @@ public class ParallelCoordinates extends DrawingPanel {
 			numberOffset = 0;
 			numbersYAlignment = "BOTTOM";
 
-			// calculate the normalized values
-			for (int record = 0; record < data.records.size(); record++)
-				normalizedValues[record] = normalization.normalize(record,
-						dimension);
+			// get the normalized values, which are shared with other views
+			normalizedValues = normalization.getNormalizedColumn(dimension);
 		}
 	}
 
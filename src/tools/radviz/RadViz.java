@@ -17,11 +17,15 @@
  *******************************************************************************/
 package tools.radviz;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+
 import jyVis.data.DataTable;
 import jyVis.data.Normalization;
 import jyVis.graphics.DrawingPanel;
+import jyVis.util.ParallelTasks;
 import jyVis.visualizationPrimitives.Circle;
-import jyVis.visualizationPrimitives.Glyph;
 import jyVis.visualizationPrimitives.GlyphCollection;
 import jyVis.visualizationPrimitives.JVMouseAdapter;
 import jyVis.visualizationPrimitives.TextLabel;
@@ -35,6 +39,13 @@ import listEditor.ListState;
  */
 @SuppressWarnings("serial")
 public class RadViz extends DrawingPanel {
+	/**
+	 * The number of records laid out by each task of updateLayout(), which is
+	 * small enough for the positions and sums of a block to stay in the cache
+	 * while the columns of the active dimensions are added to them
+	 */
+	private static final int BLOCK_SIZE = 4096;
+
 	/**
 	 * title text displayed in the plot
 	 */
@@ -80,6 +91,13 @@ public class RadViz extends DrawingPanel {
 	 */
 	double labelPosition = 1.1;
 
+	/**
+	 * The glyph positions and the sums of the normalized values of each
+	 * record, which are reused by every call to updateLayout(). In density
+	 * mode the density map uses the positions directly.
+	 */
+	private double[] xs, ys, sumsOfValues;
+
 	/**
 	 * Construct a plot which will visualize the specified data
 	 */
@@ -112,20 +130,32 @@ public class RadViz extends DrawingPanel {
 	/**
 	 * Updates the positions of all glyphs based on positions of dimensional
 	 * anchors, then calls updateDisplay(), which re-renders everything.
+	 * 
+	 * The position of a record is the sum of the unit vectors of the active
+	 * anchors weighted by the normalized values of the record, divided by the
+	 * sum of those values. This is computed as a product of the matrix whose
+	 * columns are the normalizedValues of the active anchors with the vectors
+	 * of the anchor cosines and sines, in blocks of records which are laid
+	 * out concurrently. The positions are given to the glyphs once all blocks
+	 * are done.
 	 */
 	public void updateLayout() {
 
-		double[] sumOfValues = new double[data.records.size()];
-
-		// clear the glyph positions
-		for (Glyph glyph : glyphs) {
-			glyph.x = 0;
-			glyph.y = 0;
+		final int numRecords = data.getNumberOfRecords();
+		if (xs == null || xs.length != numRecords) {
+			xs = new double[numRecords];
+			ys = new double[numRecords];
+			sumsOfValues = new double[numRecords];
 		}
 
 		// show and layout what should be shown
-		for (Integer activeDimensionIndex : dimensionsListState.includedIndices) {
-			DimensionalAnchor anchor = anchors[activeDimensionIndex];
+		final int numActive = dimensionsListState.includedIndices.size();
+		final double[][] columns = new double[numActive][];
+		final double[] cosines = new double[numActive];
+		final double[] sines = new double[numActive];
+		for (int i = 0; i < numActive; i++) {
+			DimensionalAnchor anchor = anchors[dimensionsListState.includedIndices
+					.get(i)];
 
 			double cos = Math.cos(anchor.angle);
 			double sin = Math.sin(anchor.angle);
@@ -135,23 +165,28 @@ public class RadViz extends DrawingPanel {
 			anchor.label.x = cos * radius * labelPosition + .5;
 			anchor.label.y = sin * radius * labelPosition + .5;
 
-			// add the vector from the current anchor to the glyph locations
-			for (Glyph glyph : glyphs) {
-				int record = glyph.record();
-				double pull = anchor.normalizedValues[record];
-				sumOfValues[record] += pull;
-				glyph.x += cos * pull;
-				glyph.y += sin * pull;
-			}
-
+			columns[i] = anchor.normalizedValues;
+			cosines[i] = cos;
+			sines[i] = sin;
 		}
 
-		// divide the positions by the sum of values, and
-		// transform the glyphs to the RadViz circle
-		for (Glyph glyph : glyphs) {
-			double factor = radius / sumOfValues[glyph.record()];
-			glyph.x = glyph.x * factor + .5;
-			glyph.y = glyph.y * factor + .5;
+		// lay out the glyphs, one block of records per task
+		List<Callable<Object>> tasks = new ArrayList<Callable<Object>>();
+		for (int start = 0; start < numRecords; start += BLOCK_SIZE) {
+			final int from = start;
+			final int to = Math.min(start + BLOCK_SIZE, numRecords);
+			tasks.add(new Callable<Object>() {
+				public Object call() {
+					layOut(from, to, columns, cosines, sines);
+					return null;
+				}
+			});
+		}
+		// the positions are shared with the objects, so a progressive
+		// rendering pass must not draw them while they change
+		synchronized (getObjects()) {
+			if (ParallelTasks.run(tasks))
+				glyphs.setPositions(xs, ys);
 		}
 
 		// update the RadViz circle
@@ -161,6 +196,51 @@ public class RadViz extends DrawingPanel {
 		updateDisplay();
 	}
 
+	/**
+	 * Computes the positions of the records in the specified range into xs
+	 * and ys.
+	 * 
+	 * @param from
+	 *            the index of the first record (inclusive)
+	 * @param to
+	 *            the index of the last record (exclusive)
+	 * @param columns
+	 *            the normalized values of the active dimensions
+	 * @param cosines
+	 *            the cosines of the angles of the active anchors
+	 * @param sines
+	 *            the sines of the angles of the active anchors
+	 */
+	private void layOut(int from, int to, double[][] columns,
+			double[] cosines, double[] sines) {
+		double[] xs = this.xs, ys = this.ys, sums = sumsOfValues;
+		for (int record = from; record < to; record++) {
+			xs[record] = 0;
+			ys[record] = 0;
+			sums[record] = 0;
+		}
+
+		// add the vector from each anchor to the glyph locations
+		for (int i = 0; i < columns.length; i++) {
+			double[] column = columns[i];
+			double cos = cosines[i], sin = sines[i];
+			for (int record = from; record < to; record++) {
+				double pull = column[record];
+				sums[record] += pull;
+				xs[record] += cos * pull;
+				ys[record] += sin * pull;
+			}
+		}
+
+		// divide the positions by the sum of values, and
+		// transform them to the RadViz circle
+		for (int record = from; record < to; record++) {
+			double factor = radius / sums[record];
+			xs[record] = xs[record] * factor + .5;
+			ys[record] = ys[record] * factor + .5;
+		}
+	}
+
 	void resetActiveDimensions() {
 		// hide everything
 		for (DimensionalAnchor anchor : anchors)
@@ -179,9 +259,15 @@ public class RadViz extends DrawingPanel {
 		}
 	}
 
+	public void releaseNormalizedColumns() {
+		// the anchors keep using the values they have, which stay valid
+		normalization.releaseNormalizedColumns();
+		glyphs.releaseNormalizedColumns();
+	}
+
 	class DimensionalAnchor extends JVMouseAdapter {
 		double angle;
-		public double[] normalizedValues = new double[data.records.size()];
+		public double[] normalizedValues;
 		public TextLabel label = new TextLabel();
 		public Circle circle = new Circle();
 
@@ -190,10 +276,8 @@ public class RadViz extends DrawingPanel {
 			label.text = data.dimensions.get(dimension).name;
 			label.size = 15;
 
-			// calculate the normalized values
-			for (int record = 0; record < data.records.size(); record++)
-				normalizedValues[record] = normalization.normalize(record,
-						dimension);
+			// get the normalized values, which are shared with other views
+			normalizedValues = normalization.getNormalizedColumn(dimension);
 
 			// set up mouse listening
 			circle.addJVMouseListener(this);
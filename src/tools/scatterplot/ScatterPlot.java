@@ -22,11 +22,11 @@ import jyVis.data.DataTable;
 import jyVis.data.Normalization;
 import jyVis.graphics.DrawingPanel;
 import jyVis.visualizationPrimitives.Axis;
-import jyVis.visualizationPrimitives.Glyph;
 import jyVis.visualizationPrimitives.GlyphCollection;
 import jyVis.visualizationPrimitives.TextLabel;
 import transformation.Interval;
 import transformation.Transformation;
+import transformation.TransformationKernel;
 
 /**
  * A scatterplot visualization tool
@@ -117,16 +117,24 @@ public class ScatterPlot extends DrawingPanel {
 	 */
 	public void updateXY() {
 		// find the normalized position of the glyphs
-		for (Glyph glyph : glyphs) {
-			int record = glyph.record();
-			glyph.x = x.getOutputValue(record);
-			glyph.y = y.getOutputValue(record);
-		}
+		double[] xValues = x.getNormalizedValues();
+		double[] yValues = y.getNormalizedValues();
+		TransformationKernel xOutput = x.outputTransformation.getKernel();
+		TransformationKernel yOutput = y.outputTransformation.getKernel();
+		for (int record = 0; record < data.getNumberOfRecords(); record++)
+			glyphs.setPosition(record, xOutput.transform(xValues[record]),
+					yOutput.transform(yValues[record]));
 
 		// update the drawing panel
 		updateDisplay();
 	}
 
+	public void releaseNormalizedColumns() {
+		x.normalization.releaseNormalizedColumns();
+		y.normalization.releaseNormalizedColumns();
+		glyphs.releaseNormalizedColumns();
+	}
+
 	/**
 	 * A class which encapsulates the properties of a single scatterplot axis
 	 */
@@ -166,8 +174,16 @@ public class ScatterPlot extends DrawingPanel {
 		 * 
 		 */
 		public double getOutputValue(int record) {
-			return outputTransformation.transform(normalization.normalize(
-					record, axis.dimension));
+			return outputTransformation
+					.transform(getNormalizedValues()[record]);
+		}
+
+		/**
+		 * Gets the normalized values of all records in the dimension of this
+		 * axis, which are shared with other views of the data
+		 */
+		public double[] getNormalizedValues() {
+			return normalization.getNormalizedColumn(axis.dimension);
 		}
 	}
 }
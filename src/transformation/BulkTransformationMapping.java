@@ -0,0 +1,47 @@
+/******************************************************************************
+ * Copyright (C) 2007  Institute for Visualization and Perception Research,
+ *                     University of Massachusetts Lowell
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *******************************************************************************/
+package transformation;
+
+/**
+ * A transformation mapping which can compile itself into a kernel, computing
+ * everything which depends only on the bounds of the domain and range once,
+ * so that whole arrays of values can be transformed quickly (see
+ * TransformationKernel.transform(double[], double[], int, int)).
+ * 
+ * @author Curran Kelleher
+ * @see TransformationKernel#compile(TransformationMapping, double, double,
+ *      double, double)
+ */
+public interface BulkTransformationMapping extends TransformationMapping {
+	/**
+	 * Compiles this mapping for the specified domain and range.
+	 * 
+	 * @param domainMin
+	 *            the minimum value of the domain interval
+	 * @param domainMax
+	 *            the maximum value of the domain interval
+	 * @param rangeMin
+	 *            the minimum value of the range interval
+	 * @param rangeMax
+	 *            the maximum value of the range interval
+	 * @return an immutable kernel which performs transform() with these
+	 *         bounds
+	 */
+	public TransformationKernel getKernel(double domainMin, double domainMax,
+			double rangeMin, double rangeMax);
+}
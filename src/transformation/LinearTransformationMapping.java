@@ -17,7 +17,7 @@
  *******************************************************************************/
 package transformation;
 
-public class LinearTransformationMapping implements TransformationMapping {
+public class LinearTransformationMapping implements BulkTransformationMapping {
 
 	/**
 	 * Maps the specified value from the domain to the range
@@ -46,6 +46,47 @@ public class LinearTransformationMapping implements TransformationMapping {
 				/ (rangeMax - rangeMin) + domainMin;
 	}
 
+	public TransformationKernel getKernel(double domainMin, double domainMax,
+			double rangeMin, double rangeMax) {
+		return new LinearKernel(domainMin, domainMax, rangeMin, rangeMax);
+	}
+
+	/**
+	 * All linear mappings are equal, since they have no parameters.
+	 */
+	public boolean equals(Object o) {
+		return o instanceof LinearTransformationMapping;
+	}
+
+	public int hashCode() {
+		return LinearTransformationMapping.class.hashCode();
+	}
+
+	/**
+	 * The kernel of a linear mapping, which multiplies values by a scale and
+	 * adds an offset, both computed when the kernel is compiled.
+	 */
+	private static final class LinearKernel extends TransformationKernel {
+		private final double scale, offset;
+
+		LinearKernel(double domainMin, double domainMax, double rangeMin,
+				double rangeMax) {
+			scale = (rangeMax - rangeMin) / (domainMax - domainMin);
+			offset = rangeMin - domainMin * scale;
+		}
+
+		public double transform(double domainValue) {
+			return domainValue * scale + offset;
+		}
+
+		public void transform(double[] domainValues, double[] rangeValues,
+				int from, int to) {
+			double scale = this.scale, offset = this.offset;
+			for (int i = from; i < to; i++)
+				rangeValues[i] = domainValues[i] * scale + offset;
+		}
+	}
+
 }
 /*
  * CVS Log
@@ -0,0 +1,126 @@
+/******************************************************************************
+ * Copyright (C) 2007  Institute for Visualization and Perception Research,
+ *                     University of Massachusetts Lowell
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *******************************************************************************/
+package transformation;
+
+/**
+ * A logarithmic mapping. If the domain is positive, the logarithms of the
+ * domain values are mapped linearly to the range. Otherwise the domain is
+ * shifted to start at 0 and log(1 + x) is used, so that domains including 0
+ * (such as counts) can be mapped as well.
+ * 
+ * @author Curran Kelleher
+ */
+public class LogTransformationMapping implements BulkTransformationMapping {
+
+	/**
+	 * Maps the specified value from the domain to the range
+	 * 
+	 * @param domainValue
+	 *            a value from the domain
+	 * @return the corresponding value in the range
+	 */
+	public double transform(double domainValue, double domainMin,
+			double domainMax, double rangeMin, double rangeMax) {
+		double t;
+		if (domainMin > 0)
+			t = Math.log(domainValue / domainMin)
+					/ Math.log(domainMax / domainMin);
+		else
+			t = Math.log1p(domainValue - domainMin)
+					/ Math.log1p(domainMax - domainMin);
+		return t * (rangeMax - rangeMin) + rangeMin;
+	}
+
+	/**
+	 * Maps the specified value from the range to the domain; performs the
+	 * inverse function of transform()
+	 * 
+	 * @param rangeValue
+	 *            a value from the range
+	 * @return the corresponding value in the domain
+	 */
+	public double inverseTransform(double rangeValue, double domainMin,
+			double domainMax, double rangeMin, double rangeMax) {
+		double t = (rangeValue - rangeMin) / (rangeMax - rangeMin);
+		if (domainMin > 0)
+			return domainMin * Math.pow(domainMax / domainMin, t);
+		return Math.expm1(t * Math.log1p(domainMax - domainMin)) + domainMin;
+	}
+
+	public TransformationKernel getKernel(double domainMin, double domainMax,
+			double rangeMin, double rangeMax) {
+		return new LogKernel(domainMin, domainMax, rangeMin, rangeMax);
+	}
+
+	/**
+	 * All log mappings are equal, since they have no parameters.
+	 */
+	public boolean equals(Object o) {
+		return o instanceof LogTransformationMapping;
+	}
+
+	public int hashCode() {
+		return LogTransformationMapping.class.hashCode();
+	}
+
+	/**
+	 * The kernel of a log mapping, which computes
+	 * log(domainValue + shift) * scale + offset
+	 */
+	private static final class LogKernel extends TransformationKernel {
+		/**
+		 * True if log(1 + x) is used, with shift being subtracted from x
+		 */
+		private final boolean shifted;
+
+		private final double shift, scale, offset;
+
+		LogKernel(double domainMin, double domainMax, double rangeMin,
+				double rangeMax) {
+			shifted = !(domainMin > 0);
+			if (shifted) {
+				shift = -domainMin;
+				scale = (rangeMax - rangeMin) / Math.log1p(domainMax - domainMin);
+				offset = rangeMin;
+			} else {
+				shift = 0;
+				double logMin = Math.log(domainMin);
+				scale = (rangeMax - rangeMin) / (Math.log(domainMax) - logMin);
+				offset = rangeMin - logMin * scale;
+			}
+		}
+
+		public double transform(double domainValue) {
+			return (shifted ? Math.log1p(domainValue + shift) : Math
+					.log(domainValue))
+					* scale + offset;
+		}
+
+		public void transform(double[] domainValues, double[] rangeValues,
+				int from, int to) {
+			double shift = this.shift, scale = this.scale, offset = this.offset;
+			if (shifted)
+				for (int i = from; i < to; i++)
+					rangeValues[i] = Math.log1p(domainValues[i] + shift)
+							* scale + offset;
+			else
+				for (int i = from; i < to; i++)
+					rangeValues[i] = Math.log(domainValues[i]) * scale + offset;
+		}
+	}
+}
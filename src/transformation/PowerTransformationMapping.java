@@ -0,0 +1,122 @@
+/******************************************************************************
+ * Copyright (C) 2007  Institute for Visualization and Perception Research,
+ *                     University of Massachusetts Lowell
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *******************************************************************************/
+package transformation;
+
+/**
+ * A power mapping, which maps the domain linearly to the interval from 0 to
+ * 1, raises the result to a power, and maps that linearly to the range. An
+ * exponent of 0.5 gives a square root mapping, which spreads out values near
+ * the minimum of the domain. Values below the minimum are mapped
+ * symmetrically, as -((-x)^exponent).
+ * 
+ * @author Curran Kelleher
+ */
+public class PowerTransformationMapping implements BulkTransformationMapping {
+	/**
+	 * The exponent
+	 */
+	private final double exponent;
+
+	/**
+	 * Construct a square root mapping
+	 */
+	public PowerTransformationMapping() {
+		this(0.5);
+	}
+
+	/**
+	 * Construct a mapping with the specified exponent
+	 * 
+	 * @param exponent
+	 *            the exponent, which must be positive
+	 */
+	public PowerTransformationMapping(double exponent) {
+		if (!(exponent > 0))
+			throw new IllegalArgumentException(
+					"the exponent of a power mapping must be positive");
+		this.exponent = exponent;
+	}
+
+	/**
+	 * Maps the specified value from the domain to the range
+	 * 
+	 * @param domainValue
+	 *            a value from the domain
+	 * @return the corresponding value in the range
+	 */
+	public double transform(double domainValue, double domainMin,
+			double domainMax, double rangeMin, double rangeMax) {
+		return power((domainValue - domainMin) / (domainMax - domainMin),
+				exponent)
+				* (rangeMax - rangeMin) + rangeMin;
+	}
+
+	/**
+	 * Maps the specified value from the range to the domain; performs the
+	 * inverse function of transform()
+	 * 
+	 * @param rangeValue
+	 *            a value from the range
+	 * @return the corresponding value in the domain
+	 */
+	public double inverseTransform(double rangeValue, double domainMin,
+			double domainMax, double rangeMin, double rangeMax) {
+		double t = power((rangeValue - rangeMin) / (rangeMax - rangeMin),
+				1 / exponent);
+		return t * (domainMax - domainMin) + domainMin;
+	}
+
+	public TransformationKernel getKernel(final double domainMin,
+			double domainMax, final double rangeMin, double rangeMax) {
+		final double p = exponent;
+		final double domainScale = 1 / (domainMax - domainMin);
+		final double rangeScale = rangeMax - rangeMin;
+		if (p == 0.5)
+			// Math.sqrt is much faster than Math.pow
+			return new TransformationKernel() {
+				public double transform(double domainValue) {
+					double t = (domainValue - domainMin) * domainScale;
+					return (t < 0 ? -Math.sqrt(-t) : Math.sqrt(t))
+							* rangeScale + rangeMin;
+				}
+			};
+		return new TransformationKernel() {
+			public double transform(double domainValue) {
+				return power((domainValue - domainMin) * domainScale, p)
+						* rangeScale + rangeMin;
+			}
+		};
+	}
+
+	/**
+	 * @return x raised to the specified power, with the sign of x
+	 */
+	private static double power(double x, double exponent) {
+		return x < 0 ? -Math.pow(-x, exponent) : Math.pow(x, exponent);
+	}
+
+	public boolean equals(Object o) {
+		return o instanceof PowerTransformationMapping
+				&& ((PowerTransformationMapping) o).exponent == exponent;
+	}
+
+	public int hashCode() {
+		long bits = Double.doubleToLongBits(exponent);
+		return (int) (bits ^ (bits >>> 32));
+	}
+}
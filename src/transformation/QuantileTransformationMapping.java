@@ -0,0 +1,212 @@
+/******************************************************************************
+ * Copyright (C) 2007  Institute for Visualization and Perception Research,
+ *                     University of Massachusetts Lowell
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *******************************************************************************/
+package transformation;
+
+import java.util.Arrays;
+
+/**
+ * A mapping which maps each value to it's quantile (the fraction of values
+ * below it) in a set of values given when the mapping is constructed, such as
+ * the values of a dimension. The values are spread evenly over the range no
+ * matter how skewed they are. The bounds of the domain are not used.
+ * 
+ * When the mapping is constructed, the values (or an evenly strided sample of
+ * at most MAX_SAMPLE_SIZE of them) are sorted once, and NUMBER_OF_QUANTILES
+ * evenly spaced quantiles are kept. Values are mapped by a binary search in
+ * the quantiles and linear interpolation between them, so a mapping uses
+ * little memory and transforming a value does not depend on the number of
+ * values it was built from.
+ * 
+ * @author Curran Kelleher
+ */
+public class QuantileTransformationMapping implements
+		BulkTransformationMapping {
+	/**
+	 * The maximum number of values which are sorted to find the quantiles
+	 */
+	public static final int MAX_SAMPLE_SIZE = 1 << 16;
+
+	/**
+	 * The number of quantiles kept
+	 */
+	public static final int NUMBER_OF_QUANTILES = 1025;
+
+	/**
+	 * The quantiles, in ascending order. quantiles[i] is the value at the
+	 * fraction i / (quantiles.length - 1) of the sorted values.
+	 */
+	private final double[] quantiles;
+
+	/**
+	 * The hash code of the quantiles
+	 */
+	private final int hashCode;
+
+	/**
+	 * Construct a mapping to the quantiles of the specified values, which are
+	 * not modified. NaN values are ignored.
+	 * 
+	 * @param values
+	 *            the values, for example the values of a dimension
+	 */
+	public QuantileTransformationMapping(double[] values) {
+		// take an evenly strided sample of the values
+		int stride = Math.max(1, (values.length + MAX_SAMPLE_SIZE - 1)
+				/ MAX_SAMPLE_SIZE);
+		double[] sample = new double[(values.length + stride - 1) / stride];
+		int n = 0;
+		for (int i = 0; i < values.length; i += stride)
+			if (!Double.isNaN(values[i]))
+				sample[n++] = values[i];
+		if (n == 0)
+			throw new IllegalArgumentException(
+					"a quantile mapping needs at least one value");
+		Arrays.sort(sample, 0, n);
+
+		// keep evenly spaced quantiles, interpolating between the sorted
+		// values
+		int numQuantiles = Math.min(NUMBER_OF_QUANTILES, n);
+		quantiles = new double[numQuantiles];
+		for (int i = 0; i < numQuantiles; i++) {
+			double position = numQuantiles == 1 ? 0 : (double) i * (n - 1)
+					/ (numQuantiles - 1);
+			int k = (int) position;
+			double fraction = position - k;
+			quantiles[i] = k + 1 < n ? sample[k] + fraction
+					* (sample[k + 1] - sample[k]) : sample[k];
+		}
+		hashCode = Arrays.hashCode(quantiles);
+	}
+
+	/**
+	 * Maps the specified value from the domain to the range
+	 * 
+	 * @param domainValue
+	 *            a value from the domain
+	 * @return the corresponding value in the range
+	 */
+	public double transform(double domainValue, double domainMin,
+			double domainMax, double rangeMin, double rangeMax) {
+		return quantile(domainValue) * (rangeMax - rangeMin) + rangeMin;
+	}
+
+	/**
+	 * Maps the specified value from the range to the domain; performs the
+	 * inverse function of transform()
+	 * 
+	 * @param rangeValue
+	 *            a value from the range
+	 * @return the corresponding value in the domain
+	 */
+	public double inverseTransform(double rangeValue, double domainMin,
+			double domainMax, double rangeMin, double rangeMax) {
+		double t = (rangeValue - rangeMin) / (rangeMax - rangeMin);
+		int last = quantiles.length - 1;
+		if (!(t > 0) || last == 0)
+			return quantiles[0];
+		if (t >= 1)
+			return quantiles[last];
+		double position = t * last;
+		int k = (int) position;
+		return quantiles[k] + (position - k)
+				* (quantiles[k + 1] - quantiles[k]);
+	}
+
+	public TransformationKernel getKernel(double domainMin, double domainMax,
+			final double rangeMin, double rangeMax) {
+		final double rangeScale = rangeMax - rangeMin;
+		return new TransformationKernel() {
+			public double transform(double domainValue) {
+				return quantile(domainValue) * rangeScale + rangeMin;
+			}
+		};
+	}
+
+	/**
+	 * @return the fraction of the values which the specified value is above,
+	 *         interpolated between the quantiles. A value equal to several
+	 *         quantiles gets the fraction in the middle of them.
+	 */
+	private double quantile(double value) {
+		double[] quantiles = this.quantiles;
+		int last = quantiles.length - 1;
+		if (Double.isNaN(value))
+			return Double.NaN;
+		if (value < quantiles[0])
+			return 0;
+		if (value > quantiles[last])
+			return 1;
+
+		// find the first quantile which is not less than the value
+		int first = lowerBound(value);
+		if (first <= last && quantiles[first] == value) {
+			int end = upperBound(value) - 1;
+			return last == 0 ? 0.5 : (first + end) * 0.5 / last;
+		}
+		// quantiles[first - 1] < value < quantiles[first]
+		int k = first - 1;
+		return (k + (value - quantiles[k]) / (quantiles[k + 1] - quantiles[k]))
+				/ last;
+	}
+
+	/**
+	 * @return the index of the first quantile which is not less than value
+	 */
+	private int lowerBound(double value) {
+		int low = 0, high = quantiles.length;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (quantiles[middle] < value)
+				low = middle + 1;
+			else
+				high = middle;
+		}
+		return low;
+	}
+
+	/**
+	 * @return the index of the first quantile which is greater than value
+	 */
+	private int upperBound(double value) {
+		int low = 0, high = quantiles.length;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (quantiles[middle] <= value)
+				low = middle + 1;
+			else
+				high = middle;
+		}
+		return low;
+	}
+
+	/**
+	 * Quantile mappings are equal if they have the same quantiles.
+	 */
+	public boolean equals(Object o) {
+		if (o == this)
+			return true;
+		if (!(o instanceof QuantileTransformationMapping))
+			return false;
+		QuantileTransformationMapping m = (QuantileTransformationMapping) o;
+		return m.hashCode == hashCode && Arrays.equals(m.quantiles, quantiles);
+	}
+
+	public int hashCode() {
+		return hashCode;
+	}
+}
@@ -0,0 +1,124 @@
+/******************************************************************************
+ * Copyright (C) 2007  Institute for Visualization and Perception Research,
+ *                     University of Massachusetts Lowell
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *******************************************************************************/
+package transformation;
+
+/**
+ * A symmetric logarithmic mapping, which is logarithmic for values far from
+ * 0 in either direction and close to linear near 0, so it can be used for
+ * skewed data with both signs (such as fold changes). Values are first mapped
+ * by sign(x) * log(1 + |x| / c), where c is the width of the roughly linear
+ * region, and the results are mapped linearly to the range.
+ * 
+ * @author Curran Kelleher
+ */
+public class SymlogTransformationMapping implements BulkTransformationMapping {
+	/**
+	 * The width of the region around 0 in which the mapping is roughly linear
+	 */
+	private final double constant;
+
+	/**
+	 * Construct a symlog mapping whose linear region has a width of 1
+	 */
+	public SymlogTransformationMapping() {
+		this(1);
+	}
+
+	/**
+	 * Construct a symlog mapping whose linear region has the specified width
+	 * 
+	 * @param constant
+	 *            the width of the linear region, which must be positive
+	 */
+	public SymlogTransformationMapping(double constant) {
+		if (!(constant > 0))
+			throw new IllegalArgumentException(
+					"the constant of a symlog mapping must be positive");
+		this.constant = constant;
+	}
+
+	/**
+	 * Maps the specified value from the domain to the range
+	 * 
+	 * @param domainValue
+	 *            a value from the domain
+	 * @return the corresponding value in the range
+	 */
+	public double transform(double domainValue, double domainMin,
+			double domainMax, double rangeMin, double rangeMax) {
+		double min = symlog(domainMin, constant);
+		return (symlog(domainValue, constant) - min)
+				/ (symlog(domainMax, constant) - min) * (rangeMax - rangeMin)
+				+ rangeMin;
+	}
+
+	/**
+	 * Maps the specified value from the range to the domain; performs the
+	 * inverse function of transform()
+	 * 
+	 * @param rangeValue
+	 *            a value from the range
+	 * @return the corresponding value in the domain
+	 */
+	public double inverseTransform(double rangeValue, double domainMin,
+			double domainMax, double rangeMin, double rangeMax) {
+		double min = symlog(domainMin, constant);
+		double max = symlog(domainMax, constant);
+		double y = (rangeValue - rangeMin) / (rangeMax - rangeMin)
+				* (max - min) + min;
+		return Math.signum(y) * constant * Math.expm1(Math.abs(y));
+	}
+
+	public TransformationKernel getKernel(double domainMin, double domainMax,
+			double rangeMin, double rangeMax) {
+		final double c = constant;
+		final double min = symlog(domainMin, c);
+		final double scale = (rangeMax - rangeMin)
+				/ (symlog(domainMax, c) - min);
+		final double offset = rangeMin - min * scale;
+		return new TransformationKernel() {
+			public double transform(double domainValue) {
+				return symlog(domainValue, c) * scale + offset;
+			}
+
+			public void transform(double[] domainValues,
+					double[] rangeValues, int from, int to) {
+				for (int i = from; i < to; i++)
+					rangeValues[i] = symlog(domainValues[i], c) * scale
+							+ offset;
+			}
+		};
+	}
+
+	/**
+	 * @return sign(x) * log(1 + |x| / c)
+	 */
+	private static double symlog(double x, double c) {
+		return Math.signum(x) * Math.log1p(Math.abs(x) / c);
+	}
+
+	public boolean equals(Object o) {
+		return o instanceof SymlogTransformationMapping
+				&& ((SymlogTransformationMapping) o).constant == constant;
+	}
+
+	public int hashCode() {
+		long bits = Double.doubleToLongBits(constant);
+		return (int) (bits ^ (bits >>> 32));
+	}
+}
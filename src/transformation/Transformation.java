@@ -110,6 +110,17 @@ public class Transformation {
 		return function.inverseTransform(rangeValue, domain.min, domain.max,
 				range.min, range.max);
 	}
+
+	/**
+	 * Compiles the current state of this transformation into a kernel, which
+	 * is not affected by later changes to this transformation.
+	 * 
+	 * @return an immutable kernel which performs transform()
+	 */
+	public TransformationKernel getKernel() {
+		return TransformationKernel.compile(function, domain.min, domain.max,
+				range.min, range.max);
+	}
 }
 /*
  * CVS Log
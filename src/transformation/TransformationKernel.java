@@ -0,0 +1,93 @@
+/******************************************************************************
+ * Copyright (C) 2007  Institute for Visualization and Perception Research,
+ *                     University of Massachusetts Lowell
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *******************************************************************************/
+package transformation;
+
+/**
+ * An immutable function of one value, compiled from a TransformationMapping
+ * and the bounds of it's domain and range. Unlike a Transformation, a kernel
+ * can not be changed after it is created, so it can be shared by threads,
+ * and it has no intervals or mapping to call through, so applying it in a
+ * loop costs little more than the arithmetic of the mapping. Whole arrays of
+ * values can be transformed at once with transform(double[], double[], int,
+ * int).
+ * 
+ * @author Curran Kelleher
+ * @see Transformation#getKernel()
+ */
+public abstract class TransformationKernel {
+	/**
+	 * Maps the specified value from the domain to the range
+	 * 
+	 * @param domainValue
+	 *            a value from the domain
+	 * @return the corresponding value in the range
+	 */
+	public abstract double transform(double domainValue);
+
+	/**
+	 * Maps the specified values from the domain to the range.
+	 * 
+	 * @param domainValues
+	 *            the values from the domain
+	 * @param rangeValues
+	 *            the array to put the corresponding values in the range in,
+	 *            at the same indices, which may be domainValues itself
+	 * @param from
+	 *            the index of the first value to transform (inclusive)
+	 * @param to
+	 *            the index of the last value to transform (exclusive)
+	 */
+	public void transform(double[] domainValues, double[] rangeValues,
+			int from, int to) {
+		for (int i = from; i < to; i++)
+			rangeValues[i] = transform(domainValues[i]);
+	}
+
+	/**
+	 * Compiles a kernel which maps values from the specified domain to the
+	 * specified range using the specified mapping function. Mappings which
+	 * implement BulkTransformationMapping compile themselves (linear mappings
+	 * into a multiplication and an addition, for example); others are called
+	 * for every value.
+	 * 
+	 * @param function
+	 *            the mapping function
+	 * @param domainMin
+	 *            the minimum value of the domain interval
+	 * @param domainMax
+	 *            the maximum value of the domain interval
+	 * @param rangeMin
+	 *            the minimum value of the range interval
+	 * @param rangeMax
+	 *            the maximum value of the range interval
+	 */
+	public static TransformationKernel compile(
+			final TransformationMapping function, final double domainMin,
+			final double domainMax, final double rangeMin,
+			final double rangeMax) {
+		if (function instanceof BulkTransformationMapping)
+			return ((BulkTransformationMapping) function).getKernel(domainMin,
+					domainMax, rangeMin, rangeMax);
+		return new TransformationKernel() {
+			public double transform(double domainValue) {
+				return function.transform(domainValue, domainMin, domainMax,
+						rangeMin, rangeMax);
+			}
+		};
+	}
+}
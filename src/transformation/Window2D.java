@@ -104,6 +104,68 @@ public class Window2D {
 		return getXPixel(x) - getXPixel(0);
 	}
 
+	/**
+	 * Translates the specified points from coordinate space into pixel space,
+	 * truncating the pixel coordinates to integers the same way as (int)
+	 * getXPixel(x) and (int) getYPixel(y). When the window uses linear
+	 * mappings (the default) this is done in one loop, without a call per
+	 * coordinate.
+	 * 
+	 * @param xs
+	 *            the x values in coordinate space
+	 * @param ys
+	 *            the y values in coordinate space
+	 * @param from
+	 *            the index of the first point to translate
+	 * @param to
+	 *            the index after the last point to translate
+	 * @param xPixels
+	 *            the array to store the x pixels in
+	 * @param yPixels
+	 *            the array to store the y pixels in
+	 */
+	public void getPixels(double[] xs, double[] ys, int from, int to,
+			int[] xPixels, int[] yPixels) {
+		if (xTransformation.function.getClass() == LinearTransformationMapping.class
+				&& yTransformation.function.getClass() == LinearTransformationMapping.class) {
+			// the same arithmetic as LinearTransformationMapping.transform()
+			double xMin = xTransformation.domain.min;
+			double xDomain = xTransformation.domain.max - xMin;
+			double xRange = xTransformation.range.max
+					- xTransformation.range.min;
+			double xRangeMin = xTransformation.range.min;
+			double yMin = yTransformation.domain.min;
+			double yDomain = yTransformation.domain.max - yMin;
+			double yRange = yTransformation.range.max
+					- yTransformation.range.min;
+			double yRangeMin = yTransformation.range.min;
+			for (int i = from; i < to; i++) {
+				xPixels[i] = (int) ((xs[i] - xMin) / xDomain * xRange + xRangeMin);
+				yPixels[i] = (int) ((ys[i] - yMin) / yDomain * yRange + yRangeMin);
+			}
+		} else
+			for (int i = from; i < to; i++) {
+				xPixels[i] = (int) getXPixel(xs[i]);
+				yPixels[i] = (int) getYPixel(ys[i]);
+			}
+	}
+
+	/**
+	 * @return a copy of this window, which does not change when this window
+	 *         does
+	 */
+	public Window2D copy() {
+		Window2D copy = new Window2D();
+		copy.xTransformation = copy(xTransformation);
+		copy.yTransformation = copy(yTransformation);
+		return copy;
+	}
+
+	private static Transformation copy(Transformation t) {
+		return new Transformation(new Interval(t.domain.min, t.domain.max),
+				new Interval(t.range.min, t.range.max), t.function);
+	}
+
 	/**
 	 * Translates an x value from pixel space into coordinate space.
 	 * 